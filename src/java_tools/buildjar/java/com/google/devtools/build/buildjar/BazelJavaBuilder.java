@@ -34,6 +34,9 @@ import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /** The JavaBuilder main called by bazel. */
 public abstract class BazelJavaBuilder {
@@ -55,37 +58,74 @@ public abstract class BazelJavaBuilder {
   }
 
   private static int runPersistentWorker() {
-    while (true) {
-      try {
+    // Requests with a request id are multiplexed: they are processed concurrently, and responded to
+    // as soon as they are done.
+    ExecutorService multiplexExecutor = null;
+    try {
+      while (true) {
         WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
 
         if (request == null) {
           break;
         }
 
-        try (StringWriter sw = new StringWriter();
-            PrintWriter pw = new PrintWriter(sw)) {
-          int exitCode = processRequest(request.getArgumentsList(), pw);
-          WorkResponse.newBuilder()
-              .setOutput(sw.toString())
-              .setExitCode(exitCode)
-              .build()
-              .writeDelimitedTo(System.out);
-          System.out.flush();
+        if (request.getRequestId() != 0) {
+          if (multiplexExecutor == null) {
+            multiplexExecutor = Executors.newCachedThreadPool();
+          }
+          multiplexExecutor.execute(
+              () -> {
+                try {
+                  respond(request);
+                } catch (IOException e) {
+                  e.printStackTrace();
+                }
+              });
+          continue;
+        }
+
+        respond(request);
 
-          // Hint to the system that now would be a good time to run a gc.  After a compile
-          // completes lots of objects should be available for collection and it should be cheap to
-          // collect them.
-          System.gc();
+        // Hint to the system that now would be a good time to run a gc.  After a compile
+        // completes lots of objects should be available for collection and it should be cheap to
+        // collect them.
+        System.gc();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      return 1;
+    } finally {
+      if (multiplexExecutor != null) {
+        // Respond to the requests that are still being processed before exiting.
+        multiplexExecutor.shutdown();
+        try {
+          multiplexExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
         }
-      } catch (IOException e) {
-        e.printStackTrace();
-        return 1;
       }
     }
     return 0;
   }
 
+  /** Processes {@code request} and writes the response to stdout. */
+  private static void respond(WorkRequest request) throws IOException {
+    try (StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw)) {
+      int exitCode = processRequest(request.getArgumentsList(), pw);
+      WorkResponse response =
+          WorkResponse.newBuilder()
+              .setOutput(sw.toString())
+              .setExitCode(exitCode)
+              .setRequestId(request.getRequestId())
+              .build();
+      synchronized (System.out) {
+        response.writeDelimitedTo(System.out);
+        System.out.flush();
+      }
+    }
+  }
+
   public static int processRequest(List<String> args, PrintWriter err) {
     try {
       JavaLibraryBuildRequest build = parse(args);
@@ -42,6 +42,7 @@ import com.google.devtools.build.lib.skyframe.serialization.autocodec.AutoCodec;
 import com.google.devtools.build.lib.skylarkbuildapi.FileApi;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkPrinter;
 import com.google.devtools.build.lib.util.FileType;
+import com.google.devtools.build.lib.vfs.CompactPathFragment;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.skyframe.ShareabilityOfValue;
@@ -126,7 +127,7 @@ public abstract class Artifact
         } else if (b == null) {
           return 1;
         } else {
-          return a.execPath.compareTo(b.execPath);
+          return compareExecPaths(a, b);
         }
       };
 
@@ -145,7 +146,7 @@ public abstract class Artifact
           if (result == 0) {
             // Use the full exec path as a fallback if the root-relative paths are the same, thus
             // avoiding problems when ImmutableSortedMaps are switched from EXEC_PATH_COMPARATOR.
-            return a.execPath.compareTo(b.execPath);
+            return compareExecPaths(a, b);
           } else {
             return result;
           }
@@ -251,9 +252,18 @@ public abstract class Artifact
   /** A Predicate that evaluates to true if the Artifact is not a middleman artifact. */
   public static final Predicate<Artifact> MIDDLEMAN_FILTER = input -> !input.isMiddlemanArtifact();
 
+  /** Whether new artifacts keep their exec paths as {@link CompactPathFragment}s. */
+  private static volatile boolean compactExecPaths = false;
+
   private final int hashCode;
   private final ArtifactRoot root;
-  private final PathFragment execPath;
+
+  /**
+   * The exec path, as a {@link PathFragment} or, if {@link #compactExecPaths} was set when the
+   * artifact was created, as a {@link CompactPathFragment}. Not named execPath, so that codecs read
+   * it through {@link #getExecPath}.
+   */
+  private final Object storedExecPath;
 
   /**
    * Content-based output paths are experimental. Only derived artifacts that are explicitly opted
@@ -274,10 +284,30 @@ public abstract class Artifact
     // changed, OwnerlessArtifactWrapper must also be changed.
     this.hashCode = execPath.hashCode();
     this.root = root;
-    this.execPath = execPath;
+    this.storedExecPath = compactExecPaths ? CompactPathFragment.create(execPath) : execPath;
     this.contentBasedPath = contentBasedPath;
   }
 
+  /**
+   * Sets whether artifacts created from now on keep their exec paths in the compact,
+   * prefix-sharing representation of {@link CompactPathFragment}. That takes less memory when many
+   * artifacts are retained, but {@link #getExecPath} then creates a new {@link PathFragment} on
+   * every call. Existing artifacts keep their representation.
+   */
+  public static void setCompactExecPaths(boolean compactExecPaths) {
+    Artifact.compactExecPaths = compactExecPaths;
+  }
+
+  private static int compareExecPaths(Artifact a, Artifact b) {
+    if (a.storedExecPath instanceof CompactPathFragment
+        && b.storedExecPath instanceof CompactPathFragment) {
+      // Same order as that of PathFragment, without creating PathFragments.
+      return ((CompactPathFragment) a.storedExecPath)
+          .compareTo((CompactPathFragment) b.storedExecPath);
+    }
+    return a.getExecPath().compareTo(b.getExecPath());
+  }
+
   /** An artifact corresponding to a file in the output tree, generated by an {@link Action}. */
   @AutoCodec
   public static class DerivedArtifact extends Artifact {
@@ -494,7 +524,9 @@ public abstract class Artifact
 
   @Override
   public final PathFragment getExecPath() {
-    return execPath;
+    return storedExecPath instanceof CompactPathFragment
+        ? ((CompactPathFragment) storedExecPath).toPathFragment()
+        : (PathFragment) storedExecPath;
   }
 
   @Override
@@ -860,7 +892,15 @@ public abstract class Artifact
   }
 
   final boolean equalsWithoutOwner(Artifact other) {
-    return hashCode == other.hashCode && execPath.equals(other.execPath) && root.equals(other.root);
+    return hashCode == other.hashCode && execPathsEqual(other) && root.equals(other.root);
+  }
+
+  private boolean execPathsEqual(Artifact other) {
+    // Compact exec paths are interned, but the representations differ if the artifacts were
+    // created with different settings of setCompactExecPaths.
+    return storedExecPath.getClass() == other.storedExecPath.getClass()
+        ? storedExecPath.equals(other.storedExecPath)
+        : getExecPath().equals(other.getExecPath());
   }
 
   abstract boolean ownersEqual(Artifact other);
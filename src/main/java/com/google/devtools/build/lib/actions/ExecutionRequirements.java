@@ -160,6 +160,12 @@ public class ExecutionRequirements {
   public static final ImmutableMap<String, String> WORKER_MODE_ENABLED =
       ImmutableMap.of(SUPPORTS_WORKERS, "1");
 
+  /**
+   * If an action supports running in a persistent worker process that works on several requests
+   * at once, telling them apart by their request ids.
+   */
+  public static final String SUPPORTS_MULTIPLEX_WORKERS = "supports-multiplex-workers";
+
   /**
    * Requires local execution without sandboxing for a spawn.
    *
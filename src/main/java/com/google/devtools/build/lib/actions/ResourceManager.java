@@ -29,6 +29,8 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /**
  * Used to keep track of resources consumed by the Blaze action execution threads and throttle them
@@ -52,6 +54,10 @@ import java.util.concurrent.CountDownLatch;
  *     LocalHostCapacity#getLocalHostCapacity} method.
  * </ol>
  *
+ * <p>The resources an action requests are the static estimates of its rule, unless a {@link
+ * ResourceUsageHistory} is set, in which case they are what previous executions of the action
+ * used. Admissions are then also throttled when the system runs low on memory.
+ *
  * <p>The resource manager also allows a slight overallocation of the resources to account for the
  * fact that requested resources are usually estimated using a pessimistic approximation. It also
  * guarantees that at least one thread will always be able to acquire any amount of requested
@@ -140,6 +146,10 @@ public class ResourceManager {
   // Used local test count. Corresponds to the local test count definition in the ResourceSet class.
   private int usedLocalTestCount;
 
+  // RAM in MB that is held outside of any action, e.g. by idle persistent workers, and therefore
+  // not available to actions either. Not reset between builds.
+  private double reservedRam;
+
   // Specifies how much of the RAM in staticResources we should allow to be used.
   public static final int DEFAULT_RAM_UTILIZATION_PERCENTAGE = 67;
   private int ramUtilizationPercentage = DEFAULT_RAM_UTILIZATION_PERCENTAGE;
@@ -147,6 +157,17 @@ public class ResourceManager {
   // Determines if local memory estimates are used.
   private boolean localMemoryEstimate = false;
 
+  // The measured resource usage of previous executions, used instead of the static estimates of
+  // actions if set.
+  @Nullable private volatile ResourceUsageHistory resourceUsageHistory;
+
+  // The memory in MB that the system reported as available at freeRamReadNanos, to not read
+  // /proc/meminfo for each of many waiting requests.
+  private double freeRamMb;
+  private long freeRamReadNanos;
+  private boolean freeRamRead;
+  private static final long FREE_RAM_MAX_AGE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
   private ResourceManager() {
     requestList = new LinkedList<>();
   }
@@ -191,6 +212,19 @@ public class ResourceManager {
     ramUtilizationPercentage = percentage;
   }
 
+  /**
+   * Sets the amount of RAM in MB that is held by processes outside of any action, such as idle
+   * persistent workers. It is subtracted from the RAM available to actions, unless local memory
+   * estimates are used, in which case it is already part of the measured free memory.
+   */
+  public synchronized void setReservedRam(double ramMb) {
+    if (reservedRam == ramMb) {
+      return;
+    }
+    reservedRam = ramMb;
+    processWaitingThreads();
+  }
+
   /**
    * If set to true, then resource acquisition will query the currently available memory, rather
    * than counting it against the fixed maximum size.
@@ -199,6 +233,15 @@ public class ResourceManager {
     localMemoryEstimate = value;
   }
 
+  /**
+   * Sets the measured resource usage of previous executions to estimate the resources of actions
+   * with, or null to use their static estimates. Also makes admissions wait while the system is low
+   * on memory.
+   */
+  public void setResourceUsageHistory(@Nullable ResourceUsageHistory history) {
+    resourceUsageHistory = history;
+  }
+
   /**
    * Acquires requested resource set. Will block if resource is not available.
    * NB! This method must be thread-safe!
@@ -210,6 +253,14 @@ public class ResourceManager {
     Preconditions.checkState(
         !threadHasResources(), "acquireResources with existing resource lock during %s", owner);
 
+    ResourceUsageHistory history = resourceUsageHistory;
+    if (history != null) {
+      ActionOwner actionOwner = owner.getOwner();
+      resources =
+          history.estimate(
+              owner.getMnemonic(), actionOwner != null ? actionOwner.getLabel() : null, resources);
+    }
+
     AutoProfiler p = profiled(owner.describe(), ProfilerTask.ACTION_LOCK);
     CountDownLatch latch = null;
     try {
@@ -391,15 +442,21 @@ public class ResourceManager {
     double availableRam = availableResources.getMemoryMb();
     int availableLocalTestCount = availableResources.getLocalTestCount();
 
-    double remainingRam = availableRam - usedRam;
+    double remainingRam = availableRam - usedRam - reservedRam;
 
-    if (localMemoryEstimate && OS.getCurrent() == OS.LINUX) {
+    if ((localMemoryEstimate || resourceUsageHistory != null) && OS.getCurrent() == OS.LINUX) {
       try {
-        ProcMeminfoParser memInfo = new ProcMeminfoParser();
-        double totalFreeRam = memInfo.getFreeRamKb() / 1024;
+        double totalFreeRam = getFreeRamMb();
         double reserveMemory =
             staticResources.getMemoryMb() * (100.0 - this.ramUtilizationPercentage) / 100.0;
-        remainingRam = totalFreeRam - reserveMemory;
+        if (localMemoryEstimate) {
+          remainingRam = totalFreeRam - reserveMemory;
+        } else {
+          // The measured estimates of running actions are counted against the available RAM as
+          // usual. Memory that is in use outside of them, e.g. by other programs, also keeps
+          // actions from starting.
+          remainingRam = Math.min(remainingRam, totalFreeRam - reserveMemory);
+        }
       } catch (IOException e) {
         // If we get an error trying to determine the currently free system memory for any reason,
         // just continue on.  It is not terribly clear what could cause this, aside from an
@@ -425,6 +482,17 @@ public class ResourceManager {
     return cpuIsAvailable && ramIsAvailable && localTestCountIsAvailable;
   }
 
+  /** Returns the memory in MB that is available according to /proc/meminfo. */
+  private double getFreeRamMb() throws IOException {
+    long now = System.nanoTime();
+    if (!freeRamRead || now - freeRamReadNanos > FREE_RAM_MAX_AGE_NANOS) {
+      freeRamMb = new ProcMeminfoParser().getFreeRamKb() / 1024;
+      freeRamReadNanos = now;
+      freeRamRead = true;
+    }
+    return freeRamMb;
+  }
+
   @VisibleForTesting
   synchronized int getWaitCount() {
     return requestList.size();
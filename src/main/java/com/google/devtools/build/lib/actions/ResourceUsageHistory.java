@@ -0,0 +1,271 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * The memory and CPU that previous local executions of actions used, per mnemonic and per mnemonic
+ * and target, to estimate the resources of their next executions with instead of the static
+ * estimates of their rules.
+ *
+ * <p>The memory measurements are the peak usage of the cgroup of the spawn where it ran in one,
+ * see {@link SpawnResult#getCgroupMemoryPeakKb}, which accounts for all of its processes together.
+ * Otherwise they come from getrusage() in the process-wrapper and the linux-sandbox, see {@link
+ * SpawnResult#getMaximumResidentSetSizeKb}, which is only the peak of the largest process: the
+ * memory of an action that runs several large processes at once is underestimated then. Estimates
+ * follow the measurements with an exponentially weighted moving average, but never go below the
+ * latest measurement, so that an action whose memory usage grows is not admitted with too little.
+ *
+ * <p>Targets that are renamed or deleted would stay in the history forever, so measurements that
+ * weren't updated by the last {@link #MAX_BUILDS_UNSEEN} builds that measured anything are dropped
+ * when the history is written.
+ */
+@ThreadSafe
+public class ResourceUsageHistory {
+
+  /** The weight of a new measurement in the moving average. */
+  private static final double NEW_MEASUREMENT_WEIGHT = 0.3;
+
+  /**
+   * The lowest CPU estimate, as an estimate of zero would mean that the action needs no CPU at all
+   * and never has to wait for it.
+   */
+  private static final double MIN_CPU_USAGE = 0.1;
+
+  /** The lowest memory estimate in MB, for the same reason as {@link #MIN_CPU_USAGE}. */
+  private static final double MIN_MEMORY_MB = 1;
+
+  /** The number of builds after which measurements that none of them updated are dropped. */
+  @VisibleForTesting static final int MAX_BUILDS_UNSEEN = 20;
+
+  private final Map<String, Usage> usageByKey = new ConcurrentHashMap<>();
+  /** The keys whose measurements were updated since the history was last written. */
+  private final Set<String> keysSeen = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean changed = new AtomicBoolean();
+
+  /** The measured usage of one mnemonic or one mnemonic of one target. */
+  private static final class Usage {
+    private final double averageMemoryMb;
+    private final double latestMemoryMb;
+    private final double averageCpuUsage;
+    private final double latestCpuUsage;
+    /** The number of written builds since the last measurement. */
+    private final int buildsUnseen;
+
+    Usage(
+        double averageMemoryMb,
+        double latestMemoryMb,
+        double averageCpuUsage,
+        double latestCpuUsage,
+        int buildsUnseen) {
+      this.averageMemoryMb = averageMemoryMb;
+      this.latestMemoryMb = latestMemoryMb;
+      this.averageCpuUsage = averageCpuUsage;
+      this.latestCpuUsage = latestCpuUsage;
+      this.buildsUnseen = buildsUnseen;
+    }
+
+    Usage add(Usage measurement) {
+      return new Usage(
+          average(averageMemoryMb, measurement.latestMemoryMb),
+          measurement.latestMemoryMb,
+          average(averageCpuUsage, measurement.latestCpuUsage),
+          measurement.latestCpuUsage,
+          /*buildsUnseen=*/ 0);
+    }
+
+    Usage unseen() {
+      return new Usage(
+          averageMemoryMb, latestMemoryMb, averageCpuUsage, latestCpuUsage, buildsUnseen + 1);
+    }
+
+    private static double average(double average, double measurement) {
+      return average * (1 - NEW_MEASUREMENT_WEIGHT) + measurement * NEW_MEASUREMENT_WEIGHT;
+    }
+
+    double getMemoryMb() {
+      return Math.max(MIN_MEMORY_MB, Math.max(averageMemoryMb, latestMemoryMb));
+    }
+
+    double getCpuUsage() {
+      return Math.max(MIN_CPU_USAGE, Math.max(averageCpuUsage, latestCpuUsage));
+    }
+  }
+
+  private static String getKey(String mnemonic, @Nullable Label label) {
+    return label == null ? mnemonic : mnemonic + " " + label;
+  }
+
+  /**
+   * Records the resources that a local execution of a spawn of the action with the given mnemonic
+   * and owner used, if they were measured. The memory is the peak of the cgroup of the spawn if it
+   * is known, else the maximum resident set size of its largest process.
+   */
+  public void record(String mnemonic, @Nullable Label label, SpawnResult result) {
+    Optional<Long> memoryKb =
+        result.getCgroupMemoryPeakKb().isPresent()
+            ? result.getCgroupMemoryPeakKb()
+            : result.getMaximumResidentSetSizeKb();
+    if (result.isCacheHit() || !memoryKb.isPresent() || !result.getWallTime().isPresent()) {
+      return;
+    }
+    long wallMillis = result.getWallTime().get().toMillis();
+    long cpuMillis =
+        result.getUserTime().orElse(Duration.ZERO).toMillis()
+            + result.getSystemTime().orElse(Duration.ZERO).toMillis();
+    double memoryMb = memoryKb.get() / 1024.0;
+    double cpuUsage = wallMillis > 0 ? (double) cpuMillis / wallMillis : 0;
+    Usage measurement = new Usage(memoryMb, memoryMb, cpuUsage, cpuUsage, /*buildsUnseen=*/ 0);
+    merge(getKey(mnemonic, null), measurement);
+    if (label != null) {
+      merge(getKey(mnemonic, label), measurement);
+    }
+    changed.set(true);
+  }
+
+  private void merge(String key, Usage measurement) {
+    usageByKey.merge(key, measurement, Usage::add);
+    keysSeen.add(key);
+  }
+
+  /**
+   * Returns the estimated resources of the next execution of the action with the given mnemonic
+   * and owner: what executions of the same target used if there were any, else what executions of
+   * the mnemonic used, else {@code staticEstimate}. Actions whose static estimate has no memory
+   * and CPU are not throttled by them and keep it.
+   */
+  public ResourceSet estimate(String mnemonic, @Nullable Label label, ResourceSet staticEstimate) {
+    if (staticEstimate.getMemoryMb() == 0 && staticEstimate.getCpuUsage() == 0) {
+      return staticEstimate;
+    }
+    Usage usage = label != null ? usageByKey.get(getKey(mnemonic, label)) : null;
+    if (usage == null) {
+      usage = usageByKey.get(getKey(mnemonic, null));
+    }
+    if (usage == null) {
+      return staticEstimate;
+    }
+    return ResourceSet.create(
+        usage.getMemoryMb(), usage.getCpuUsage(), staticEstimate.getLocalTestCount());
+  }
+
+  @VisibleForTesting
+  int size() {
+    return usageByKey.size();
+  }
+
+  /**
+   * Reads the measurements written by {@link #writeTo}. Returns an empty history if the file
+   * doesn't exist; skips lines it doesn't understand, e.g. of a future format. Lines without the
+   * number of builds since the last measurement count as just measured.
+   */
+  public static ResourceUsageHistory readFrom(Path path) throws IOException {
+    ResourceUsageHistory history = new ResourceUsageHistory();
+    if (!path.exists()) {
+      return history;
+    }
+    Splitter splitter = Splitter.on('\t');
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(path.getInputStream(), UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        List<String> fields = splitter.splitToList(line);
+        if (fields.size() != 5 && fields.size() != 6) {
+          continue;
+        }
+        try {
+          history.usageByKey.put(
+              fields.get(0),
+              new Usage(
+                  Double.parseDouble(fields.get(1)),
+                  Double.parseDouble(fields.get(2)),
+                  Double.parseDouble(fields.get(3)),
+                  Double.parseDouble(fields.get(4)),
+                  fields.size() == 6 ? Integer.parseInt(fields.get(5)) : 0));
+        } catch (NumberFormatException e) {
+          // Skip the line like any other one we don't understand.
+        }
+      }
+    }
+    return history;
+  }
+
+  /**
+   * Writes the measurements to {@code path} if any were recorded since the history was read, one
+   * tab-separated line per mnemonic and per mnemonic and target. Writes a temporary file first, so
+   * that a crash doesn't leave a truncated file behind.
+   *
+   * <p>This ends a build: the measurements that weren't updated since the last write age by one
+   * build, and those that weren't updated by the last {@link #MAX_BUILDS_UNSEEN} builds are
+   * dropped.
+   */
+  public void writeTo(Path path) throws IOException {
+    if (!changed.getAndSet(false)) {
+      return;
+    }
+    for (Map.Entry<String, Usage> entry : usageByKey.entrySet()) {
+      if (keysSeen.contains(entry.getKey())) {
+        continue;
+      }
+      Usage usage = entry.getValue().unseen();
+      if (usage.buildsUnseen > MAX_BUILDS_UNSEEN) {
+        usageByKey.remove(entry.getKey(), entry.getValue());
+      } else {
+        usageByKey.replace(entry.getKey(), entry.getValue(), usage);
+      }
+    }
+    keysSeen.clear();
+    Path tmpPath = path.getParentDirectory().getChild(path.getBaseName() + ".tmp");
+    try {
+      try (Writer writer = new OutputStreamWriter(tmpPath.getOutputStream(), UTF_8)) {
+        for (Map.Entry<String, Usage> entry : usageByKey.entrySet()) {
+          Usage usage = entry.getValue();
+          writer.write(
+              String.format(
+                  "%s\t%s\t%s\t%s\t%s\t%s\n",
+                  entry.getKey(),
+                  usage.averageMemoryMb,
+                  usage.latestMemoryMb,
+                  usage.averageCpuUsage,
+                  usage.latestCpuUsage,
+                  usage.buildsUnseen));
+        }
+      }
+      tmpPath.renameTo(path);
+    } catch (IOException e) {
+      changed.set(true);
+      throw e;
+    }
+  }
+}
@@ -185,6 +185,31 @@ public interface SpawnResult {
    */
   Optional<Long> getNumInvoluntaryContextSwitches();
 
+  /**
+   * Returns the number of voluntary context switches during the {@link Spawn}'s execution.
+   *
+   * @return the measurement, or empty in case of execution errors or when the measurement is not
+   *     implemented for the current platform
+   */
+  Optional<Long> getNumVoluntaryContextSwitches();
+
+  /**
+   * Returns the maximum resident set size in kilobytes of the {@link Spawn}'s processes, i.e. the
+   * peak memory usage of the largest of them.
+   *
+   * @return the measurement, or empty in case of execution errors or when the measurement is not
+   *     implemented for the current platform
+   */
+  Optional<Long> getMaximumResidentSetSizeKb();
+
+  /**
+   * Returns the peak memory in kilobytes charged to the cgroup the {@link Spawn} ran in, which,
+   * unlike {@link #getMaximumResidentSetSizeKb}, includes the page cache of the files it touched.
+   *
+   * @return the measurement, or empty if the spawn did not run in a cgroup of its own
+   */
+  Optional<Long> getCgroupMemoryPeakKb();
+
   SpawnMetrics getMetrics();
 
   /** Whether the spawn result was a cache hit. */
@@ -229,6 +254,9 @@ public interface SpawnResult {
     private final Optional<Long> numBlockOutputOperations;
     private final Optional<Long> numBlockInputOperations;
     private final Optional<Long> numInvoluntaryContextSwitches;
+    private final Optional<Long> numVoluntaryContextSwitches;
+    private final Optional<Long> maximumResidentSetSizeKb;
+    private final Optional<Long> cgroupMemoryPeakKb;
     private final boolean cacheHit;
     private final String failureMessage;
     private final ActionInput inMemoryOutputFile;
@@ -249,6 +277,9 @@ public interface SpawnResult {
       this.numBlockOutputOperations = builder.numBlockOutputOperations;
       this.numBlockInputOperations = builder.numBlockInputOperations;
       this.numInvoluntaryContextSwitches = builder.numInvoluntaryContextSwitches;
+      this.numVoluntaryContextSwitches = builder.numVoluntaryContextSwitches;
+      this.maximumResidentSetSizeKb = builder.maximumResidentSetSizeKb;
+      this.cgroupMemoryPeakKb = builder.cgroupMemoryPeakKb;
       this.cacheHit = builder.cacheHit;
       this.failureMessage = builder.failureMessage;
       this.inMemoryOutputFile = builder.inMemoryOutputFile;
@@ -324,6 +355,21 @@ public interface SpawnResult {
       return numInvoluntaryContextSwitches;
     }
 
+    @Override
+    public Optional<Long> getNumVoluntaryContextSwitches() {
+      return numVoluntaryContextSwitches;
+    }
+
+    @Override
+    public Optional<Long> getMaximumResidentSetSizeKb() {
+      return maximumResidentSetSizeKb;
+    }
+
+    @Override
+    public Optional<Long> getCgroupMemoryPeakKb() {
+      return cgroupMemoryPeakKb;
+    }
+
     @Override
     public boolean isCacheHit() {
       return cacheHit;
@@ -400,6 +446,9 @@ public interface SpawnResult {
     private Optional<Long> numBlockOutputOperations = Optional.empty();
     private Optional<Long> numBlockInputOperations = Optional.empty();
     private Optional<Long> numInvoluntaryContextSwitches = Optional.empty();
+    private Optional<Long> numVoluntaryContextSwitches = Optional.empty();
+    private Optional<Long> maximumResidentSetSizeKb = Optional.empty();
+    private Optional<Long> cgroupMemoryPeakKb = Optional.empty();
     private Optional<MetadataLog> actionMetadataLog = Optional.empty();
     private boolean cacheHit;
     private String failureMessage = "";
@@ -475,6 +524,21 @@ public interface SpawnResult {
       return this;
     }
 
+    public Builder setNumVoluntaryContextSwitches(long numVoluntaryContextSwitches) {
+      this.numVoluntaryContextSwitches = Optional.of(numVoluntaryContextSwitches);
+      return this;
+    }
+
+    public Builder setMaximumResidentSetSizeKb(long maximumResidentSetSizeKb) {
+      this.maximumResidentSetSizeKb = Optional.of(maximumResidentSetSizeKb);
+      return this;
+    }
+
+    public Builder setCgroupMemoryPeakKb(long cgroupMemoryPeakKb) {
+      this.cgroupMemoryPeakKb = Optional.of(cgroupMemoryPeakKb);
+      return this;
+    }
+
     public Builder setCacheHit(boolean cacheHit) {
       this.cacheHit = cacheHit;
       return this;
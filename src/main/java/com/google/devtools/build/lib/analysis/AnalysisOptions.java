@@ -92,6 +92,44 @@ public class AnalysisOptions extends OptionsBase {
   )
   public long versionWindowForDirtyNodeGc;
 
+  @Option(
+      name = "experimental_skyframe_eviction_threshold",
+      defaultValue = "100",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {
+        OptionEffectTag.LOSES_INCREMENTAL_STATE,
+        OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS
+      },
+      help =
+          "If this flag is set to a value less than 100 and, at the end of a build, more than this "
+              + "percentage of the (old gen) heap is still occupied after the last full GC, "
+              + "configured targets and packages that were not needed by any of the last "
+              + "--experimental_skyframe_eviction_build_window builds are discarded from the "
+              + "analysis cache.")
+  public int skyframeEvictionThreshold;
+
+  @Option(
+      name = "experimental_skyframe_eviction_build_window",
+      defaultValue = "3",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.LOSES_INCREMENTAL_STATE},
+      help =
+          "The number of most recent builds whose configured targets and packages are kept when "
+              + "--experimental_skyframe_eviction_threshold is exceeded.")
+  public int skyframeEvictionBuildWindow;
+
+  @Option(
+      name = "experimental_compact_artifact_exec_paths",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "If enabled, artifacts created by this build keep their exec paths in a representation "
+              + "that shares directories with the other artifacts in them. This saves memory when "
+              + "many artifacts are retained, at the cost of creating a path object whenever an "
+              + "exec path is requested.")
+  public boolean compactArtifactExecPaths;
+
   @Deprecated
   @Option(
     name = "experimental_interleave_loading_and_analysis",
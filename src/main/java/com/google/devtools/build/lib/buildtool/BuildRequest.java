@@ -282,6 +282,18 @@ public class BuildRequest implements OptionsProvider {
               + "%d. Only up to %d local tests will run concurrently.", localTestJobs, jobs, jobs));
     }
 
+    int evictionThreshold = getViewOptions().skyframeEvictionThreshold;
+    if (evictionThreshold < 0 || evictionThreshold > 100) {
+      throw new InvalidConfigurationException(
+          "--experimental_skyframe_eviction_threshold must be a percent between 0 and 100 but was "
+              + evictionThreshold);
+    }
+    if (evictionThreshold < 100 && getViewOptions().skyframeEvictionBuildWindow < 1) {
+      throw new InvalidConfigurationException(
+          "--experimental_skyframe_eviction_build_window must be positive but was "
+              + getViewOptions().skyframeEvictionBuildWindow);
+    }
+
     // Validate other BuildRequest options.
     if (getBuildOptions().verboseExplanations && getBuildOptions().explanationPath == null) {
       warnings.add("--verbose_explanations has no effect when --explain=<file> is not enabled");
@@ -17,8 +17,10 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.BuildFailedException;
 import com.google.devtools.build.lib.actions.TestExecException;
+import com.google.devtools.build.lib.analysis.AnalysisOptions;
 import com.google.devtools.build.lib.analysis.AnalysisResult;
 import com.google.devtools.build.lib.analysis.BuildInfoEvent;
 import com.google.devtools.build.lib.analysis.BuildView;
@@ -47,6 +49,10 @@ import com.google.devtools.build.lib.util.ExitCode;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.common.options.OptionsProvider;
 import com.google.devtools.common.options.RegexPatternOption;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -111,6 +117,14 @@ public class BuildTool {
       buildOptions = runtime.createBuildOptions(request);
     }
 
+    AnalysisOptions viewOptions = request.getViewOptions();
+    Artifact.setCompactExecPaths(viewOptions.compactArtifactExecPaths);
+    env.getSkyframeExecutor()
+        .trackRecentBuilds(
+            viewOptions.skyframeEvictionThreshold < 100
+                ? viewOptions.skyframeEvictionBuildWindow
+                : 0);
+
     ExecutionTool executionTool = null;
     boolean catastrophe = false;
     try {
@@ -192,6 +206,10 @@ public class BuildTool {
         if (versionWindow != -1) {
           env.getSkyframeExecutor().deleteOldNodes(versionWindow);
         }
+        if (viewOptions.skyframeEvictionThreshold < 100) {
+          env.getSkyframeExecutor().recordRecentBuild();
+          maybeDiscardUnusedAnalysisNodes(viewOptions.skyframeEvictionThreshold);
+        }
         // The workspace status actions will not run with certain flags, or if an error
         // occurs early in the build. Tell a lie so that the event is not missing.
         // If multiple build_info events are sent, only the first is kept, so this does not harm
@@ -408,6 +426,40 @@ public class BuildTool {
     }
   }
 
+  /**
+   * Discards configured targets and packages that were not needed by recent builds if, after the
+   * last full GC, more than {@code occupiedHeapPercentageThreshold}% of the tenured space is still
+   * occupied. This keeps the rest of the analysis cache when the server is close to its heap limit.
+   */
+  private void maybeDiscardUnusedAnalysisNodes(int occupiedHeapPercentageThreshold) {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      MemoryUsage usage = pool.getCollectionUsage();
+      if (pool.getType() != MemoryType.HEAP
+          || !isTenuredSpace(pool.getName())
+          || usage == null
+          || usage.getMax() <= 0) {
+        continue;
+      }
+      long percentUsed = 100 * usage.getUsed() / usage.getMax();
+      if (percentUsed > occupiedHeapPercentageThreshold) {
+        int discarded = env.getSkyframeExecutor().discardUnusedAnalysisNodes();
+        logger.info(
+            String.format(
+                "Discarding %d unused configured targets and packages: %s%% of the tenured space is"
+                    + " occupied (%s out of %s)",
+                discarded, percentUsed, usage.getUsed(), usage.getMax()));
+        return;
+      }
+    }
+  }
+
+  private static boolean isTenuredSpace(String name) {
+    return "CMS Old Gen".equals(name)
+        || "G1 Old Gen".equals(name)
+        || "PS Old Gen".equals(name)
+        || "Tenured Gen".equals(name);
+  }
+
   private Reporter getReporter() {
     return env.getReporter();
   }
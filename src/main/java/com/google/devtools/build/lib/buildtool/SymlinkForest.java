@@ -15,22 +15,39 @@
 package com.google.devtools.build.lib.buildtool;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.cmdline.LabelConstants;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.cmdline.RepositoryName;
+import com.google.devtools.build.lib.concurrent.ExecutorUtil;
 import com.google.devtools.build.lib.concurrent.ThreadSafety;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.SilentCloseable;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,6 +57,9 @@ public class SymlinkForest {
   private static final Logger logger = Logger.getLogger(SymlinkForest.class.getName());
   private static final boolean LOG_FINER = logger.isLoggable(Level.FINER);
 
+  /** The number of threads that check and plant links. Planting is bound by file system calls. */
+  private static final int NUM_PLANTING_THREADS = 20;
+
   private final ImmutableMap<PackageIdentifier, Root> packageRoots;
   private final Path execroot;
   private final String productName;
@@ -95,43 +115,181 @@ public class SymlinkForest {
     }
   }
 
-  private void plantSymlinkForExternalRepo(
-      RepositoryName repository, Path source, Set<Path> externalRepoLinks) throws IOException {
+  private void plantSymlinksForExternalRepos(Map<Path, Path> externalRepoLinks)
+      throws IOException {
     // For external repositories, create one symlink to each external repository
     // directory.
     // From <output_base>/execroot/<main repo name>/external/<external repo name>
     // to   <output_base>/external/<external repo name>
-    Path execrootLink = execroot.getRelative(repository.getPathUnderExecRoot());
-    if (externalRepoLinks.isEmpty()) {
+    if (!externalRepoLinks.isEmpty()) {
       execroot.getRelative(LabelConstants.EXTERNAL_PACKAGE_NAME).createDirectoryAndParents();
     }
-    if (!externalRepoLinks.add(execrootLink)) {
-      return;
+    for (Map.Entry<Path, Path> entry : externalRepoLinks.entrySet()) {
+      entry.getKey().createSymbolicLink(entry.getValue());
     }
-    execrootLink.createSymbolicLink(source);
   }
 
-  private void plantSymlinkForestWithFullMainRepository(Path mainRepoRoot) throws IOException {
+  private Map<Path, Path> collectLinksForFullMainRepository(Path mainRepoRoot)
+      throws IOException {
     // For the main repo top-level directory, generate symlinks to everything in the directory
     // instead of the directory itself.
+    Map<Path, Path> links = Maps.newLinkedHashMap();
     for (Path target : mainRepoRoot.getDirectoryEntries()) {
       String baseName = target.getBaseName();
-      Path execPath = execroot.getRelative(baseName);
       // Create any links that don't start with bazel-, and ignore external/ directory if
       // user has it in the source tree because it conflicts with external repository location.
       if (!baseName.startsWith(prefix)
           && !baseName.equals(LabelConstants.EXTERNAL_PATH_PREFIX.getBaseName())) {
-        execPath.createSymbolicLink(target);
+        links.put(execroot.getRelative(baseName), target);
       }
     }
+    return links;
   }
 
-  private static void plantSymlinkForestWithPartialMainRepository(Map<Path, Path> mainRepoLinks)
-      throws IOException {
-    for (Map.Entry<Path, Path> entry : mainRepoLinks.entrySet()) {
-      Path link = entry.getKey();
-      Path target = entry.getValue();
-      link.createSymbolicLink(target);
+  /**
+   * Updates the links directly below the exec root to {@code mainRepoLinks}, and those below its
+   * external/ directory to {@code externalRepoLinks}. Both map each link to its target.
+   *
+   * <p>Unlike deleting the forest and planting it again, this keeps the links that already point to
+   * the right target, which on an incremental build are most or all of them. The other entries
+   * that don't start with the product name are deleted, and the missing links are planted. The
+   * links are checked and planted in parallel.
+   */
+  private void plantSymlinkForestIncrementally(
+      Map<Path, Path> mainRepoLinks, Map<Path, Path> externalRepoLinks)
+      throws IOException, InterruptedException {
+    Path externalDir = execroot.getRelative(LabelConstants.EXTERNAL_PACKAGE_NAME);
+    boolean hasExternalRepoLinks = !externalRepoLinks.isEmpty();
+    if (hasExternalRepoLinks) {
+      FileStatus status = externalDir.statIfFound(Symlinks.NOFOLLOW);
+      if (status != null && !status.isDirectory()) {
+        externalDir.delete();
+        status = null;
+      }
+      if (status == null) {
+        externalDir.createDirectoryAndParents();
+      }
+    }
+
+    LinkPlanter planter = new LinkPlanter();
+    try {
+      planter.updateLinksBelow(
+          execroot,
+          mainRepoLinks,
+          baseName ->
+              baseName.startsWith(prefix)
+                  || (hasExternalRepoLinks && baseName.equals(externalDir.getBaseName())));
+      if (hasExternalRepoLinks) {
+        planter.updateLinksBelow(externalDir, externalRepoLinks, baseName -> false);
+      }
+    } finally {
+      planter.awaitTermination();
+    }
+    Map<LinkUpdate, Integer> counts = planter.getCounts();
+    logger.info(
+        String.format(
+            "Updated symlink forest in %s: %d links kept, %d replaced, %d planted, %d entries"
+                + " deleted",
+            execroot,
+            counts.get(LinkUpdate.KEPT),
+            counts.get(LinkUpdate.REPLACED),
+            counts.get(LinkUpdate.PLANTED),
+            counts.get(LinkUpdate.DELETED)));
+  }
+
+  /** What {@link LinkPlanter} did to an entry of the symlink forest. */
+  private enum LinkUpdate {
+    KEPT,
+    REPLACED,
+    PLANTED,
+    DELETED
+  }
+
+  /** Checks and plants the links of the symlink forest on a thread pool. */
+  private static final class LinkPlanter {
+    private final ExecutorService executor =
+        Executors.newFixedThreadPool(
+            NUM_PLANTING_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("SymlinkForest planter %d").build());
+    private final List<Future<LinkUpdate>> updates = new ArrayList<>();
+
+    /**
+     * Schedules the updates that make the entries of {@code dir} match {@code links}, skipping the
+     * entries whose base name {@code isUnmanaged} accepts.
+     */
+    void updateLinksBelow(Path dir, Map<Path, Path> links, Predicate<String> isUnmanaged)
+        throws IOException {
+      Map<Path, Path> missingLinks = Maps.newLinkedHashMap(links);
+      try (SilentCloseable c = Profiler.instance().profile("SymlinkForest.readdir")) {
+        for (Dirent dirent : dir.readdir(Symlinks.NOFOLLOW)) {
+          if (isUnmanaged.test(dirent.getName())) {
+            continue;
+          }
+          Path link = dir.getChild(dirent.getName());
+          Path target = missingLinks.remove(link);
+          boolean isSymlink = dirent.getType() == Dirent.Type.SYMLINK;
+          submit(
+              () -> {
+                if (target != null
+                    && isSymlink
+                    && link.readSymbolicLink().equals(target.asFragment())) {
+                  return LinkUpdate.KEPT;
+                }
+                link.deleteTree();
+                if (target == null) {
+                  return LinkUpdate.DELETED;
+                }
+                link.createSymbolicLink(target);
+                return LinkUpdate.REPLACED;
+              });
+        }
+      }
+      for (Map.Entry<Path, Path> entry : missingLinks.entrySet()) {
+        Path link = entry.getKey();
+        Path target = entry.getValue();
+        submit(
+            () -> {
+              link.createSymbolicLink(target);
+              return LinkUpdate.PLANTED;
+            });
+      }
+    }
+
+    private void submit(Callable<LinkUpdate> update) {
+      updates.add(executor.submit(update));
+    }
+
+    /**
+     * Waits for the scheduled updates and rethrows the first of their failures, if any. If
+     * interrupted, the updates that haven't started yet are cancelled.
+     */
+    void awaitTermination() throws IOException, InterruptedException {
+      try (SilentCloseable c = Profiler.instance().profile("SymlinkForest.updateLinks")) {
+        if (ExecutorUtil.interruptibleShutdown(executor)) {
+          throw new InterruptedException();
+        }
+      }
+      for (Future<LinkUpdate> update : updates) {
+        try {
+          Futures.getDone(update);
+        } catch (ExecutionException e) {
+          Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+          Throwables.throwIfUnchecked(e.getCause());
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+    }
+
+    /** Returns how many entries got each kind of update. Call after {@link #awaitTermination}. */
+    Map<LinkUpdate, Integer> getCounts() {
+      Map<LinkUpdate, Integer> counts = new EnumMap<>(LinkUpdate.class);
+      for (LinkUpdate kind : LinkUpdate.values()) {
+        counts.put(kind, 0);
+      }
+      for (Future<LinkUpdate> update : updates) {
+        counts.merge(Futures.getUnchecked(update), 1, Integer::sum);
+      }
+      return counts;
     }
   }
 
@@ -262,14 +420,17 @@ public class SymlinkForest {
     }
   }
 
-  /** Performs the filesystem operations to plant the symlink forest. */
-  public void plantSymlinkForest() throws IOException {
-    deleteTreesBelowNotPrefixed(execroot, prefix);
-
+  /**
+   * Performs the filesystem operations to plant the symlink forest.
+   *
+   * <p>With a single package path entry, only the links that changed since the previous forest
+   * are replaced. Otherwise the forest is deleted and planted again.
+   */
+  public void plantSymlinkForest() throws IOException, InterruptedException {
     boolean shouldLinkAllTopLevelItems = false;
     Map<Path, Path> mainRepoLinks = Maps.newLinkedHashMap();
     Set<Root> mainRepoRoots = Sets.newLinkedHashSet();
-    Set<Path> externalRepoLinks = Sets.newLinkedHashSet();
+    Map<Path, Path> externalRepoLinks = Maps.newLinkedHashMap();
     Map<PackageIdentifier, Root> packageRootsForMainRepo = Maps.newLinkedHashMap();
 
     for (Map.Entry<PackageIdentifier, Root> entry : packageRoots.entrySet()) {
@@ -305,10 +466,9 @@ public class SymlinkForest {
           mainRepoLinks.putIfAbsent(execrootLink, sourcePath);
         }
       } else {
-        plantSymlinkForExternalRepo(
-            repository,
-            entry.getValue().getRelative(repository.getSourceRoot()),
-            externalRepoLinks);
+        externalRepoLinks.putIfAbsent(
+            execroot.getRelative(repository.getPathUnderExecRoot()),
+            entry.getValue().getRelative(repository.getSourceRoot()));
       }
     }
 
@@ -317,15 +477,17 @@ public class SymlinkForest {
     // removed in the future, we should remove the plantSymlinkForestMultiPackagePath
     // implementation when --package_path is gone.
     if (mainRepoRoots.size() > 1) {
+      deleteTreesBelowNotPrefixed(execroot, prefix);
+      plantSymlinksForExternalRepos(externalRepoLinks);
       plantSymlinkForestMultiPackagePath(packageRootsForMainRepo);
-    } else if (shouldLinkAllTopLevelItems) {
-      Path mainRepoRoot = Iterables.getOnlyElement(mainRepoRoots).asPath();
-      plantSymlinkForestWithFullMainRepository(mainRepoRoot);
+      logger.info("Planted symlink forest in " + execroot);
     } else {
-      plantSymlinkForestWithPartialMainRepository(mainRepoLinks);
+      if (shouldLinkAllTopLevelItems) {
+        Path mainRepoRoot = Iterables.getOnlyElement(mainRepoRoots).asPath();
+        mainRepoLinks = collectLinksForFullMainRepository(mainRepoRoot);
+      }
+      plantSymlinkForestIncrementally(mainRepoLinks, externalRepoLinks);
     }
-
-    logger.info("Planted symlink forest in " + execroot);
   }
 
   private static PackageIdentifier createInRepo(
@@ -380,6 +380,20 @@ public class ExecutionOptions extends OptionsBase {
   )
   public boolean localMemoryEstimate;
 
+  @Option(
+      name = "experimental_local_resource_feedback",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If enabled, local actions are scheduled with the memory and CPU that previous local "
+              + "executions of the same target, or else of the same mnemonic, used instead of the "
+              + "fixed estimates of their rules, and no more actions are started while the system "
+              + "is low on memory. The usage is measured by the process-wrapper and the "
+              + "linux-sandbox, see --experimental_collect_local_action_metrics, and kept in the "
+              + "output base across server restarts.")
+  public boolean localResourceFeedback;
+
   @Option(
       name = "local_test_jobs",
       defaultValue = "auto",
@@ -485,6 +499,16 @@ public class ExecutionOptions extends OptionsBase {
               + "test log. Otherwise, Bazel generates a test.xml as part of the test action.")
   public boolean splitXmlGeneration;
 
+  @Option(
+      name = "experimental_inprocess_symlink_creation",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If set, runfiles trees are created and updated by Bazel itself instead of by the "
+              + "build-runfiles tool. Only the entries that changed are updated, in parallel.")
+  public boolean inprocessSymlinkCreation;
+
   /** Converter for the --flaky_test_attempts option. */
   public static class TestAttemptsConverter extends PerLabelOptions.PerLabelOptionsConverter {
     private static final int MIN_VALUE = 1;
@@ -40,9 +40,13 @@ import javax.annotation.concurrent.ThreadSafe;
 @ThreadSafe
 public class RunfilesTreeUpdater {
 
-  public static final RunfilesTreeUpdater INSTANCE = new RunfilesTreeUpdater();
+  public static final RunfilesTreeUpdater INSTANCE = new RunfilesTreeUpdater(false);
 
-  private final Object lock = new Object();
+  /** Like {@link #INSTANCE}, but creates runfiles trees in-process instead of with a tool. */
+  private static final RunfilesTreeUpdater INPROCESS_INSTANCE = new RunfilesTreeUpdater(true);
+
+  // The locks are shared by both instances, since they update the same runfiles trees.
+  private static final Object lock = new Object();
 
   private static final class LockWithRefcnt {
     int refcnt = 1;
@@ -56,18 +60,31 @@ public class RunfilesTreeUpdater {
    * is removed.
    */
   @GuardedBy("lock")
-  private final Map<PathFragment, LockWithRefcnt> locksWithRefcnt = new HashMap<>();
+  private static final Map<PathFragment, LockWithRefcnt> locksWithRefcnt = new HashMap<>();
+
+  private final boolean inprocessSymlinkCreation;
+
+  private RunfilesTreeUpdater(boolean inprocessSymlinkCreation) {
+    this.inprocessSymlinkCreation = inprocessSymlinkCreation;
+  }
 
-  private RunfilesTreeUpdater() {}
+  /**
+   * Returns the updater for the given options.
+   *
+   * @see ExecutionOptions#inprocessSymlinkCreation
+   */
+  public static RunfilesTreeUpdater forOptions(ExecutionOptions options) {
+    return options.inprocessSymlinkCreation ? INPROCESS_INSTANCE : INSTANCE;
+  }
 
-  private static void updateRunfilesTree(
+  private void updateRunfilesTree(
       Path execRoot,
       PathFragment runfilesDir,
       BinTools binTools,
       ImmutableMap<String, String> env,
       OutErr outErr,
       boolean enableRunfiles)
-      throws IOException, ExecException {
+      throws IOException, ExecException, InterruptedException {
     Path runfilesDirPath = execRoot.getRelative(runfilesDir);
     Path inputManifest = RunfilesSupport.inputManifestPath(runfilesDirPath);
     if (!inputManifest.exists()) {
@@ -94,7 +111,8 @@ public class RunfilesTreeUpdater {
 
     SymlinkTreeHelper helper =
         new SymlinkTreeHelper(inputManifest, runfilesDirPath, /* filesetTree= */ false);
-    helper.createSymlinks(execRoot, outErr, binTools, env, enableRunfiles);
+    helper.createSymlinks(
+        execRoot, outErr, binTools, env, enableRunfiles, inprocessSymlinkCreation);
   }
 
   private LockWithRefcnt getLockAndIncrementRefcnt(PathFragment runfilesDirectory) {
@@ -131,7 +149,7 @@ public class RunfilesTreeUpdater {
       BinTools binTools,
       ImmutableMap<String, String> env,
       OutErr outErr)
-      throws ExecException, IOException {
+      throws ExecException, IOException, InterruptedException {
     for (Map.Entry<PathFragment, Map<PathFragment, Artifact>> runfiles :
         runfilesSupplier.getMappings(pathResolver).entrySet()) {
       PathFragment runfilesDir = runfiles.getKey();
@@ -13,22 +13,39 @@
 // limitations under the License.
 package com.google.devtools.build.lib.exec;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
+import com.google.devtools.build.lib.concurrent.ErrorClassifier;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.SilentCloseable;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
 import com.google.devtools.build.lib.util.CommandBuilder;
 import com.google.devtools.build.lib.util.CommandUtils;
 import com.google.devtools.build.lib.util.OsUtils;
 import com.google.devtools.build.lib.util.io.OutErr;
+import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.IORuntimeException;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Helper class responsible for the symlink tree creation. Used to generate runfiles and fileset
@@ -38,6 +55,12 @@ public final class SymlinkTreeHelper {
   @VisibleForTesting
   public static final String BUILD_RUNFILES = "build-runfiles" + OsUtils.executableExtension();
 
+  /** The number of threads that update a symlink tree in-process. */
+  private static final int NUM_UPDATER_THREADS = 20;
+
+  /** The number of entries of a directory that an in-process update task checks or creates. */
+  private static final int ENTRIES_PER_TASK = 100;
+
   private final Path inputManifest;
   private final Path symlinkTreeRoot;
   private final boolean filesetTree;
@@ -85,18 +108,29 @@ public final class SymlinkTreeHelper {
   }
 
   /**
-   * Creates symlink tree and output manifest using the {@code build-runfiles.cc} tool.
+   * Creates symlink tree and output manifest using the {@code build-runfiles.cc} tool, or
+   * in-process.
    *
    * @param enableRunfiles If {@code false} only the output manifest is created.
+   * @param inprocessSymlinkCreation If {@code true}, runfiles trees are created with {@link
+   *     #createSymlinksDirectly} instead of the tool. Fileset trees always use the tool.
    */
   public void createSymlinks(
       Path execRoot,
       OutErr outErr,
       BinTools binTools,
       ImmutableMap<String, String> shellEnvironment,
-      boolean enableRunfiles)
-      throws ExecException {
-    if (enableRunfiles) {
+      boolean enableRunfiles,
+      boolean inprocessSymlinkCreation)
+      throws ExecException, InterruptedException {
+    if (enableRunfiles && inprocessSymlinkCreation && !filesetTree) {
+      try {
+        createSymlinksDirectly();
+      } catch (IOException e) {
+        throw new EnvironmentalExecException(
+            "Failed to create runfiles tree " + symlinkTreeRoot + ": " + e.getMessage(), e);
+      }
+    } else if (enableRunfiles) {
       try {
         createSymlinksUsingCommand(execRoot, binTools, shellEnvironment, outErr);
       } catch (CommandException e) {
@@ -113,6 +147,199 @@ public final class SymlinkTreeHelper {
     }
   }
 
+  /**
+   * Creates the runfiles tree in-process, without running {@code build-runfiles}, and then copies
+   * the input manifest to the output manifest.
+   *
+   * <p>Like {@code build-runfiles}, this only changes the entries of the tree that differ from the
+   * input manifest, so that updating a large tree after a small change is cheap. Unlike it, the
+   * directories of the tree are checked and updated in parallel.
+   *
+   * <p>Each line of the manifest is a path relative to the root of the tree, a space, and the
+   * absolute path that the symlink at that path points to. An empty target stands for an empty
+   * file.
+   */
+  public void createSymlinksDirectly() throws IOException, InterruptedException {
+    Preconditions.checkState(!filesetTree, "Fileset trees are created by %s", BUILD_RUNFILES);
+    Directory root;
+    try (SilentCloseable c = Profiler.instance().profile("SymlinkTreeHelper.readManifest")) {
+      root = readManifest();
+    }
+    Path outputManifest = symlinkTreeRoot.getChild("MANIFEST");
+    Path tempManifest = symlinkTreeRoot.getChild("MANIFEST.tmp");
+    // The output manifest tells that the tree is up to date, so remove it while updating the tree.
+    symlinkTreeRoot.createDirectoryAndParents();
+    outputManifest.delete();
+    try (SilentCloseable c = Profiler.instance().profile("SymlinkTreeHelper.updateTree")) {
+      new TreeUpdater().update(symlinkTreeRoot, root);
+    }
+    FileSystemUtils.copyFile(inputManifest, tempManifest);
+    tempManifest.renameTo(outputManifest);
+  }
+
+  private Directory readManifest() throws IOException {
+    Directory root = new Directory();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(inputManifest.getInputStream(), ISO_8859_1))) {
+      int lineNumber = 0;
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        lineNumber++;
+        int space = line.indexOf(' ');
+        if (space < 0 || line.indexOf(' ', space + 1) >= 0) {
+          throw new IOException(
+              String.format(
+                  "%s:%d: expected a path and a target separated by a space: '%s'",
+                  inputManifest, lineNumber, line));
+        }
+        PathFragment link = PathFragment.create(line.substring(0, space));
+        String target = line.substring(space + 1);
+        if (link.isEmpty()
+            || link.isAbsolute()
+            || link.containsUplevelReferences()
+            || (!target.isEmpty() && !PathFragment.create(target).isAbsolute())) {
+          throw new IOException(
+              String.format(
+                  "%s:%d: expected a relative path and an absolute target: '%s'",
+                  inputManifest, lineNumber, line));
+        }
+        Directory directory = root;
+        for (int i = 0; i < link.segmentCount() - 1; i++) {
+          directory = directory.getOrCreateDirectory(link.getSegment(i), link);
+        }
+        directory.addFile(link.getBaseName(), PathFragment.create(target), link);
+      }
+    }
+    return root;
+  }
+
+  /** A directory of a runfiles tree, as described by its input manifest. */
+  private static final class Directory {
+    /**
+     * The targets of the symlinks in the directory by name. Empty files map to the empty
+     * fragment.
+     */
+    private final Map<String, PathFragment> files = new HashMap<>();
+
+    private final Map<String, Directory> directories = new HashMap<>();
+
+    private Directory getOrCreateDirectory(String name, PathFragment link) throws IOException {
+      if (files.containsKey(name)) {
+        throw new IOException("'" + link + "' is below a file in the runfiles manifest");
+      }
+      return directories.computeIfAbsent(name, k -> new Directory());
+    }
+
+    private void addFile(String name, PathFragment target, PathFragment link) throws IOException {
+      if (directories.containsKey(name)) {
+        throw new IOException("'" + link + "' is a directory in the runfiles manifest");
+      }
+      files.put(name, target);
+    }
+  }
+
+  /** An update to a single entry of a symlink tree. */
+  @FunctionalInterface
+  private interface EntryUpdate {
+    void run() throws IOException;
+  }
+
+  /**
+   * Updates a symlink tree to match its manifest. Each directory is updated in a task of its own,
+   * and the files in it in tasks of up to {@link #ENTRIES_PER_TASK} entries.
+   */
+  private static final class TreeUpdater extends AbstractQueueVisitor {
+    private TreeUpdater() {
+      super(
+          NUM_UPDATER_THREADS,
+          /*keepAliveTime=*/ 1,
+          TimeUnit.SECONDS,
+          /*failFastOnException=*/ true,
+          "symlink-tree-updater",
+          ErrorClassifier.DEFAULT);
+    }
+
+    private void update(Path root, Directory directory) throws IOException, InterruptedException {
+      execute(() -> updateDirectory(root, directory));
+      try {
+        awaitQuiescence(/*interruptWorkers=*/ true);
+      } catch (IORuntimeException e) {
+        throw e.getCauseIOException();
+      }
+    }
+
+    private void updateDirectory(Path dir, Directory directory) {
+      try {
+        // Like build-runfiles, make sure that the entries of the directory can be changed.
+        dir.chmod(0755);
+        Map<String, PathFragment> missingFiles = new HashMap<>(directory.files);
+        Map<String, Directory> missingDirectories = new HashMap<>(directory.directories);
+        List<EntryUpdate> updates = new ArrayList<>();
+        for (Dirent dirent : dir.readdir(Symlinks.NOFOLLOW)) {
+          Path path = dir.getChild(dirent.getName());
+          Dirent.Type type = dirent.getType();
+          PathFragment target = missingFiles.remove(dirent.getName());
+          Directory subdirectory = missingDirectories.remove(dirent.getName());
+          if (target != null) {
+            updates.add(() -> updateFile(path, type, target));
+          } else if (subdirectory != null) {
+            if (type != Dirent.Type.DIRECTORY) {
+              path.delete();
+              path.createDirectory();
+            }
+            execute(() -> updateDirectory(path, subdirectory));
+          } else {
+            updates.add(path::deleteTree);
+          }
+        }
+        for (Map.Entry<String, PathFragment> file : missingFiles.entrySet()) {
+          Path path = dir.getChild(file.getKey());
+          updates.add(() -> createFile(path, file.getValue()));
+        }
+        for (Map.Entry<String, Directory> subdirectory : missingDirectories.entrySet()) {
+          Path path = dir.getChild(subdirectory.getKey());
+          path.createDirectory();
+          execute(() -> updateDirectory(path, subdirectory.getValue()));
+        }
+        for (List<EntryUpdate> batch : Lists.partition(updates, ENTRIES_PER_TASK)) {
+          execute(() -> runUpdates(batch));
+        }
+      } catch (IOException e) {
+        throw new IORuntimeException(e);
+      }
+    }
+
+    private static void runUpdates(List<EntryUpdate> updates) {
+      try {
+        for (EntryUpdate update : updates) {
+          update.run();
+        }
+      } catch (IOException e) {
+        throw new IORuntimeException(e);
+      }
+    }
+
+    private static void updateFile(Path path, Dirent.Type type, PathFragment target)
+        throws IOException {
+      // Like build-runfiles, don't check whether an existing file is empty.
+      if (target.isEmpty()
+          ? type == Dirent.Type.FILE
+          : type == Dirent.Type.SYMLINK && path.readSymbolicLink().equals(target)) {
+        return;
+      }
+      path.deleteTree();
+      createFile(path, target);
+    }
+
+    private static void createFile(Path path, PathFragment target) throws IOException {
+      if (target.isEmpty()) {
+        FileSystemUtils.createEmptyFile(path);
+        path.chmod(0555);
+      } else {
+        path.createSymbolicLink(target);
+      }
+    }
+  }
+
   @VisibleForTesting
   Command createCommand(
       Path execRoot, BinTools binTools, ImmutableMap<String, String> shellEnvironment) {
@@ -67,12 +67,15 @@ public final class SymlinkTreeStrategy implements SymlinkTreeActionContext {
                       .getInputPath(action.getOutputManifest())
                       .getParentDirectory(),
                   action.isFilesetTree());
+          ExecutionOptions executionOptions =
+              actionExecutionContext.getOptions().getOptions(ExecutionOptions.class);
           helper.createSymlinks(
               actionExecutionContext.getExecRoot(),
               actionExecutionContext.getFileOutErr(),
               binTools,
               shellEnvironment,
-              enableRunfiles);
+              enableRunfiles,
+              executionOptions != null && executionOptions.inprocessSymlinkCreation);
         }
       } catch (ExecException e) {
         throw e.toActionExecutionException(
@@ -51,15 +51,54 @@ public class LocalExecutionOptions extends OptionsBase {
 
   @Option(
     name = "experimental_collect_local_action_metrics",
-    defaultValue = "false",
+    defaultValue = "true",
     documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
     effectTags = {OptionEffectTag.EXECUTION},
     help =
-        "When enabled, execution statistics (such as user and system time) are recorded for "
-            + "locally executed actions which don't use sandboxing"
+        "When enabled (the default), execution statistics (such as user and system time, peak "
+            + "memory, block I/O and context switches) are recorded for locally executed actions "
+            + "which don't use sandboxing"
   )
   public boolean collectLocalExecutionStatistics;
 
+  @Option(
+      name = "experimental_posix_spawn",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If enabled, local and sandboxed actions and all other subprocesses of the server are "
+              + "started with posix_spawn(3) from native code instead of java.lang.ProcessBuilder, "
+              + "which is faster with many parallel jobs. Only has an effect on platforms whose "
+              + "posix_spawn(3) supports it, e.g. Linux with glibc 2.34 or later and macOS.")
+  public boolean usePosixSpawn;
+
+  @Option(
+      name = "experimental_local_cgroups",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If enabled, local and linux-sandbox actions run in a cgroup v2 cgroup of their own "
+              + "below the cgroup of the server, with a CPU weight proportional to their "
+              + "estimated CPU usage, and the CPU time and peak memory accounted in the cgroup "
+              + "are reported as their resource usage. Only has an effect on Linux if the cgroup "
+              + "of the server is delegated to the user running it, e.g. if the server was "
+              + "started with 'systemd-run --user --scope -p Delegate=yes'.")
+  public boolean useCgroups;
+
+  @Option(
+      name = "experimental_local_cgroups_memory_limit_factor",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "With --experimental_local_cgroups, limits the memory of each action to its estimated "
+              + "memory times this factor, so that the kernel kills an action that uses much more "
+              + "memory than estimated instead of driving the machine into swap. 0 means no "
+              + "limit.")
+  public double cgroupsMemoryLimitFactor;
+
   public Duration getLocalSigkillGraceSeconds() {
     // TODO(ulfjack): Change localSigkillGraceSeconds type to Duration.
     return Duration.ofSeconds(localSigkillGraceSeconds);
@@ -320,6 +320,7 @@ public class LocalSpawnRunner implements SpawnRunner {
 
       Path tmpDir = createActionTemp(execRoot);
       Path statisticsPath = null;
+      SpawnCgroups.Cgroup cgroup = null;
       try {
         Path commandTmpDir = tmpDir.getRelative("work");
         commandTmpDir.createDirectory();
@@ -346,6 +347,16 @@ public class LocalSpawnRunner implements SpawnRunner {
             statisticsPath = tmpDir.getRelative("stats.out");
             commandLineBuilder.setStatisticsPath(statisticsPath);
           }
+          SpawnCgroups cgroups =
+              localExecutionOptions.useCgroups ? SpawnCgroups.getInstance() : null;
+          if (cgroups != null) {
+            cgroup =
+                cgroups.createCgroup(
+                    spawn.getLocalResources(), localExecutionOptions.cgroupsMemoryLimitFactor);
+            if (cgroup != null) {
+              commandLineBuilder.setCgroupPath(cgroup.getPath());
+            }
+          }
           args = commandLineBuilder.build();
         } else {
           subprocessBuilder.setTimeoutMillis(context.getTimeout().toMillis());
@@ -418,10 +429,24 @@ public class LocalSpawnRunner implements SpawnRunner {
                         resourceUsage.getBlockInputOperations());
                     spawnResultBuilder.setNumInvoluntaryContextSwitches(
                         resourceUsage.getInvoluntaryContextSwitches());
+                    spawnResultBuilder.setNumVoluntaryContextSwitches(
+                        resourceUsage.getVoluntaryContextSwitches());
+                    spawnResultBuilder.setMaximumResidentSetSizeKb(
+                        resourceUsage.getMaximumResidentSetSizeKb());
                   });
         }
+        if (cgroup != null) {
+          cgroup.setResourceUsage(spawnResultBuilder);
+          String oomKillMessage = cgroup.getOomKillMessage();
+          if (oomKillMessage != null) {
+            outErr.getErrorStream().write((oomKillMessage + "\n").getBytes(UTF_8));
+          }
+        }
         return spawnResultBuilder.build();
       } finally {
+        if (cgroup != null) {
+          cgroup.close();
+        }
         // Delete the temp directory tree, so the next action that this thread executes will get a
         // fresh, empty temp directory.
         // File deletion tends to be slow on Windows, so deleting this tree may take several
@@ -0,0 +1,345 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec.local;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.SpawnResult;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.util.ProcessUtils;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * The cgroup v2 cgroups that local and sandboxed spawns run in with --experimental_local_cgroups,
+ * one per spawn below the cgroup of the server.
+ *
+ * <p>The cgroup of a spawn gets a CPU weight proportional to its estimated CPU usage and, with
+ * --experimental_local_cgroups_memory_limit_factor, a memory limit, so that a spawn that uses much
+ * more memory than estimated is killed instead of driving the machine into swap. The kernel also
+ * accounts for the CPU time and memory of all processes of the spawn in the cgroup, including the
+ * ones that getrusage() in the process-wrapper misses because nobody waits for them.
+ *
+ * <p>The kernel only lets a cgroup distribute controllers to its children if it has no processes
+ * of its own. If the server is the only process in its cgroup, it moves itself into a child cgroup
+ * "server" next to the ones of the spawns to make that possible.
+ */
+@ThreadSafe
+public final class SpawnCgroups {
+
+  private static final Logger logger = Logger.getLogger(SpawnCgroups.class.getName());
+
+  /** The controllers that the cgroups of spawns use, if they are available. */
+  private static final ImmutableList<String> CONTROLLERS = ImmutableList.of("memory", "cpu");
+
+  private static final String SERVER_CGROUP = "server";
+  private static final String SPAWN_CGROUP_PREFIX = "spawn-";
+
+  /** The CPU weight of a cgroup that doesn't set one, see cgroup-v2.rst. */
+  private static final double DEFAULT_CPU_WEIGHT = 100;
+
+  @GuardedBy("SpawnCgroups.class")
+  @Nullable
+  private static SpawnCgroups instance;
+
+  // A failed set-up may have moved the server already, so it is not retried.
+  @GuardedBy("SpawnCgroups.class")
+  @Nullable
+  private static String setUpFailure;
+
+  private final Path root;
+  private final ImmutableSet<String> controllers;
+  private final AtomicLong nextId = new AtomicLong();
+
+  private SpawnCgroups(Path root, ImmutableSet<String> controllers) {
+    this.root = root;
+    this.controllers = controllers;
+  }
+
+  /**
+   * Sets up the cgroups of spawns below the cgroup of this server, unless that was done by a
+   * previous command already.
+   *
+   * @throws IOException if cgroup v2 can't be used, with the reason as its message
+   */
+  public static synchronized void setUp(FileSystem fileSystem) throws IOException {
+    if (instance != null) {
+      return;
+    }
+    if (setUpFailure == null) {
+      try {
+        if (OS.getCurrent() != OS.LINUX) {
+          throw new IOException("cgroups are only supported on Linux");
+        }
+        instance =
+            create(
+                fileSystem.getPath("/proc/self/cgroup"),
+                fileSystem.getPath("/sys/fs/cgroup"),
+                ProcessUtils.getpid());
+        logger.info("Running local spawns in cgroups below " + instance.root);
+        return;
+      } catch (IOException e) {
+        setUpFailure = e.getMessage();
+      }
+    }
+    throw new IOException(setUpFailure);
+  }
+
+  /** Returns the cgroups of spawns if {@link #setUp} succeeded, else null. */
+  @Nullable
+  public static synchronized SpawnCgroups getInstance() {
+    return instance;
+  }
+
+  @VisibleForTesting
+  static SpawnCgroups create(Path procSelfCgroup, Path mountPoint, int pid) throws IOException {
+    String cgroup = null;
+    for (String line : FileSystemUtils.readLines(procSelfCgroup, UTF_8)) {
+      // The cgroup v2 hierarchy has the ID 0 and no controller names.
+      if (line.startsWith("0::/")) {
+        cgroup = line.substring("0::/".length());
+      }
+    }
+    if (cgroup == null) {
+      throw new IOException("the server is not in a cgroup v2 hierarchy");
+    }
+    Path root = mountPoint.getRelative(cgroup);
+    Path controllersFile = root.getChild("cgroup.controllers");
+    if (!controllersFile.exists()) {
+      throw new IOException("cgroup v2 is not mounted at " + mountPoint);
+    }
+    ImmutableSet<String> available =
+        ImmutableSet.copyOf(
+            Splitter.on(' ')
+                .omitEmptyStrings()
+                .split(FileSystemUtils.readContent(controllersFile, UTF_8).trim()));
+    ImmutableSet.Builder<String> controllers = ImmutableSet.builder();
+    for (String controller : CONTROLLERS) {
+      if (available.contains(controller)) {
+        controllers.add(controller);
+      }
+    }
+    if (controllers.build().isEmpty()) {
+      throw new IOException("neither the memory nor the cpu controller is available in " + root);
+    }
+    if (!root.getChild("cgroup.subtree_control").isWritable()) {
+      throw new IOException(root + " is not delegated to the user running the server");
+    }
+
+    try {
+      enableControllers(root, controllers.build());
+    } catch (IOException e) {
+      List<String> processes =
+          ImmutableList.copyOf(FileSystemUtils.readLines(root.getChild("cgroup.procs"), UTF_8));
+      if (!processes.equals(ImmutableList.of(Integer.toString(pid)))) {
+        throw new IOException(
+            "controllers can't be enabled for the children of "
+                + root
+                + ", which has other processes than the server: "
+                + e.getMessage(),
+            e);
+      }
+      Path serverCgroup = root.getChild(SERVER_CGROUP);
+      serverCgroup.createDirectory();
+      FileSystemUtils.writeContent(
+          serverCgroup.getChild("cgroup.procs"), UTF_8, Integer.toString(pid));
+      enableControllers(root, controllers.build());
+    }
+
+    // Remove the cgroups that spawns of a previous server left behind, see Cgroup#close.
+    for (Path child : root.getDirectoryEntries()) {
+      if (child.getBaseName().startsWith(SPAWN_CGROUP_PREFIX)) {
+        new Cgroup(child, 0).close();
+      }
+    }
+    return new SpawnCgroups(root, controllers.build());
+  }
+
+  private static void enableControllers(Path cgroup, ImmutableSet<String> controllers)
+      throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (String controller : controllers) {
+      content.append(content.length() == 0 ? "+" : " +").append(controller);
+    }
+    FileSystemUtils.writeContent(
+        cgroup.getChild("cgroup.subtree_control"), UTF_8, content.toString());
+  }
+
+  /**
+   * Creates the cgroup of a spawn with the given estimated resources. If {@code
+   * memoryLimitFactor} and the estimated memory are positive, limits the memory of the spawn to
+   * their product.
+   *
+   * <p>Callers pass the static {@code Spawn#getLocalResources()} rather than what the resource
+   * manager admitted the spawn with: the estimates of --experimental_local_resource_feedback follow
+   * what earlier runs measured, so a limit derived from them would kill a spawn that needs more
+   * than last time and make whether a build succeeds depend on its history.
+   *
+   * @return the cgroup, or null if it can't be created, in which case the spawn runs without one
+   */
+  @Nullable
+  public Cgroup createCgroup(ResourceSet resources, double memoryLimitFactor) {
+    Path path = root.getChild(SPAWN_CGROUP_PREFIX + nextId.incrementAndGet());
+    long memoryLimitMb =
+        controllers.contains("memory") && memoryLimitFactor > 0
+            ? (long) Math.ceil(resources.getMemoryMb() * memoryLimitFactor)
+            : 0;
+    Cgroup cgroup = new Cgroup(path, memoryLimitMb);
+    try {
+      path.createDirectory();
+      if (controllers.contains("cpu") && resources.getCpuUsage() > 0) {
+        write(path.getChild("cpu.weight"), Long.toString(getCpuWeight(resources.getCpuUsage())));
+      }
+      if (memoryLimitMb > 0) {
+        write(path.getChild("memory.max"), Long.toString(memoryLimitMb * 1024 * 1024));
+        // Swapping the spawn out at its limit would slow it down just like swapping the machine.
+        Path swapMax = path.getChild("memory.swap.max");
+        if (swapMax.exists()) {
+          write(swapMax, "0");
+        }
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot create cgroup " + path, e);
+      cgroup.close();
+      return null;
+    }
+    return cgroup;
+  }
+
+  /** Returns the CPU weight of a cgroup whose processes are estimated to use the given CPUs. */
+  @VisibleForTesting
+  static long getCpuWeight(double cpuUsage) {
+    // The valid range of cpu.weight.
+    return Math.max(1, Math.min(10000, Math.round(cpuUsage * DEFAULT_CPU_WEIGHT)));
+  }
+
+  private static void write(Path path, String content) throws IOException {
+    FileSystemUtils.writeContent(path, UTF_8, content);
+  }
+
+  /** Parses a flat keyed file of the cgroup interface, e.g. cpu.stat. */
+  private static ImmutableMap<String, Long> readKeyedValues(Path path) throws IOException {
+    ImmutableMap.Builder<String, Long> values = ImmutableMap.builder();
+    for (String line : FileSystemUtils.readLines(path, UTF_8)) {
+      List<String> fields = Splitter.on(' ').splitToList(line);
+      if (fields.size() == 2) {
+        values.put(fields.get(0), Long.parseLong(fields.get(1)));
+      }
+    }
+    return values.build();
+  }
+
+  /** The cgroup of one spawn, which is removed when closed. */
+  public static final class Cgroup implements AutoCloseable {
+    private final Path path;
+    private final long memoryLimitMb;
+
+    private Cgroup(Path path, long memoryLimitMb) {
+      this.path = path;
+      this.memoryLimitMb = memoryLimitMb;
+    }
+
+    /** The directory of the cgroup to run the spawn in. */
+    public Path getPath() {
+      return path;
+    }
+
+    /**
+     * Sets the CPU time that the kernel accounted in the cgroup as the resource usage on {@code
+     * builder}, overriding the one that getrusage() measured, and the peak memory charged to the
+     * cgroup as {@link SpawnResult#getCgroupMemoryPeakKb}. Leaves what the kernel doesn't account
+     * for as it is, e.g. the peak memory before Linux 5.19, or everything if the spawn didn't run
+     * in the cgroup.
+     */
+    public void setResourceUsage(SpawnResult.Builder builder) {
+      try {
+        ImmutableMap<String, Long> cpuStat = readKeyedValues(path.getChild("cpu.stat"));
+        if (cpuStat.getOrDefault("usage_usec", 0L) == 0) {
+          return;
+        }
+        builder.setUserTime(Duration.ofNanos(cpuStat.getOrDefault("user_usec", 0L) * 1000));
+        builder.setSystemTime(Duration.ofNanos(cpuStat.getOrDefault("system_usec", 0L) * 1000));
+        Path peak = path.getChild("memory.peak");
+        if (peak.exists()) {
+          // Reported on its own: this is what the limit applies to, but it includes page cache, so
+          // it is no replacement for the resident set size of getrusage().
+          builder.setCgroupMemoryPeakKb(
+              Long.parseLong(FileSystemUtils.readContent(peak, UTF_8).trim()) / 1024);
+        }
+      } catch (IOException | NumberFormatException e) {
+        logger.log(Level.WARNING, "Cannot read the resource usage of cgroup " + path, e);
+      }
+    }
+
+    /**
+     * Returns a message to show in the output of the spawn if the kernel killed one of its
+     * processes for exceeding the memory limit, else null.
+     */
+    @Nullable
+    public String getOomKillMessage() {
+      if (memoryLimitMb == 0) {
+        return null;
+      }
+      try {
+        if (readKeyedValues(path.getChild("memory.events")).getOrDefault("oom_kill", 0L) == 0) {
+          return null;
+        }
+      } catch (IOException | NumberFormatException e) {
+        logger.log(Level.WARNING, "Cannot read the memory events of cgroup " + path, e);
+        return null;
+      }
+      return String.format(
+          "The action was killed because it used more than its memory limit of %d MB, see "
+              + "--experimental_local_cgroups_memory_limit_factor",
+          memoryLimitMb);
+    }
+
+    /**
+     * Removes the cgroup. If processes of the spawn outlived it, e.g. daemons, kills them instead
+     * and leaves the cgroup behind for the next server to remove.
+     */
+    @Override
+    public void close() {
+      try {
+        path.delete();
+      } catch (IOException e) {
+        Path kill = path.getChild("cgroup.kill");
+        try {
+          if (kill.exists()) {
+            write(kill, "1");
+          }
+        } catch (IOException killException) {
+          e.addSuppressed(killException);
+        }
+        logger.log(Level.INFO, "Cannot remove cgroup " + path, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,361 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.inmemoryoutputs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.inmemoryoutputs.InMemoryOutputStore.Entry;
+import com.google.devtools.build.lib.vfs.DelegateFileSystem;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An action-scoped file system that keeps some of the outputs of the action in an {@link
+ * InMemoryOutputStore} instead of writing them to the output tree, and that reads the files of the
+ * store, whichever action created them, from memory.
+ *
+ * <p>Files in memory are always regular files. They are not listed in the entries of their
+ * directory. Operations that need a file on disk, such as creating a symlink or hard link to it,
+ * spill it to the output tree first.
+ */
+class InMemoryOutputFileSystem extends DelegateFileSystem {
+  /** The default mode of new files, as created with a umask of 022. */
+  private static final int DEFAULT_MODE = 0644;
+
+  private final InMemoryOutputStore store;
+  private final ImmutableSet<PathFragment> outputsToKeepInMemory;
+  private final long maxFileSize;
+
+  /**
+   * @param outputsToKeepInMemory the absolute paths of the outputs that are written to memory
+   * @param maxFileSize the maximum size of an output that is kept in memory. Larger outputs are
+   *     written to the output tree.
+   */
+  InMemoryOutputFileSystem(
+      FileSystem localDelegate,
+      InMemoryOutputStore store,
+      ImmutableSet<PathFragment> outputsToKeepInMemory,
+      long maxFileSize) {
+    super(localDelegate);
+    this.store = Preconditions.checkNotNull(store);
+    this.outputsToKeepInMemory = Preconditions.checkNotNull(outputsToKeepInMemory);
+    this.maxFileSize = maxFileSize;
+  }
+
+  @Override
+  public String getFileSystemType(Path path) {
+    return "inMemoryOutputsFS";
+  }
+
+  @Override
+  protected OutputStream getOutputStream(Path path, boolean append) throws IOException {
+    if (append) {
+      store.spill(path.asFragment());
+      return super.getOutputStream(path, append);
+    }
+    store.remove(path.asFragment());
+    if (outputsToKeepInMemory.contains(path.asFragment())) {
+      return new InMemoryOutputStream(path);
+    }
+    return super.getOutputStream(path, append);
+  }
+
+  @Override
+  protected InputStream getInputStream(Path path) throws IOException {
+    Entry entry = store.get(path.asFragment());
+    if (entry != null) {
+      return new ByteArrayInputStream(entry.getContents());
+    }
+    return super.getInputStream(path);
+  }
+
+  @Override
+  public boolean delete(Path path) throws IOException {
+    boolean deletedFromMemory = store.remove(path.asFragment()) != null;
+    return super.delete(path) || deletedFromMemory;
+  }
+
+  @Override
+  public void deleteTree(Path path) throws IOException {
+    store.removeTree(path.asFragment());
+    super.deleteTree(path);
+  }
+
+  @Override
+  public void deleteTreesBelow(Path dir) throws IOException {
+    store.removeTree(dir.asFragment());
+    super.deleteTreesBelow(dir);
+  }
+
+  @Override
+  public void renameTo(Path sourcePath, Path targetPath) throws IOException {
+    if (store.get(sourcePath.asFragment()) != null) {
+      super.delete(targetPath);
+      store.rename(sourcePath.asFragment(), targetPath.asFragment());
+      return;
+    }
+    store.remove(targetPath.asFragment());
+    super.renameTo(sourcePath, targetPath);
+  }
+
+  // -------------------- Status --------------------
+
+  @Override
+  protected FileStatus stat(Path path, boolean followSymlinks) throws IOException {
+    Entry entry = store.get(path.asFragment());
+    return entry != null ? entry : super.stat(path, followSymlinks);
+  }
+
+  @Override
+  protected FileStatus statNullable(Path path, boolean followSymlinks) {
+    Entry entry = store.get(path.asFragment());
+    return entry != null ? entry : super.statNullable(path, followSymlinks);
+  }
+
+  @Override
+  protected FileStatus statIfFound(Path path, boolean followSymlinks) throws IOException {
+    Entry entry = store.get(path.asFragment());
+    return entry != null ? entry : super.statIfFound(path, followSymlinks);
+  }
+
+  @Override
+  protected boolean exists(Path path, boolean followSymlinks) {
+    return store.get(path.asFragment()) != null || super.exists(path, followSymlinks);
+  }
+
+  @Override
+  public boolean exists(Path path) {
+    return store.get(path.asFragment()) != null || super.exists(path);
+  }
+
+  @Override
+  protected boolean isFile(Path path, boolean followSymlinks) {
+    return store.get(path.asFragment()) != null || super.isFile(path, followSymlinks);
+  }
+
+  @Override
+  protected boolean isDirectory(Path path, boolean followSymlinks) {
+    return store.get(path.asFragment()) == null && super.isDirectory(path, followSymlinks);
+  }
+
+  @Override
+  protected boolean isSymbolicLink(Path path) {
+    return store.get(path.asFragment()) == null && super.isSymbolicLink(path);
+  }
+
+  @Override
+  protected boolean isSpecialFile(Path path, boolean followSymlinks) {
+    return store.get(path.asFragment()) == null && super.isSpecialFile(path, followSymlinks);
+  }
+
+  @Override
+  protected long getFileSize(Path path, boolean followSymlinks) throws IOException {
+    Entry entry = store.get(path.asFragment());
+    return entry != null ? entry.getSize() : super.getFileSize(path, followSymlinks);
+  }
+
+  @Override
+  protected long getLastModifiedTime(Path path, boolean followSymlinks) throws IOException {
+    Entry entry = store.get(path.asFragment());
+    return entry != null
+        ? entry.getLastModifiedTime()
+        : super.getLastModifiedTime(path, followSymlinks);
+  }
+
+  @Override
+  public void setLastModifiedTime(Path path, long newTime) throws IOException {
+    if (store.get(path.asFragment()) == null) {
+      super.setLastModifiedTime(path, newTime);
+    }
+  }
+
+  @Override
+  protected byte[] getFastDigest(Path path) throws IOException {
+    Entry entry = store.get(path.asFragment());
+    return entry != null ? entry.getDigest() : super.getFastDigest(path);
+  }
+
+  @Override
+  protected byte[] getDigest(Path path) throws IOException {
+    Entry entry = store.get(path.asFragment());
+    return entry != null ? entry.getDigest() : super.getDigest(path);
+  }
+
+  // -------------------- File Permissions --------------------
+
+  @Override
+  protected boolean isReadable(Path path) throws IOException {
+    Entry entry = store.get(path.asFragment());
+    return entry != null ? (entry.getMode() & 0400) != 0 : super.isReadable(path);
+  }
+
+  @Override
+  protected boolean isWritable(Path path) throws IOException {
+    Entry entry = store.get(path.asFragment());
+    return entry != null ? (entry.getMode() & 0200) != 0 : super.isWritable(path);
+  }
+
+  @Override
+  protected boolean isExecutable(Path path) throws IOException {
+    Entry entry = store.get(path.asFragment());
+    return entry != null ? (entry.getMode() & 0100) != 0 : super.isExecutable(path);
+  }
+
+  @Override
+  protected void setReadable(Path path, boolean readable) throws IOException {
+    if (!setModeBits(path, 0444, readable)) {
+      super.setReadable(path, readable);
+    }
+  }
+
+  @Override
+  public void setWritable(Path path, boolean writable) throws IOException {
+    if (!setModeBits(path, 0200, writable)) {
+      super.setWritable(path, writable);
+    }
+  }
+
+  @Override
+  protected void setExecutable(Path path, boolean executable) throws IOException {
+    if (!setModeBits(path, 0111, executable)) {
+      super.setExecutable(path, executable);
+    }
+  }
+
+  @Override
+  protected void chmod(Path path, int mode) throws IOException {
+    Entry entry = store.get(path.asFragment());
+    if (entry != null) {
+      entry.setMode(mode & 07777);
+    } else {
+      super.chmod(path, mode);
+    }
+  }
+
+  /** Sets or clears the {@code bits} of the file at {@code path} if it is kept in memory. */
+  private boolean setModeBits(Path path, int bits, boolean set) {
+    Entry entry = store.get(path.asFragment());
+    if (entry == null) {
+      return false;
+    }
+    entry.setMode(set ? entry.getMode() | bits : entry.getMode() & ~bits);
+    return true;
+  }
+
+  // -------------------- Links --------------------
+
+  @Override
+  protected PathFragment readSymbolicLink(Path path) throws IOException {
+    if (store.get(path.asFragment()) != null) {
+      throw new NotASymlinkException(path);
+    }
+    return super.readSymbolicLink(path);
+  }
+
+  @Override
+  protected PathFragment resolveOneLink(Path path) throws IOException {
+    if (store.get(path.asFragment()) != null) {
+      return null;
+    }
+    return super.resolveOneLink(path);
+  }
+
+  @Override
+  protected Path resolveSymbolicLinks(Path path) throws IOException {
+    if (store.get(path.asFragment()) != null) {
+      // Files in memory are never symlinks, but their parent directories may be.
+      return resolveSymbolicLinks(path.getParentDirectory()).getChild(path.getBaseName());
+    }
+    return super.resolveSymbolicLinks(path);
+  }
+
+  @Override
+  protected void createSymbolicLink(Path linkPath, PathFragment targetFragment) throws IOException {
+    store.remove(linkPath.asFragment());
+    store.spill(linkPath.getParentDirectory().getRelative(targetFragment).asFragment());
+    super.createSymbolicLink(linkPath, targetFragment);
+  }
+
+  @Override
+  protected void createHardLink(Path linkPath, Path originalPath) throws IOException {
+    store.remove(linkPath.asFragment());
+    store.spill(originalPath.asFragment());
+    super.createHardLink(linkPath, originalPath);
+  }
+
+  /**
+   * Buffers the contents of an output and keeps them in the store when closed. Once the contents
+   * exceed the maximum size of a file in memory, they are written to the output tree instead.
+   */
+  private final class InMemoryOutputStream extends OutputStream {
+    private final Path path;
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private OutputStream spilled;
+    private boolean closed;
+
+    private InMemoryOutputStream(Path path) {
+      this.path = path;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      Preconditions.checkState(!closed, "%s is closed", path);
+      if (spilled == null && buffer.size() + len > maxFileSize) {
+        spilled = InMemoryOutputFileSystem.super.getOutputStream(path, /*append=*/ false);
+        buffer.writeTo(spilled);
+        buffer = null;
+      }
+      if (spilled != null) {
+        spilled.write(b, off, len);
+      } else {
+        buffer.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (spilled != null) {
+        spilled.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (spilled != null) {
+        spilled.close();
+        return;
+      }
+      // Don't leave an outdated version of the output in the output tree.
+      InMemoryOutputFileSystem.super.delete(path);
+      store.put(path.asFragment(), buffer.toByteArray(), DEFAULT_MODE);
+      buffer = null;
+    }
+  }
+}
@@ -0,0 +1,239 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.inmemoryoutputs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.ActionInputMap;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.Artifact.SourceArtifact;
+import com.google.devtools.build.lib.actions.ArtifactPathResolver;
+import com.google.devtools.build.lib.actions.FilesetOutputSymlink;
+import com.google.devtools.build.lib.actions.cache.MetadataHandler;
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.vfs.BatchStat;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigestAdapter;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.ModifiedFileSet;
+import com.google.devtools.build.lib.vfs.OutputService;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Output service that keeps small outputs of selected actions in an {@link InMemoryOutputStore}.
+ * Actions see the outputs through an action file system, and the outputs are checked for
+ * modifications through a {@link BatchStat} that knows the store.
+ */
+class InMemoryOutputService implements OutputService {
+  private final InMemoryOutputStore store;
+  private final ImmutableSet<String> mnemonics;
+  private final long maxFileSize;
+
+  /** The exec paths of the outputs that are always written to the output tree. */
+  private volatile ImmutableSet<PathFragment> topLevelOutputs = ImmutableSet.of();
+
+  @Nullable private volatile Path execRoot;
+
+  InMemoryOutputService(
+      InMemoryOutputStore store, Iterable<String> mnemonics, long maxFileSize) {
+    this.store = Preconditions.checkNotNull(store);
+    this.mnemonics = ImmutableSet.copyOf(mnemonics);
+    this.maxFileSize = maxFileSize;
+  }
+
+  void setTopLevelOutputs(ImmutableSet<PathFragment> topLevelOutputs) {
+    this.topLevelOutputs = Preconditions.checkNotNull(topLevelOutputs);
+  }
+
+  void setExecRoot(Path execRoot) {
+    this.execRoot = Preconditions.checkNotNull(execRoot);
+  }
+
+  /**
+   * Writes the current top-level outputs that earlier builds kept in memory to the output tree.
+   * Their actions are up to date, so they would otherwise never show up there.
+   */
+  void spillTopLevelOutputs() throws IOException {
+    Preconditions.checkNotNull(execRoot);
+    for (PathFragment output : topLevelOutputs) {
+      store.spill(execRoot.getRelative(output).asFragment());
+    }
+  }
+
+  @Override
+  public ActionFileSystemType actionFileSystemType() {
+    return ActionFileSystemType.STAGE_REMOTE_FILES;
+  }
+
+  @Override
+  public FileSystem createActionFileSystem(
+      FileSystem sourceDelegate,
+      PathFragment execRootFragment,
+      String relativeOutputPath,
+      ImmutableList<Root> sourceRoots,
+      ActionInputMap inputArtifactData,
+      Iterable<Artifact> outputArtifacts,
+      Function<PathFragment, SourceArtifact> sourceArtifactFactory) {
+    // Without the action, outputs can't be selected, but those of other actions can be read.
+    return new InMemoryOutputFileSystem(sourceDelegate, store, ImmutableSet.of(), maxFileSize);
+  }
+
+  @Override
+  public FileSystem createActionFileSystem(
+      FileSystem sourceDelegate,
+      PathFragment execRootFragment,
+      String relativeOutputPath,
+      ImmutableList<Root> sourceRoots,
+      ActionInputMap inputArtifactData,
+      Action action,
+      Function<PathFragment, SourceArtifact> sourceArtifactFactory) {
+    ImmutableSet.Builder<PathFragment> outputsToKeepInMemory = ImmutableSet.builder();
+    if (mnemonics.contains(action.getMnemonic())) {
+      for (Artifact output : action.getOutputs()) {
+        if (shouldKeepInMemory(output)) {
+          outputsToKeepInMemory.add(execRootFragment.getRelative(output.getExecPath()));
+        }
+      }
+    }
+    return new InMemoryOutputFileSystem(
+        sourceDelegate, store, outputsToKeepInMemory.build(), maxFileSize);
+  }
+
+  private boolean shouldKeepInMemory(Artifact output) {
+    return !output.isTreeArtifact()
+        && !output.isSymlink()
+        && !output.isMiddlemanArtifact()
+        && !topLevelOutputs.contains(output.getExecPath());
+  }
+
+  @Override
+  public String getFilesSystemName() {
+    return "inMemoryOutputsFS";
+  }
+
+  @Override
+  public ModifiedFileSet startBuild(
+      EventHandler eventHandler, UUID buildId, boolean finalizeActions) {
+    return ModifiedFileSet.EVERYTHING_MODIFIED;
+  }
+
+  @Override
+  public void finalizeBuild(boolean buildSuccessful) {
+    // Intentionally left empty.
+  }
+
+  @Override
+  public void finalizeAction(Action action, MetadataHandler metadataHandler) {
+    // Intentionally left empty.
+  }
+
+  @Nullable
+  @Override
+  public BatchStat getBatchStatter() {
+    Path execRoot = this.execRoot;
+    if (execRoot == null) {
+      return null;
+    }
+    BatchStat diskStatter = execRoot.getFileSystem().getBatchStatter(execRoot);
+    return (includeDigest, includeLinks, paths) -> {
+      List<FileStatusWithDigest> stats = new ArrayList<>();
+      List<PathFragment> pathsOnDisk = new ArrayList<>();
+      List<Integer> indicesOnDisk = new ArrayList<>();
+      for (PathFragment path : paths) {
+        FileStatusWithDigest stat = store.get(execRoot.getRelative(path).asFragment());
+        if (stat == null) {
+          pathsOnDisk.add(path);
+          indicesOnDisk.add(stats.size());
+        }
+        stats.add(stat);
+      }
+      if (pathsOnDisk.isEmpty()) {
+        return stats;
+      }
+      List<FileStatusWithDigest> diskStats;
+      if (diskStatter != null) {
+        diskStats = diskStatter.batchStat(includeDigest, includeLinks, pathsOnDisk);
+      } else {
+        Symlinks symlinks = includeLinks ? Symlinks.NOFOLLOW : Symlinks.FOLLOW;
+        diskStats = new ArrayList<>(pathsOnDisk.size());
+        for (PathFragment path : pathsOnDisk) {
+          diskStats.add(
+              FileStatusWithDigestAdapter.adapt(execRoot.getRelative(path).statIfFound(symlinks)));
+        }
+      }
+      for (int i = 0; i < diskStats.size(); i++) {
+        // Files spilled from the store keep the digest they were recorded with in memory.
+        stats.set(
+            indicesOnDisk.get(i),
+            store.withSpilledDigest(
+                execRoot.getRelative(pathsOnDisk.get(i)).asFragment(), diskStats.get(i)));
+      }
+      return stats;
+    };
+  }
+
+  @Override
+  public boolean canCreateSymlinkTree() {
+    return false;
+  }
+
+  @Override
+  public void createSymlinkTree(
+      Path inputManifest, Path outputManifest, boolean filesetTree, PathFragment symlinkTreeRoot) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void clean() {
+    store.clear();
+  }
+
+  @Override
+  public boolean isRemoteFile(Artifact artifact) {
+    return false;
+  }
+
+  @Override
+  public boolean supportsPathResolverForArtifactValues() {
+    return true;
+  }
+
+  @Override
+  public ArtifactPathResolver createPathResolverForArtifactValues(
+      PathFragment execRoot,
+      String relativeOutputPath,
+      FileSystem fileSystem,
+      ImmutableList<Root> pathEntries,
+      ActionInputMap actionInputMap,
+      Map<Artifact, Collection<Artifact>> expandedArtifacts,
+      Map<Artifact, ImmutableList<FilesetOutputSymlink>> filesets) {
+    FileSystem inMemoryOutputFileSystem =
+        new InMemoryOutputFileSystem(fileSystem, store, ImmutableSet.of(), maxFileSize);
+    return ArtifactPathResolver.createPathResolver(
+        inMemoryOutputFileSystem, fileSystem.getPath(execRoot));
+  }
+}
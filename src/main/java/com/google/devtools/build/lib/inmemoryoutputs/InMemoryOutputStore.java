@@ -0,0 +1,426 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.inmemoryoutputs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Striped;
+import com.google.devtools.build.lib.actions.FileContentsProxy;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A bounded store of output files whose contents are kept in memory instead of in the output tree.
+ * When the store is full, the least recently used files are spilled to the output tree.
+ *
+ * <p>The store outlives commands, so that a build knows the outputs that previous builds kept in
+ * memory.
+ *
+ * <p>The output tree is only accessed while holding the lock of the path of the file, never the
+ * monitor of the store, so that spilling a file doesn't block the threads that read other files.
+ */
+@ThreadSafe
+final class InMemoryOutputStore {
+
+  /** An output file kept in memory. Its status is that of a regular file. */
+  static final class Entry implements FileStatusWithDigest {
+    private final byte[] contents;
+    private final byte[] digest;
+    private final long lastModifiedTime;
+    private final long nodeId;
+    private volatile int mode;
+
+    private Entry(byte[] contents, byte[] digest, long lastModifiedTime, long nodeId, int mode) {
+      this.contents = contents;
+      this.digest = digest;
+      this.lastModifiedTime = lastModifiedTime;
+      this.nodeId = nodeId;
+      this.mode = mode;
+    }
+
+    byte[] getContents() {
+      return contents;
+    }
+
+    int getMode() {
+      return mode;
+    }
+
+    void setMode(int mode) {
+      this.mode = mode;
+    }
+
+    @Override
+    public boolean isFile() {
+      return true;
+    }
+
+    @Override
+    public boolean isSpecialFile() {
+      return false;
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return false;
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+      return false;
+    }
+
+    @Override
+    public long getSize() {
+      return contents.length;
+    }
+
+    @Override
+    public long getLastModifiedTime() {
+      return lastModifiedTime;
+    }
+
+    @Override
+    public long getLastChangeTime() {
+      return lastModifiedTime;
+    }
+
+    @Override
+    public long getNodeId() {
+      return nodeId;
+    }
+
+    @Override
+    public byte[] getDigest() {
+      return digest;
+    }
+  }
+
+  /** A file spilled to the output tree, and the status it had there right after it was written. */
+  private static final class SpilledFile {
+    private final byte[] digest;
+    private final long size;
+    private final FileContentsProxy proxy;
+
+    private SpilledFile(byte[] digest, long size, FileContentsProxy proxy) {
+      this.digest = digest;
+      this.size = size;
+      this.proxy = proxy;
+    }
+  }
+
+  private final FileSystem fileSystem;
+  private final AtomicLong nextNodeId = new AtomicLong();
+  private final Striped<Lock> pathLocks = Striped.lock(64);
+
+  /** The entries by absolute path, least recently used first. */
+  @GuardedBy("this")
+  private final LinkedHashMap<PathFragment, Entry> entries =
+      new LinkedHashMap<>(/*initialCapacity=*/ 16, /*loadFactor=*/ 0.75f, /*accessOrder=*/ true);
+
+  /** The files spilled to the output tree by absolute path, as long as they aren't replaced. */
+  @GuardedBy("this")
+  private final Map<PathFragment, SpilledFile> spilledFiles = new HashMap<>();
+
+  @GuardedBy("this")
+  private long capacity;
+
+  @GuardedBy("this")
+  private long totalSize;
+
+  /**
+   * @param fileSystem the file system of the output tree, to which files are spilled
+   * @param capacity the maximum total size of the kept files, in bytes
+   */
+  InMemoryOutputStore(FileSystem fileSystem, long capacity) {
+    this.fileSystem = Preconditions.checkNotNull(fileSystem);
+    this.capacity = capacity;
+  }
+
+  /** Returns the file at the absolute {@code path}, or null if it isn't kept in memory. */
+  @Nullable
+  synchronized Entry get(PathFragment path) {
+    return entries.get(path);
+  }
+
+  /**
+   * Keeps {@code contents} as the file at the absolute {@code path}, replacing any file kept there
+   * before. Spills other files if the store is over capacity afterwards.
+   */
+  void put(PathFragment path, byte[] contents, int mode) throws IOException {
+    Entry entry =
+        new Entry(
+            contents,
+            fileSystem.getDigestFunction().getHashFunction().hashBytes(contents).asBytes(),
+            System.currentTimeMillis(),
+            nextNodeId.incrementAndGet(),
+            mode);
+    synchronized (this) {
+      putLocked(path, entry);
+    }
+    spillToCapacity();
+  }
+
+  /** Moves the file kept at {@code source}, if any, to {@code target}. */
+  boolean rename(PathFragment source, PathFragment target) {
+    Iterable<Lock> locks = pathLocks.bulkGet(ImmutableList.of(source, target));
+    for (Lock lock : locks) {
+      lock.lock();
+    }
+    try {
+      synchronized (this) {
+        Entry entry = removeLocked(source);
+        if (entry == null) {
+          return false;
+        }
+        putLocked(target, entry);
+        return true;
+      }
+    } finally {
+      for (Lock lock : locks) {
+        lock.unlock();
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private void putLocked(PathFragment path, Entry entry) {
+    removeLocked(path);
+    entries.put(path, entry);
+    totalSize += entry.getSize();
+  }
+
+  /**
+   * Forgets the file at {@code path}. Returns it, or null if it wasn't kept in memory. Waits for
+   * the file to be spilled if that is in progress, so that the output tree can be changed
+   * afterwards.
+   */
+  @Nullable
+  Entry remove(PathFragment path) {
+    Lock lock = pathLocks.get(path);
+    lock.lock();
+    try {
+      synchronized (this) {
+        return removeLocked(path);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @GuardedBy("this")
+  @Nullable
+  private Entry removeLocked(PathFragment path) {
+    spilledFiles.remove(path);
+    Entry entry = entries.remove(path);
+    if (entry != null) {
+      totalSize -= entry.getSize();
+    }
+    return entry;
+  }
+
+  /** Forgets all files at or below {@code path}. */
+  synchronized void removeTree(PathFragment path) {
+    Iterator<Map.Entry<PathFragment, Entry>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<PathFragment, Entry> entry = it.next();
+      if (entry.getKey().startsWith(path)) {
+        totalSize -= entry.getValue().getSize();
+        it.remove();
+      }
+    }
+    spilledFiles.keySet().removeIf(spilledPath -> spilledPath.startsWith(path));
+  }
+
+  /**
+   * Writes the file at {@code path} to the output tree and forgets it, if it is kept in memory.
+   * Returns whether it was.
+   */
+  boolean spill(PathFragment path) throws IOException {
+    Lock lock = pathLocks.get(path);
+    lock.lock();
+    try {
+      Entry entry = get(path);
+      if (entry == null) {
+        return false;
+      }
+      // The file is written before it is forgotten, so that it is readable all the time.
+      Path outputPath = fileSystem.getPath(path);
+      FileStatus stat = write(outputPath, entry);
+      synchronized (this) {
+        if (entries.get(path) == entry) {
+          removeLocked(path);
+          spilledFiles.put(
+              path,
+              new SpilledFile(entry.getDigest(), stat.getSize(), FileContentsProxy.create(stat)));
+          return true;
+        }
+      }
+      // The file was removed or replaced while it was written, so the copy is out of date.
+      outputPath.delete();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns {@code stat}, the status of the file at {@code path} in the output tree, along with the
+   * digest the file had in memory if the store spilled it there and it hasn't changed since. Its
+   * metadata is then that of the file the store kept, even though the output tree assigned it a
+   * new change time and node id.
+   */
+  @Nullable
+  FileStatusWithDigest withSpilledDigest(PathFragment path, @Nullable FileStatusWithDigest stat)
+      throws IOException {
+    if (stat == null || !stat.isFile() || stat.getDigest() != null) {
+      return stat;
+    }
+    SpilledFile spilledFile;
+    synchronized (this) {
+      spilledFile = spilledFiles.get(path);
+    }
+    if (spilledFile == null
+        || spilledFile.size != stat.getSize()
+        || !spilledFile.proxy.equals(FileContentsProxy.create(stat))) {
+      return stat;
+    }
+    return new SpilledFileStatus(stat, spilledFile.digest);
+  }
+
+  /** Changes the capacity of the store, spilling files if it is over the new capacity. */
+  void setCapacity(long capacity) throws IOException {
+    synchronized (this) {
+      this.capacity = capacity;
+    }
+    spillToCapacity();
+  }
+
+  /** Forgets all files without writing them to the output tree. */
+  synchronized void clear() {
+    entries.clear();
+    spilledFiles.clear();
+    totalSize = 0;
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  synchronized long getTotalSize() {
+    return totalSize;
+  }
+
+  private void spillToCapacity() throws IOException {
+    for (PathFragment path : getFilesOverCapacity()) {
+      spill(path);
+    }
+  }
+
+  private synchronized List<PathFragment> getFilesOverCapacity() {
+    List<PathFragment> toSpill = new ArrayList<>();
+    long sizeAfterSpill = totalSize;
+    for (Map.Entry<PathFragment, Entry> entry : entries.entrySet()) {
+      if (sizeAfterSpill <= capacity) {
+        break;
+      }
+      toSpill.add(entry.getKey());
+      sizeAfterSpill -= entry.getValue().getSize();
+    }
+    return toSpill;
+  }
+
+  /** Writes {@code entry} to {@code outputPath} and returns the status of the written file. */
+  private static FileStatus write(Path outputPath, Entry entry) throws IOException {
+    outputPath.getParentDirectory().createDirectoryAndParents();
+    outputPath.delete();
+    FileSystemUtils.writeContent(outputPath, entry.getContents());
+    outputPath.setLastModifiedTime(entry.getLastModifiedTime());
+    outputPath.chmod(entry.getMode());
+    return outputPath.stat(Symlinks.NOFOLLOW);
+  }
+
+  /** The status of a spilled file in the output tree, with the digest it had in memory. */
+  private static final class SpilledFileStatus implements FileStatusWithDigest {
+    private final FileStatusWithDigest stat;
+    private final byte[] digest;
+
+    private SpilledFileStatus(FileStatusWithDigest stat, byte[] digest) {
+      this.stat = stat;
+      this.digest = digest;
+    }
+
+    @Override
+    public byte[] getDigest() {
+      return digest;
+    }
+
+    @Override
+    public boolean isFile() {
+      return stat.isFile();
+    }
+
+    @Override
+    public boolean isSpecialFile() {
+      return stat.isSpecialFile();
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return stat.isDirectory();
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+      return stat.isSymbolicLink();
+    }
+
+    @Override
+    public long getSize() throws IOException {
+      return stat.getSize();
+    }
+
+    @Override
+    public long getLastModifiedTime() throws IOException {
+      return stat.getLastModifiedTime();
+    }
+
+    @Override
+    public long getLastChangeTime() throws IOException {
+      return stat.getLastChangeTime();
+    }
+
+    @Override
+    public long getNodeId() throws IOException {
+      return stat.getNodeId();
+    }
+  }
+}
@@ -0,0 +1,157 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.inmemoryoutputs;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ExecutorInitException;
+import com.google.devtools.build.lib.analysis.ConfiguredTarget;
+import com.google.devtools.build.lib.analysis.FilesToRunProvider;
+import com.google.devtools.build.lib.analysis.RunfilesSupport;
+import com.google.devtools.build.lib.analysis.TopLevelArtifactContext;
+import com.google.devtools.build.lib.analysis.TopLevelArtifactHelper;
+import com.google.devtools.build.lib.analysis.config.BuildOptions;
+import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.exec.ExecutorBuilder;
+import com.google.devtools.build.lib.remote.options.RemoteOptions;
+import com.google.devtools.build.lib.runtime.BlazeModule;
+import com.google.devtools.build.lib.runtime.Command;
+import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.skyframe.AspectValue;
+import com.google.devtools.build.lib.util.AbruptExitException;
+import com.google.devtools.build.lib.util.ExitCode;
+import com.google.devtools.build.lib.vfs.OutputService;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.common.options.OptionsBase;
+import java.io.IOException;
+
+/**
+ * {@link BlazeModule} that keeps small intermediate outputs in memory instead of writing them to
+ * the output tree, see {@link InMemoryOutputsOptions#inMemoryOutputs}.
+ */
+public class InMemoryOutputsModule extends BlazeModule {
+  /** The outputs kept in memory. Outlives commands, like the Skyframe graph that refers to them. */
+  private InMemoryOutputStore store;
+
+  private InMemoryOutputService outputService;
+
+  @Override
+  public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
+    return "build".equals(command.name())
+        ? ImmutableList.<Class<? extends OptionsBase>>of(InMemoryOutputsOptions.class)
+        : ImmutableList.<Class<? extends OptionsBase>>of();
+  }
+
+  @Override
+  public void beforeCommand(CommandEnvironment env) throws AbruptExitException {
+    InMemoryOutputsOptions options = env.getOptions().getOptions(InMemoryOutputsOptions.class);
+    if (options == null) {
+      // Quit if no supported command is being used. See getCommandOptions for details.
+      return;
+    }
+    if (!options.inMemoryOutputs) {
+      // The outputs of previous builds that are still in memory are unknown to this build, which
+      // rebuilds them.
+      if (store != null) {
+        store.clear();
+      }
+      return;
+    }
+    RemoteOptions remoteOptions = env.getOptions().getOptions(RemoteOptions.class);
+    if (remoteOptions != null
+        && (!Strings.isNullOrEmpty(remoteOptions.remoteExecutor)
+            || !remoteOptions.remoteOutputsMode.downloadAllOutputs())) {
+      throw new AbruptExitException(
+          "--experimental_in_memory_outputs cannot be combined with remote execution or "
+              + "--remote_download_outputs other than 'all'",
+          ExitCode.COMMAND_LINE_ERROR);
+    }
+
+    try {
+      if (store == null) {
+        store =
+            new InMemoryOutputStore(
+                env.getRuntime().getFileSystem(), options.inMemoryOutputsCapacity);
+      } else {
+        store.setCapacity(options.inMemoryOutputsCapacity);
+      }
+    } catch (IOException e) {
+      throw new AbruptExitException(
+          "Could not write in-memory outputs to the output tree: " + e.getMessage(),
+          ExitCode.LOCAL_ENVIRONMENTAL_ERROR,
+          e);
+    }
+    outputService =
+        new InMemoryOutputService(
+            store, options.inMemoryOutputsMnemonics, options.inMemoryOutputsMaxFileSize);
+  }
+
+  @Override
+  public OutputService getOutputService() {
+    return outputService;
+  }
+
+  @Override
+  public void afterAnalysis(
+      CommandEnvironment env,
+      BuildRequest request,
+      BuildOptions buildOptions,
+      Iterable<ConfiguredTarget> configuredTargets,
+      ImmutableSet<AspectValue> aspects) {
+    if (outputService == null) {
+      return;
+    }
+    TopLevelArtifactContext artifactContext = request.getTopLevelArtifactContext();
+    ImmutableSet.Builder<PathFragment> topLevelOutputs = ImmutableSet.builder();
+    for (ConfiguredTarget configuredTarget : configuredTargets) {
+      for (Artifact artifact :
+          TopLevelArtifactHelper.getAllArtifactsToBuild(configuredTarget, artifactContext)
+              .getImportantArtifacts()) {
+        topLevelOutputs.add(artifact.getExecPath());
+      }
+      // Runfiles trees link to their files, which therefore must be in the output tree.
+      FilesToRunProvider filesToRun = configuredTarget.getProvider(FilesToRunProvider.class);
+      RunfilesSupport runfilesSupport =
+          filesToRun == null ? null : filesToRun.getRunfilesSupport();
+      if (runfilesSupport != null) {
+        for (Artifact runfile : runfilesSupport.getRunfiles().getUnconditionalArtifacts()) {
+          topLevelOutputs.add(runfile.getExecPath());
+        }
+      }
+    }
+    outputService.setTopLevelOutputs(topLevelOutputs.build());
+  }
+
+  @Override
+  public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder)
+      throws ExecutorInitException {
+    if (outputService == null) {
+      return;
+    }
+    outputService.setExecRoot(env.getExecRoot());
+    try {
+      outputService.spillTopLevelOutputs();
+    } catch (IOException e) {
+      throw new ExecutorInitException("Could not write top-level outputs to the output tree", e);
+    }
+    builder.setActionInputPrefetcher(new InMemoryOutputsPrefetcher(store, env.getExecRoot()));
+  }
+
+  @Override
+  public void afterCommand() {
+    outputService = null;
+  }
+}
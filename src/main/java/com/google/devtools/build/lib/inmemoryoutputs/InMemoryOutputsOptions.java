@@ -0,0 +1,71 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.inmemoryoutputs;
+
+import com.google.devtools.common.options.Converters.CommaSeparatedOptionListConverter;
+import com.google.devtools.common.options.Option;
+import com.google.devtools.common.options.OptionDocumentationCategory;
+import com.google.devtools.common.options.OptionEffectTag;
+import com.google.devtools.common.options.OptionsBase;
+import java.util.List;
+
+/** Options for keeping intermediate outputs in memory. */
+public class InMemoryOutputsOptions extends OptionsBase {
+
+  @Option(
+      name = "experimental_in_memory_outputs",
+      documentationCategory = OptionDocumentationCategory.OUTPUT_PARAMETERS,
+      effectTags = {OptionEffectTag.EXECUTION},
+      defaultValue = "false",
+      help =
+          "If enabled, small intermediate outputs of actions that write them from within Bazel, "
+              + "such as file writes and template expansions, are kept in memory instead of in "
+              + "the output tree. They are written to the output tree when a locally executed "
+              + "action needs them, or when they don't fit in memory anymore. Top-level outputs "
+              + "are always written to the output tree. Cannot be combined with remote execution "
+              + "or --remote_download_outputs other than 'all'.")
+  public boolean inMemoryOutputs;
+
+  @Option(
+      name = "experimental_in_memory_outputs_mnemonics",
+      converter = CommaSeparatedOptionListConverter.class,
+      documentationCategory = OptionDocumentationCategory.OUTPUT_PARAMETERS,
+      effectTags = {OptionEffectTag.EXECUTION},
+      defaultValue = "FileWrite,TemplateExpand",
+      help =
+          "The mnemonics of the actions whose outputs may be kept in memory with "
+              + "--experimental_in_memory_outputs.")
+  public List<String> inMemoryOutputsMnemonics;
+
+  @Option(
+      name = "experimental_in_memory_outputs_max_file_size",
+      documentationCategory = OptionDocumentationCategory.OUTPUT_PARAMETERS,
+      effectTags = {OptionEffectTag.EXECUTION},
+      defaultValue = "65536",
+      help =
+          "The maximum size in bytes of an output that is kept in memory with "
+              + "--experimental_in_memory_outputs. Larger outputs are written to the output tree.")
+  public long inMemoryOutputsMaxFileSize;
+
+  @Option(
+      name = "experimental_in_memory_outputs_capacity",
+      documentationCategory = OptionDocumentationCategory.OUTPUT_PARAMETERS,
+      effectTags = {OptionEffectTag.EXECUTION},
+      defaultValue = "268435456",
+      help =
+          "The maximum total size in bytes of the outputs kept in memory with "
+              + "--experimental_in_memory_outputs. When it is exceeded, the least recently used "
+              + "outputs are written to the output tree.")
+  public long inMemoryOutputsCapacity;
+}
@@ -0,0 +1,48 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.inmemoryoutputs;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputPrefetcher;
+import com.google.devtools.build.lib.actions.MetadataProvider;
+import com.google.devtools.build.lib.actions.cache.VirtualActionInput;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+
+/**
+ * Writes the inputs of a locally executed spawn that are kept in an {@link InMemoryOutputStore} to
+ * the output tree, so that the spawn can read them.
+ */
+class InMemoryOutputsPrefetcher implements ActionInputPrefetcher {
+  private final InMemoryOutputStore store;
+  private final Path execRoot;
+
+  InMemoryOutputsPrefetcher(InMemoryOutputStore store, Path execRoot) {
+    this.store = Preconditions.checkNotNull(store);
+    this.execRoot = Preconditions.checkNotNull(execRoot);
+  }
+
+  @Override
+  public void prefetchFiles(
+      Iterable<? extends ActionInput> inputs, MetadataProvider metadataProvider)
+      throws IOException {
+    for (ActionInput input : inputs) {
+      if (input instanceof VirtualActionInput) {
+        continue;
+      }
+      store.spill(execRoot.getRelative(input.getExecPath()).asFragment());
+    }
+  }
+}
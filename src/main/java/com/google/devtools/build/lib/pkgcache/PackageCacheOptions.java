@@ -151,6 +151,26 @@ public class PackageCacheOptions extends OptionsBase {
   )
   public boolean checkOutputFiles;
 
+  @Option(
+    name = "experimental_skyframe_invalidation_batch_size",
+    defaultValue = "1",
+    converter = InvalidationBatchSizeConverter.class,
+    documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    help =
+        "Number of nodes dirtied by each task when invalidating the Skyframe graph after source "
+            + "changes. Values greater than 1 dirty reverse deps in batches on a work-stealing "
+            + "pool sized to the number of cores."
+  )
+  public int invalidationBatchSize;
+
+  /** Converter for {@link #invalidationBatchSize}. */
+  public static class InvalidationBatchSizeConverter extends Converters.RangeConverter {
+    public InvalidationBatchSizeConverter() {
+      super(1, Integer.MAX_VALUE);
+    }
+  }
+
   /**
    * A converter from strings containing comma-separated names of packages to lists of strings.
    */
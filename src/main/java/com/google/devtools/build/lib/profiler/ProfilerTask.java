@@ -91,6 +91,8 @@ public enum ProfilerTask {
   ACTION_FS_STAGING("Staging per-action file system", 0x000000),
   REMOTE_CACHE_CHECK("remote action cache check", 0x9999CC),
   REMOTE_DOWNLOAD("remote output download", 0x9999CC),
+  VFS_MKDIR("VFS mkdir", 10000000, 0xCC9966, 0),
+  LOCAL_ACTION_RESOURCE_USAGE("local action resource usage", 0x996699),
   UNKNOWN("Unknown event",  0x339966);
 
   // Size of the ProfilerTask value space.
@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.runtime;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
@@ -57,6 +58,7 @@ public class BuildSummaryStatsModule extends BlazeModule {
   private long executionStartMillis;
   private long executionEndMillis;
   private SpawnStats spawnStats;
+  private SpawnResourceUsageStats resourceUsageStats;
   private Path profilePath;
 
   @Override
@@ -66,6 +68,7 @@ public class BuildSummaryStatsModule extends BlazeModule {
     this.actionKeyContext = env.getSkyframeExecutor().getActionKeyContext();
     commandStartMillis = env.getCommandStartTime();
     this.spawnStats = new SpawnStats();
+    this.resourceUsageStats = new SpawnResourceUsageStats();
     eventBus.register(this);
   }
 
@@ -75,11 +78,14 @@ public class BuildSummaryStatsModule extends BlazeModule {
     this.eventBus = null;
     this.reporter = null;
     this.spawnStats = null;
+    this.resourceUsageStats = null;
   }
 
   @Override
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
-    enabled = env.getOptions().getOptions(ExecutionOptions.class).enableCriticalPathProfiling;
+    ExecutionOptions executionOptions = env.getOptions().getOptions(ExecutionOptions.class);
+    enabled = executionOptions.enableCriticalPathProfiling;
+    statsSummary = executionOptions.statsSummary;
   }
 
   @Subscribe
@@ -106,6 +112,8 @@ public class BuildSummaryStatsModule extends BlazeModule {
   @AllowConcurrentEvents
   public void actionResultReceived(ActionResultReceivedEvent event) {
     spawnStats.countActionResult(event.getActionResult());
+    resourceUsageStats.countActionResult(
+        event.getAction().getMnemonic(), event.getActionResult());
   }
 
   @Subscribe
@@ -146,6 +154,12 @@ public class BuildSummaryStatsModule extends BlazeModule {
           }
         }
       }
+      ImmutableList<String> resourceUsage = resourceUsageStats.getSummary();
+      long nowNanos = Profiler.nanoTimeMaybe();
+      for (String line : resourceUsage) {
+        Profiler.instance()
+            .logEventAtTime(nowNanos, ProfilerTask.LOCAL_ACTION_RESOURCE_USAGE, line);
+      }
       if (profilePath != null) {
         // This leads to missing the afterCommand profiles of the other modules in the profile.
         // Since the BEP currently shuts down at the BuildCompleteEvent, we cannot just move posting
@@ -181,10 +195,25 @@ public class BuildSummaryStatsModule extends BlazeModule {
                     (now - commandStartMillis) / 1000.0,
                     overheadTime / 1000.0,
                     executionTime / 1000.0)));
+        if (!resourceUsage.isEmpty()) {
+          reporter.handle(
+              Event.info(
+                  "Local action resource usage:\n  " + Joiner.on("\n  ").join(resourceUsage)));
+        }
       } else {
         reporter.handle(Event.info(Joiner.on(", ").join(items)));
         reporter.handle(Event.info(spawnSummary));
       }
+      if (!resourceUsage.isEmpty()) {
+        String resourceUsageSummary = Joiner.on("\n").join(resourceUsage);
+        logger.info("Local action resource usage:\n" + resourceUsageSummary);
+        event
+            .getResult()
+            .getBuildToolLogCollection()
+            .addDirectValue(
+                "local action resource usage",
+                resourceUsageSummary.getBytes(StandardCharsets.UTF_8));
+      }
 
       event.getResult().getBuildToolLogCollection()
           .addDirectValue("process stats", spawnSummary.getBytes(StandardCharsets.UTF_8));
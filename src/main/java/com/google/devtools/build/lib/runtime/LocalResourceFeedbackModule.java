@@ -0,0 +1,96 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.ActionOwner;
+import com.google.devtools.build.lib.actions.ActionResultReceivedEvent;
+import com.google.devtools.build.lib.actions.ResourceManager;
+import com.google.devtools.build.lib.actions.ResourceUsageHistory;
+import com.google.devtools.build.lib.actions.SpawnResult;
+import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
+import com.google.devtools.build.lib.exec.ExecutorBuilder;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Feeds the resources that local actions used back into the estimates of the {@link
+ * ResourceManager} with --experimental_local_resource_feedback.
+ */
+public class LocalResourceFeedbackModule extends BlazeModule {
+
+  private static final Logger logger =
+      Logger.getLogger(LocalResourceFeedbackModule.class.getName());
+
+  /** The file in the output base that keeps the history across server restarts. */
+  private static final String HISTORY_FILE = "local_resource_usage";
+
+  /** The history of the output base at {@link #historyPath}, kept across commands. */
+  @Nullable private ResourceUsageHistory history;
+
+  @Nullable private Path historyPath;
+
+  /** The resource manager of the current command, if it uses the history. */
+  @Nullable private ResourceManager resourceManager;
+
+  @Override
+  public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
+    if (!request.getOptions(ExecutionOptions.class).localResourceFeedback) {
+      return;
+    }
+    Path path = env.getOutputBase().getChild(HISTORY_FILE);
+    if (history == null || !path.equals(historyPath)) {
+      try {
+        history = ResourceUsageHistory.readFrom(path);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Cannot read " + path + ", starting from scratch", e);
+        history = new ResourceUsageHistory();
+      }
+      historyPath = path;
+    }
+    resourceManager = env.getLocalResourceManager();
+    resourceManager.setResourceUsageHistory(history);
+    env.getEventBus().register(this);
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  public void actionResultReceived(ActionResultReceivedEvent event) {
+    Action action = event.getAction();
+    ActionOwner owner = action.getOwner();
+    for (SpawnResult result : event.getActionResult().spawnResults()) {
+      history.record(action.getMnemonic(), owner != null ? owner.getLabel() : null, result);
+    }
+  }
+
+  @Override
+  public void afterCommand() {
+    if (resourceManager == null) {
+      return;
+    }
+    resourceManager.setResourceUsageHistory(null);
+    resourceManager = null;
+    try {
+      history.writeTo(historyPath);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot write " + historyPath, e);
+    }
+  }
+}
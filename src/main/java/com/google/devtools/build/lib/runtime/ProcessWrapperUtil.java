@@ -57,6 +57,7 @@ public final class ProcessWrapperUtil {
     private Duration timeout;
     private Duration killDelay;
     private Path statisticsPath;
+    private Path cgroupPath;
 
     private CommandLineBuilder(String processWrapperPath, List<String> commandArguments) {
       this.processWrapperPath = processWrapperPath;
@@ -96,6 +97,12 @@ public final class ProcessWrapperUtil {
       return this;
     }
 
+    /** Sets the cgroup v2 directory to run the command in. */
+    public CommandLineBuilder setCgroupPath(Path cgroupPath) {
+      this.cgroupPath = cgroupPath;
+      return this;
+    }
+
     /** Build the command line to invoke a specific command using the process wrapper tool. */
     public List<String> build() {
       List<String> fullCommandLine = new ArrayList<>();
@@ -116,6 +123,9 @@ public final class ProcessWrapperUtil {
       if (statisticsPath != null) {
         fullCommandLine.add("--stats=" + statisticsPath);
       }
+      if (cgroupPath != null) {
+        fullCommandLine.add("--cgroup=" + cgroupPath);
+      }
 
       fullCommandLine.addAll(commandArguments);
 
@@ -0,0 +1,137 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.ActionResult;
+import com.google.devtools.build.lib.actions.SpawnResult;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Collects the resource usage of locally executed spawns per mnemonic, as measured by getrusage()
+ * in the process-wrapper and the linux-sandbox. Only spawns for which that measurement is
+ * available are counted.
+ */
+@ThreadSafe
+public class SpawnResourceUsageStats {
+
+  private final Map<String, MnemonicStats> statsByMnemonic = new ConcurrentHashMap<>();
+
+  public void countActionResult(String mnemonic, ActionResult actionResult) {
+    for (SpawnResult r : actionResult.spawnResults()) {
+      if (r.getUserTime().isPresent() || r.getMaximumResidentSetSizeKb().isPresent()) {
+        statsByMnemonic.computeIfAbsent(mnemonic, MnemonicStats::new).add(r);
+      }
+    }
+  }
+
+  /**
+   * Returns a human-readable summary of the resource usage, one line per mnemonic, starting with
+   * the one that used the most CPU time.
+   */
+  public ImmutableList<String> getSummary() {
+    List<MnemonicStats> list = new ArrayList<>(statsByMnemonic.values());
+    list.sort(Comparator.comparing(MnemonicStats::getCpuTimeMillis).reversed());
+    ImmutableList.Builder<String> result = ImmutableList.builder();
+    for (MnemonicStats stats : list) {
+      result.add(stats.toString());
+    }
+    return result.build();
+  }
+
+  @ThreadSafe
+  private static class MnemonicStats {
+    private final String mnemonic;
+
+    @GuardedBy("this")
+    private int spawns;
+
+    @GuardedBy("this")
+    private long wallTimeMillis;
+
+    @GuardedBy("this")
+    private long userTimeMillis;
+
+    @GuardedBy("this")
+    private long systemTimeMillis;
+
+    @GuardedBy("this")
+    private long peakMemoryKb;
+
+    @GuardedBy("this")
+    private long totalMemoryKb;
+
+    @GuardedBy("this")
+    private long blockInputOperations;
+
+    @GuardedBy("this")
+    private long blockOutputOperations;
+
+    @GuardedBy("this")
+    private long voluntaryContextSwitches;
+
+    @GuardedBy("this")
+    private long involuntaryContextSwitches;
+
+    MnemonicStats(String mnemonic) {
+      this.mnemonic = mnemonic;
+    }
+
+    synchronized void add(SpawnResult r) {
+      long memoryKb = r.getMaximumResidentSetSizeKb().orElse(0L);
+      spawns++;
+      wallTimeMillis += r.getWallTime().orElse(Duration.ZERO).toMillis();
+      userTimeMillis += r.getUserTime().orElse(Duration.ZERO).toMillis();
+      systemTimeMillis += r.getSystemTime().orElse(Duration.ZERO).toMillis();
+      peakMemoryKb = Math.max(peakMemoryKb, memoryKb);
+      totalMemoryKb += memoryKb;
+      blockInputOperations += r.getNumBlockInputOperations().orElse(0L);
+      blockOutputOperations += r.getNumBlockOutputOperations().orElse(0L);
+      voluntaryContextSwitches += r.getNumVoluntaryContextSwitches().orElse(0L);
+      involuntaryContextSwitches += r.getNumInvoluntaryContextSwitches().orElse(0L);
+    }
+
+    synchronized long getCpuTimeMillis() {
+      return userTimeMillis + systemTimeMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+      // The mean number of cores busy while a spawn ran, to compare against its ResourceSet.
+      double cores = wallTimeMillis > 0 ? (double) getCpuTimeMillis() / wallTimeMillis : 0;
+      return String.format(
+          "%s: %d process%s, peak memory %d MB (mean %d MB), user %.2fs, system %.2fs (%.2f cores),"
+              + " block I/O %d in / %d out, context switches %d voluntary / %d involuntary",
+          mnemonic,
+          spawns,
+          spawns == 1 ? "" : "es",
+          peakMemoryKb / 1024,
+          totalMemoryKb / spawns / 1024,
+          userTimeMillis / 1000.0,
+          systemTimeMillis / 1000.0,
+          cores,
+          blockInputOperations,
+          blockOutputOperations,
+          voluntaryContextSwitches,
+          involuntaryContextSwitches);
+    }
+  }
+}
@@ -31,6 +31,7 @@ import com.google.devtools.build.lib.exec.BinTools;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.SpawnRunner;
 import com.google.devtools.build.lib.exec.TreeDeleter;
+import com.google.devtools.build.lib.exec.local.SpawnCgroups;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.shell.ExecutionStatistics;
 import com.google.devtools.build.lib.shell.Subprocess;
@@ -112,6 +113,10 @@ abstract class AbstractSandboxSpawnRunner implements SpawnRunner {
       }
       return result;
     } finally {
+      SpawnCgroups.Cgroup cgroup = sandbox.getCgroup();
+      if (cgroup != null) {
+        cgroup.close();
+      }
       if (!sandboxOptions.sandboxDebug) {
         sandbox.delete();
       }
@@ -209,9 +214,22 @@ abstract class AbstractSandboxSpawnRunner implements SpawnRunner {
                     resourceUsage.getBlockInputOperations());
                 spawnResultBuilder.setNumInvoluntaryContextSwitches(
                     resourceUsage.getInvoluntaryContextSwitches());
+                spawnResultBuilder.setNumVoluntaryContextSwitches(
+                    resourceUsage.getVoluntaryContextSwitches());
+                spawnResultBuilder.setMaximumResidentSetSizeKb(
+                    resourceUsage.getMaximumResidentSetSizeKb());
               });
     }
 
+    SpawnCgroups.Cgroup cgroup = sandbox.getCgroup();
+    if (cgroup != null) {
+      cgroup.setResourceUsage(spawnResultBuilder);
+      String oomKillMessage = cgroup.getOomKillMessage();
+      if (oomKillMessage != null) {
+        outErr.getErrorStream().write((oomKillMessage + "\n").getBytes(UTF_8));
+      }
+    }
+
     return spawnResultBuilder.build();
   }
 
@@ -19,12 +19,19 @@ import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.exec.TreeDeleter;
+import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.UUID;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import javax.annotation.Nullable;
 
@@ -35,21 +42,42 @@ import javax.annotation.Nullable;
  * time via {@link #setThreads(int)}. While a build is running, this number should be low to not use
  * precious resources that could otherwise be used for the build itself. But when the build is
  * finished, this number should be raised to quickly go through any pending deletions.
+ *
+ * <p>The top levels of a tree are deleted directory by directory, so that the subtrees of a single
+ * large tree are deleted in parallel. Deeper subtrees are deleted by a single thread each, using
+ * the native recursive deletion of the file system.
+ *
+ * <p>If a trash directory is set via {@link #setTrashBase(Path)}, trees are first moved into it, so
+ * that their paths can be reused right away even if their deletion is still pending.
  */
 class AsynchronousTreeDeleter implements TreeDeleter {
 
   private static final Logger logger = Logger.getLogger(TreeDeleter.class.getName());
 
+  /** Depth of the directories of a tree whose entries are deleted as separate tasks. */
+  private static final int MAX_PARALLEL_DEPTH = 2;
+
   /** Thread pool used to execute asynchronous tree deletions; null in synchronous mode. */
   @Nullable private ThreadPoolExecutor service;
 
+  /** Number of trees and subtrees whose deletion is scheduled but not finished yet. */
+  private final AtomicInteger backlog = new AtomicInteger();
+
+  /** Directory into which trees are moved before being deleted; null to delete them in place. */
+  @Nullable private volatile Path trashBase;
+
+  /** Prefix of the names of the trees moved into the trash, distinct from that of other servers. */
+  private final String trashPrefix = UUID.randomUUID() + "-";
+
+  private final AtomicLong trashCounter = new AtomicLong();
+
   /** Constructs a new asynchronous tree deleter backed by just one thread. */
   AsynchronousTreeDeleter() {
     logger.info("Starting async tree deletion pool with 1 thread");
 
     ThreadFactory threadFactory =
         new ThreadFactoryBuilder()
-            .setNameFormat("tree-deleter")
+            .setNameFormat("tree-deleter-%d")
             .setDaemon(true)
             .setPriority(Thread.MIN_PRIORITY)
             .build();
@@ -63,47 +91,229 @@ class AsynchronousTreeDeleter implements TreeDeleter {
    * Resizes the thread pool to the given number of threads.
    *
    * <p>If the pool of active threads is larger than the requested number of threads, the resize
-   * will progressively happen as those active threads become inactive. If the requested size is
-   * zero, this will wait for all pending deletions to complete.
+   * will progressively happen as those active threads become inactive.
    *
-   * @param threads desired number of threads, or 0 to go back to synchronous deletion
+   * @param threads desired number of threads, which must be positive
    */
   void setThreads(int threads) {
     checkState(threads > 0, "Use SynchronousTreeDeleter if no async behavior is desired");
-    logger.info("Resizing async tree deletion pool to " + threads + " threads");
-    checkNotNull(service, "Cannot call setThreads after shutdown").setMaximumPoolSize(threads);
+    ThreadPoolExecutor service =
+        checkNotNull(this.service, "Cannot call setThreads after shutdown");
+    logger.info(
+        "Resizing async tree deletion pool to "
+            + threads
+            + " threads with a backlog of "
+            + backlog.get()
+            + " trees");
+    // The pool only grows beyond its core size when its queue is full, which an unbounded queue
+    // never is, so both sizes are changed. The core size must never exceed the maximum size.
+    if (threads > service.getMaximumPoolSize()) {
+      service.setMaximumPoolSize(threads);
+      service.setCorePoolSize(threads);
+    } else {
+      service.setCorePoolSize(threads);
+      service.setMaximumPoolSize(threads);
+    }
+  }
+
+  /**
+   * Sets the directory into which trees are moved before being deleted. The directory must be on
+   * the same file system as the trees; trees that cannot be moved into it are deleted in place.
+   *
+   * <p>Trees left in the directory by previous servers are scheduled for deletion.
+   */
+  void setTrashBase(Path trashBase) {
+    checkNotNull(service, "Cannot call setTrashBase after shutdown");
+    if (trashBase.equals(this.trashBase)) {
+      return;
+    }
+    try {
+      trashBase.createDirectoryAndParents();
+      for (Path leftover : trashBase.getDirectoryEntries()) {
+        if (!leftover.getBaseName().startsWith(trashPrefix)) {
+          schedule(leftover, /*parent=*/ null, /*depth=*/ 0);
+        }
+      }
+      this.trashBase = trashBase;
+    } catch (IOException e) {
+      logger.warning("Failed to set up trash directory " + trashBase + ": " + e);
+      this.trashBase = null;
+    }
+  }
+
+  /** Returns the number of trees and subtrees whose deletion is still pending. */
+  int getBacklog() {
+    return backlog.get();
   }
 
   @Override
   public void deleteTree(Path path) {
-    checkNotNull(service, "Cannot call deleteTree after shutdown")
-        .execute(
-            () -> {
-              try {
-                path.deleteTree();
-              } catch (IOException e) {
-                logger.warning("Failed to delete tree " + path + " asynchronously: " + e);
-              }
-            });
+    checkNotNull(service, "Cannot call deleteTree after shutdown");
+    schedule(moveToTrash(path), /*parent=*/ null, /*depth=*/ 0);
   }
 
   @Override
   public void deleteTreesBelow(Path path) {
-    checkNotNull(service, "Cannot call deleteTree after shutdown")
-        .execute(
-            () -> {
-              try {
-                path.deleteTreesBelow();
-              } catch (IOException e) {
-                logger.warning("Failed to delete contents of " + path + " asynchronously: " + e);
-              }
-            });
+    checkNotNull(service, "Cannot call deleteTree after shutdown");
+    Collection<Path> entries;
+    try {
+      entries = path.getDirectoryEntries();
+    } catch (IOException e) {
+      // Let the native deletion deal with unreadable directories, or report the error.
+      execute(
+          () -> {
+            try {
+              path.deleteTreesBelow();
+            } catch (IOException e2) {
+              logger.warning("Failed to delete contents of " + path + " asynchronously: " + e2);
+            }
+          });
+      return;
+    }
+    for (Path entry : entries) {
+      schedule(moveToTrash(entry), /*parent=*/ null, /*depth=*/ 1);
+    }
+  }
+
+  /**
+   * Moves the tree at {@code path} into the trash and schedules its deletion, so that {@code path}
+   * can be reused right away. Returns false, without deleting anything, if the tree can't be moved.
+   */
+  boolean tryDeleteTreeInTrash(Path path) {
+    checkNotNull(service, "Cannot call deleteTree after shutdown");
+    Path trashPath = moveToTrash(path);
+    if (trashPath.equals(path)) {
+      return false;
+    }
+    schedule(trashPath, /*parent=*/ null, /*depth=*/ 0);
+    return true;
+  }
+
+  /** Moves {@code path} into the trash, if possible. Returns the path to delete. */
+  private Path moveToTrash(Path path) {
+    Path trashBase = this.trashBase;
+    if (trashBase == null) {
+      return path;
+    }
+    Path trashPath = trashBase.getChild(trashPrefix + trashCounter.incrementAndGet());
+    try {
+      path.renameTo(trashPath);
+      return trashPath;
+    } catch (IOException e) {
+      // The path may be on a different file system than the trash, or may be gone already.
+      return path;
+    }
+  }
+
+  /** Schedules the deletion of the tree at {@code path}, which is {@code depth} levels deep. */
+  private void schedule(Path path, @Nullable PendingDirectory parent, int depth) {
+    execute(() -> deleteNow(path, parent, depth));
+  }
+
+  private void execute(Runnable deletion) {
+    backlog.incrementAndGet();
+    Runnable task =
+        () -> {
+          try {
+            deletion.run();
+          } finally {
+            backlog.decrementAndGet();
+          }
+        };
+    ThreadPoolExecutor service = this.service;
+    if (service == null) {
+      // The deleter was shut down while a tree was being split into subtrees.
+      task.run();
+      return;
+    }
+    try {
+      service.execute(task);
+    } catch (RejectedExecutionException e) {
+      task.run();
+    }
+  }
+
+  private void deleteNow(Path path, @Nullable PendingDirectory parent, int depth) {
+    Collection<Dirent> entries = null;
+    if (depth < MAX_PARALLEL_DEPTH && path.isDirectory(Symlinks.NOFOLLOW)) {
+      try {
+        // Grant the permissions needed to list the directory and delete its entries.
+        path.chmod(0700);
+        entries = path.readdir(Symlinks.NOFOLLOW);
+      } catch (IOException e) {
+        // Fall back to the native deletion, which reports the error if it fails as well.
+      }
+    }
+    if (entries == null) {
+      try {
+        path.deleteTree();
+      } catch (IOException e) {
+        logger.warning("Failed to delete tree " + path + " asynchronously: " + e);
+      }
+      if (parent != null) {
+        parent.release();
+      }
+      return;
+    }
+
+    // One pending task for each subdirectory, and one for the loop below.
+    PendingDirectory directory = new PendingDirectory(path, parent, 1);
+    for (Dirent entry : entries) {
+      Path child = path.getChild(entry.getName());
+      if (entry.getType() == Dirent.Type.DIRECTORY || entry.getType() == Dirent.Type.UNKNOWN) {
+        directory.acquire();
+        schedule(child, directory, depth + 1);
+      } else {
+        try {
+          child.delete();
+        } catch (IOException e) {
+          logger.warning("Failed to delete " + child + " asynchronously: " + e);
+        }
+      }
+    }
+    directory.release();
+  }
+
+  /** A directory that is deleted once the deletions of its subdirectories are finished. */
+  private static final class PendingDirectory {
+    private final Path path;
+    @Nullable private final PendingDirectory parent;
+    private final AtomicInteger pending;
+
+    PendingDirectory(Path path, @Nullable PendingDirectory parent, int pending) {
+      this.path = path;
+      this.parent = parent;
+      this.pending = new AtomicInteger(pending);
+    }
+
+    void acquire() {
+      pending.incrementAndGet();
+    }
+
+    void release() {
+      if (pending.decrementAndGet() > 0) {
+        return;
+      }
+      try {
+        path.delete();
+      } catch (IOException e) {
+        logger.warning("Failed to delete directory " + path + " asynchronously: " + e);
+      }
+      if (parent != null) {
+        parent.release();
+      }
+    }
   }
 
   @Override
   public void shutdown() {
     if (service != null) {
-      logger.info("Finishing " + service.getTaskCount() + " pending async tree deletions");
+      logger.info(
+          "Finishing "
+              + service.getTaskCount()
+              + " pending async tree deletions with a backlog of "
+              + backlog.get()
+              + " trees");
       service.shutdown();
       service = null;
     }
@@ -18,13 +18,24 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
 import com.google.devtools.build.lib.util.OsUtils;
+import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.IOException;
 import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 /** Utility functions for the {@code linux-sandbox} embedded tool. */
 public final class LinuxSandboxUtil {
@@ -50,6 +61,108 @@ public final class LinuxSandboxUtil {
         .setCommandArguments(commandArguments);
   }
 
+  /**
+   * The minimum number of inputs a directory must hold to be bind-mounted instead of symlinked;
+   * below that, the extra mount (and read-only remount) costs more than it saves.
+   */
+  static final int MIN_INPUTS_PER_MOUNTED_DIRECTORY = 8;
+
+  /**
+   * Returns the input directories that can be bind-mounted into the sandbox as a whole, in place of
+   * one symlink per file, without making any undeclared file visible to the spawn.
+   *
+   * <p>A directory qualifies if it has at least {@link #MIN_INPUTS_PER_MOUNTED_DIRECTORY} inputs,
+   * every one of them maps to the same path below {@code execRoot}, it has no subdirectories, and
+   * every file in it is one of the inputs, so that the mounted view is exactly what the spawn
+   * declared. Directories that will receive outputs or that contain writable directories don't
+   * qualify, as the mount is read-only.
+   *
+   * <p>Only source and external repository directories qualify: nothing below {@code outputDir}
+   * does. Other actions may write to an output directory at any time, including while the spawn
+   * runs, so the files in it when this checks it are no bound on what the spawn would see.
+   *
+   * @param outputDir the output directory (e.g. {@code bazel-out}) relative to {@code execRoot}
+   */
+  static ImmutableSet<PathFragment> findMountableInputDirectories(
+      Path execRoot,
+      PathFragment outputDir,
+      SandboxInputs inputs,
+      SandboxOutputs outputs,
+      Set<PathFragment> writableDirs) {
+    Map<PathFragment, Set<String>> inputsByDirectory = new HashMap<>();
+    Set<PathFragment> disqualified = new HashSet<>();
+    for (Map.Entry<PathFragment, Path> entry : inputs.getFiles().entrySet()) {
+      PathFragment directory = entry.getKey().getParentDirectory();
+      if (directory == null || directory.isEmpty() || directory.startsWith(outputDir)) {
+        continue;
+      }
+      Path source = entry.getValue();
+      if (source == null || !source.equals(execRoot.getRelative(entry.getKey()))) {
+        disqualified.add(directory);
+      } else {
+        inputsByDirectory
+            .computeIfAbsent(directory, k -> new HashSet<>())
+            .add(entry.getKey().getBaseName());
+      }
+    }
+    for (PathFragment symlink : inputs.getSymlinks().keySet()) {
+      disqualified.add(symlink.getParentDirectory());
+    }
+
+    ImmutableSet.Builder<PathFragment> mountable = ImmutableSet.builder();
+    for (Map.Entry<PathFragment, Set<String>> entry : inputsByDirectory.entrySet()) {
+      PathFragment directory = entry.getKey();
+      Set<String> names = entry.getValue();
+      if (names.size() < MIN_INPUTS_PER_MOUNTED_DIRECTORY
+          || disqualified.contains(directory)
+          || startsWithAny(Iterables.concat(outputs.files(), outputs.dirs()), directory)
+          || startsWithAny(writableDirs, directory)) {
+        continue;
+      }
+      Collection<Dirent> dirents;
+      try {
+        dirents = execRoot.getRelative(directory).readdir(Symlinks.FOLLOW);
+      } catch (IOException e) {
+        // Let the symlinks fail with a proper error if the directory is really unreadable.
+        continue;
+      }
+      if (dirents.size() != names.size()) {
+        continue;
+      }
+      boolean exact = true;
+      for (Dirent dirent : dirents) {
+        if (dirent.getType() == Dirent.Type.DIRECTORY || !names.contains(dirent.getName())) {
+          exact = false;
+          break;
+        }
+      }
+      if (exact) {
+        mountable.add(directory);
+      }
+    }
+    return mountable.build();
+  }
+
+  /** Returns {@code inputs} without the files directly in one of {@code directories}. */
+  static SandboxInputs withoutInputsIn(SandboxInputs inputs, Set<PathFragment> directories) {
+    Map<PathFragment, Path> files = new TreeMap<>();
+    for (Map.Entry<PathFragment, Path> entry : inputs.getFiles().entrySet()) {
+      if (!directories.contains(entry.getKey().getParentDirectory())) {
+        files.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return new SandboxInputs(files, inputs.getSymlinks());
+  }
+
+  private static boolean startsWithAny(Iterable<PathFragment> paths, PathFragment prefix) {
+    for (PathFragment path : paths) {
+      if (path.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * A builder class for constructing the full command line to run a command using the {@code
    * linux-sandbox} tool.
@@ -65,6 +178,7 @@ public final class LinuxSandboxUtil {
     private Set<Path> tmpfsDirectories = ImmutableSet.of();
     private Map<Path, Path> bindMounts = ImmutableMap.of();
     private Path statisticsPath;
+    private Path cgroupPath;
     private boolean useFakeHostname = false;
     private boolean createNetworkNamespace = false;
     private boolean useFakeRoot = false;
@@ -143,6 +257,12 @@ public final class LinuxSandboxUtil {
       return this;
     }
 
+    /** Sets the cgroup v2 directory to run the command in. */
+    public CommandLineBuilder setCgroupPath(Path cgroupPath) {
+      this.cgroupPath = cgroupPath;
+      return this;
+    }
+
     /** Sets whether to use a fake 'localhost' hostname inside the sandbox. */
     public CommandLineBuilder setUseFakeHostname(boolean useFakeHostname) {
       this.useFakeHostname = useFakeHostname;
@@ -224,6 +344,9 @@ public final class LinuxSandboxUtil {
       if (statisticsPath != null) {
         commandLineBuilder.add("-S", statisticsPath.getPathString());
       }
+      if (cgroupPath != null) {
+        commandLineBuilder.add("-C", cgroupPath.getPathString());
+      }
       if (useFakeHostname) {
         commandLineBuilder.add("-H");
       }
@@ -27,22 +27,28 @@ import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.exec.TreeDeleter;
 import com.google.devtools.build.lib.exec.local.LocalEnvProvider;
+import com.google.devtools.build.lib.exec.local.LocalExecutionOptions;
 import com.google.devtools.build.lib.exec.local.PosixLocalEnvProvider;
+import com.google.devtools.build.lib.exec.local.SpawnCgroups;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
 import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.Symlinks;
 import java.io.File;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import javax.annotation.Nullable;
 
@@ -98,6 +104,8 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
   private final @Nullable SandboxfsProcess sandboxfsProcess;
   private final boolean sandboxfsMapSymlinkTargets;
   private final TreeDeleter treeDeleter;
+  @Nullable private final SandboxStash sandboxStash;
+  @Nullable private final LocalExecutionOptions localExecutionOptions;
 
   /**
    * Creates a sandboxed spawn runner that uses the {@code linux-sandbox} tool.
@@ -110,6 +118,8 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
    * @param sandboxfsProcess instance of the sandboxfs process to use; may be null for none, in
    *     which case the runner uses a symlinked sandbox
    * @param sandboxfsMapSymlinkTargets map the targets of symlinks within the sandbox if true
+   * @param sandboxStash the stash to reuse the exec roots of earlier spawns from; may be null to
+   *     create every exec root from scratch
    */
   LinuxSandboxedSpawnRunner(
       CommandEnvironment cmdEnv,
@@ -119,7 +129,8 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
       Duration timeoutKillDelay,
       @Nullable SandboxfsProcess sandboxfsProcess,
       boolean sandboxfsMapSymlinkTargets,
-      TreeDeleter treeDeleter) {
+      TreeDeleter treeDeleter,
+      @Nullable SandboxStash sandboxStash) {
     super(cmdEnv);
     this.fileSystem = cmdEnv.getRuntime().getFileSystem();
     this.blazeDirs = cmdEnv.getDirectories();
@@ -134,6 +145,8 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
     this.sandboxfsMapSymlinkTargets = sandboxfsMapSymlinkTargets;
     this.localEnvProvider = new PosixLocalEnvProvider(cmdEnv.getClientEnv());
     this.treeDeleter = treeDeleter;
+    this.sandboxStash = sandboxStash;
+    this.localExecutionOptions = cmdEnv.getOptions().getOptions(LocalExecutionOptions.class);
   }
 
   @Override
@@ -151,7 +164,11 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
     // the normal execroot does.
     Path sandboxExecRoot = sandboxPath.getRelative("execroot").getRelative(execRoot.getBaseName());
     sandboxExecRoot.getParentDirectory().createDirectory();
-    sandboxExecRoot.createDirectory();
+    if (sandboxfsProcess != null
+        || sandboxStash == null
+        || !sandboxStash.takeStashedExecRoot(spawn.getMnemonic(), sandboxExecRoot)) {
+      sandboxExecRoot.createDirectory();
+    }
 
     Map<String, String> environment =
         localEnvProvider.rewriteLocalEnv(spawn.getEnvironment(), binTools, "/tmp");
@@ -159,12 +176,40 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
     ImmutableSet<Path> writableDirs = getWritableDirs(sandboxExecRoot, environment);
     SandboxOutputs outputs = SandboxHelpers.getOutputs(spawn);
     Duration timeout = context.getTimeout();
+    SandboxInputs inputs =
+        SandboxHelpers.processInputFiles(
+            spawn,
+            context,
+            execRoot,
+            getSandboxOptions().symlinkedSandboxExpandsTreeArtifactsInRunfilesTree);
+    SortedMap<Path, Path> bindMounts = getReadOnlyBindMounts(blazeDirs, sandboxExecRoot);
+
+    ImmutableSet<PathFragment> mountedInputDirs = ImmutableSet.of();
+    if (sandboxfsProcess == null && getSandboxOptions().linuxSandboxMountInputDirectories) {
+      Set<PathFragment> writableExecPaths = new HashSet<>();
+      for (Path dir : writableDirs) {
+        if (dir.startsWith(sandboxExecRoot)) {
+          writableExecPaths.add(dir.relativeTo(sandboxExecRoot));
+        }
+      }
+      mountedInputDirs =
+          LinuxSandboxUtil.findMountableInputDirectories(
+              execRoot,
+              PathFragment.create(blazeDirs.getRelativeOutputPath()),
+              inputs,
+              outputs,
+              writableExecPaths);
+      for (PathFragment dir : mountedInputDirs) {
+        bindMounts.put(sandboxExecRoot.getRelative(dir), execRoot.getRelative(dir));
+      }
+      inputs = LinuxSandboxUtil.withoutInputsIn(inputs, mountedInputDirs);
+    }
 
     LinuxSandboxUtil.CommandLineBuilder commandLineBuilder =
         LinuxSandboxUtil.commandLineBuilder(linuxSandbox, spawn.getArguments())
             .setWritableFilesAndDirectories(writableDirs)
             .setTmpfsDirectories(getTmpfsPaths())
-            .setBindMounts(getReadOnlyBindMounts(blazeDirs, sandboxExecRoot))
+            .setBindMounts(bindMounts)
             .setUseFakeHostname(getSandboxOptions().sandboxFakeHostname)
             .setCreateNetworkNamespace(
                 !(allowNetwork
@@ -189,38 +234,70 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
       commandLineBuilder.setStatisticsPath(statisticsPath);
     }
 
+    SpawnCgroups.Cgroup cgroup = createCgroup(spawn);
+    if (cgroup != null) {
+      commandLineBuilder.setCgroupPath(cgroup.getPath());
+    }
+
     if (sandboxfsProcess != null) {
       return new SandboxfsSandboxedSpawn(
           sandboxfsProcess,
           sandboxPath,
           commandLineBuilder.build(),
           environment,
-          SandboxHelpers.processInputFiles(
-              spawn,
-              context,
-              execRoot,
-              getSandboxOptions().symlinkedSandboxExpandsTreeArtifactsInRunfilesTree),
+          inputs,
           outputs,
           ImmutableSet.of(),
           sandboxfsMapSymlinkTargets,
           treeDeleter,
-          statisticsPath);
+          statisticsPath) {
+        @Override
+        public SpawnCgroups.Cgroup getCgroup() {
+          return cgroup;
+        }
+      };
     } else {
+      ImmutableSet<PathFragment> mountPoints = mountedInputDirs;
       return new SymlinkedSandboxedSpawn(
           sandboxPath,
           sandboxExecRoot,
           commandLineBuilder.build(),
           environment,
-          SandboxHelpers.processInputFiles(
-              spawn,
-              context,
-              execRoot,
-              getSandboxOptions().symlinkedSandboxExpandsTreeArtifactsInRunfilesTree),
+          inputs,
           outputs,
           writableDirs,
           treeDeleter,
-          statisticsPath);
+          statisticsPath,
+          sandboxStash,
+          spawn.getMnemonic()) {
+        @Override
+        public void createFileSystem() throws IOException {
+          super.createFileSystem();
+          // linux-sandbox needs a directory to mount each input directory on.
+          for (PathFragment dir : mountPoints) {
+            sandboxExecRoot.getRelative(dir).createDirectoryAndParents();
+          }
+        }
+
+        @Override
+        public SpawnCgroups.Cgroup getCgroup() {
+          return cgroup;
+        }
+      };
+    }
+  }
+
+  /** Creates the cgroup to run the spawn in with --experimental_local_cgroups, if possible. */
+  @Nullable
+  private SpawnCgroups.Cgroup createCgroup(Spawn spawn) {
+    if (localExecutionOptions == null || !localExecutionOptions.useCgroups) {
+      return null;
     }
+    SpawnCgroups cgroups = SpawnCgroups.getInstance();
+    return cgroups != null
+        ? cgroups.createCgroup(
+            spawn.getLocalResources(), localExecutionOptions.cgroupsMemoryLimitFactor)
+        : null;
   }
 
   @Override
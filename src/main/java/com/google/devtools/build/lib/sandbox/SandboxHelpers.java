@@ -28,14 +28,19 @@ import com.google.devtools.build.lib.actions.cache.VirtualActionInput.EmptyActio
 import com.google.devtools.build.lib.analysis.test.TestConfiguration;
 import com.google.devtools.build.lib.exec.SpawnRunner.SpawnExecutionContext;
 import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import com.google.devtools.common.options.OptionsParsingResult;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 /** Helper methods that are shared by the different sandboxing strategies in this package. */
@@ -174,6 +179,71 @@ public final class SandboxHelpers {
     return SandboxOutputs.create(files.build(), dirs.build());
   }
 
+  /**
+   * Deletes everything below {@code workDir} except the files in {@code filesToKeep} and the
+   * symlinks that already point where {@code inputs} need them to, so that a directory left behind
+   * by an earlier spawn can be turned into the exec root of the next one by creating just the
+   * missing inputs.
+   *
+   * @return the inputs that are already in place
+   */
+  public static Set<PathFragment> cleanExisting(
+      Path workDir, SandboxInputs inputs, Set<PathFragment> filesToKeep) throws IOException {
+    Set<PathFragment> upToDateInputs = new HashSet<>();
+    cleanExisting(workDir, workDir, inputs, filesToKeep, upToDateInputs);
+    return upToDateInputs;
+  }
+
+  private static void cleanExisting(
+      Path root,
+      Path workDir,
+      SandboxInputs inputs,
+      Set<PathFragment> filesToKeep,
+      Set<PathFragment> upToDateInputs)
+      throws IOException {
+    Collection<Dirent> dirents;
+    try {
+      dirents = root.readdir(Symlinks.NOFOLLOW);
+    } catch (IOException e) {
+      // Actions may leave behind directories they removed permissions from; get them back.
+      root.setReadable(true);
+      root.setExecutable(true);
+      dirents = root.readdir(Symlinks.NOFOLLOW);
+    }
+    for (Dirent dirent : dirents) {
+      Path p = root.getChild(dirent.getName());
+      if (dirent.getType() != Dirent.Type.DIRECTORY) {
+        PathFragment relativePath = p.relativeTo(workDir);
+        if (filesToKeep.contains(relativePath)) {
+          continue;
+        }
+        if (dirent.getType() == Dirent.Type.SYMLINK) {
+          Path target = inputs.getFiles().get(relativePath);
+          if (target != null && p.readSymbolicLink().equals(target.asFragment())) {
+            upToDateInputs.add(relativePath);
+            continue;
+          }
+        }
+        deleteChild(root, p);
+      } else {
+        cleanExisting(p, workDir, inputs, filesToKeep, upToDateInputs);
+        if (p.readdir(Symlinks.NOFOLLOW).isEmpty()) {
+          deleteChild(root, p);
+        }
+      }
+    }
+  }
+
+  /** Deletes {@code child} of {@code dir}, making {@code dir} writable if that is needed. */
+  private static void deleteChild(Path dir, Path child) throws IOException {
+    try {
+      child.delete();
+    } catch (IOException e) {
+      dir.setWritable(true);
+      child.delete();
+    }
+  }
+
   /**
    * Returns true if the build options are set in a way that requires network access for all
    * actions. This is separate from {@link Spawns#requiresNetwork} to avoid having to keep a
@@ -29,6 +29,7 @@ import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildInterruptedEvent;
 import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
 import com.google.devtools.build.lib.exec.RunfilesTreeUpdater;
 import com.google.devtools.build.lib.exec.SpawnRunner;
@@ -53,12 +54,14 @@ import java.io.IOException;
 import java.time.Duration;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.logging.Logger;
 import javax.annotation.Nullable;
 
 /**
  * This module provides the Sandbox spawn strategy.
  */
 public final class SandboxModule extends BlazeModule {
+  private static final Logger logger = Logger.getLogger(SandboxModule.class.getName());
 
   /** Tracks whether we are issuing the very first build within this Bazel server instance. */
   private static boolean firstBuild = true;
@@ -97,6 +100,12 @@ public final class SandboxModule extends BlazeModule {
    */
   private boolean shouldCleanupSandboxBase;
 
+  /**
+   * The exec roots of finished spawns that later spawns can reuse, if enabled. Kept across builds,
+   * as long as the sandbox base stays the same.
+   */
+  @Nullable private SandboxStash sandboxStash;
+
   @Override
   public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
     return "build".equals(command.name())
@@ -227,6 +236,13 @@ public final class SandboxModule extends BlazeModule {
       if (!(treeDeleter instanceof AsynchronousTreeDeleter)) {
         treeDeleter = new AsynchronousTreeDeleter();
       }
+      AsynchronousTreeDeleter asyncTreeDeleter = (AsynchronousTreeDeleter) treeDeleter;
+      // Go back to a single thread for the pending deletions of previous builds, which were given
+      // more threads while the server was idle.
+      asyncTreeDeleter.setThreads(1);
+      // The trash is next to the sandbox base, not in it, so that the base itself can be moved.
+      asyncTreeDeleter.setTrashBase(
+          sandboxBase.getParentDirectory().getChild(sandboxBase.getBaseName() + "-trash"));
     }
 
     Path mountPoint = sandboxBase.getRelative("sandboxfs");
@@ -249,10 +265,25 @@ public final class SandboxModule extends BlazeModule {
     // wipe old contents to avoid reusing stale directories.
     if (firstBuild && sandboxBase.exists()) {
       cmdEnv.getReporter().handle(Event.info("Deleting stale sandbox base " + sandboxBase));
-      sandboxBase.deleteTree();
+      if (!(treeDeleter instanceof AsynchronousTreeDeleter)
+          || !((AsynchronousTreeDeleter) treeDeleter).tryDeleteTreeInTrash(sandboxBase)) {
+        sandboxBase.deleteTree();
+      }
     }
     firstBuild = false;
 
+    if (sandboxStash != null
+        && (!options.reuseSandboxDirectories
+            || !sandboxStash.getSandboxBase().equals(sandboxBase))) {
+      // The stash survives the cleanup at the end of each command, so nothing else would ever
+      // delete the exec roots it holds.
+      treeDeleter.deleteTree(sandboxStash.getStashBase());
+      sandboxStash = null;
+    }
+    if (options.reuseSandboxDirectories && sandboxStash == null) {
+      sandboxStash = new SandboxStash(sandboxBase);
+    }
+
     PathFragment sandboxfsPath = PathFragment.create(options.sandboxfsPath);
     boolean useSandboxfs;
     try (SilentCloseable c = Profiler.instance().profile("shouldUseSandboxfs")) {
@@ -296,7 +327,8 @@ public final class SandboxModule extends BlazeModule {
                   sandboxBase,
                   cmdEnv.getRuntime().getProductName(),
                   timeoutKillDelay,
-                  treeDeleter));
+                  treeDeleter,
+                  sandboxStash));
       spawnRunners.add(spawnRunner);
       builder.addActionContext(
           new ProcessWrapperSandboxedStrategy(cmdEnv.getExecRoot(), spawnRunner));
@@ -343,7 +375,8 @@ public final class SandboxModule extends BlazeModule {
                   timeoutKillDelay,
                   sandboxfsProcess,
                   options.sandboxfsMapSymlinkTargets,
-                  treeDeleter));
+                  treeDeleter,
+                  sandboxStash));
       spawnRunners.add(spawnRunner);
       builder.addActionContext(new LinuxSandboxedStrategy(cmdEnv.getExecRoot(), spawnRunner));
     }
@@ -359,7 +392,8 @@ public final class SandboxModule extends BlazeModule {
                   timeoutKillDelay,
                   sandboxfsProcess,
                   options.sandboxfsMapSymlinkTargets,
-                  treeDeleter));
+                  treeDeleter,
+                  sandboxStash));
       spawnRunners.add(spawnRunner);
       builder.addActionContext(new DarwinSandboxedStrategy(cmdEnv.getExecRoot(), spawnRunner));
     }
@@ -429,7 +463,7 @@ public final class SandboxModule extends BlazeModule {
         LocalEnvProvider.forCurrentOs(env.getClientEnv()),
         env.getBlazeWorkspace().getBinTools(),
         // TODO(buchgr): Replace singleton by a command-scoped RunfilesTreeUpdater
-        RunfilesTreeUpdater.INSTANCE);
+        RunfilesTreeUpdater.forOptions(env.getOptions().getOptions(ExecutionOptions.class)));
   }
 
   private static final class SandboxFallbackSpawnRunner implements SpawnRunner {
@@ -518,6 +552,14 @@ public final class SandboxModule extends BlazeModule {
       treeDeleter.setThreads(asyncTreeDeleteThreads);
     }
 
+    if (sandboxStash != null) {
+      String statistics = sandboxStash.getAndResetStatistics();
+      logger.info(statistics);
+      if (options != null && options.sandboxDebug) {
+        env.getReporter().handle(Event.info(statistics));
+      }
+    }
+
     if (shouldCleanupSandboxBase) {
       try {
         checkNotNull(sandboxBase, "shouldCleanupSandboxBase implies sandboxBase has been set");
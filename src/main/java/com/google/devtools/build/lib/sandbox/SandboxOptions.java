@@ -252,12 +252,13 @@ public class SandboxOptions extends OptionsBase {
 
   @Option(
     name = "experimental_collect_local_sandbox_action_metrics",
-    defaultValue = "false",
+    defaultValue = "true",
     documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
     effectTags = {OptionEffectTag.EXECUTION},
     help =
-        "When enabled, execution statistics (such as user and system time) are recorded for "
-            + "locally executed actions which use sandboxing"
+        "When enabled (the default), execution statistics (such as user and system time, peak "
+            + "memory, block I/O and context switches) are recorded for locally executed actions "
+            + "which use sandboxing"
   )
   public boolean collectLocalSandboxExecutionStatistics;
 
@@ -355,6 +356,30 @@ public class SandboxOptions extends OptionsBase {
               + " grows to the size specified by this flag when the server is idle.")
   public int asyncTreeDeleteIdleThreads;
 
+  @Option(
+      name = "experimental_reuse_sandbox_directories",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If enabled, the symlinked exec roots of finished sandboxed actions are kept and reused "
+              + "by later actions with the same mnemonic, which then only create and delete the "
+              + "input symlinks that differ, instead of building the whole tree from scratch.")
+  public boolean reuseSandboxDirectories;
+
+  @Option(
+      name = "experimental_linux_sandbox_mount_input_directories",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If enabled, the linux-sandbox bind-mounts input directories read-only into the sandbox "
+              + "instead of creating one symlink per input file, for every source or external "
+              + "repository directory whose files are all declared inputs of the action and that "
+              + "has no subdirectories. Other inputs, including all generated files, are still "
+              + "symlinked, so undeclared files stay invisible to the action.")
+  public boolean linuxSandboxMountInputDirectories;
+
   /** Converter for the number of threads used for asynchronous tree deletion. */
   public static final class AsyncTreeDeletesConverter extends ResourceConverter {
     public AsyncTreeDeletesConverter() {
@@ -0,0 +1,115 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Keeps the exec roots of finished sandboxed spawns around, so that later spawns with the same
+ * mnemonic, which usually have mostly the same inputs, can reuse them instead of creating one
+ * symlink per input from scratch.
+ *
+ * <p>The stashed exec roots live in a directory next to the ones of the spawn runners, so they
+ * survive the cleanup of the sandbox base at the end of a command.
+ */
+@ThreadSafe
+final class SandboxStash {
+  private final Path stashBase;
+
+  @GuardedBy("this")
+  private final Map<String, Deque<Path>> stashedExecRoots = new HashMap<>();
+
+  private final AtomicInteger stashCounter = new AtomicInteger();
+  private final AtomicLong symlinksCreated = new AtomicLong();
+  private final AtomicLong symlinksReused = new AtomicLong();
+
+  SandboxStash(Path sandboxBase) {
+    this.stashBase = sandboxBase.getRelative("sandbox_stash");
+  }
+
+  Path getStashBase() {
+    return stashBase;
+  }
+
+  Path getSandboxBase() {
+    return stashBase.getParentDirectory();
+  }
+
+  /**
+   * Moves a stashed exec root of a spawn with {@code mnemonic} to {@code sandboxExecRoot}, which
+   * must not exist yet. Returns false if there is none, in which case nothing changed.
+   */
+  boolean takeStashedExecRoot(String mnemonic, Path sandboxExecRoot) {
+    while (true) {
+      Path stashed;
+      synchronized (this) {
+        Deque<Path> stashedForMnemonic = stashedExecRoots.get(mnemonic);
+        stashed = stashedForMnemonic != null ? stashedForMnemonic.pollFirst() : null;
+      }
+      if (stashed == null) {
+        return false;
+      }
+      try {
+        sandboxExecRoot.getParentDirectory().createDirectoryAndParents();
+        stashed.renameTo(sandboxExecRoot);
+        return true;
+      } catch (IOException e) {
+        // Somebody deleted it behind our back; try the next one.
+      }
+    }
+  }
+
+  /**
+   * Moves {@code sandboxExecRoot}, whose outputs have been moved out already, into the stash of
+   * {@code mnemonic}. Returns false if that failed, in which case the caller has to delete it.
+   */
+  boolean stashExecRoot(String mnemonic, Path sandboxExecRoot) {
+    Path target =
+        stashBase
+            .getRelative(mnemonic)
+            .getRelative(Integer.toString(stashCounter.incrementAndGet()));
+    try {
+      target.getParentDirectory().createDirectoryAndParents();
+      sandboxExecRoot.renameTo(target);
+    } catch (IOException e) {
+      return false;
+    }
+    synchronized (this) {
+      stashedExecRoots.computeIfAbsent(mnemonic, k -> new ArrayDeque<>()).addFirst(target);
+    }
+    return true;
+  }
+
+  /** Records how many input symlinks a spawn had to create and how many it found in place. */
+  void recordSymlinks(long created, long reused) {
+    symlinksCreated.addAndGet(created);
+    symlinksReused.addAndGet(reused);
+  }
+
+  /** Returns and resets the symlink statistics as a human-readable message. */
+  String getAndResetStatistics() {
+    return String.format(
+        "Sandbox stash: %d input symlinks created, %d reused",
+        symlinksCreated.getAndSet(0), symlinksReused.getAndSet(0));
+  }
+}
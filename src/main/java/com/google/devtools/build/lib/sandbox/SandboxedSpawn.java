@@ -14,6 +14,7 @@
 
 package com.google.devtools.build.lib.sandbox;
 
+import com.google.devtools.build.lib.exec.local.SpawnCgroups;
 import com.google.devtools.build.lib.vfs.Path;
 import java.io.IOException;
 import java.util.List;
@@ -46,6 +47,12 @@ interface SandboxedSpawn {
   @Nullable
   Path getStatisticsPath();
 
+  /** Returns the cgroup that the subprocess runs in, if any. */
+  @Nullable
+  default SpawnCgroups.Cgroup getCgroup() {
+    return null;
+  }
+
   /**
    * Creates the sandboxed execution root, making all {@code inputs} available for reading, making
    * sure that the parent directories of all {@code outputs} and that all {@code writableDirs}
@@ -14,11 +14,14 @@
 
 package com.google.devtools.build.lib.sandbox;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.exec.TreeDeleter;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -29,6 +32,12 @@ import javax.annotation.Nullable;
  * destination.
  */
 public class SymlinkedSandboxedSpawn extends AbstractContainerizingSandboxedSpawn {
+  private final SandboxInputs inputs;
+  @Nullable private final SandboxStash sandboxStash;
+  @Nullable private final String mnemonic;
+
+  /** The inputs found in place in a reused exec root by {@link #createFileSystem}. */
+  private Set<PathFragment> upToDateInputs = ImmutableSet.of();
 
   public SymlinkedSandboxedSpawn(
       Path sandboxPath,
@@ -40,6 +49,37 @@ public class SymlinkedSandboxedSpawn extends AbstractContainerizingSandboxedSpaw
       Set<Path> writableDirs,
       TreeDeleter treeDeleter,
       @Nullable Path statisticsPath) {
+    this(
+        sandboxPath,
+        sandboxExecRoot,
+        arguments,
+        environment,
+        inputs,
+        outputs,
+        writableDirs,
+        treeDeleter,
+        statisticsPath,
+        /* sandboxStash= */ null,
+        /* mnemonic= */ null);
+  }
+
+  /**
+   * Like the other constructor, but if {@code sandboxStash} is given, the exec root is stashed for
+   * later spawns with {@code mnemonic} when this spawn is deleted, and {@link #createFileSystem}
+   * reuses whatever exec root the runner took out of the stash in its place.
+   */
+  public SymlinkedSandboxedSpawn(
+      Path sandboxPath,
+      Path sandboxExecRoot,
+      List<String> arguments,
+      Map<String, String> environment,
+      SandboxInputs inputs,
+      SandboxOutputs outputs,
+      Set<Path> writableDirs,
+      TreeDeleter treeDeleter,
+      @Nullable Path statisticsPath,
+      @Nullable SandboxStash sandboxStash,
+      @Nullable String mnemonic) {
     super(
         sandboxPath,
         sandboxExecRoot,
@@ -50,6 +90,44 @@ public class SymlinkedSandboxedSpawn extends AbstractContainerizingSandboxedSpaw
         writableDirs,
         treeDeleter,
         statisticsPath);
+    this.inputs = inputs;
+    this.sandboxStash = sandboxStash;
+    this.mnemonic = mnemonic;
+  }
+
+  @Override
+  public void createFileSystem() throws IOException {
+    if (sandboxStash != null) {
+      upToDateInputs =
+          SandboxHelpers.cleanExisting(getSandboxExecRoot(), inputs, ImmutableSet.of());
+      sandboxStash.recordSymlinks(
+          inputs.getFiles().size() - upToDateInputs.size(), upToDateInputs.size());
+    }
+    super.createFileSystem();
+  }
+
+  @Override
+  protected void createInputs(SandboxInputs inputs) throws IOException {
+    if (upToDateInputs.isEmpty()) {
+      super.createInputs(inputs);
+      return;
+    }
+    Map<PathFragment, Path> missingFiles = new HashMap<>();
+    for (Map.Entry<PathFragment, Path> entry : inputs.getFiles().entrySet()) {
+      if (!upToDateInputs.contains(entry.getKey())) {
+        missingFiles.put(entry.getKey(), entry.getValue());
+      }
+    }
+    super.createInputs(new SandboxInputs(missingFiles, inputs.getSymlinks()));
+  }
+
+  @Override
+  public void delete() {
+    if (sandboxStash != null) {
+      // If this fails, the exec root is deleted along with the rest of the sandbox.
+      sandboxStash.stashExecRoot(mnemonic, getSandboxExecRoot());
+    }
+    super.delete();
   }
 
   @Override
@@ -144,6 +144,11 @@ final class Consumers {
                                                                boolean closeConsumer) {
       return new ClosingSink(in, out, closeConsumer);
     }
+
+    @Override
+    protected Future<?> drain(DrainableStream in, boolean closeConsumer) {
+      return in.drainTo(out, closeConsumer);
+    }
   }
 
   /**
@@ -167,6 +172,11 @@ final class Consumers {
     @Override public Runnable createConsumingAndClosingSink(InputStream in, boolean closeConsumer) {
       return new ClosingSink(in, out);
     }
+
+    @Override
+    protected Future<?> drain(DrainableStream in, boolean closeConsumer) {
+      return in.drainTo(out, false);
+    }
   }
 
   /**
@@ -189,6 +199,11 @@ final class Consumers {
     @Override public Runnable createConsumingAndClosingSink(InputStream in, boolean closeConsumer) {
       return new ClosingSink(in);
     }
+
+    @Override
+    protected Future<?> drain(DrainableStream in, boolean closeConsumer) {
+      return in.drainTo(null, false);
+    }
   }
 
   /**
@@ -202,12 +217,20 @@ final class Consumers {
 
     @Override
     public void registerInput(InputStream in, boolean closeConsumer){
+      if (in instanceof DrainableStream) {
+        // No thread of our own needed.
+        future = drain((DrainableStream) in, closeConsumer);
+        return;
+      }
       Runnable sink = createConsumingAndClosingSink(in, closeConsumer);
       future = pool.submit(sink);
     }
 
     protected abstract Runnable createConsumingAndClosingSink(InputStream in, boolean close);
 
+    /** Like {@link #createConsumingAndClosingSink}, but for streams that drain themselves. */
+    protected abstract Future<?> drain(DrainableStream in, boolean close);
+
     @Override
     public void cancel() {
       future.cancel(true);
@@ -220,7 +243,10 @@ final class Consumers {
       } catch (ExecutionException ee) {
         // Runnable threw a RuntimeException
         Throwable nested = ee.getCause();
-        if (nested instanceof RuntimeException) {
+        if (nested instanceof IOException) {
+          // A DrainableStream failed.
+          throw (IOException) nested;
+        } else if (nested instanceof RuntimeException) {
           final RuntimeException re = (RuntimeException) nested;
           // The stream sink classes, unfortunately, tunnel IOExceptions
           // out of run() in a RuntimeException. If that's the case,
@@ -0,0 +1,38 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.shell;
+
+import java.io.OutputStream;
+import java.util.concurrent.Future;
+
+/**
+ * An output stream of a {@link Subprocess} that can be consumed without a thread of its own, e.g.
+ * because a selector thread shared by many streams waits for its data.
+ *
+ * <p>{@link Consumers} drains streams that implement this interface this way, instead of reading
+ * each of them on a pooled thread.
+ */
+public interface DrainableStream {
+
+  /**
+   * Starts copying the rest of the stream to {@code out}, or discarding it if {@code out} is
+   * null. Once copying starts, the stream can no longer be read; it is closed at its end or when
+   * the returned future is cancelled.
+   *
+   * @param closeOut whether to close {@code out} at the end of the stream
+   * @return a future that completes at the end of the stream, or fails with the {@link
+   *     java.io.IOException} that stopped the copying
+   */
+  Future<?> drainTo(OutputStream out, boolean closeOut);
+}
@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.shell;
 
 import com.google.devtools.build.lib.vfs.Path;
 import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.time.Duration;
@@ -23,11 +24,16 @@ import java.util.Optional;
 
 /** Provides execution statistics (e.g. resource usage) for external commands. */
 public final class ExecutionStatistics {
+  /** Whether getrusage() reports the maximum resident set size in bytes instead of kilobytes. */
+  private static final boolean MAXRSS_IN_BYTES =
+      System.getProperty("os.name", "").startsWith("Mac OS X");
+
   /**
    * Provides execution statistics based on a {@code execution_statistics.proto} file.
    *
    * @param executionStatisticsProtoPath path to a materialized ExecutionStatistics proto
-   * @return a {@link ResourceUsage} object containing execution statistics, if available
+   * @return a {@link ResourceUsage} object containing execution statistics, if available; they are
+   *     not if the file doesn't exist, e.g. because the command was killed before writing it
    */
   public static Optional<ResourceUsage> getResourceUsage(Path executionStatisticsProtoPath)
       throws IOException {
@@ -40,6 +46,8 @@ public final class ExecutionStatistics {
       } else {
         return Optional.empty();
       }
+    } catch (FileNotFoundException e) {
+      return Optional.empty();
     }
   }
 
@@ -67,11 +75,22 @@ public final class ExecutionStatistics {
           resourceUsageProto.getStimeSec(), resourceUsageProto.getStimeUsec() * 1000);
     }
 
-    /** Returns the maximum resident set size (in bytes) during command execution, if available. */
+    /**
+     * Returns the maximum resident set size during command execution as reported by getrusage(),
+     * if available. That is in kilobytes on Linux and FreeBSD, but in bytes on macOS.
+     */
     public long getMaximumResidentSetSize() {
       return resourceUsageProto.getMaxrss();
     }
 
+    /**
+     * Returns the maximum resident set size (in kilobytes) during command execution, if available.
+     */
+    public long getMaximumResidentSetSizeKb() {
+      long maxrss = resourceUsageProto.getMaxrss();
+      return MAXRSS_IN_BYTES ? maxrss / 1024 : maxrss;
+    }
+
     /**
      * Returns the integral shared memory size (in bytes) during command execution, if available.
      */
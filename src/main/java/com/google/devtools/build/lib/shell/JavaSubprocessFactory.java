@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ProcessBuilder.Redirect;
+import java.lang.reflect.Method;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -106,6 +107,18 @@ public class JavaSubprocessFactory implements SubprocessFactory {
       return process.getInputStream();
     }
 
+    @Override
+    public long getProcessId() {
+      if (PROCESS_PID == null) {
+        return -1;
+      }
+      try {
+        return (long) PROCESS_PID.invoke(process);
+      } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+        return -1;
+      }
+    }
+
     @Override
     public void close() {
       // java.lang.Process doesn't give us a way to clean things up other than #destroy(), which was
@@ -115,6 +128,17 @@ public class JavaSubprocessFactory implements SubprocessFactory {
 
   public static final JavaSubprocessFactory INSTANCE = new JavaSubprocessFactory();
 
+  /** {@code Process.pid()}, which only exists as of Java 9. */
+  private static final Method PROCESS_PID = getProcessPidMethod();
+
+  private static Method getProcessPidMethod() {
+    try {
+      return Process.class.getMethod("pid");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
   private JavaSubprocessFactory() {
     // We are a singleton
   }
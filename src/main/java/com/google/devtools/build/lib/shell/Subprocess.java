@@ -65,6 +65,14 @@ public interface Subprocess extends Closeable {
    */
   InputStream getErrorStream();
 
+  /**
+   * Returns the process id of the process, or -1 if the underlying implementation doesn't know
+   * it.
+   */
+  default long getProcessId() {
+    return -1;
+  }
+
   /*
    * Terminates the process as thoroughly as the underlying implementation allows and releases
    * native data structures associated with the process.
@@ -58,6 +58,10 @@ public class SubprocessBuilder {
     SubprocessBuilder.defaultFactory = factory;
   }
 
+  public static SubprocessFactory getDefaultSubprocessFactory() {
+    return defaultFactory;
+  }
+
   public SubprocessBuilder() {
     this(defaultFactory);
   }
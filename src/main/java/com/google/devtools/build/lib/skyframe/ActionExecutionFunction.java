@@ -262,9 +262,7 @@ public class ActionExecutionFunction implements SkyFunction {
       if (skyframeActionExecutor.actionFileSystemType().isEnabled()) {
         state.actionFileSystem =
             skyframeActionExecutor.createActionFileSystem(
-                directories.getRelativeOutputPath(),
-                checkedInputs.actionInputMap,
-                action.getOutputs());
+                directories.getRelativeOutputPath(), checkedInputs.actionInputMap, action);
       }
     }
 
@@ -22,6 +22,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.actions.FileStateValue;
 import com.google.devtools.build.lib.skyframe.ExternalFilesHelper.FileType;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.Root;
 import com.google.devtools.build.lib.vfs.RootedPath;
 import com.google.devtools.build.skyframe.SkyKey;
@@ -54,6 +56,29 @@ public class DirtinessCheckerUtils {
         return null;
       }
     }
+
+    @Override
+    public Path getPathToStat(SkyKey key) {
+      return ((RootedPath) key.argument()).asPath();
+    }
+
+    @Override
+    @Nullable
+    public SkyValue createNewValueWithStat(
+        SkyKey key,
+        @Nullable FileStatusWithDigest statNoFollow,
+        @Nullable TimestampGranularityMonitor tsgm) {
+      if (statNoFollow == null) {
+        return FileStateValue.NONEXISTENT_FILE_STATE_NODE;
+      }
+      RootedPath rootedPath = (RootedPath) key.argument();
+      try {
+        return FileStateValue.createWithStatNoFollow(rootedPath, statNoFollow, tsgm);
+      } catch (IOException e) {
+        // See createNewValue.
+        return null;
+      }
+    }
   }
 
   static class DirectoryDirtinessChecker extends SkyValueDirtinessChecker {
@@ -90,6 +115,21 @@ public class DirtinessCheckerUtils {
     public SkyValue createNewValue(SkyKey key, @Nullable TimestampGranularityMonitor tsgm) {
       return checker.createNewValue(key, tsgm);
     }
+
+    @Override
+    @Nullable
+    public Path getPathToStat(SkyKey key) {
+      return fdc.applies(key) ? fdc.getPathToStat(key) : null;
+    }
+
+    @Override
+    @Nullable
+    public SkyValue createNewValueWithStat(
+        SkyKey key,
+        @Nullable FileStatusWithDigest statNoFollow,
+        @Nullable TimestampGranularityMonitor tsgm) {
+      return fdc.createNewValueWithStat(key, statNoFollow, tsgm);
+    }
   }
 
   static final class MissingDiffDirtinessChecker extends BasicFilesystemDirtinessChecker {
@@ -136,10 +176,33 @@ public class DirtinessCheckerUtils {
       throw new UnsupportedOperationException();
     }
 
+    @Nullable
+    @Override
+    public SkyValue createNewValueWithStat(
+        SkyKey key,
+        @Nullable FileStatusWithDigest statNoFollow,
+        @Nullable TimestampGranularityMonitor tsgm) {
+      throw new UnsupportedOperationException();
+    }
+
     @Override
     public SkyValueDirtinessChecker.DirtyResult check(
         SkyKey skyKey, SkyValue oldValue, @Nullable TimestampGranularityMonitor tsgm) {
-      SkyValue newValue = super.createNewValue(skyKey, tsgm);
+      return checkNewValue(skyKey, oldValue, super.createNewValue(skyKey, tsgm));
+    }
+
+    @Override
+    public SkyValueDirtinessChecker.DirtyResult checkWithStat(
+        SkyKey skyKey,
+        SkyValue oldValue,
+        @Nullable FileStatusWithDigest statNoFollow,
+        @Nullable TimestampGranularityMonitor tsgm) {
+      return checkNewValue(
+          skyKey, oldValue, super.createNewValueWithStat(skyKey, statNoFollow, tsgm));
+    }
+
+    private SkyValueDirtinessChecker.DirtyResult checkNewValue(
+        SkyKey skyKey, SkyValue oldValue, @Nullable SkyValue newValue) {
       if (Objects.equal(newValue, oldValue)) {
         return SkyValueDirtinessChecker.DirtyResult.notDirty(oldValue);
       }
@@ -189,5 +252,31 @@ public class DirtinessCheckerUtils {
         @Nullable TimestampGranularityMonitor tsgm) {
       return Preconditions.checkNotNull(getChecker(key), key).check(key, oldValue, tsgm);
     }
+
+    @Override
+    @Nullable
+    public Path getPathToStat(SkyKey key) {
+      return Preconditions.checkNotNull(getChecker(key), key).getPathToStat(key);
+    }
+
+    @Override
+    @Nullable
+    public SkyValue createNewValueWithStat(
+        SkyKey key,
+        @Nullable FileStatusWithDigest statNoFollow,
+        @Nullable TimestampGranularityMonitor tsgm) {
+      return Preconditions.checkNotNull(getChecker(key), key)
+          .createNewValueWithStat(key, statNoFollow, tsgm);
+    }
+
+    @Override
+    public DirtyResult checkWithStat(
+        SkyKey key,
+        @Nullable SkyValue oldValue,
+        @Nullable FileStatusWithDigest statNoFollow,
+        @Nullable TimestampGranularityMonitor tsgm) {
+      return Preconditions.checkNotNull(getChecker(key), key)
+          .checkWithStat(key, oldValue, statNoFollow, tsgm);
+    }
   }
 }
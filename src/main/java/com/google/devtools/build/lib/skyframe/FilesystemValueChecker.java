@@ -33,6 +33,7 @@ import com.google.devtools.build.lib.concurrent.ThrowableRecordingRunnableWrappe
 import com.google.devtools.build.lib.profiler.AutoProfiler;
 import com.google.devtools.build.lib.profiler.AutoProfiler.ElapsedTimeReceiver;
 import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
 import com.google.devtools.build.lib.skyframe.SkyValueDirtinessChecker.DirtyResult;
 import com.google.devtools.build.lib.util.LoggingUtil;
@@ -40,6 +41,7 @@ import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.BatchStat;
 import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.ModifiedFileSet;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
@@ -51,6 +53,7 @@ import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 import com.google.devtools.build.skyframe.WalkableGraph;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -76,6 +79,8 @@ import javax.annotation.Nullable;
 public class FilesystemValueChecker {
 
   private static final int DIRTINESS_CHECK_THREADS = 200;
+  /** The number of keys checked with each batch stat, if the file system supports them. */
+  private static final int KEYS_PER_BATCH_STAT = 1000;
   private static final Logger logger = Logger.getLogger(FilesystemValueChecker.class.getName());
 
   private static final Predicate<SkyKey> ACTION_FILTER =
@@ -86,6 +91,7 @@ public class FilesystemValueChecker {
   private final Range<Long> lastExecutionTimeRange;
   private AtomicInteger modifiedOutputFilesCounter = new AtomicInteger(0);
   private AtomicInteger modifiedOutputFilesIntraBuildCounter = new AtomicInteger(0);
+  private final AtomicInteger outputFileBatchStatsCounter = new AtomicInteger(0);
 
   public FilesystemValueChecker(@Nullable TimestampGranularityMonitor tsgm,
       @Nullable Range<Long> lastExecutionTimeRange) {
@@ -199,6 +205,7 @@ public class FilesystemValueChecker {
 
     modifiedOutputFilesCounter.set(0);
     modifiedOutputFilesIntraBuildCounter.set(0);
+    outputFileBatchStatsCounter.set(0);
     final ImmutableSet<PathFragment> knownModifiedOutputFiles =
             modifiedOutputFiles == ModifiedFileSet.EVERYTHING_MODIFIED
                     ? null
@@ -219,6 +226,7 @@ public class FilesystemValueChecker {
       });
 
     boolean interrupted;
+    long startTime = System.nanoTime();
     try (SilentCloseable c = Profiler.instance().profile("getDirtyActionValues.stat_files")) {
       for (List<Pair<SkyKey, ActionExecutionValue>> shard : outputShards) {
         Runnable job =
@@ -236,7 +244,17 @@ public class FilesystemValueChecker {
 
       interrupted = ExecutorUtil.interruptibleShutdown(executor);
     }
+    long elapsedTimeNanos = System.nanoTime() - startTime;
     Throwables.propagateIfPossible(wrapper.getFirstThrownError());
+    if (batchStatter != null) {
+      String message =
+          String.format(
+              "Batch stat()ed %d output files at %d stats/s",
+              outputFileBatchStatsCounter.get(),
+              statsPerSecond(outputFileBatchStatsCounter.get(), elapsedTimeNanos));
+      logger.info(message);
+      Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO, message);
+    }
     logger.info("Completed output file stat checks");
     if (interrupted) {
       throw new InterruptedException();
@@ -299,6 +317,7 @@ public class FilesystemValueChecker {
             "artifacts.size() == %s stats.size() == %s",
             artifacts.size(),
             stats.size());
+        outputFileBatchStatsCounter.addAndGet(stats.size());
         for (int i = 0; i < artifacts.size(); i++) {
           Artifact artifact = artifacts.get(i);
           FileStatusWithDigest stat = stats.get(i);
@@ -491,17 +510,28 @@ public class FilesystemValueChecker {
         new ThrowableRecordingRunnableWrapper("FilesystemValueChecker#getDirtyValues");
     final AtomicInteger numKeysScanned = new AtomicInteger(0);
     final AtomicInteger numKeysChecked = new AtomicInteger(0);
+    final AtomicInteger numBatchStats = new AtomicInteger(0);
+    final long startTime = Profiler.nanoTimeMaybe();
     ElapsedTimeReceiver elapsedTimeReceiver =
         elapsedTimeNanos -> {
           if (elapsedTimeNanos > 0) {
-            logger.info(
+            String message =
                 String.format(
-                    "Spent %d ms checking %d filesystem nodes (%d scanned)",
+                    "Spent %d ms checking %d filesystem nodes (%d scanned, %d batch stats at %d"
+                        + " stats/s)",
                     TimeUnit.MILLISECONDS.convert(elapsedTimeNanos, TimeUnit.NANOSECONDS),
                     numKeysChecked.get(),
-                    numKeysScanned.get()));
+                    numKeysScanned.get(),
+                    numBatchStats.get(),
+                    statsPerSecond(numBatchStats.get(), elapsedTimeNanos));
+            logger.info(message);
+            Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO, message);
           }
         };
+    // Keys whose new value only depends on the stat of a path are checked in batches, one per
+    // file system, if the file system can stat many paths at once.
+    Map<FileSystem, BatchStat> batchStatters = new HashMap<>();
+    Map<FileSystem, List<SkyKey>> pendingBatches = new HashMap<>();
     try (AutoProfiler prof = AutoProfiler.create(elapsedTimeReceiver)) {
       for (final SkyKey key : keys) {
         numKeysScanned.incrementAndGet();
@@ -512,6 +542,36 @@ public class FilesystemValueChecker {
             key.functionName().getHermeticity() == FunctionHermeticity.NONHERMETIC,
             "Only non-hermetic keys can be dirty roots: %s",
             key);
+        Path pathToStat = checker.getPathToStat(key);
+        if (pathToStat != null) {
+          FileSystem fileSystem = pathToStat.getFileSystem();
+          BatchStat batchStatter;
+          if (batchStatters.containsKey(fileSystem)) {
+            batchStatter = batchStatters.get(fileSystem);
+          } else {
+            batchStatter = fileSystem.getBatchStatter(getFileSystemRoot(pathToStat));
+            batchStatters.put(fileSystem, batchStatter);
+          }
+          if (batchStatter != null) {
+            List<SkyKey> batch = pendingBatches.computeIfAbsent(fileSystem, fs -> new ArrayList<>());
+            batch.add(key);
+            if (batch.size() == KEYS_PER_BATCH_STAT) {
+              executor.execute(
+                  wrapper.wrap(
+                      batchCheckJob(
+                          fetcher,
+                          batch,
+                          checker,
+                          batchStatter,
+                          checkMissingValues,
+                          batchResult,
+                          numKeysChecked,
+                          numBatchStats)));
+              pendingBatches.remove(fileSystem);
+            }
+            continue;
+          }
+        }
         executor.execute(
             wrapper.wrap(
                 () -> {
@@ -533,6 +593,19 @@ public class FilesystemValueChecker {
                   }
                 }));
       }
+      for (Map.Entry<FileSystem, List<SkyKey>> batch : pendingBatches.entrySet()) {
+        executor.execute(
+            wrapper.wrap(
+                batchCheckJob(
+                    fetcher,
+                    batch.getValue(),
+                    checker,
+                    batchStatters.get(batch.getKey()),
+                    checkMissingValues,
+                    batchResult,
+                    numKeysChecked,
+                    numBatchStats)));
+      }
 
       boolean interrupted = ExecutorUtil.interruptibleShutdown(executor);
       Throwables.propagateIfPossible(wrapper.getFirstThrownError());
@@ -543,6 +616,91 @@ public class FilesystemValueChecker {
     return batchResult;
   }
 
+  /**
+   * Returns a job that checks the given keys, whose paths to stat are all on the file system of
+   * {@code batchStatter}, with a single batch stat.
+   */
+  private Runnable batchCheckJob(
+      ValueFetcher fetcher,
+      List<SkyKey> keys,
+      SkyValueDirtinessChecker checker,
+      BatchStat batchStatter,
+      boolean checkMissingValues,
+      BatchDirtyResult batchResult,
+      AtomicInteger numKeysChecked,
+      AtomicInteger numBatchStats) {
+    return () -> {
+      List<SkyKey> keysToCheck = new ArrayList<>(keys.size());
+      List<SkyValue> oldValues = new ArrayList<>(keys.size());
+      List<PathFragment> paths = new ArrayList<>(keys.size());
+      for (SkyKey key : keys) {
+        SkyValue value;
+        try {
+          value = fetcher.get(key);
+        } catch (InterruptedException e) {
+          // Exit fast. Interrupt is handled below on the main thread.
+          return;
+        }
+        if (!checkMissingValues && value == null) {
+          continue;
+        }
+        keysToCheck.add(key);
+        oldValues.add(value);
+        paths.add(checker.getPathToStat(key).asFragment());
+      }
+      if (keysToCheck.isEmpty()) {
+        return;
+      }
+
+      List<FileStatusWithDigest> stats;
+      try {
+        stats =
+            batchStatter.batchStat(
+                /*includeDigest=*/ false, /*includeLinks=*/ true, paths);
+      } catch (IOException e) {
+        // Batch stat did not work. Fall back on system calls.
+        logger.log(Level.WARNING, "Unable to process batch stat", e);
+        stats = null;
+      } catch (InterruptedException e) {
+        // We handle interrupt in the main thread.
+        return;
+      }
+      if (stats != null) {
+        Preconditions.checkState(
+            keysToCheck.size() == stats.size(),
+            "keys.size() == %s stats.size() == %s",
+            keysToCheck.size(),
+            stats.size());
+        numBatchStats.addAndGet(stats.size());
+      }
+
+      for (int i = 0; i < keysToCheck.size(); i++) {
+        SkyKey key = keysToCheck.get(i);
+        SkyValue value = oldValues.get(i);
+        numKeysChecked.incrementAndGet();
+        DirtyResult result =
+            stats == null
+                ? checker.check(key, value, tsgm)
+                : checker.checkWithStat(key, value, stats.get(i), tsgm);
+        if (result.isDirty()) {
+          batchResult.add(key, value, result.getNewValue());
+        }
+      }
+    };
+  }
+
+  private static Path getFileSystemRoot(Path path) {
+    Path parent;
+    while ((parent = path.getParentDirectory()) != null) {
+      path = parent;
+    }
+    return path;
+  }
+
+  private static long statsPerSecond(int numStats, long elapsedTimeNanos) {
+    return elapsedTimeNanos > 0 ? numStats * TimeUnit.SECONDS.toNanos(1) / elapsedTimeNanos : 0;
+  }
+
   /**
    * Result of a batch call to {@link SkyValueDirtinessChecker#check}. Partitions the dirty
    * values based on whether we have a new value available for them or not.
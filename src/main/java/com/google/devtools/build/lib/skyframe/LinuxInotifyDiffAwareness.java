@@ -0,0 +1,346 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.UnixJniLoader;
+import com.google.devtools.build.lib.concurrent.NamedForkJoinPool;
+import com.google.devtools.common.options.OptionsProvider;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A {@link DiffAwareness} that uses inotify directly to watch the filesystem, in lieu of {@link
+ * WatchServiceDiffAwareness}.
+ *
+ * <p>The standard WatchService registers the directories of the watched tree one at a time, hands
+ * events over through a background thread, and cannot recover from a dropped event. This class
+ * registers the directories in parallel, drains all pending events with a single native call per
+ * {@link #getCurrentView} call, and recovers from an overflow of the inotify event queue by
+ * registering the tree again and reporting everything as modified for a single build only.
+ */
+public final class LinuxInotifyDiffAwareness extends LocalDiffAwareness {
+  // Bits of inotify_event.mask, as defined in <sys/inotify.h>.
+  private static final int IN_MODIFY = 0x00000002;
+  private static final int IN_ATTRIB = 0x00000004;
+  private static final int IN_CLOSE_WRITE = 0x00000008;
+  private static final int IN_MOVED_FROM = 0x00000040;
+  private static final int IN_MOVED_TO = 0x00000080;
+  private static final int IN_CREATE = 0x00000100;
+  private static final int IN_DELETE = 0x00000200;
+  private static final int IN_DELETE_SELF = 0x00000400;
+  private static final int IN_MOVE_SELF = 0x00000800;
+  private static final int IN_Q_OVERFLOW = 0x00004000;
+  private static final int IN_IGNORED = 0x00008000;
+
+  // Size of the fixed part of struct inotify_event: wd, mask, cookie and len.
+  private static final int EVENT_HEADER_SIZE = 16;
+
+  /** The encoding of file names used by java.nio.file, which the kernel sees as raw bytes. */
+  private static final Charset FILE_NAME_CHARSET =
+      Charset.forName(System.getProperty("sun.jnu.encoding", "UTF-8"));
+
+  static final boolean JNI_AVAILABLE;
+
+  static {
+    boolean loadJniWorked = false;
+    try {
+      UnixJniLoader.loadJni();
+      loadJniWorked = true;
+    } catch (UnsatisfiedLinkError ignored) {
+      // See MacOSXFsEventsDiffAwareness: the Bazel bootstrap binary doesn't have the JNI code.
+    }
+    JNI_AVAILABLE = loadJniWorked;
+  }
+
+  /**
+   * The directory being watched for each watch descriptor. This is written concurrently while
+   * registering directories, and only read while collecting events.
+   */
+  private final Map<Integer, Path> watchDescriptorToDir = new ConcurrentHashMap<>();
+
+  private final int registrationParallelism;
+
+  private int rootWatchDescriptor = -1;
+
+  /** The inotify file descriptor, or -1 if it hasn't been created (or has been closed). */
+  private int inotifyFd = -1;
+
+  /** Only used while registering directories. */
+  private ForkJoinPool registrationPool;
+
+  LinuxInotifyDiffAwareness(String watchRoot, int registrationParallelism) {
+    super(watchRoot);
+    Preconditions.checkArgument(registrationParallelism > 0, registrationParallelism);
+    this.registrationParallelism = registrationParallelism;
+  }
+
+  LinuxInotifyDiffAwareness(String watchRoot) {
+    this(watchRoot, Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Creates a new inotify instance and returns its file descriptor. */
+  private static native int createInotify() throws IOException;
+
+  /**
+   * Starts watching the directory at the given path, given as bytes, and returns its watch
+   * descriptor. Symlinks are not followed.
+   */
+  private static native int addWatch(int fd, byte[] path) throws IOException;
+
+  /**
+   * Returns the raw inotify_event structures read from the inotify instance, without blocking.
+   * The array is empty if no event is pending. If there were too many events to read at once, it
+   * ends with an IN_Q_OVERFLOW event, as if the kernel queue had overflowed.
+   */
+  private static native byte[] readEvents(int fd) throws IOException;
+
+  private static native void closeInotify(int fd) throws IOException;
+
+  private void init() {
+    Preconditions.checkState(inotifyFd == -1);
+    try {
+      inotifyFd = createInotify();
+    } catch (IOException ignored) {
+      // Most likely the per-user limit on inotify instances. Fall back to EVERYTHING_MODIFIED,
+      // as WatchServiceDiffAwareness does.
+      return;
+    }
+    registrationPool =
+        NamedForkJoinPool.newNamedPool("inotify-registration", registrationParallelism);
+  }
+
+  @Override
+  public View getCurrentView(OptionsProvider options) throws BrokenDiffAwarenessException {
+    if (!JNI_AVAILABLE) {
+      return EVERYTHING_MODIFIED;
+    }
+    // See WatchServiceDiffAwareness#getCurrentView for an explanation of this logic.
+    boolean watchFs = options.getOptions(Options.class).watchFS;
+    if (watchFs && inotifyFd == -1) {
+      init();
+    } else if (!watchFs && inotifyFd != -1) {
+      close();
+      throw new BrokenDiffAwarenessException("Switched off --watchfs again");
+    }
+    // If init() failed, then this if also applies.
+    if (inotifyFd == -1) {
+      return EVERYTHING_MODIFIED;
+    }
+    try {
+      if (isFirstCall()) {
+        registerRoot();
+        return newView(ImmutableSet.of());
+      }
+      return collectChanges();
+    } catch (IOException e) {
+      close();
+      throw new BrokenDiffAwarenessException(
+          "Error encountered with local file system watcher " + e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (inotifyFd != -1) {
+      registrationPool.shutdownNow();
+      try {
+        closeInotify(inotifyFd);
+      } catch (IOException ignored) {
+        // Nothing we can do here.
+      }
+      inotifyFd = -1;
+    }
+  }
+
+  /** Registers the whole watched tree, and remembers the watch descriptor of its root. */
+  private void registerRoot() throws IOException {
+    registerSubDirectoriesAndReturnContents(watchRootPath);
+    // Adding a watch for a directory that is already watched returns its watch descriptor.
+    rootWatchDescriptor = addWatch(inotifyFd, encode(watchRootPath));
+  }
+
+  /** Returns the view of the changes reported by inotify since the previous call. */
+  private View collectChanges() throws IOException {
+    Set<Path> createdFilesAndDirectories = new HashSet<>();
+    Set<Path> deletedOrModifiedFilesAndDirectories = new HashSet<>();
+    boolean overflowed = false;
+
+    byte[] events = readEvents(inotifyFd);
+    ByteBuffer buffer = ByteBuffer.wrap(events).order(ByteOrder.nativeOrder());
+    // Events are replayed in chronological order, across all watched directories at once.
+    while (buffer.remaining() >= EVENT_HEADER_SIZE) {
+      int wd = buffer.getInt();
+      int mask = buffer.getInt();
+      buffer.getInt(); // cookie
+      int len = buffer.getInt();
+      String name = decodeName(events, buffer.position(), len);
+      buffer.position(buffer.position() + len);
+
+      if ((mask & IN_Q_OVERFLOW) != 0) {
+        overflowed = true;
+        continue;
+      }
+      if ((mask & IN_IGNORED) != 0) {
+        // The watch was removed because the directory was deleted or unmounted.
+        watchDescriptorToDir.remove(wd);
+        if (wd == rootWatchDescriptor) {
+          throw new IOException("Root directory " + watchRootPath + " became inaccessible.");
+        }
+        continue;
+      }
+      Path dir = watchDescriptorToDir.get(wd);
+      if (dir == null) {
+        // An event that was queued before its watch was removed.
+        continue;
+      }
+      if (name.isEmpty()) {
+        // An event about the watched directory itself. Its deletion or move is reported by the
+        // watch of its parent, under the name of the directory. After a move within the tree, its
+        // watch descriptor is mapped to the new path when the new path is registered below.
+        if ((mask & (IN_DELETE_SELF | IN_MOVE_SELF)) != 0 && wd == rootWatchDescriptor) {
+          throw new IOException("Root directory " + watchRootPath + " was moved or deleted.");
+        }
+        if ((mask & IN_ATTRIB) != 0 && !createdFilesAndDirectories.contains(dir)) {
+          deletedOrModifiedFilesAndDirectories.add(dir);
+        }
+        continue;
+      }
+      Path path = dir.resolve(name);
+      if ((mask & (IN_CREATE | IN_MOVED_TO)) != 0) {
+        createdFilesAndDirectories.add(path);
+        deletedOrModifiedFilesAndDirectories.remove(path);
+      } else if ((mask & (IN_DELETE | IN_MOVED_FROM)) != 0) {
+        createdFilesAndDirectories.remove(path);
+        deletedOrModifiedFilesAndDirectories.add(path);
+      } else if ((mask & (IN_MODIFY | IN_ATTRIB | IN_CLOSE_WRITE)) != 0) {
+        // If a file was created and then modified, then the net diff is that it was created.
+        if (!createdFilesAndDirectories.contains(path)) {
+          deletedOrModifiedFilesAndDirectories.add(path);
+        }
+      }
+    }
+
+    if (overflowed) {
+      // Some events were dropped, so we don't know what changed. New directories may not have
+      // been registered either, so register the whole tree again; this keeps the watches of the
+      // directories already registered. Events that happen meanwhile are reported next time.
+      registerRoot();
+      return newViewAfterLostEvents();
+    }
+
+    Set<Path> changedPaths = new HashSet<>();
+    for (Path path : createdFilesAndDirectories) {
+      if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+        // This is a new directory, so changes to it since its creation have not been watched.
+        // We manually traverse the directory tree to register all the new subdirectories and find
+        // all the new subdirectories and files.
+        changedPaths.addAll(registerSubDirectoriesAndReturnContents(path));
+      } else {
+        changedPaths.add(path);
+      }
+    }
+    changedPaths.addAll(deletedOrModifiedFilesAndDirectories);
+    return newView(changedPaths);
+  }
+
+  /**
+   * Traverses the directory tree in parallel to register subdirectories. Returns all paths
+   * traversed (as absolute paths). Symlinks are not followed.
+   */
+  private Set<Path> registerSubDirectoriesAndReturnContents(Path rootDir) throws IOException {
+    Set<Path> visitedAbsolutePaths = ConcurrentHashMap.newKeySet();
+    try {
+      registrationPool.invoke(new RegisterDirectory(rootDir, visitedAbsolutePaths));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return visitedAbsolutePaths;
+  }
+
+  /** Registers a directory and then, concurrently, its subdirectories. */
+  private final class RegisterDirectory extends RecursiveAction {
+    private final Path dir;
+    private final Set<Path> visitedAbsolutePaths;
+
+    private RegisterDirectory(Path dir, Set<Path> visitedAbsolutePaths) {
+      this.dir = dir;
+      this.visitedAbsolutePaths = visitedAbsolutePaths;
+    }
+
+    @Override
+    protected void compute() {
+      Preconditions.checkState(dir.isAbsolute(), dir);
+      List<RegisterDirectory> subdirectories = new ArrayList<>();
+      try {
+        // It's important that we register the directory before we list its children. This way we
+        // are guaranteed to see new files/directories either on this #getDiff or the next one.
+        watchDescriptorToDir.put(addWatch(inotifyFd, encode(dir)), dir);
+        visitedAbsolutePaths.add(dir);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+          for (Path entry : entries) {
+            if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+              subdirectories.add(new RegisterDirectory(entry, visitedAbsolutePaths));
+            } else {
+              visitedAbsolutePaths.add(entry);
+            }
+          }
+        }
+      } catch (FileNotFoundException | NoSuchFileException | NotDirectoryException e) {
+        if (dir.equals(watchRootPath)) {
+          throw new UncheckedIOException(e);
+        }
+        // The directory was deleted or replaced after its parent was listed, which its parent's
+        // watch reports.
+        return;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      invokeAll(subdirectories);
+    }
+  }
+
+  private static byte[] encode(Path path) {
+    return path.toString().getBytes(FILE_NAME_CHARSET);
+  }
+
+  /** Decodes the null-padded name of an inotify event. */
+  private static String decodeName(byte[] events, int offset, int len) {
+    int end = offset;
+    while (end < offset + len && events[end] != 0) {
+      end++;
+    }
+    return new String(events, offset, end - offset, FILE_NAME_CHARSET);
+  }
+}
@@ -18,12 +18,16 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.DirentWithStat;
 import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.Symlinks;
 import com.google.devtools.build.lib.vfs.UnixGlob;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * A per-build cache of filesystem operations for Skyframe invocations of legacy package loading.
@@ -103,6 +107,65 @@ public class PerBuildSyscallCache implements UnixGlob.FilesystemCalls {
     return (Collection<Dirent>) result;
   }
 
+  /**
+   * Lists the directory and stats its symlinks, and caches the results as if they came from {@link
+   * #readdir} and {@link #statIfFound} with {@code FOLLOW}. A directory whose symlinks are all
+   * cached already is answered from the caches.
+   */
+  @Override
+  public Collection<DirentWithStat> readdirWithStats(Path path) throws IOException {
+    Collection<DirentWithStat> cached = getCachedDirentsWithStats(path);
+    if (cached != null) {
+      return cached;
+    }
+    Collection<DirentWithStat> result = path.readdirWithStats(Symlinks.FOLLOW);
+    List<Dirent> dirents = new ArrayList<>(result.size());
+    for (DirentWithStat direntWithStat : result) {
+      dirents.add(direntWithStat.getDirent());
+      if (direntWithStat.getDirent().getType() != Dirent.Type.SYMLINK) {
+        continue;
+      }
+      Object stat;
+      try {
+        FileStatus status = direntWithStat.getStat();
+        stat = status == null ? NO_STATUS : status;
+      } catch (IOException e) {
+        // Cached like the errors of newStatLoader(), so that they aren't mistaken for absence.
+        stat = e;
+      }
+      statCache.put(Pair.of(path.getChild(direntWithStat.getName()), Symlinks.FOLLOW), stat);
+    }
+    readdirCache.put(path, dirents);
+    return result;
+  }
+
+  @Nullable
+  private Collection<DirentWithStat> getCachedDirentsWithStats(Path path) {
+    Object dirents = readdirCache.getIfPresent(path);
+    if (dirents == null || dirents instanceof IOException) {
+      return null;
+    }
+    Collection<?> cachedDirents = (Collection<?>) dirents;
+    List<DirentWithStat> result = new ArrayList<>(cachedDirents.size());
+    for (Object cachedDirent : cachedDirents) {
+      Dirent dirent = (Dirent) cachedDirent;
+      if (dirent.getType() != Dirent.Type.SYMLINK) {
+        result.add(new DirentWithStat(dirent, (FileStatus) null));
+        continue;
+      }
+      Object stat =
+          statCache.getIfPresent(Pair.of(path.getChild(dirent.getName()), Symlinks.FOLLOW));
+      if (stat == null) {
+        return null;
+      } else if (stat instanceof IOException) {
+        result.add(new DirentWithStat(dirent, (IOException) stat));
+      } else {
+        result.add(new DirentWithStat(dirent, stat == NO_STATUS ? null : (FileStatus) stat));
+      }
+    }
+    return result;
+  }
+
   @Override
   public FileStatus statIfFound(Path path, Symlinks symlinks) throws IOException {
     Object result = statCache.getUnchecked(Pair.of(path, symlinks));
@@ -468,10 +468,12 @@ public final class RecursiveFilesystemTraversalFunction implements SkyFunction {
     Iterable<Dirent> dirents;
     if (traversal.isRootGenerated) {
       // If we're dealing with an output file, read the directory directly instead of creating
-      // filesystem nodes under the output tree.
+      // filesystem nodes under the output tree. Only the names are needed here: each child stats
+      // itself in lookUpFileInfo, so the types are read without following symlinks, which needs
+      // no stat() of any entry.
       List<Dirent> direntsCollection =
           new ArrayList<>(
-              traversal.root.asRootedPath().asPath().readdir(Symlinks.FOLLOW));
+              traversal.root.asRootedPath().asPath().readdir(Symlinks.NOFOLLOW));
       Collections.sort(direntsCollection);
       dirents = direntsCollection;
     } else {
@@ -82,6 +82,7 @@ import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.BatchStat;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.ModifiedFileSet;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.Root;
 import com.google.devtools.build.lib.vfs.RootedPath;
@@ -252,6 +253,7 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
         clientEnv,
         tsgm,
         options);
+    memoizingEvaluator.setInvalidationBatchSize(packageCacheOptions.invalidationBatchSize);
     long startTime = System.nanoTime();
     handleDiffs(eventHandler, packageCacheOptions.checkOutputFiles, options);
     long stopTime = System.nanoTime();
@@ -691,12 +693,21 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
 
   @Override
   public void detectModifiedOutputFiles(
-      ModifiedFileSet modifiedOutputFiles, @Nullable Range<Long> lastExecutionTimeRange)
+      ModifiedFileSet modifiedOutputFiles,
+      @Nullable Range<Long> lastExecutionTimeRange,
+      Path execRoot)
       throws InterruptedException {
     long startTime = System.nanoTime();
     FilesystemValueChecker fsvc =
         new FilesystemValueChecker(Preconditions.checkNotNull(tsgm.get()), lastExecutionTimeRange);
-    BatchStat batchStatter = outputService == null ? null : outputService.getBatchStatter();
+    // Without an OutputService, the outputs are plain files below the exec root, and nothing but
+    // the local file system knows about them. An OutputService that does not batch-stat may keep
+    // metadata elsewhere, e.g. of outputs that were never downloaded, so its outputs are stat()ed
+    // one by one with those checks.
+    BatchStat batchStatter =
+        outputService == null
+            ? execRoot.getFileSystem().getBatchStatter(execRoot)
+            : outputService.getBatchStatter();
     recordingDiffer.invalidate(
         fsvc.getDirtyActionValues(
             memoizingEvaluator.getValues(), batchStatter, modifiedOutputFiles));
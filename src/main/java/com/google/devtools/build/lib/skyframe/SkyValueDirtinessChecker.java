@@ -15,6 +15,8 @@ package com.google.devtools.build.lib.skyframe;
 
 import com.google.common.base.Preconditions;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 import javax.annotation.Nullable;
@@ -42,7 +44,44 @@ public abstract class SkyValueDirtinessChecker {
    */
   public DirtyResult check(SkyKey key, @Nullable SkyValue oldValue,
       @Nullable TimestampGranularityMonitor tsgm) {
-    SkyValue newValue = createNewValue(key, tsgm);
+    return checkNewValue(oldValue, createNewValue(key, tsgm));
+  }
+
+  /**
+   * If {@code applies(key)}, returns the path whose stat, without following symlinks, is all the
+   * new value for {@code key} is computed from, or {@code null} if there is no such path. Callers
+   * that can stat many paths at once may then call {@link #checkWithStat} instead of {@link
+   * #check}.
+   */
+  @Nullable
+  public Path getPathToStat(SkyKey key) {
+    return null;
+  }
+
+  /**
+   * If {@code getPathToStat(key)} is not null, returns the new value for {@code key} given the
+   * stat of that path without following symlinks ({@code null} if the path doesn't exist), or
+   * {@code null} if the checker was unable to create a new value.
+   */
+  @Nullable
+  public SkyValue createNewValueWithStat(
+      SkyKey key,
+      @Nullable FileStatusWithDigest statNoFollow,
+      @Nullable TimestampGranularityMonitor tsgm) {
+    throw new UnsupportedOperationException(key.toString());
+  }
+
+  /** Like {@link #check}, given the stat of {@code getPathToStat(key)}. */
+  public DirtyResult checkWithStat(
+      SkyKey key,
+      @Nullable SkyValue oldValue,
+      @Nullable FileStatusWithDigest statNoFollow,
+      @Nullable TimestampGranularityMonitor tsgm) {
+    return checkNewValue(oldValue, createNewValueWithStat(key, statNoFollow, tsgm));
+  }
+
+  private static DirtyResult checkNewValue(
+      @Nullable SkyValue oldValue, @Nullable SkyValue newValue) {
     if (newValue == null) {
       return DirtyResult.dirty(oldValue);
     }
@@ -106,7 +106,9 @@ import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.common.options.OptionsProvider;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -187,6 +189,13 @@ public final class SkyframeActionExecutor {
   // at the start of its next attempt,
   private ConcurrentMap<OwnerlessArtifactWrapper, ImmutableList<SkyKey>> lostDiscoveredInputsMap;
 
+  // The output directories that are known to exist because an action of this build created them or
+  // found them in place. Actions check this before creating their output directories, so that the
+  // directories shared by many actions, such as the ancestors of a package's outputs, are only
+  // created once per build. It is only used when there is no action file system, and never holds
+  // the directories of tree artifacts, which their actions delete before they run.
+  private Set<Path> knownOutputDirectories;
+
   // Errors found when examining all actions in the graph are stored here, so that they can be
   // thrown when execution of the action is requested. This field is set during each call to
   // findAndStoreArtifactConflicts, and is preserved across builds otherwise.
@@ -414,6 +423,7 @@ public final class SkyframeActionExecutor {
     this.buildActionMap = Maps.newConcurrentMap();
     this.completedAndResetActions = Sets.newConcurrentHashSet();
     this.lostDiscoveredInputsMap = Maps.newConcurrentMap();
+    this.knownOutputDirectories = Sets.newConcurrentHashSet();
     this.hadExecutionError = false;
     this.actionCacheChecker = Preconditions.checkNotNull(actionCacheChecker);
     this.topDownActionCache = topDownActionCache;
@@ -449,16 +459,14 @@ public final class SkyframeActionExecutor {
 
   /** REQUIRES: {@link #actionFileSystemType()} to be not {@code DISABLED}. */
   FileSystem createActionFileSystem(
-      String relativeOutputPath,
-      ActionInputMap inputArtifactData,
-      Iterable<Artifact> outputArtifacts) {
+      String relativeOutputPath, ActionInputMap inputArtifactData, Action action) {
     return outputService.createActionFileSystem(
         executorEngine.getFileSystem(),
         executorEngine.getExecRoot().asFragment(),
         relativeOutputPath,
         sourceRootSupplier.get(),
         inputArtifactData,
-        outputArtifacts,
+        action,
         sourceArtifactFactory);
   }
 
@@ -482,6 +490,7 @@ public final class SkyframeActionExecutor {
     this.buildActionMap = null;
     this.completedAndResetActions = null;
     this.lostDiscoveredInputsMap = null;
+    this.knownOutputDirectories = null;
     this.actionCacheChecker = null;
     this.topDownActionCache = null;
   }
@@ -1158,6 +1167,9 @@ public final class SkyframeActionExecutor {
 
   private void createOutputDirectories(Action action, ActionExecutionContext context)
       throws ActionExecutionException {
+    // The paths of an action file system are only valid for its action.
+    Set<Path> knownDirectories =
+        actionFileSystemType().isEnabled() ? null : knownOutputDirectories;
     try {
       Set<Path> done = new HashSet<>(); // avoid redundant calls for the same directory.
       for (Artifact outputFile : action.getOutputs()) {
@@ -1169,8 +1181,19 @@ public final class SkyframeActionExecutor {
         }
 
         if (done.add(outputDir)) {
+          if (knownDirectories != null && knownDirectories.contains(outputDir)) {
+            continue;
+          }
           try {
-            outputDir.createDirectoryAndParents();
+            if (knownDirectories == null
+                || !createBelowKnownDirectory(outputDir, knownDirectories)) {
+              outputDir.createDirectoryAndParents();
+            }
+            if (knownDirectories != null) {
+              addKnownDirectories(
+                  outputFile.isTreeArtifact() ? outputDir.getParentDirectory() : outputDir,
+                  knownDirectories);
+            }
             continue;
           } catch (IOException e) {
             /* Fall through to plan B. */
@@ -1241,6 +1264,36 @@ public final class SkyframeActionExecutor {
     }
   }
 
+  /**
+   * Creates {@code dir} and its missing ancestors with one mkdir each, if one of its ancestors is in
+   * {@code knownDirectories}. This avoids the stats that {@link Path#createDirectoryAndParents}
+   * needs to find the missing ancestors. Returns false if none of the ancestors are known, or if
+   * something other than a directory is in the way, for {@link Path#createDirectoryAndParents} to
+   * deal with.
+   */
+  private static boolean createBelowKnownDirectory(Path dir, Set<Path> knownDirectories) {
+    Deque<Path> missing = new ArrayDeque<>();
+    for (Path p = dir; !knownDirectories.contains(p); p = p.getParentDirectory()) {
+      if (p.getParentDirectory() == null) {
+        return false;
+      }
+      missing.push(p);
+    }
+    try {
+      while (!missing.isEmpty()) {
+        missing.pop().createDirectory();
+      }
+    } catch (IOException e) {
+      return false;
+    }
+    return true;
+  }
+
+  /** Adds {@code dir} and its ancestors, which all exist, to {@code knownDirectories}. */
+  private static void addKnownDirectories(Path dir, Set<Path> knownDirectories) {
+    for (Path p = dir; p != null && knownDirectories.add(p); p = p.getParentDirectory()) {}
+  }
+
   private String prependExecPhaseStats(String message) {
     // Prints a progress message like:
     //   [2608/6445] Compiling foo/bar.cc [host]
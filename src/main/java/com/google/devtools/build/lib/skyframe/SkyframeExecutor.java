@@ -188,9 +188,11 @@ import com.google.errorprone.annotations.ForOverride;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -230,6 +232,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   protected MemoizingEvaluator memoizingEvaluator;
   private final MemoizingEvaluator.EmittedEventState emittedEventState =
       new MemoizingEvaluator.EmittedEventState();
+  // The roots requested by each of the last recentBuildWindow builds, most recent first.
+  private final Deque<ImmutableSet<SkyKey>> recentBuildRoots = new ArrayDeque<>();
+  private int recentBuildWindow = 0;
   private final PackageFactory pkgFactory;
   private final WorkspaceStatusAction.Factory workspaceStatusActionFactory;
   private final FileSystem fileSystem;
@@ -2765,7 +2770,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   }
 
   public abstract void detectModifiedOutputFiles(
-      ModifiedFileSet modifiedOutputFiles, @Nullable Range<Long> lastExecutionTimeRange)
+      ModifiedFileSet modifiedOutputFiles,
+      @Nullable Range<Long> lastExecutionTimeRange,
+      Path execRoot)
       throws AbruptExitException, InterruptedException;
 
   /**
@@ -2777,6 +2784,48 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
    */
   public abstract void deleteOldNodes(long versionWindowForDirtyGc);
 
+  /**
+   * Keeps track of the nodes needed by the last {@code buildWindow} builds, so that {@link
+   * #discardUnusedAnalysisNodes} can tell which nodes have not been needed recently. A window of 0
+   * disables tracking. Each build is delimited by a call to {@link #recordRecentBuild}.
+   */
+  public void trackRecentBuilds(int buildWindow) {
+    Preconditions.checkArgument(buildWindow >= 0, buildWindow);
+    recentBuildWindow = buildWindow;
+    memoizingEvaluator.trackRequestedRoots(buildWindow > 0);
+    while (recentBuildRoots.size() > buildWindow) {
+      recentBuildRoots.removeLast();
+    }
+  }
+
+  /**
+   * Records the roots requested since the previous call as those of one build, and forgets the
+   * roots of builds that fall out of the window set by {@link #trackRecentBuilds}.
+   */
+  public void recordRecentBuild() {
+    if (recentBuildWindow == 0) {
+      return;
+    }
+    recentBuildRoots.addFirst(memoizingEvaluator.getAndClearRequestedRoots());
+    while (recentBuildRoots.size() > recentBuildWindow) {
+      recentBuildRoots.removeLast();
+    }
+  }
+
+  /**
+   * Marks the configured targets and packages that were not needed by any of the builds recorded
+   * by {@link #recordRecentBuild} for deletion, along with all nodes depending on them. They are
+   * purged at the start of the next evaluation, and recomputed if they are requested again.
+   *
+   * @return the number of nodes marked for deletion
+   */
+  public int discardUnusedAnalysisNodes() {
+    return memoizingEvaluator.deleteUnreachable(
+        Iterables.concat(recentBuildRoots),
+        SkyFunctionName.functionIsIn(
+            ImmutableSet.of(SkyFunctions.CONFIGURED_TARGET, SkyFunctions.PACKAGE)));
+  }
+
   @Nullable
   public PackageProgressReceiver getPackageProgressReceiver() {
     return packageProgress;
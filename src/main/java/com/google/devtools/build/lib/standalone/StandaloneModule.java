@@ -18,6 +18,7 @@ import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.analysis.actions.LocalTemplateExpansionStrategy;
 import com.google.devtools.build.lib.analysis.test.TestActionContext;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
 import com.google.devtools.build.lib.exec.FileWriteStrategy;
@@ -28,15 +29,67 @@ import com.google.devtools.build.lib.exec.TestStrategy;
 import com.google.devtools.build.lib.exec.local.LocalEnvProvider;
 import com.google.devtools.build.lib.exec.local.LocalExecutionOptions;
 import com.google.devtools.build.lib.exec.local.LocalSpawnRunner;
+import com.google.devtools.build.lib.exec.local.SpawnCgroups;
 import com.google.devtools.build.lib.rules.test.ExclusiveTestStrategy;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import com.google.devtools.build.lib.shell.SubprocessFactory;
+import com.google.devtools.build.lib.unix.PosixSpawnSubprocessFactory;
 import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
 
 /**
  * StandaloneModule provides pluggable functionality for blaze.
  */
 public class StandaloneModule extends BlazeModule {
+  private static final Logger logger = Logger.getLogger(StandaloneModule.class.getName());
+
+  /** The default subprocess factory to restore after a command that used posix_spawn(3). */
+  @Nullable private SubprocessFactory subprocessFactoryBeforeCommand;
+
+  @Override
+  public void beforeCommand(CommandEnvironment env) {
+    LocalExecutionOptions options = env.getOptions().getOptions(LocalExecutionOptions.class);
+    if (options == null) {
+      return;
+    }
+    if (options.useCgroups) {
+      try {
+        SpawnCgroups.setUp(env.getRuntime().getFileSystem());
+      } catch (IOException e) {
+        env.getReporter()
+            .handle(
+                Event.warn(
+                    "--experimental_local_cgroups has no effect because " + e.getMessage()));
+      }
+    }
+    if (!options.usePosixSpawn) {
+      return;
+    }
+    if (!PosixSpawnSubprocessFactory.isAvailable()) {
+      env.getReporter()
+          .handle(
+              Event.warn(
+                  "--experimental_posix_spawn has no effect because posix_spawn(3) of this "
+                      + "platform can't start subprocesses the way Bazel needs"));
+      return;
+    }
+    subprocessFactoryBeforeCommand = SubprocessBuilder.getDefaultSubprocessFactory();
+    SubprocessBuilder.setDefaultSubprocessFactory(PosixSpawnSubprocessFactory.INSTANCE);
+  }
+
+  @Override
+  public void afterCommand() {
+    if (subprocessFactoryBeforeCommand != null) {
+      logger.info(PosixSpawnSubprocessFactory.getAndResetPipeStatistics());
+      SubprocessBuilder.setDefaultSubprocessFactory(subprocessFactoryBeforeCommand);
+      subprocessFactoryBeforeCommand = null;
+    }
+  }
+
   @Override
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
     // TODO(ulfjack): Move this to another module.
@@ -60,7 +113,7 @@ public class StandaloneModule extends BlazeModule {
             LocalEnvProvider.forCurrentOs(env.getClientEnv()),
             env.getBlazeWorkspace().getBinTools(),
             // TODO(buchgr): Replace singleton by a command-scoped RunfilesTreeUpdater
-            RunfilesTreeUpdater.INSTANCE);
+            RunfilesTreeUpdater.forOptions(executionOptions));
 
     // Order of strategies passed to builder is significant - when there are many strategies that
     // could potentially be used and a spawnActionContext doesn't specify which one it wants, the
@@ -129,6 +129,18 @@ public final class NativePosixFiles {
    */
   public static native ErrnoFileStatus errnoLstat(String path);
 
+  /**
+   * Native wrapper around POSIX stat(2) or lstat(2) syscalls for a batch of paths at once.
+   *
+   * @param paths the files to stat.
+   * @param followSymlinks whether to call stat(2) rather than lstat(2).
+   * @param numThreads the maximum number of native threads the syscalls are spread over.
+   * @return an ErrnoFileStatus instance for each path, in the same order as {@code paths}. See
+   *   {@link #errnoStat}.
+   */
+  public static native ErrnoFileStatus[] errnoStatBatch(
+      String[] paths, boolean followSymlinks, int numThreads);
+
   /**
    * Native wrapper around POSIX utime(2) syscall.
    *
@@ -243,11 +255,23 @@ public final class NativePosixFiles {
      * <p>This is intentionally a byte array rather than a array of enums to save memory.
      */
     private final byte[] types;
+    /**
+     * An optional (nullable) array of the stats of the entries, corresponding positionally to the
+     * "names" field. Only returned by {@link #readdirWithStats}, which leaves the elements of
+     * entries other than symlinks null.
+     */
+    private final ErrnoFileStatus[] stats;
 
     /** called from JNI */
     public Dirents(String[] names, byte[] types) {
+      this(names, types, null);
+    }
+
+    /** called from JNI */
+    public Dirents(String[] names, byte[] types, ErrnoFileStatus[] stats) {
       this.names = names;
       this.types = types;
+      this.stats = stats;
     }
 
     public int size() {
@@ -265,6 +289,14 @@ public final class NativePosixFiles {
     public Type getType(int i) {
       return Type.forChar((char) types[i]);
     }
+
+    public boolean hasStats() {
+      return stats != null;
+    }
+
+    public ErrnoFileStatus getStat(int i) {
+      return stats[i];
+    }
   }
 
   /**
@@ -287,6 +319,34 @@ public final class NativePosixFiles {
   private static native Dirents readdir(String path, char typeCode)
       throws IOException;
 
+  /**
+   * Like {@link #readdir(String, ReadTypes)} with {@code NOFOLLOW} types, but also stats each
+   * symlink relative to the open directory (fstatat(2)), so that listing a directory and resolving
+   * its symlinks takes a single call into native code. Other entries are only stat()ed if
+   * readdir(3) doesn't know their types.
+   *
+   * @param path the directory to read.
+   * @param followSymlinks whether the stats of the symlinks follow them. The types never do.
+   * @return a Dirents object with "names", "types" and "stats". The stats of entries other than
+   *     symlinks are null. A stat that failed, e.g. because the entry was deleted concurrently or
+   *     is a dangling symlink, has its errno set.
+   * @throws IOException if the call to opendir failed for any reason.
+   */
+  public static native Dirents readdirWithStats(String path, boolean followSymlinks)
+      throws IOException;
+
+  /**
+   * Copies the contents of a file, following symbolic links, to a file that is created if it
+   * doesn't exist and truncated otherwise. Where the platform and the file systems support it, the
+   * data doesn't go through user space: on Linux, the copy is a copy-on-write clone (FICLONE) or
+   * an in-kernel copy (copy_file_range(2) or sendfile(2)).
+   *
+   * @param from the file to copy.
+   * @param to the location of the copy.
+   * @throws IOException if the copy failed for any reason.
+   */
+  public static native void copyFileContents(String from, String to) throws IOException;
+
   /**
    * Native wrapper around POSIX rename(2) syscall.
    *
@@ -388,6 +448,12 @@ public final class NativePosixFiles {
    */
   public static native int openWrite(String path, boolean append) throws FileNotFoundException;
 
+  /**
+   * Read a segment of data from a file descriptor. Returns the number of bytes read, which may be
+   * less than {@code len}, or -1 at the end of the file.
+   */
+  public static native int read(int fd, byte[] data, int off, int len) throws IOException;
+
   /** Write a segment of data to a file descriptor. */
   public static native int write(int fd, byte[] data, int off, int len) throws IOException;
 
@@ -0,0 +1,90 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.unix;
+
+import com.google.devtools.build.lib.UnixJniLoader;
+import java.io.IOException;
+import javax.annotation.Nullable;
+
+/** Native wrappers around the POSIX calls that start and reap subprocesses. */
+final class NativePosixProcesses {
+
+  private NativePosixProcesses() {}
+
+  static {
+    if (!"0".equals(System.getProperty("io.bazel.EnableJni"))) {
+      UnixJniLoader.loadJni();
+    }
+  }
+
+  /** The indices of the array returned by {@link #spawn}. */
+  static final int PID = 0;
+  static final int STDIN_FD = 1;
+  static final int STDOUT_FD = 2;
+  static final int STDERR_FD = 3;
+
+  /**
+   * Returns whether {@link #spawn} works on this platform, i.e. whether posix_spawn(3) can change
+   * the working directory of the child and close the file descriptors it must not inherit.
+   */
+  static native boolean isSpawnSupported();
+
+  /**
+   * Native wrapper around posix_spawnp(3).
+   *
+   * <p>The stdin of the child is a pipe. Its stdout and stderr are appended to the given files, or
+   * pipes if they are null. All other file descriptors are closed in the child.
+   *
+   * @param env the environment of the child, or null to inherit the one of this process
+   * @return the pid of the child and the file descriptors of our ends of its stdin, stdout and
+   *     stderr pipes at {@link #PID}, {@link #STDIN_FD}, {@link #STDOUT_FD} and {@link
+   *     #STDERR_FD}; the file descriptors are -1 for streams that are not pipes
+   * @throws IOException iff the child could not be started, e.g. because the program doesn't exist
+   */
+  static native int[] spawn(
+      String[] argv,
+      @Nullable String[] env,
+      String workingDirectory,
+      @Nullable String stdoutFile,
+      @Nullable String stderrFile,
+      boolean redirectErrorStream)
+      throws IOException;
+
+  /** Blocks until the process {@code pid} exits, without reaping it. */
+  static native void waitForExit(int pid) throws IOException;
+
+  /**
+   * Reaps the process {@code pid}, blocking until it exits. Returns its exit code, or 128 plus the
+   * number of the signal that killed it.
+   */
+  static native int reap(int pid) throws IOException;
+
+  /** Sends SIGTERM to the process {@code pid}, unless it is gone already. */
+  static native void terminate(int pid) throws IOException;
+
+  /**
+   * Native wrapper around pipe(2). Both ends are closed on exec.
+   *
+   * @return the file descriptors of the read end and the write end
+   */
+  static native int[] pipe() throws IOException;
+
+  /**
+   * Native wrapper around poll(2): waits up to {@code timeoutMillis}, or forever if it is negative,
+   * until one of {@code fds} can be read without blocking, is at its end or has an error.
+   *
+   * @return the returned events of each file descriptor, which are 0 if it isn't ready
+   */
+  static native int[] poll(int[] fds, int timeoutMillis) throws IOException;
+}
@@ -0,0 +1,288 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.unix;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Copies the output of subprocess pipes to their consumers on a few threads, each of which waits
+ * for all of its pipes at once with poll(2), instead of on one blocked thread per pipe.
+ *
+ * <p>The selector threads write to the consumers' output streams themselves, so a consumer that
+ * blocks holds up the other pipes of its thread. The streams of {@link
+ * com.google.devtools.build.lib.shell.Command} write to memory, files or the terminal, which is
+ * fine.
+ */
+@ThreadSafe
+final class PipeSelector {
+  private static final Logger logger = Logger.getLogger(PipeSelector.class.getName());
+
+  /** The maximum number of bytes the native read of a single pipe returns at once. */
+  private static final int BUFFER_SIZE = 8192;
+
+  static final PipeSelector INSTANCE =
+      new PipeSelector(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 8)));
+
+  @GuardedBy("this")
+  private final SelectorThread[] threads;
+
+  private final AtomicLong drainedStreams = new AtomicLong();
+  private final AtomicInteger activeStreams = new AtomicInteger();
+  private final AtomicInteger peakActiveStreams = new AtomicInteger();
+
+  @VisibleForTesting
+  PipeSelector(int numThreads) {
+    this.threads = new SelectorThread[numThreads];
+  }
+
+  /**
+   * Starts copying the pipe {@code fd} to {@code out}, or discarding it if {@code out} is null. The
+   * selector owns {@code fd} from now on and closes it at its end.
+   *
+   * @see com.google.devtools.build.lib.shell.DrainableStream#drainTo
+   */
+  ListenableFuture<?> drain(int fd, @Nullable OutputStream out, boolean closeOut) {
+    Drain drain = new Drain(fd, out, closeOut);
+    peakActiveStreams.accumulateAndGet(activeStreams.incrementAndGet(), Math::max);
+    SelectorThread thread;
+    try {
+      thread = getLeastBusyThread();
+    } catch (IOException e) {
+      drain.finish(e);
+      return drain.future;
+    }
+    thread.add(drain);
+    // Cancelling only takes effect on the selector thread.
+    drain.future.addListener(
+        () -> {
+          if (drain.future.isCancelled()) {
+            thread.wakeup();
+          }
+        },
+        MoreExecutors.directExecutor());
+    return drain.future;
+  }
+
+  private synchronized SelectorThread getLeastBusyThread() throws IOException {
+    SelectorThread leastBusy = null;
+    for (int i = 0; i < threads.length; i++) {
+      if (threads[i] == null) {
+        threads[i] = new SelectorThread(i);
+        return threads[i];
+      }
+      if (leastBusy == null || threads[i].size.get() < leastBusy.size.get()) {
+        leastBusy = threads[i];
+      }
+    }
+    return leastBusy;
+  }
+
+  /**
+   * Returns and resets the statistics of the selector as a human-readable message: how many streams
+   * it drained, and how many threads it saved compared to one thread per stream.
+   */
+  String getAndResetStatistics() {
+    int numThreads;
+    synchronized (this) {
+      numThreads = 0;
+      for (SelectorThread thread : threads) {
+        if (thread != null) {
+          numThreads++;
+        }
+      }
+    }
+    int peak = peakActiveStreams.getAndSet(activeStreams.get());
+    return String.format(
+        "Pipe selector: %d subprocess output streams drained by %d threads, at most %d at once "
+            + "(%d threads saved)",
+        drainedStreams.getAndSet(0), numThreads, peak, Math.max(0, peak - numThreads));
+  }
+
+  /** A pipe being copied to its consumer. */
+  private final class Drain {
+    private final int fd;
+    @Nullable private final OutputStream out;
+    private final boolean closeOut;
+    private final SettableFuture<Void> future = SettableFuture.create();
+
+    Drain(int fd, @Nullable OutputStream out, boolean closeOut) {
+      this.fd = fd;
+      this.out = out;
+      this.closeOut = closeOut;
+    }
+
+    /** Copies what the pipe has to offer to the consumer. Returns whether the pipe is done. */
+    boolean copyAvailable(byte[] buffer) {
+      try {
+        int read = NativePosixFiles.read(fd, buffer, 0, buffer.length);
+        if (read == -1) {
+          finish(null);
+          return true;
+        }
+        if (out != null) {
+          // Flushing like InputStreamSink does, for consumers that show the output as it comes.
+          out.write(buffer, 0, read);
+          out.flush();
+        }
+        return false;
+      } catch (IOException e) {
+        finish(e);
+        return true;
+      }
+    }
+
+    void finish(@Nullable IOException error) {
+      try {
+        NativePosixFiles.close(fd, this);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Unexpected exception while closing pipe", e);
+      }
+      if (closeOut && out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          error = error != null ? error : e;
+        }
+      }
+      activeStreams.decrementAndGet();
+      drainedStreams.incrementAndGet();
+      if (error == null) {
+        future.set(null);
+      } else {
+        future.setException(error);
+      }
+    }
+  }
+
+  /** A thread that copies the pipes assigned to it whenever poll(2) says they are ready. */
+  private final class SelectorThread implements Runnable {
+    private final int wakeupReadFd;
+    private final int wakeupWriteFd;
+
+    /** The number of pipes assigned to the thread. */
+    private final AtomicInteger size = new AtomicInteger();
+
+    @GuardedBy("this")
+    private final List<Drain> added = new ArrayList<>();
+
+    @GuardedBy("this")
+    private boolean wakeupPending;
+
+    SelectorThread(int index) throws IOException {
+      int[] wakeupPipe = NativePosixProcesses.pipe();
+      this.wakeupReadFd = wakeupPipe[0];
+      this.wakeupWriteFd = wakeupPipe[1];
+      Thread thread = new Thread(this, "pipe-selector-" + index);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    void add(Drain drain) {
+      size.incrementAndGet();
+      synchronized (this) {
+        added.add(drain);
+      }
+      wakeup();
+    }
+
+    /** Makes the thread return from poll(2), so that it picks up changes to its pipes. */
+    void wakeup() {
+      synchronized (this) {
+        if (wakeupPending) {
+          return;
+        }
+        wakeupPending = true;
+      }
+      try {
+        NativePosixFiles.write(wakeupWriteFd, new byte[1], 0, 1);
+      } catch (IOException e) {
+        logger.log(Level.SEVERE, "Cannot wake up pipe selector", e);
+      }
+    }
+
+    @Override
+    public void run() {
+      List<Drain> drains = new ArrayList<>();
+      byte[] buffer = new byte[BUFFER_SIZE];
+      while (true) {
+        synchronized (this) {
+          drains.addAll(added);
+          added.clear();
+          wakeupPending = false;
+        }
+        for (Iterator<Drain> it = drains.iterator(); it.hasNext(); ) {
+          Drain drain = it.next();
+          if (drain.future.isCancelled()) {
+            drain.finish(null);
+            remove(it);
+          }
+        }
+
+        int[] fds = new int[drains.size() + 1];
+        fds[0] = wakeupReadFd;
+        for (int i = 0; i < drains.size(); i++) {
+          fds[i + 1] = drains.get(i).fd;
+        }
+        int[] events;
+        try {
+          events = NativePosixProcesses.poll(fds, -1);
+        } catch (IOException e) {
+          // Only happens on bugs, e.g. if someone else closed one of our pipes.
+          logger.log(Level.SEVERE, "poll failed, giving up on " + drains.size() + " pipes", e);
+          for (Drain drain : drains) {
+            drain.finish(e);
+          }
+          size.addAndGet(-drains.size());
+          drains.clear();
+          continue;
+        }
+
+        if (events[0] != 0) {
+          try {
+            NativePosixFiles.read(wakeupReadFd, buffer, 0, buffer.length);
+          } catch (IOException e) {
+            logger.log(Level.SEVERE, "Cannot read the wakeup pipe of the pipe selector", e);
+          }
+        }
+        Iterator<Drain> it = drains.iterator();
+        for (int i = 1; i < events.length; i++) {
+          Drain drain = it.next();
+          if (events[i] != 0 && drain.copyAvailable(buffer)) {
+            remove(it);
+          }
+        }
+      }
+    }
+
+    private void remove(Iterator<Drain> it) {
+      it.remove();
+      size.decrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,300 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.unix;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.devtools.build.lib.shell.DrainableStream;
+import com.google.devtools.build.lib.shell.Subprocess;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.concurrent.GuardedBy;
+
+/** A subprocess started by {@link PosixSpawnSubprocessFactory}, with pipes as its streams. */
+final class PosixSpawnSubprocess implements Subprocess {
+
+  /** Output stream for writing to the stdin pipe of a process. */
+  private static final class PipeOutputStream extends OutputStream {
+    private int fd;
+
+    PipeOutputStream(int fd) {
+      this.fd = fd;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+      if (fd == -1) {
+        throw new IOException("Stream closed");
+      }
+      NativePosixFiles.write(fd, b, off, len);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (fd != -1) {
+        int toClose = fd;
+        fd = -1;
+        NativePosixFiles.close(toClose, this);
+      }
+    }
+  }
+
+  /**
+   * Input stream for reading the stdout or stderr pipe of a process. Draining it doesn't need a
+   * thread of its own, see {@link PipeSelector}.
+   */
+  private static final class PipeInputStream extends InputStream implements DrainableStream {
+    private int fd;
+
+    PipeInputStream(int fd) {
+      this.fd = fd;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] buf = new byte[1];
+      return read(buf, 0, 1) == 1 ? buf[0] & 0xff : -1;
+    }
+
+    // Reading blocks while the process doesn't write, so this doesn't hold the lock that close
+    // needs. Like for java.io.FileInputStream, closing a stream that is being read is a bug.
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int current;
+      synchronized (this) {
+        current = fd;
+      }
+      if (current == -1) {
+        throw new IOException("Stream closed");
+      }
+      return NativePosixFiles.read(current, b, off, len);
+    }
+
+    @Override
+    public Future<?> drainTo(OutputStream out, boolean closeOut) {
+      int toDrain;
+      synchronized (this) {
+        toDrain = fd;
+        fd = -1;
+      }
+      if (toDrain == -1) {
+        return Futures.immediateFailedFuture(new IOException("Stream closed"));
+      }
+      return PipeSelector.INSTANCE.drain(toDrain, out, closeOut);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (fd != -1) {
+        int toClose = fd;
+        fd = -1;
+        NativePosixFiles.close(toClose, this);
+      }
+    }
+  }
+
+  /** Input stream of a stream of the process that isn't a pipe. */
+  private static final class EmptyInputStream extends InputStream implements DrainableStream {
+    @Override
+    public int read() {
+      return -1;
+    }
+
+    @Override
+    public Future<?> drainTo(OutputStream out, boolean closeOut) {
+      if (closeOut && out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          return Futures.immediateFailedFuture(e);
+        }
+      }
+      return Futures.immediateFuture(null);
+    }
+  }
+
+  private static final AtomicInteger THREAD_SEQUENCE_NUMBER = new AtomicInteger(1);
+
+  // Every process we start consumes a thread here while it runs, like java.lang.Process does. A
+  // blocking wait is the only way to learn about the exit of a single child without a SIGCHLD
+  // handler, which the JVM doesn't let us install.
+  private static final ExecutorService WAITER_POOL =
+      Executors.newCachedThreadPool(
+          runnable -> {
+            Thread thread =
+                new Thread(
+                    null,
+                    runnable,
+                    "posix-spawn-waiter-" + THREAD_SEQUENCE_NUMBER.getAndIncrement(),
+                    16 * 1024);
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private final int pid;
+  private final long deadlineMillis;
+  private final PipeOutputStream stdinStream;
+  private final InputStream stdoutStream;
+  private final InputStream stderrStream;
+  private final Future<Integer> exitCode;
+  private final AtomicBoolean deadlineExceeded = new AtomicBoolean();
+
+  /** Whether the process was reaped, after which its pid may belong to another process. */
+  @GuardedBy("this")
+  private boolean reaped;
+
+  PosixSpawnSubprocess(int[] spawnResult, long deadlineMillis) {
+    this.pid = spawnResult[NativePosixProcesses.PID];
+    this.deadlineMillis = deadlineMillis;
+    this.stdinStream = new PipeOutputStream(spawnResult[NativePosixProcesses.STDIN_FD]);
+    this.stdoutStream = inputStream(spawnResult[NativePosixProcesses.STDOUT_FD]);
+    this.stderrStream = inputStream(spawnResult[NativePosixProcesses.STDERR_FD]);
+    this.exitCode = WAITER_POOL.submit(this::waitForExit);
+  }
+
+  private static InputStream inputStream(int fd) {
+    return fd == -1 ? new EmptyInputStream() : new PipeInputStream(fd);
+  }
+
+  private int waitForExit() throws IOException {
+    NativePosixProcesses.waitForExit(pid);
+    synchronized (this) {
+      reaped = true;
+      return NativePosixProcesses.reap(pid);
+    }
+  }
+
+  @Override
+  public synchronized boolean destroy() {
+    if (reaped) {
+      return true;
+    }
+    try {
+      NativePosixProcesses.terminate(pid);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public int exitValue() {
+    if (!exitCode.isDone()) {
+      throw new IllegalThreadStateException("Process " + pid + " has not exited");
+    }
+    try {
+      return getExitCode(0);
+    } catch (InterruptedException | TimeoutException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public boolean finished() {
+    if (deadlineMillis > 0
+        && System.currentTimeMillis() > deadlineMillis
+        && deadlineExceeded.compareAndSet(false, true)) {
+      destroy();
+    }
+    return exitCode.isDone();
+  }
+
+  @Override
+  public boolean timedout() {
+    return deadlineExceeded.get();
+  }
+
+  @Override
+  public void waitFor() throws InterruptedException {
+    if (deadlineMillis > 0) {
+      try {
+        getExitCode(Math.max(0, deadlineMillis - System.currentTimeMillis()));
+        return;
+      } catch (TimeoutException e) {
+        if (deadlineExceeded.compareAndSet(false, true)) {
+          destroy();
+        }
+      }
+    }
+    try {
+      getExitCode(-1);
+    } catch (TimeoutException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Waits up to {@code timeoutMillis} for the exit code, or forever if it is negative. */
+  private int getExitCode(long timeoutMillis) throws InterruptedException, TimeoutException {
+    try {
+      return timeoutMillis < 0
+          ? exitCode.get()
+          : exitCode.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      // waitid and waitpid only fail on bugs, e.g. if someone else reaped our child.
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException("Waiting for process " + pid + " failed", e.getCause());
+    }
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return stdinStream;
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return stdoutStream;
+  }
+
+  @Override
+  public InputStream getErrorStream() {
+    return stderrStream;
+  }
+
+  @Override
+  public long getProcessId() {
+    return pid;
+  }
+
+  @Override
+  public void close() {
+    for (Closeable stream : new Closeable[] {stdinStream, stdoutStream, stderrStream}) {
+      try {
+        stream.close();
+      } catch (IOException e) {
+        // Closing a pipe only fails on bugs, and there is nothing left to release then.
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s:[pid %d]", super.toString(), pid);
+  }
+}
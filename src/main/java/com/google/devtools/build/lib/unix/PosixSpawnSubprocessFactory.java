@@ -0,0 +1,127 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.unix;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import com.google.devtools.build.lib.shell.SubprocessBuilder.StreamAction;
+import com.google.devtools.build.lib.shell.SubprocessFactory;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A subprocess factory that starts processes with posix_spawn(3) from native code.
+ *
+ * <p>{@link java.lang.ProcessBuilder} forks the whole server, or execs a helper binary that then
+ * execs the program, depending on the JDK. posix_spawn(3) is implemented with vfork(2) or
+ * clone(CLONE_VM|CLONE_VFORK) instead, which doesn't copy the page tables of the server, so
+ * starting a process takes a fraction of the time and doesn't grow with the heap size. That
+ * matters with a high number of --jobs, as processes are started under a global lock.
+ */
+public final class PosixSpawnSubprocessFactory implements SubprocessFactory {
+
+  public static final PosixSpawnSubprocessFactory INSTANCE = new PosixSpawnSubprocessFactory();
+
+  private PosixSpawnSubprocessFactory() {
+    // We are a singleton
+  }
+
+  /** Returns whether this factory works on the current platform and with the native library. */
+  public static boolean isAvailable() {
+    try {
+      return NativePosixProcesses.isSpawnSupported();
+    } catch (UnsatisfiedLinkError e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns and resets the statistics of the threads that drain the output pipes of subprocesses,
+   * see {@link PipeSelector#getAndResetStatistics}.
+   */
+  public static String getAndResetPipeStatistics() {
+    return PipeSelector.INSTANCE.getAndResetStatistics();
+  }
+
+  @Override
+  public Subprocess create(SubprocessBuilder params) throws IOException {
+    ImmutableMap<String, String> env = params.getEnv();
+    String[] envArray = null;
+    if (env != null) {
+      envArray = new String[env.size()];
+      int i = 0;
+      for (Map.Entry<String, String> entry : env.entrySet()) {
+        envArray[i++] = entry.getKey() + "=" + entry.getValue();
+      }
+    }
+    File workingDirectory = params.getWorkingDirectory();
+
+    // Deadline is now + given timeout.
+    long deadlineMillis =
+        params.getTimeoutMillis() > 0
+            ? Math.addExact(System.currentTimeMillis(), params.getTimeoutMillis())
+            : 0;
+    return new PosixSpawnSubprocess(
+        spawn(
+            params.getArgv().toArray(new String[0]),
+            envArray,
+            workingDirectory != null ? workingDirectory.getPath() : ".",
+            getRedirectPath(params.getStdout(), params.getStdoutFile()),
+            getRedirectPath(params.getStderr(), params.getStderrFile()),
+            params.redirectErrorStream()),
+        deadlineMillis);
+  }
+
+  // See JavaSubprocessFactory#start for why we hold a global lock while starting a process: no
+  // other child may hold a copy of the file descriptor of an executable that is being written when
+  // the writer runs it. posix_spawn(3) only returns after the child execs, at which point its
+  // copies of our file descriptors are closed.
+  private synchronized int[] spawn(
+      String[] argv,
+      String[] env,
+      String workingDirectory,
+      String stdoutFile,
+      String stderrFile,
+      boolean redirectErrorStream)
+      throws IOException {
+    return NativePosixProcesses.spawn(
+        argv, env, workingDirectory, stdoutFile, stderrFile, redirectErrorStream);
+  }
+
+  /**
+   * Returns the file the stream is appended to, or null if it is a pipe. If a file redirected to
+   * exists, deletes the file before redirecting to it.
+   */
+  private static String getRedirectPath(StreamAction action, File file) {
+    switch (action) {
+      case DISCARD:
+        return "/dev/null";
+
+      case REDIRECT:
+        // Appending for the same reason as JavaSubprocessFactory#getRedirect.
+        if (file.exists()) {
+          file.delete();
+        }
+        return file.getPath();
+
+      case STREAM:
+        return null;
+
+      default:
+        throw new IllegalStateException();
+    }
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.unix;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.unix.UnixFileSystem.UnixFileStatus;
+import com.google.devtools.build.lib.vfs.BatchStat;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigestAdapter;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link BatchStat} for the local file system, which stats many paths with a single call into
+ * native code. The syscalls of each call are spread over a few native threads.
+ *
+ * <p>Digests are never included; like for individual stats, callers compute them from the file
+ * when they need them.
+ */
+final class UnixBatchStat implements BatchStat {
+  /** The number of paths stat()ed by each call into native code. */
+  @VisibleForTesting static final int PATHS_PER_NATIVE_CALL = 1000;
+
+  /**
+   * The number of native threads of each call. Callers typically issue several batches
+   * concurrently already, so this is kept small.
+   */
+  private static final int DEFAULT_NUM_THREADS = 4;
+
+  private final Path root;
+  private final int numThreads;
+
+  UnixBatchStat(Path root) {
+    this(root, DEFAULT_NUM_THREADS);
+  }
+
+  @VisibleForTesting
+  UnixBatchStat(Path root, int numThreads) {
+    Preconditions.checkArgument(numThreads > 0, numThreads);
+    this.root = Preconditions.checkNotNull(root);
+    this.numThreads = numThreads;
+  }
+
+  @Override
+  public List<FileStatusWithDigest> batchStat(
+      boolean includeDigest, boolean includeLinks, Iterable<PathFragment> paths)
+      throws IOException, InterruptedException {
+    List<Path> absolutePaths = new ArrayList<>();
+    for (PathFragment path : paths) {
+      absolutePaths.add(root.getRelative(path));
+    }
+    Symlinks symlinks = includeLinks ? Symlinks.NOFOLLOW : Symlinks.FOLLOW;
+    List<FileStatusWithDigest> result = new ArrayList<>(absolutePaths.size());
+    for (List<Path> batch : Lists.partition(absolutePaths, PATHS_PER_NATIVE_CALL)) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      String[] names = new String[batch.size()];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = batch.get(i).getPathString();
+      }
+      long startTime = Profiler.nanoTimeMaybe();
+      ErrnoFileStatus[] stats;
+      try {
+        stats = NativePosixFiles.errnoStatBatch(names, !includeLinks, numThreads);
+      } finally {
+        Profiler.instance()
+            .logSimpleTask(startTime, ProfilerTask.VFS_STAT, "batch of " + names.length + " paths");
+      }
+      for (int i = 0; i < stats.length; i++) {
+        ErrnoFileStatus stat = stats[i];
+        if (!stat.hasError()) {
+          result.add(FileStatusWithDigestAdapter.adapt(new UnixFileStatus(stat)));
+        } else if (stat.getErrno() == ErrnoFileStatus.ENOENT
+            || stat.getErrno() == ErrnoFileStatus.ENOTDIR) {
+          result.add(null);
+        } else {
+          // Stat the path again to throw the proper exception, as UnixFileSystem#statIfFound does.
+          result.add(FileStatusWithDigestAdapter.adapt(batch.get(i).statIfFound(symlinks)));
+        }
+      }
+    }
+    return result;
+  }
+}
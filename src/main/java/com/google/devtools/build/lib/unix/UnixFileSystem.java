@@ -22,9 +22,11 @@ import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.unix.NativePosixFiles.Dirents;
 import com.google.devtools.build.lib.unix.NativePosixFiles.ReadTypes;
 import com.google.devtools.build.lib.vfs.AbstractFileSystemWithCustomStat;
+import com.google.devtools.build.lib.vfs.BatchStat;
 import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.DigestHashFunction.DefaultHashFunctionNotSetException;
 import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.DirentWithStat;
 import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
@@ -167,6 +169,49 @@ public class UnixFileSystem extends AbstractFileSystemWithCustomStat {
     }
   }
 
+  @Override
+  public boolean supportsReaddirWithStatsNatively(Path path) {
+    return true;
+  }
+
+  @Override
+  protected Collection<DirentWithStat> readdirWithStats(Path path, boolean followSymlinks)
+      throws IOException {
+    String name = path.getPathString();
+    long startTime = Profiler.nanoTimeMaybe();
+    try {
+      Dirents unixDirents = NativePosixFiles.readdirWithStats(name, followSymlinks);
+      Preconditions.checkState(unixDirents.hasTypes() && unixDirents.hasStats());
+      List<DirentWithStat> dirents = Lists.newArrayListWithCapacity(unixDirents.size());
+      for (int i = 0; i < unixDirents.size(); i++) {
+        Dirent dirent =
+            new Dirent(unixDirents.getName(i), convertToDirentType(unixDirents.getType(i)));
+        ErrnoFileStatus stat = unixDirents.getStat(i);
+        if (stat == null) {
+          dirents.add(new DirentWithStat(dirent, (FileStatus) null));
+        } else if (!stat.hasError()) {
+          dirents.add(new DirentWithStat(dirent, new UnixFileStatus(stat)));
+        } else if (stat.getErrno() == ErrnoFileStatus.ENOENT
+            || stat.getErrno() == ErrnoFileStatus.ENOTDIR) {
+          dirents.add(new DirentWithStat(dirent, (FileStatus) null));
+        } else {
+          // As in statIfFound(), stat again just to get the proper exception. This is rare enough
+          // not to matter.
+          try {
+            dirents.add(
+                new DirentWithStat(
+                    dirent, statIfFound(path.getChild(dirent.getName()), followSymlinks)));
+          } catch (IOException e) {
+            dirents.add(new DirentWithStat(dirent, e));
+          }
+        }
+      }
+      return dirents;
+    } finally {
+      profiler.logSimpleTask(startTime, ProfilerTask.VFS_DIR, name);
+    }
+  }
+
   @Override
   protected FileStatus stat(Path path, boolean followSymlinks) throws IOException {
     return statInternal(path, followSymlinks);
@@ -202,6 +247,11 @@ public class UnixFileSystem extends AbstractFileSystemWithCustomStat {
     }
   }
 
+  @Override
+  public BatchStat getBatchStatter(Path root) {
+    return new UnixBatchStat(root);
+  }
+
   @Override
   protected boolean exists(Path path, boolean followSymlinks) {
     return statNullable(path, followSymlinks) != null;
@@ -310,8 +360,14 @@ public class UnixFileSystem extends AbstractFileSystemWithCustomStat {
   public boolean createDirectory(Path path) throws IOException {
     // Note: UNIX mkdir(2), FilesystemUtils.mkdir() and createDirectory all
     // have different ways of representing failure!
-    if (NativePosixFiles.mkdir(path.toString(), 0777)) {
-      return true; // successfully created
+    String name = path.getPathString();
+    long startTime = Profiler.nanoTimeMaybe();
+    try {
+      if (NativePosixFiles.mkdir(name, 0777)) {
+        return true; // successfully created
+      }
+    } finally {
+      profiler.logSimpleTask(startTime, ProfilerTask.VFS_MKDIR, name);
     }
 
     // false => EEXIST: something is already in the way (file/dir/symlink)
@@ -324,7 +380,13 @@ public class UnixFileSystem extends AbstractFileSystemWithCustomStat {
 
   @Override
   public void createDirectoryAndParents(Path path) throws IOException {
-    NativePosixFiles.mkdirs(path.toString(), 0777);
+    String name = path.getPathString();
+    long startTime = Profiler.nanoTimeMaybe();
+    try {
+      NativePosixFiles.mkdirs(name, 0777);
+    } finally {
+      profiler.logSimpleTask(startTime, ProfilerTask.VFS_MKDIR, name);
+    }
   }
 
   @Override
@@ -354,6 +416,17 @@ public class UnixFileSystem extends AbstractFileSystemWithCustomStat {
     NativePosixFiles.rename(sourcePath.toString(), targetPath.toString());
   }
 
+  @Override
+  protected void copyFileContents(Path sourcePath, Path targetPath) throws IOException {
+    String name = targetPath.getPathString();
+    long startTime = Profiler.nanoTimeMaybe();
+    try {
+      NativePosixFiles.copyFileContents(sourcePath.getPathString(), name);
+    } finally {
+      profiler.logSimpleTask(startTime, ProfilerTask.VFS_WRITE, name);
+    }
+  }
+
   @Override
   protected long getFileSize(Path path, boolean followSymlinks) throws IOException {
     return stat(path, followSymlinks).getSize();
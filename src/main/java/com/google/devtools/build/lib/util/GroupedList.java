@@ -25,10 +25,14 @@ import com.google.devtools.build.lib.skyframe.serialization.autocodec.AutoCodec;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Target;
 import java.util.AbstractCollection;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.Set;
+import javax.annotation.Nullable;
 import org.checkerframework.framework.qual.DefaultQualifierInHierarchy;
 import org.checkerframework.framework.qual.ImplicitFor;
 import org.checkerframework.framework.qual.LiteralKind;
@@ -45,6 +49,11 @@ import org.checkerframework.framework.qual.SubtypeOf;
  *
  * <p>Groups are implemented as lists to minimize memory use. However, {@link #equals} is defined to
  * treat groups as unordered.
+ *
+ * <p>The {@linkplain #compress compressed} form of a list whose groups all have a single element is
+ * an array of those elements. Otherwise, it is an array of all the elements back to back, followed
+ * by a {@code byte[]} holding the varint-encoded size of each group, so that no group needs an
+ * object of its own. Hence T <i>must not</i> be a {@code byte[]} either.
  */
 public final class GroupedList<T> implements Iterable<List<T>> {
 
@@ -89,6 +98,20 @@ public final class GroupedList<T> implements Iterable<List<T>> {
     this.elements = Lists.newArrayList(elements);
   }
 
+  /** Creates a list whose groups are views over the elements of a packed compressed array. */
+  private GroupedList(Object[] packed, byte[] groupSizes) {
+    this.size = packed.length - 1;
+    this.elements = new ArrayList<>(numGroups(groupSizes));
+    int start = 0;
+    int[] groupSize = new int[1];
+    for (int offset = 0; offset < groupSizes.length; ) {
+      offset = VarInt.getVarInt(groupSizes, offset, groupSize);
+      int end = start + groupSize[0];
+      elements.add(groupSize[0] == 1 ? packed[start] : new PackedGroup(packed, start, end));
+      start = end;
+    }
+  }
+
   /**
    * Appends the list constructed in {@code helper} to this list. Returns the elements of {@code
    * helper}, uniquified.
@@ -236,11 +259,10 @@ public final class GroupedList<T> implements Iterable<List<T>> {
       return 0;
     }
     if (compressed.getClass().isArray()) {
-      int size = 0;
-      for (Object item : (Object[]) compressed) {
-        size += sizeOf(item);
-      }
-      return size;
+      Object[] compressedArray = (Object[]) compressed;
+      return getGroupSizes(compressedArray) == null
+          ? compressedArray.length
+          : compressedArray.length - 1;
     }
     // Just a single element.
     return 1;
@@ -252,11 +274,34 @@ public final class GroupedList<T> implements Iterable<List<T>> {
       return 0;
     }
     if (compressed.getClass().isArray()) {
-      return ((Object[]) compressed).length;
+      Object[] compressedArray = (Object[]) compressed;
+      byte[] groupSizes = getGroupSizes(compressedArray);
+      return groupSizes == null ? compressedArray.length : numGroups(groupSizes);
     }
     return 1;
   }
 
+  /** Returns the number of varints in {@code groupSizes}. */
+  private static int numGroups(byte[] groupSizes) {
+    int numGroups = 0;
+    for (byte b : groupSizes) {
+      if ((b & 0x80) == 0) {
+        numGroups++;
+      }
+    }
+    return numGroups;
+  }
+
+  /**
+   * Returns the group sizes trailing a packed compressed array, or null if every group of {@code
+   * compressedArray} has a single element.
+   */
+  @Nullable
+  private static byte[] getGroupSizes(Object[] compressedArray) {
+    Object last = compressedArray[compressedArray.length - 1];
+    return last instanceof byte[] ? (byte[]) last : null;
+  }
+
   /**
    * Expands a compressed {@code GroupedList} into an {@link Iterable}. Equivalent to {@link
    * #getAllElementsAsIterable()} but potentially more efficient.
@@ -267,7 +312,9 @@ public final class GroupedList<T> implements Iterable<List<T>> {
       return ImmutableList.of();
     }
     if (compressed.getClass().isArray()) {
-      return GroupedList.<T>create(compressed).getAllElementsAsIterable();
+      // The elements of a compressed list are stored back to back in either form, so they can be
+      // iterated without decoding the groups.
+      return (List<T>) Arrays.asList((Object[]) compressed).subList(0, numElements(compressed));
     }
     Preconditions.checkState(!(compressed instanceof List), compressed);
     return ImmutableList.of((T) compressed);
@@ -315,8 +362,41 @@ public final class GroupedList<T> implements Iterable<List<T>> {
       case 1:
         return Iterables.getOnlyElement(elements);
       default:
-        return elements.toArray();
+        return pack(elements);
+    }
+  }
+
+  /**
+   * Packs {@code groups}, each of which is either a single element or a list of them, into the
+   * compressed array form described in the class comment.
+   */
+  private static Object[] pack(List<?> groups) {
+    int numElements = 0;
+    int groupSizesLength = 0;
+    for (Object group : groups) {
+      int groupSize = sizeOf(group);
+      numElements += groupSize;
+      groupSizesLength += VarInt.varIntSize(groupSize);
+    }
+    if (numElements == groups.size()) {
+      return groups.toArray();
+    }
+    Object[] packed = new Object[numElements + 1];
+    byte[] groupSizes = new byte[groupSizesLength];
+    int index = 0;
+    int offset = 0;
+    for (Object group : groups) {
+      if (group instanceof List) {
+        for (Object element : (List<?>) group) {
+          packed[index++] = element;
+        }
+      } else {
+        packed[index++] = group;
+      }
+      offset = VarInt.putVarInt(sizeOf(group), groupSizes, offset);
     }
+    packed[numElements] = groupSizes;
+    return packed;
   }
 
   @SuppressWarnings("unchecked")
@@ -341,12 +421,11 @@ public final class GroupedList<T> implements Iterable<List<T>> {
       return new GroupedList<>();
     }
     if (compressed.getClass().isArray()) {
-      int size = 0;
       Object[] compressedArray = ((Object[]) compressed);
-      for (Object item : compressedArray) {
-        size += sizeOf(item);
-      }
-      return new GroupedList<>(size, compressedArray);
+      byte[] groupSizes = getGroupSizes(compressedArray);
+      return groupSizes == null
+          ? new GroupedList<>(compressedArray.length, compressedArray)
+          : new GroupedList<>(compressedArray, groupSizes);
     }
     // Just a single element.
     return new GroupedList<>(1, ImmutableList.of(compressed));
@@ -363,7 +442,9 @@ public final class GroupedList<T> implements Iterable<List<T>> {
     if (elementsOfSecondGroup.isEmpty()) {
       return createCompressedSingleton(singletonElementOfFirstGroup);
     }
-    return new Object[] {singletonElementOfFirstGroup, singleElementOrList(elementsOfSecondGroup)};
+    return pack(
+        ImmutableList.of(
+            singletonElementOfFirstGroup, singleElementOrList(elementsOfSecondGroup)));
   }
 
   /** Creates an already compressed {@code GroupedList} with three groups. */
@@ -377,11 +458,11 @@ public final class GroupedList<T> implements Iterable<List<T>> {
     if (elementsOfThirdGroup.isEmpty()) {
       return createCompressedWithTwoGroups(singletonElementOfFirstGroup, elementsOfSecondGroup);
     }
-    return new Object[] {
-      singletonElementOfFirstGroup,
-      singleElementOrList(elementsOfSecondGroup),
-      singleElementOrList(elementsOfThirdGroup)
-    };
+    return pack(
+        ImmutableList.of(
+            singletonElementOfFirstGroup,
+            singleElementOrList(elementsOfSecondGroup),
+            singleElementOrList(elementsOfThirdGroup)));
   }
 
   private static Object singleElementOrList(List<?> list) {
@@ -408,6 +489,33 @@ public final class GroupedList<T> implements Iterable<List<T>> {
     return first.equals(second) || CompactHashSet.create(first).containsAll(second);
   }
 
+  /**
+   * A group of a {@code GroupedList} created from a packed compressed array. Shares the array
+   * instead of copying its elements.
+   */
+  private static final class PackedGroup extends AbstractList<Object> implements RandomAccess {
+    private final Object[] packed;
+    private final int start;
+    private final int end;
+
+    private PackedGroup(Object[] packed, int start, int end) {
+      this.packed = packed;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public Object get(int index) {
+      Preconditions.checkElementIndex(index, end - start);
+      return packed[start + index];
+    }
+
+    @Override
+    public int size() {
+      return end - start;
+    }
+  }
+
   /**
    * A grouping-unaware view of a {@code GroupedList} which does not support modifications.
    *
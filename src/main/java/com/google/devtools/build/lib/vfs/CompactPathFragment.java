@@ -0,0 +1,292 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.devtools.build.lib.concurrent.BlazeInterners;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.lang.ref.WeakReference;
+import javax.annotation.Nullable;
+
+/**
+ * A compact representation of a {@link PathFragment} for large, long-lived sets of paths that share
+ * most of their prefixes, such as the exec paths of the artifacts of a build.
+ *
+ * <p>A {@link PathFragment} holds its whole path string, so paths in the same directory each hold a
+ * copy of the directory's path. Instead, a {@code CompactPathFragment} holds its parent and its
+ * base name, and instances are interned: all paths in a directory share the directory's instance,
+ * and all paths with the same base name share the base name string. A path then costs a single
+ * small object on top of the prefixes it shares with other paths.
+ *
+ * <p>The path string is built when first requested and cached weakly, so that it doesn't take up
+ * memory for long. Operations that only need the structure of the path, such as {@link
+ * #getParentDirectory}, {@link #getRelative}, {@link #startsWith} and {@link #compareTo}, don't
+ * build it.
+ *
+ * <p>Since instances are interned, two instances are equal iff they are the same instance. Unlike
+ * {@link PathFragment}, this is always case-sensitive, also on case-insensitive platforms. The
+ * order of {@link #compareTo} is the same as that of {@link PathFragment#compareTo}.
+ */
+@Immutable
+@ThreadSafe
+public final class CompactPathFragment implements Comparable<CompactPathFragment> {
+  private static final OsPathPolicy OS = OsPathPolicy.getFilePathOs();
+
+  private static final Interner<CompactPathFragment> INTERNER = BlazeInterners.newWeakInterner();
+  private static final Interner<String> SEGMENT_INTERNER = BlazeInterners.newWeakInterner();
+
+  public static final CompactPathFragment EMPTY_FRAGMENT =
+      INTERNER.intern(new CompactPathFragment(null, ""));
+
+  /** The parent directory, or null for the root of an absolute path and for the empty path. */
+  @Nullable private final CompactPathFragment parent;
+
+  /** The base name, or the drive string for the root of an absolute path, or "" for the empty path. */
+  private final String segment;
+
+  /** The path string, if it has been built since the last garbage collection. */
+  @Nullable private volatile WeakReference<String> pathString;
+
+  private CompactPathFragment(@Nullable CompactPathFragment parent, String segment) {
+    this.parent = parent;
+    this.segment = segment;
+  }
+
+  /** Returns the compact representation of {@code path}. */
+  public static CompactPathFragment create(PathFragment path) {
+    CompactPathFragment result =
+        path.isAbsolute() ? createRoot(path.getDriveStr()) : EMPTY_FRAGMENT;
+    for (String segment : path.segments()) {
+      result = result.getChildInternal(segment);
+    }
+    return result;
+  }
+
+  /** Returns the compact representation of {@code path}, which is normalized first. */
+  public static CompactPathFragment create(String path) {
+    return create(PathFragment.create(path));
+  }
+
+  private static CompactPathFragment createRoot(String driveStr) {
+    return INTERNER.intern(new CompactPathFragment(null, SEGMENT_INTERNER.intern(driveStr)));
+  }
+
+  /** Returns this path as a {@link PathFragment}, which shares the cached path string. */
+  public PathFragment toPathFragment() {
+    return PathFragment.createAlreadyNormalized(getPathString(), getRoot().segment.length());
+  }
+
+  public String getPathString() {
+    WeakReference<String> ref = pathString;
+    String result = ref != null ? ref.get() : null;
+    if (result == null) {
+      result = buildPathString();
+      pathString = new WeakReference<>(result);
+    }
+    return result;
+  }
+
+  private String buildPathString() {
+    if (parent == null) {
+      return segment;
+    }
+    StringBuilder builder = new StringBuilder();
+    appendPathString(builder);
+    return builder.toString();
+  }
+
+  private void appendPathString(StringBuilder builder) {
+    if (parent == null) {
+      builder.append(segment);
+      return;
+    }
+    // Reuse the parent's string if it is cached, to avoid walking to the root.
+    WeakReference<String> parentRef = parent.pathString;
+    String parentString = parentRef != null ? parentRef.get() : null;
+    if (parentString != null) {
+      builder.append(parentString);
+    } else {
+      parent.appendPathString(builder);
+    }
+    // The root of an absolute path ends in a separator already, and the empty path has none.
+    if (parent.parent != null) {
+      builder.append(PathFragment.SEPARATOR_CHAR);
+    }
+    builder.append(segment);
+  }
+
+  /** Whether {@code fragment} is the root of an absolute path, whose string ends in a separator. */
+  private static boolean isDriveRoot(CompactPathFragment fragment) {
+    return fragment.parent == null && !fragment.segment.isEmpty();
+  }
+
+  public boolean isEmpty() {
+    return this == EMPTY_FRAGMENT;
+  }
+
+  public boolean isAbsolute() {
+    return !getRoot().segment.isEmpty();
+  }
+
+  private CompactPathFragment getRoot() {
+    CompactPathFragment root = this;
+    while (root.parent != null) {
+      root = root.parent;
+    }
+    return root;
+  }
+
+  /**
+   * Returns the base name of this path, or the empty string for the root of an absolute path and
+   * for the empty path.
+   */
+  public String getBaseName() {
+    return parent == null ? "" : segment;
+  }
+
+  /**
+   * Returns the parent directory of this path, or null for the root of an absolute path and for
+   * the empty path. See {@link PathFragment#getParentDirectory}.
+   */
+  @Nullable
+  public CompactPathFragment getParentDirectory() {
+    return parent;
+  }
+
+  /** Returns the number of segments in this path. This operation is O(N) on the segment count. */
+  public int segmentCount() {
+    int segmentCount = 0;
+    for (CompactPathFragment current = this; current.parent != null; current = current.parent) {
+      segmentCount++;
+    }
+    return segmentCount;
+  }
+
+  /** See {@link PathFragment#getChild}. */
+  public CompactPathFragment getChild(String baseName) {
+    Preconditions.checkArgument(
+        !baseName.isEmpty() && !baseName.equals(".") && !baseName.equals(".."),
+        "Invalid base name: '%s'",
+        baseName);
+    Preconditions.checkArgument(
+        !PathFragment.containsSeparator(baseName),
+        "baseName must not contain a slash: '%s'",
+        baseName);
+    return getChildInternal(baseName);
+  }
+
+  private CompactPathFragment getChildInternal(String baseName) {
+    return INTERNER.intern(new CompactPathFragment(this, SEGMENT_INTERNER.intern(baseName)));
+  }
+
+  /** See {@link PathFragment#getRelative(PathFragment)}. */
+  public CompactPathFragment getRelative(PathFragment other) {
+    if (other.isAbsolute()) {
+      return create(other);
+    }
+    CompactPathFragment result = this;
+    for (String segment : other.segments()) {
+      // Normalized relative paths can only start with "..", which removes a segment from this path
+      // if it has one to remove.
+      if (segment.equals("..") && result.parent != null && !result.segment.equals("..")) {
+        result = result.parent;
+      } else if (!(segment.equals("..") && isDriveRoot(result))) {
+        result = result.getChildInternal(segment);
+      }
+    }
+    return result;
+  }
+
+  /** See {@link PathFragment#getRelative(String)}. */
+  public CompactPathFragment getRelative(String other) {
+    return getRelative(PathFragment.create(other));
+  }
+
+  /**
+   * Returns whether {@code other} is an ancestor of this path, or this path itself. See {@link
+   * PathFragment#startsWith}.
+   */
+  public boolean startsWith(CompactPathFragment other) {
+    for (CompactPathFragment current = this; current != null; current = current.parent) {
+      if (current == other) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int compareTo(CompactPathFragment other) {
+    if (this == other) {
+      return 0;
+    }
+    int depth = segmentCount();
+    int otherDepth = other.segmentCount();
+    // Walk up both paths to their first differing ancestors at the same depth. An ancestor is a
+    // prefix of the path string, so it orders first.
+    CompactPathFragment current = this;
+    CompactPathFragment otherCurrent = other;
+    for (int i = depth; i > otherDepth; i--) {
+      current = current.parent;
+    }
+    for (int i = otherDepth; i > depth; i--) {
+      otherCurrent = otherCurrent.parent;
+    }
+    if (current == otherCurrent) {
+      return depth < otherDepth ? -1 : 1;
+    }
+    boolean below = current != this;
+    boolean otherBelow = otherCurrent != other;
+    while (current.parent != otherCurrent.parent) {
+      below = true;
+      otherBelow = true;
+      current = current.parent;
+      otherCurrent = otherCurrent.parent;
+    }
+    if (current.parent == null) {
+      // The paths have different roots.
+      return OS.compare(getPathString(), other.getPathString());
+    }
+    // The path strings differ first at the base names of the differing ancestors, or right after
+    // the shorter one if it is a prefix of the other.
+    return OS.compare(
+        below ? current.segment + PathFragment.SEPARATOR_CHAR : current.segment,
+        otherBelow ? otherCurrent.segment + PathFragment.SEPARATOR_CHAR : otherCurrent.segment);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof CompactPathFragment)) {
+      return false;
+    }
+    // Only reached when interning a new instance, whose parent is interned already.
+    CompactPathFragment other = (CompactPathFragment) o;
+    return parent == other.parent && segment.equals(other.segment);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * System.identityHashCode(parent) + segment.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return getPathString();
+  }
+}
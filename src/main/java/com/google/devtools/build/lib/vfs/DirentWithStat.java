@@ -0,0 +1,73 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import javax.annotation.Nullable;
+
+/**
+ * A directory entry together with the status of the symbolic link it may be, as returned by {@link
+ * Path#readdirWithStats}.
+ *
+ * <p>The type of the {@link Dirent} never follows symbolic links, so a symlink is always reported
+ * as {@link Dirent.Type#SYMLINK}. The status follows symbolic links iff they were followed when
+ * reading the directory.
+ */
+public final class DirentWithStat {
+  private final Dirent dirent;
+  @Nullable private final FileStatus stat;
+  @Nullable private final IOException statError;
+
+  public DirentWithStat(Dirent dirent, @Nullable FileStatus stat) {
+    this.dirent = Preconditions.checkNotNull(dirent);
+    this.stat = stat;
+    this.statError = null;
+  }
+
+  /** Creates an entry whose status couldn't be determined because of {@code statError}. */
+  public DirentWithStat(Dirent dirent, IOException statError) {
+    this.dirent = Preconditions.checkNotNull(dirent);
+    this.stat = null;
+    this.statError = Preconditions.checkNotNull(statError);
+  }
+
+  public Dirent getDirent() {
+    return dirent;
+  }
+
+  public String getName() {
+    return dirent.getName();
+  }
+
+  /**
+   * Returns the status of the entry if it is a symbolic link, or null if it is not, or if it
+   * doesn't exist, e.g. because it was deleted after the directory was read, or it is a dangling
+   * symlink that was followed. This is the same contract as {@link Path#statIfFound}.
+   *
+   * @throws IOException if the status couldn't be determined for any other reason
+   */
+  @Nullable
+  public FileStatus getStat() throws IOException {
+    if (statError != null) {
+      throw statError;
+    }
+    return stat;
+  }
+
+  @Override
+  public String toString() {
+    return dirent + " " + (statError != null ? statError : stat);
+  }
+}
@@ -19,6 +19,7 @@ import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.vfs.DigestHashFunction.DefaultHashFunctionNotSetException;
@@ -31,6 +32,7 @@ import java.nio.file.FileAlreadyExistsException;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * This interface models a file system using UNIX the naming scheme.
@@ -516,6 +518,15 @@ public abstract class FileSystem {
     }
   }
 
+  /**
+   * Returns a {@link BatchStat} that stats paths relative to {@code root} more efficiently than
+   * individual {@link #statIfFound} calls, or null if this file system doesn't have one.
+   */
+  @Nullable
+  public BatchStat getBatchStatter(Path root) {
+    return null;
+  }
+
   /**
    * Returns true iff {@code path} denotes an existing directory. See
    * {@link Path#isDirectory(Symlinks)} for specification.
@@ -621,6 +632,44 @@ public abstract class FileSystem {
     return dirents;
   }
 
+  /**
+   * Returns true if {@link #readdirWithStats} lists the directory {@code path} and stats its
+   * symbolic links together, so that it is cheaper than stat()ing them one by one.
+   */
+  public boolean supportsReaddirWithStatsNatively(Path path) {
+    return false;
+  }
+
+  /**
+   * Returns the names and types of all entries within the directory {@code path}, along with the
+   * statuses of the symbolic links among them. The types never follow symbolic links; the statuses
+   * do iff {@code followSymlinks} is true. Other entries are not stat()ed, since their types are
+   * all most callers need.
+   *
+   * <p>The default implementation stats every symbolic link separately. File systems that can list
+   * a directory and stat its symbolic links together should override this.
+   *
+   * @throws IOException if there was an error reading the directory entries
+   */
+  protected Collection<DirentWithStat> readdirWithStats(Path path, boolean followSymlinks)
+      throws IOException {
+    Collection<Dirent> children = readdir(path, /*followSymlinks=*/ false);
+    List<DirentWithStat> dirents = Lists.newArrayListWithCapacity(children.size());
+    for (Dirent child : children) {
+      if (child.getType() != Dirent.Type.SYMLINK) {
+        dirents.add(new DirentWithStat(child, (FileStatus) null));
+        continue;
+      }
+      try {
+        dirents.add(
+            new DirentWithStat(child, statIfFound(path.getChild(child.getName()), followSymlinks)));
+      } catch (IOException e) {
+        dirents.add(new DirentWithStat(child, e));
+      }
+    }
+    return dirents;
+  }
+
   /**
    * Returns true iff the file represented by {@code path} is readable.
    *
@@ -722,6 +771,21 @@ public abstract class FileSystem {
    */
   public abstract void renameTo(Path sourcePath, Path targetPath) throws IOException;
 
+  /**
+   * Copies the contents of the file {@code sourcePath}, following symbolic links, to {@code
+   * targetPath}, which is created if it doesn't exist and truncated otherwise. Both paths are on
+   * this file system.
+   *
+   * <p>This implementation copies the data through streams. Subclasses may avoid moving it
+   * through user space, e.g. with in-kernel copies or copy-on-write clones.
+   */
+  protected void copyFileContents(Path sourcePath, Path targetPath) throws IOException {
+    try (InputStream in = getInputStream(sourcePath);
+        OutputStream out = getOutputStream(targetPath)) {
+      ByteStreams.copy(in, out);
+    }
+  }
+
   /**
    * Create a new hard link file at "linkPath" for file at "originalPath".
    *
@@ -397,10 +397,7 @@ public class FileSystemUtils {
       throw new IOException("error copying file: "
           + "couldn't delete destination: " + e.getMessage());
     }
-    try (InputStream in = from.getInputStream();
-        OutputStream out = to.getOutputStream()) {
-      ByteStreams.copy(in, out);
-    }
+    copyFileContents(from, to);
     to.setLastModifiedTime(from.getLastModifiedTime()); // Preserve mtime.
     if (!from.isWritable()) {
       to.setWritable(false); // Make file read-only if original was read-only.
@@ -408,6 +405,21 @@ public class FileSystemUtils {
     to.setExecutable(from.isExecutable()); // Copy executable bit.
   }
 
+  /**
+   * Copies the contents of the file "from" to "to", with the file system's own copy if both are
+   * on the same one (see {@link FileSystem#copyFileContents}).
+   */
+  private static void copyFileContents(Path from, Path to) throws IOException {
+    if (from.getFileSystem() == to.getFileSystem()) {
+      from.getFileSystem().copyFileContents(from, to);
+    } else {
+      try (InputStream in = from.getInputStream();
+          OutputStream out = to.getOutputStream()) {
+        ByteStreams.copy(in, out);
+      }
+    }
+  }
+
   /** Describes the behavior of a {@link #moveFile(Path, Path)} operation. */
   public enum MoveResult {
     /** The file was moved at the file system level. */
@@ -446,10 +458,7 @@ public class FileSystemUtils {
       // Fallback to a copy.
       FileStatus stat = from.stat(Symlinks.NOFOLLOW);
       if (stat.isFile()) {
-        try (InputStream in = from.getInputStream();
-            OutputStream out = to.getOutputStream()) {
-          ByteStreams.copy(in, out);
-        }
+        copyFileContents(from, to);
         to.setLastModifiedTime(stat.getLastModifiedTime()); // Preserve mtime.
         if (!from.isWritable()) {
           to.setWritable(false); // Make file read-only if original was read-only.
@@ -54,8 +54,8 @@ public interface OutputService {
 
     /**
      * The action file system implementation does not take over the output base but complements the
-     * file system by being able to stage remote outputs accessed as inputs by local actions, as
-     * used by Bazel.
+     * file system by being able to stage remote or in-memory outputs accessed as inputs by local
+     * actions, as used by Bazel.
      */
     STAGE_REMOTE_FILES,
 
@@ -166,6 +166,30 @@ public interface OutputService {
     return null;
   }
 
+  /**
+   * Like {@link #createActionFileSystem(FileSystem, PathFragment, String, ImmutableList,
+   * ActionInputMap, Iterable, Function)} for the outputs of {@code action}, for output services
+   * that decide how to store an output by the action that creates it.
+   */
+  @Nullable
+  default FileSystem createActionFileSystem(
+      FileSystem sourceDelegate,
+      PathFragment execRootFragment,
+      String relativeOutputPath,
+      ImmutableList<Root> sourceRoots,
+      ActionInputMap inputArtifactData,
+      Action action,
+      Function<PathFragment, SourceArtifact> sourceArtifactFactory) {
+    return createActionFileSystem(
+        sourceDelegate,
+        execRootFragment,
+        relativeOutputPath,
+        sourceRoots,
+        inputArtifactData,
+        action.getOutputs(),
+        sourceArtifactFactory);
+  }
+
   /**
    * Updates the context used by the filesystem returned by {@link #createActionFileSystem}.
    *
@@ -395,6 +395,20 @@ public class Path
     return fileSystem.readdir(this, followSymlinks.toBoolean());
   }
 
+  /**
+   * Returns the names and types of all entries within the directory denoted by the current path,
+   * along with the statuses of the symbolic links among them. The types never follow symbolic
+   * links; the statuses follow them iff {@code followSymlinks} is {@code FOLLOW}. This is cheaper
+   * than {@link #readdir} followed by a stat of every symbolic link on file systems that can do
+   * both at once.
+   *
+   * @throws FileNotFoundException If the directory is not found
+   * @throws IOException If the path does not denote a directory
+   */
+  public Collection<DirentWithStat> readdirWithStats(Symlinks followSymlinks) throws IOException {
+    return fileSystem.readdirWithStats(this, followSymlinks.toBoolean());
+  }
+
   /**
    * Returns the status of a file, following symbolic links.
    *
@@ -269,6 +269,14 @@ public final class UnixGlob {
      * null if the path does not exist.
      */
     Dirent.Type getType(Path path, Symlinks symlinks) throws IOException;
+
+    /**
+     * Get directory entries, their types and the stat()s of the symlinks among them. The types do
+     * not follow symlinks, the stat()s do.
+     */
+    default Collection<DirentWithStat> readdirWithStats(Path path) throws IOException {
+      return path.readdirWithStats(Symlinks.FOLLOW);
+    }
   }
 
   public static final FilesystemCalls DEFAULT_SYSCALLS =
@@ -814,6 +822,35 @@ public final class UnixGlob {
       }
 
       Collection<Dirent> dents = context.syscalls.readdir(base);
+      if (base.getFileSystem().supportsReaddirWithStatsNatively(base)
+          && allSymlinksMatch(dents, pattern)) {
+        // Every symlink has to be resolved, so let the file system do it while it lists the
+        // directory again instead of stat()ing them one by one.
+        for (DirentWithStat dentWithStat : context.syscalls.readdirWithStats(base)) {
+          Dirent dent = dentWithStat.getDirent();
+          Dirent.Type childType = dent.getType();
+          if (childType == Dirent.Type.UNKNOWN || !matches(pattern, dent.getName(), cache)) {
+            continue;
+          }
+          if (childType == Dirent.Type.SYMLINK) {
+            FileStatus status;
+            try {
+              status = dentWithStat.getStat();
+            } catch (IOException e) {
+              // Ignored, as in processSymlink().
+              continue;
+            }
+            if (status == null) {
+              continue;
+            }
+            childType = status.isDirectory() ? Dirent.Type.DIRECTORY : Dirent.Type.FILE;
+          }
+          processFileOrDirectory(
+              base.getChild(dent.getName()), childType == Dirent.Type.DIRECTORY, idx, context);
+        }
+        return;
+      }
+
       for (Dirent dent : dents) {
         Dirent.Type childType = dent.getType();
         if (childType == Dirent.Type.UNKNOWN) {
@@ -832,6 +869,23 @@ public final class UnixGlob {
       }
     }
 
+    /**
+     * Returns true if {@code dents} contain symlinks and {@code pattern} matches all of them.
+     * Listing the directory with the stats of its symlinks then resolves no symlink in vain.
+     */
+    private boolean allSymlinksMatch(Collection<Dirent> dents, String pattern) {
+      boolean hasSymlinks = false;
+      for (Dirent dent : dents) {
+        if (dent.getType() == Dirent.Type.SYMLINK) {
+          if (!matches(pattern, dent.getName(), cache)) {
+            return false;
+          }
+          hasSymlinks = true;
+        }
+      }
+      return hasSymlinks;
+    }
+
     /**
      * Process symlinks asynchronously. If we should used readdir(..., Symlinks.FOLLOW), that would
      * result in a sequential symlink resolution with many file system implementations. If the
@@ -20,10 +20,10 @@ import com.google.devtools.build.lib.shell.Subprocess;
 import com.google.devtools.build.lib.shell.SubprocessBuilder;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -48,6 +48,9 @@ class Worker {
 
   private Subprocess process;
   private Thread shutdownHook;
+  private RecordingInputStream recordingInputStream;
+  private volatile boolean destroyed;
+  private volatile boolean markedForEviction;
 
   Worker(WorkerKey workerKey, int workerId, final Path workDir, Path logFile) {
     this.workerKey = workerKey;
@@ -70,6 +73,15 @@ class Worker {
   }
 
   void createProcess() throws IOException {
+    this.process = startProcess(workerKey, workDir, logFile);
+  }
+
+  /**
+   * Starts a worker process of {@code workerKey} in {@code workDir}, writing its stderr to {@code
+   * logFile}.
+   */
+  static Subprocess startProcess(WorkerKey workerKey, Path workDir, Path logFile)
+      throws IOException {
     List<String> args = workerKey.getArgs();
     File executable = new File(args.get(0));
     if (!executable.isAbsolute() && executable.getParent() != null) {
@@ -81,10 +93,11 @@ class Worker {
     processBuilder.setWorkingDirectory(workDir.getPathFile());
     processBuilder.setStderr(logFile.getPathFile());
     processBuilder.setEnv(workerKey.getEnv());
-    this.process = processBuilder.start();
+    return processBuilder.start();
   }
 
   void destroy() throws IOException {
+    destroyed = true;
     if (shutdownHook != null) {
       Runtime.getRuntime().removeShutdownHook(shutdownHook);
     }
@@ -101,6 +114,32 @@ class Worker {
     return this.workerId;
   }
 
+  WorkerKey getWorkerKey() {
+    return workerKey;
+  }
+
+  /** Returns whether {@link #destroy} was called. */
+  boolean isDestroyed() {
+    return destroyed;
+  }
+
+  /**
+   * Marks this worker to be destroyed instead of being used again, e.g. because it takes up too
+   * much memory.
+   */
+  void markForEviction() {
+    markedForEviction = true;
+  }
+
+  boolean isMarkedForEviction() {
+    return markedForEviction;
+  }
+
+  /** Returns the process id of the worker process, or -1 if it isn't running or is unknown. */
+  long getProcessId() {
+    return process != null ? process.getProcessId() : -1;
+  }
+
   HashCode getWorkerFilesCombinedHash() {
     return workerKey.getWorkerFilesCombinedHash();
   }
@@ -112,15 +151,32 @@ class Worker {
   boolean isAlive() {
     // This is horrible, but Process.isAlive() is only available from Java 8 on and this is the
     // best we can do prior to that.
-    return !process.finished();
+    return process != null && !process.finished();
   }
 
-  InputStream getInputStream() {
-    return process.getInputStream();
+  /** Sends {@code request} to the worker process. */
+  void putRequest(WorkRequest request) throws IOException {
+    request.writeDelimitedTo(process.getOutputStream());
+    process.getOutputStream().flush();
   }
 
-  OutputStream getOutputStream() {
-    return process.getOutputStream();
+  /**
+   * Waits for the response to the last request sent with {@link #putRequest}. Returns null if the
+   * worker process closed its stdout instead.
+   */
+  WorkResponse getResponse() throws IOException, InterruptedException {
+    recordingInputStream = new RecordingInputStream(process.getInputStream());
+    recordingInputStream.startRecording(4096);
+    return WorkResponse.parseDelimitedFrom(recordingInputStream);
+  }
+
+  /**
+   * Returns the start of what the worker process wrote to stdout in place of the response that
+   * {@link #getResponse} failed to parse.
+   */
+  String getRecordingStreamMessage() {
+    recordingInputStream.readRemaining();
+    return recordingInputStream.getRecordedDataAsString();
   }
 
   public void prepareExecution(
@@ -17,6 +17,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
 import com.google.devtools.build.lib.sandbox.SymlinkedSandboxedSpawn;
@@ -33,8 +34,12 @@ import java.util.Set;
 /** Creates and manages the contents of a working directory of a persistent worker. */
 final class WorkerExecRoot extends SymlinkedSandboxedSpawn {
   private final Path workDir;
+  private final SandboxInputs inputs;
   private final Set<PathFragment> workerFiles;
 
+  /** The inputs that were left in place from an earlier request by {@link #createFileSystem}. */
+  private Set<PathFragment> upToDateInputs = ImmutableSet.of();
+
   public WorkerExecRoot(
       Path workDir, SandboxInputs inputs, SandboxOutputs outputs, Set<PathFragment> workerFiles) {
     super(
@@ -48,37 +53,25 @@ final class WorkerExecRoot extends SymlinkedSandboxedSpawn {
         new SynchronousTreeDeleter(),
         /*statisticsPath=*/ null);
     this.workDir = workDir;
+    this.inputs = inputs;
     this.workerFiles = workerFiles;
   }
 
   @Override
   public void createFileSystem() throws IOException {
     workDir.createDirectoryAndParents();
-    deleteExceptAllowedFiles(workDir, workerFiles);
+    // Consecutive requests mostly share their inputs, so most of the exec root is left alone.
+    upToDateInputs = SandboxHelpers.cleanExisting(workDir, inputs, workerFiles);
     super.createFileSystem();
   }
 
-  private void deleteExceptAllowedFiles(Path root, Set<PathFragment> allowedFiles)
-      throws IOException {
-    for (Path p : root.getDirectoryEntries()) {
-      FileStatus stat = p.stat(Symlinks.NOFOLLOW);
-      if (!stat.isDirectory()) {
-        if (!allowedFiles.contains(p.relativeTo(workDir))) {
-          p.delete();
-        }
-      } else {
-        deleteExceptAllowedFiles(p, allowedFiles);
-        if (p.readdir(Symlinks.NOFOLLOW).isEmpty()) {
-          p.delete();
-        }
-      }
-    }
-  }
-
   @Override
   protected void createInputs(SandboxInputs inputs) throws IOException {
     // All input files are relative to the execroot.
     for (Map.Entry<PathFragment, Path> entry : inputs.getFiles().entrySet()) {
+      if (upToDateInputs.contains(entry.getKey())) {
+        continue;
+      }
       Path key = workDir.getRelative(entry.getKey());
       FileStatus keyStat = key.statNullable(Symlinks.NOFOLLOW);
       if (keyStat != null) {
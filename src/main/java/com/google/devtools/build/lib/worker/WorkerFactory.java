@@ -36,11 +36,13 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
 
   private WorkerOptions workerOptions;
   private final Path workerBaseDir;
+  private final WorkerMultiplexerManager multiplexerManager;
   private Reporter reporter;
 
   public WorkerFactory(WorkerOptions workerOptions, Path workerBaseDir) {
     this.workerOptions = workerOptions;
     this.workerBaseDir = workerBaseDir;
+    this.multiplexerManager = new WorkerMultiplexerManager(workerBaseDir);
   }
 
   public void setReporter(Reporter reporter) {
@@ -59,7 +61,19 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
 
     Worker worker;
     boolean sandboxed = workerOptions.workerSandboxing || key.mustBeSandboxed();
-    if (sandboxed) {
+    if (key.isProxied()) {
+      WorkerMultiplexer multiplexer = multiplexerManager.acquire(key);
+      worker =
+          new WorkerProxy(key, workerId, key.getExecRoot(), multiplexer, multiplexerManager);
+      if (workerOptions.workerVerbose) {
+        reporter.handle(
+            Event.info(
+                String.format(
+                    "Created new multiplexed %s worker (id %d), logging to %s",
+                    key.getMnemonic(), workerId, worker.getLogFile())));
+      }
+      return worker;
+    } else if (sandboxed) {
       Path workDir = getSandboxedWorkerPath(key, workerId);
       worker = new SandboxedWorker(key, workerId, workDir, logFile);
     } else {
@@ -107,10 +121,23 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
     p.getObject().destroy();
   }
 
-  /** The worker is considered to be valid when its files have not changed on disk. */
+  /**
+   * The worker is considered to be valid when its files have not changed on disk and the pool did
+   * not mark it for eviction.
+   */
   @Override
   public boolean validateObject(WorkerKey key, PooledObject<Worker> p) {
     Worker worker = p.getObject();
+    if (worker.isMarkedForEviction()) {
+      if (workerOptions.workerVerbose && reporter != null) {
+        reporter.handle(
+            Event.info(
+                String.format(
+                    "Evicting %s worker (id %d) to stay within the worker memory limit.",
+                    key.getMnemonic(), worker.getWorkerId())));
+      }
+      return false;
+    }
     boolean hashMatches =
         key.getWorkerFilesCombinedHash().equals(worker.getWorkerFilesCombinedHash());
 
@@ -42,6 +42,8 @@ final class WorkerKey {
   private final HashCode workerFilesCombinedHash;
   private final SortedMap<PathFragment, HashCode> workerFilesWithHashes;
   private final boolean mustBeSandboxed;
+  /** Whether this key's requests are sent to a single, multiplexed worker process. */
+  private final boolean proxied;
 
   WorkerKey(
       List<String> args,
@@ -50,7 +52,8 @@ final class WorkerKey {
       String mnemonic,
       HashCode workerFilesCombinedHash,
       SortedMap<PathFragment, HashCode> workerFilesWithHashes,
-      boolean mustBeSandboxed) {
+      boolean mustBeSandboxed,
+      boolean proxied) {
     this.args = ImmutableList.copyOf(Preconditions.checkNotNull(args));
     this.env = ImmutableMap.copyOf(Preconditions.checkNotNull(env));
     this.execRoot = Preconditions.checkNotNull(execRoot);
@@ -58,6 +61,7 @@ final class WorkerKey {
     this.workerFilesCombinedHash = Preconditions.checkNotNull(workerFilesCombinedHash);
     this.workerFilesWithHashes = Preconditions.checkNotNull(workerFilesWithHashes);
     this.mustBeSandboxed = mustBeSandboxed;
+    this.proxied = proxied;
   }
 
   public ImmutableList<String> getArgs() {
@@ -88,6 +92,14 @@ final class WorkerKey {
     return mustBeSandboxed;
   }
 
+  /**
+   * Returns whether the workers of this key are {@link WorkerProxy} instances, which share a single
+   * {@link WorkerMultiplexer} process.
+   */
+  public boolean isProxied() {
+    return proxied;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -108,6 +120,9 @@ final class WorkerKey {
     if (!execRoot.equals(workerKey.execRoot)) {
       return false;
     }
+    if (proxied != workerKey.proxied) {
+      return false;
+    }
     return mnemonic.equals(workerKey.mnemonic);
 
   }
@@ -118,6 +133,7 @@ final class WorkerKey {
     result = 31 * result + env.hashCode();
     result = 31 * result + execRoot.hashCode();
     result = 31 * result + mnemonic.hashCode();
+    result = 31 * result + Boolean.hashCode(proxied);
     return result;
   }
 
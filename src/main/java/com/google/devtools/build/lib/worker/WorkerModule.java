@@ -24,6 +24,7 @@ import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildInterruptedEvent;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildStartingEvent;
 import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
 import com.google.devtools.build.lib.exec.RunfilesTreeUpdater;
 import com.google.devtools.build.lib.exec.SpawnRunner;
@@ -50,6 +51,8 @@ public class WorkerModule extends BlazeModule {
   private WorkerPool workerPool;
   private WorkerOptions options;
   private ImmutableMap<String, Integer> workerPoolConfig;
+  private ImmutableMap<String, Integer> workerPoolMultiplexConfig;
+  private int workerPoolMemoryLimitMb;
   
   @Override
   public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
@@ -106,10 +109,42 @@ public class WorkerModule extends BlazeModule {
     workerFactory.setReporter(env.getReporter());
     workerFactory.setOptions(options);
 
+    ImmutableMap<String, Integer> newConfig = makeConfig(options.workerMaxInstances);
+    ImmutableMap<String, Integer> newMultiplexConfig =
+        makeConfig(options.workerMaxMultiplexInstances);
+
+    // If the config changed compared to the last run, we have to create a new pool.
+    if ((workerPoolConfig != null && !workerPoolConfig.equals(newConfig))
+        || (workerPoolMultiplexConfig != null
+            && !workerPoolMultiplexConfig.equals(newMultiplexConfig))
+        || (workerPool != null && workerPoolMemoryLimitMb != options.totalWorkerMemoryLimitMb)) {
+      shutdownPool(
+          "Worker configuration has changed, restarting worker pool...",
+          /* alwaysLog= */ true);
+    }
+
+    if (workerPool == null) {
+      workerPoolConfig = newConfig;
+      workerPoolMultiplexConfig = newMultiplexConfig;
+      workerPoolMemoryLimitMb = options.totalWorkerMemoryLimitMb;
+      workerPool =
+          new WorkerPool(
+              workerFactory,
+              workerPoolConfig,
+              workerPoolMultiplexConfig,
+              options.highPriorityWorkers,
+              workerPoolMemoryLimitMb,
+              env.getLocalResourceManager());
+    }
+  }
+
+  /** Turns the values of a {@link MultiResourceConverter} option into a pool configuration. */
+  private static ImmutableMap<String, Integer> makeConfig(
+      Iterable<Map.Entry<String, Integer>> maxInstances) {
     // Use a LinkedHashMap instead of an ImmutableMap.Builder to allow duplicates; the last value
     // passed wins.
     LinkedHashMap<String, Integer> newConfigBuilder = new LinkedHashMap<>();
-    for (Map.Entry<String, Integer> entry : options.workerMaxInstances) {
+    for (Map.Entry<String, Integer> entry : maxInstances) {
       newConfigBuilder.put(entry.getKey(), entry.getValue());
     }
 
@@ -121,32 +156,23 @@ public class WorkerModule extends BlazeModule {
       newConfigBuilder.put("", MultiResourceConverter.DEFAULT_VALUE);
     }
 
-    ImmutableMap<String, Integer> newConfig = ImmutableMap.copyOf(newConfigBuilder);
-
-    // If the config changed compared to the last run, we have to create a new pool.
-    if (workerPoolConfig != null && !workerPoolConfig.equals(newConfig)) {
-      shutdownPool(
-          "Worker configuration has changed, restarting worker pool...",
-          /* alwaysLog= */ true);
-    }
-
-    if (workerPool == null) {
-      workerPoolConfig = newConfig;
-      workerPool = new WorkerPool(workerFactory, workerPoolConfig, options.highPriorityWorkers);
-    }
+    return ImmutableMap.copyOf(newConfigBuilder);
   }
 
   @Override
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
     Preconditions.checkNotNull(workerPool);
+    WorkerOptions workerOptions = env.getOptions().getOptions(WorkerOptions.class);
     ImmutableMultimap<String, String> extraFlags =
-        ImmutableMultimap.copyOf(env.getOptions().getOptions(WorkerOptions.class).workerExtraFlags);
+        ImmutableMultimap.copyOf(workerOptions.workerExtraFlags);
     LocalEnvProvider localEnvProvider = LocalEnvProvider.forCurrentOs(env.getClientEnv());
     WorkerSpawnRunner spawnRunner =
         new WorkerSpawnRunner(
             env.getExecRoot(),
             workerPool,
             extraFlags,
+            // A multiplexed worker process is shared by its requests, so it can't be sandboxed.
+            workerOptions.workerMultiplex && !workerOptions.workerSandboxing,
             env.getReporter(),
             createFallbackRunner(env, localEnvProvider),
             localEnvProvider,
@@ -156,7 +182,7 @@ public class WorkerModule extends BlazeModule {
             env.getBlazeWorkspace().getBinTools(),
             env.getLocalResourceManager(),
             // TODO(buchgr): Replace singleton by a command-scoped RunfilesTreeUpdater
-            RunfilesTreeUpdater.INSTANCE);
+            RunfilesTreeUpdater.forOptions(env.getOptions().getOptions(ExecutionOptions.class)));
     builder.addActionContext(new WorkerSpawnStrategy(env.getExecRoot(), spawnRunner));
 
     builder.addStrategyByContext(SpawnActionContext.class, "standalone");
@@ -174,7 +200,7 @@ public class WorkerModule extends BlazeModule {
         localEnvProvider,
         env.getBlazeWorkspace().getBinTools(),
         // TODO(buchgr): Replace singleton by a command-scoped RunfilesTreeUpdater
-        RunfilesTreeUpdater.INSTANCE);
+        RunfilesTreeUpdater.forOptions(env.getOptions().getOptions(ExecutionOptions.class)));
   }
 
   @Subscribe
@@ -0,0 +1,206 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A single worker process that works on many requests at once.
+ *
+ * <p>Each request sent to the process gets a request id, which the process copies to the response.
+ * A reader thread reads the responses in whatever order the process writes them, and hands each
+ * one to the thread that waits for the response with its id. All {@link WorkerProxy} instances of a
+ * {@link WorkerKey} share one multiplexer; see {@link WorkerMultiplexerManager}.
+ */
+@ThreadSafe
+class WorkerMultiplexer {
+  private final WorkerKey workerKey;
+  private final Path logFile;
+
+  /** The next request id. Ids are never reused, so that late responses can't be mistaken. */
+  private final AtomicInteger nextRequestId = new AtomicInteger(1);
+
+  /** The responses that threads are waiting for, by request id. */
+  private final Map<Integer, SettableFuture<WorkResponse>> pendingResponses =
+      new ConcurrentHashMap<>();
+
+  @GuardedBy("this")
+  private Subprocess process;
+
+  /** Whether the reader thread of {@link #process} stopped, so no more responses will arrive. */
+  @GuardedBy("this")
+  private boolean processDone;
+
+  /** What the process wrote to stdout in place of a response, if it wrote one it couldn't parse. */
+  private volatile String unparseableOutput = "";
+
+  /** The number of proxies using this multiplexer, guarded by {@link WorkerMultiplexerManager}. */
+  int refCount;
+
+  WorkerMultiplexer(WorkerKey workerKey, Path logFile) {
+    this.workerKey = workerKey;
+    this.logFile = logFile;
+  }
+
+  Path getLogFile() {
+    return logFile;
+  }
+
+  HashCode getWorkerFilesCombinedHash() {
+    return workerKey.getWorkerFilesCombinedHash();
+  }
+
+  /** Starts the worker process in {@code workDir}, unless it is running already. */
+  synchronized void createProcessIfNeeded(Path workDir) throws IOException {
+    if (process != null && !processDone && !process.finished()) {
+      return;
+    }
+    destroyProcess();
+    startReading(Worker.startProcess(workerKey, workDir, logFile));
+  }
+
+  /** Starts the reader thread of {@code process}, which becomes the process of this multiplexer. */
+  @VisibleForTesting
+  synchronized void startReading(Subprocess process) {
+    this.process = process;
+    this.processDone = false;
+    Thread reader = new Thread(() -> readResponses(process), "multiplex-worker-reader");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /** Reads the responses of {@code process} until it closes its stdout or writes garbage. */
+  private void readResponses(Subprocess process) {
+    RecordingInputStream stdout = new RecordingInputStream(process.getInputStream());
+    IOException error = null;
+    try {
+      while (true) {
+        stdout.startRecording(4096);
+        WorkResponse response = WorkResponse.parseDelimitedFrom(stdout);
+        if (response == null) {
+          break;
+        }
+        SettableFuture<WorkResponse> pendingResponse =
+            pendingResponses.get(response.getRequestId());
+        // There is no pending response if its requester gave up on it, e.g. because it was
+        // interrupted.
+        if (pendingResponse != null) {
+          pendingResponse.set(response);
+        }
+      }
+    } catch (IOException e) {
+      stdout.readRemaining();
+      unparseableOutput = stdout.getRecordedDataAsString();
+      error = e;
+    }
+    synchronized (this) {
+      if (this.process == process) {
+        processDone = true;
+        // No more requests are sent to the process after this, so fail the ones it won't answer.
+        for (SettableFuture<WorkResponse> pendingResponse : pendingResponses.values()) {
+          if (error == null) {
+            pendingResponse.set(null);
+          } else {
+            pendingResponse.setException(error);
+          }
+        }
+      }
+    }
+  }
+
+  /** Sends {@code request} to the worker process. Returns the id of the request. */
+  int putRequest(WorkRequest request) throws IOException {
+    int requestId = nextRequestId.getAndIncrement();
+    synchronized (this) {
+      if (process == null || processDone) {
+        throw new IOException("The multiplexed worker process is not running");
+      }
+      pendingResponses.put(requestId, SettableFuture.create());
+      try {
+        request
+            .toBuilder()
+            .setRequestId(requestId)
+            .build()
+            .writeDelimitedTo(process.getOutputStream());
+        process.getOutputStream().flush();
+      } catch (IOException e) {
+        pendingResponses.remove(requestId);
+        throw e;
+      }
+    }
+    return requestId;
+  }
+
+  /**
+   * Waits for the response to the request with id {@code requestId}. Returns null if the worker
+   * process closed its stdout instead.
+   */
+  WorkResponse getResponse(int requestId) throws IOException, InterruptedException {
+    SettableFuture<WorkResponse> pendingResponse = pendingResponses.get(requestId);
+    Preconditions.checkState(pendingResponse != null, "No pending request %s", requestId);
+    try {
+      return pendingResponse.get();
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pendingResponses.remove(requestId);
+    }
+  }
+
+  /**
+   * Returns the start of what the worker process wrote to stdout in place of a response, after
+   * {@link #getResponse} failed to parse it.
+   */
+  String getUnparseableOutput() {
+    return unparseableOutput;
+  }
+
+  /** Returns the process id of the worker process, or -1 if it isn't running or is unknown. */
+  synchronized long getProcessId() {
+    return process != null ? process.getProcessId() : -1;
+  }
+
+  synchronized boolean isProcessAlive() {
+    return process != null && !processDone && !process.finished();
+  }
+
+  /** Kills the worker process, if it is running. Pending requests get no response. */
+  synchronized void destroyProcess() {
+    if (process != null) {
+      process.destroyAndWait();
+      process = null;
+      processDone = true;
+      for (SettableFuture<WorkResponse> pendingResponse : pendingResponses.values()) {
+        pendingResponse.set(null);
+      }
+    }
+  }
+}
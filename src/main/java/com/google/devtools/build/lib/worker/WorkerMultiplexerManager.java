@@ -0,0 +1,70 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.vfs.Path;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Hands out one {@link WorkerMultiplexer} per {@link WorkerKey} to the {@link WorkerProxy}
+ * instances of the key, and kills its process when the last of them is destroyed.
+ */
+@ThreadSafe
+final class WorkerMultiplexerManager {
+  private final Path workerBaseDir;
+
+  @GuardedBy("this")
+  private final Map<WorkerKey, WorkerMultiplexer> multiplexers = new HashMap<>();
+
+  @GuardedBy("this")
+  private int multiplexerCounter;
+
+  WorkerMultiplexerManager(Path workerBaseDir) {
+    this.workerBaseDir = workerBaseDir;
+  }
+
+  /**
+   * Returns the multiplexer of {@code key}, creating it if needed. Each call must be matched by a
+   * call to {@link #release}.
+   */
+  synchronized WorkerMultiplexer acquire(WorkerKey key) {
+    WorkerMultiplexer multiplexer = multiplexers.get(key);
+    // The files of the worker are not part of the key. If they changed, the proxies still using the
+    // old multiplexer are discarded by the pool, and new proxies get a new one.
+    if (multiplexer == null
+        || !multiplexer.getWorkerFilesCombinedHash().equals(key.getWorkerFilesCombinedHash())) {
+      Path logFile =
+          workerBaseDir.getRelative(
+              "multiplex-worker-" + multiplexerCounter++ + "-" + key.getMnemonic() + ".log");
+      multiplexer = new WorkerMultiplexer(key, logFile);
+      multiplexers.put(key, multiplexer);
+    }
+    multiplexer.refCount++;
+    return multiplexer;
+  }
+
+  /** Releases {@code multiplexer}, killing its process if no other proxy uses it. */
+  synchronized void release(WorkerMultiplexer multiplexer) {
+    Preconditions.checkState(multiplexer.refCount > 0);
+    if (--multiplexer.refCount > 0) {
+      return;
+    }
+    multiplexers.values().remove(multiplexer);
+    multiplexer.destroyProcess();
+  }
+}
@@ -99,6 +99,22 @@ public class WorkerOptions extends OptionsBase {
       allowMultiple = true)
   public List<Map.Entry<String, Integer>> workerMaxInstances;
 
+  @Option(
+      name = "worker_max_multiplex_instances",
+      converter = MultiResourceConverter.class,
+      defaultValue = "8",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "How many requests may be sent at once to a multiplexed worker process when "
+              + "--experimental_worker_multiplex is in effect. Each kind of multiplexed worker "
+              + "runs as a single process. May be specified as [name=value] to give a different "
+              + "value per worker mnemonic. Takes "
+              + ResourceConverter.FLAG_SYNTAX
+              + ". \"=value\" sets a default for unspecified mnemonics.",
+      allowMultiple = true)
+  public List<Map.Entry<String, Integer>> workerMaxMultiplexInstances;
+
   @Option(
       name = "high_priority_workers",
       defaultValue = "",
@@ -149,4 +165,28 @@ public class WorkerOptions extends OptionsBase {
   )
   public boolean workerSandboxing;
 
+  @Option(
+      name = "experimental_worker_multiplex",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "If enabled, the actions that declare the 'supports-multiplex-workers' execution "
+              + "requirement send all their work requests to a single worker process per kind of "
+              + "worker, instead of one process per concurrent request. Has no effect on sandboxed "
+              + "workers.")
+  public boolean workerMultiplex;
+
+  @Option(
+      name = "experimental_total_worker_memory_limit_mb",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "If set to a positive value, the resident memory of the persistent worker processes is "
+              + "sampled whenever a worker finishes a request. If all of them together use more "
+              + "than this many megabytes, the largest idle workers are killed until they don't. "
+              + "The memory held by idle workers is also not given to other local actions.")
+  public int totalWorkerMemoryLimitMb;
+
 }
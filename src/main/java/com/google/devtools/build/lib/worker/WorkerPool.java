@@ -13,13 +13,22 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.actions.ResourceManager;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
@@ -33,20 +42,48 @@ final class WorkerPool {
   private final AtomicInteger highPriorityWorkersInUse = new AtomicInteger(0);
   private final ImmutableSet<String> highPriorityWorkerMnemonics;
   private final ImmutableMap<String, Integer> config;
+  private final ImmutableMap<String, Integer> multiplexConfig;
   private final ImmutableMap<Integer, SimpleWorkerPool> pools;
 
+  /** The total RSS that all worker processes may use before idle ones are evicted, 0 for no limit. */
+  private final int memoryLimitMb;
+
+  /** Told about the memory held by idle workers, so that it isn't handed out to other actions. */
+  @Nullable private final ResourceManager resourceManager;
+
+  /** The workers handed out so far that may still be alive; only tracked with a memory limit. */
+  private final Set<Worker> knownWorkers = ConcurrentHashMap.newKeySet();
+
+  /** The subset of {@link #knownWorkers} that is currently back in the pool. */
+  private final Set<Worker> idleWorkers = ConcurrentHashMap.newKeySet();
+
   /**
    * @param factory worker factory
    * @param config pool configuration; max number of workers per worker mnemonic; the empty string
    *     key specifies the default maximum
+   * @param multiplexConfig like {@code config}, but for the proxies of multiplexed workers, which
+   *     all share one process per key; it limits the number of concurrent requests to that process
    * @param highPriorityWorkers mnemonics of high priority workers
+   * @param memoryLimitMb the total resident memory of all worker processes above which the largest
+   *     idle workers are evicted; 0 disables memory tracking
+   * @param resourceManager the resource manager to report the memory of idle workers to, if any
    */
   public WorkerPool(
-      WorkerFactory factory, Map<String, Integer> config, Iterable<String> highPriorityWorkers) {
+      WorkerFactory factory,
+      Map<String, Integer> config,
+      Map<String, Integer> multiplexConfig,
+      Iterable<String> highPriorityWorkers,
+      int memoryLimitMb,
+      @Nullable ResourceManager resourceManager) {
     highPriorityWorkerMnemonics = ImmutableSet.copyOf(highPriorityWorkers);
     this.config = ImmutableMap.copyOf(config);
+    this.multiplexConfig = ImmutableMap.copyOf(multiplexConfig);
+    this.memoryLimitMb = memoryLimitMb;
+    this.resourceManager = resourceManager;
     ImmutableMap.Builder<Integer, SimpleWorkerPool> poolsBuilder = ImmutableMap.builder();
-    for (Integer max : new HashSet<>(config.values())) {
+    Set<Integer> maxes = new HashSet<>(config.values());
+    maxes.addAll(multiplexConfig.values());
+    for (Integer max : maxes) {
       poolsBuilder.put(max, new SimpleWorkerPool(factory, makeConfig(max)));
     }
     pools = poolsBuilder.build();
@@ -77,13 +114,18 @@ final class WorkerPool {
     config.setTestOnCreate(true);
     config.setTestOnReturn(true);
 
-    // No eviction of idle workers.
+    // No periodic eviction of idle workers. Eviction runs are only triggered by the memory limit,
+    // and then evict exactly the workers that were marked for eviction, which fail validation.
     config.setTimeBetweenEvictionRunsMillis(-1);
+    config.setMinEvictableIdleTimeMillis(-1);
+    config.setTestWhileIdle(true);
+    config.setNumTestsPerEvictionRun(Integer.MAX_VALUE);
 
     return config;
   }
 
   private SimpleWorkerPool getPool(WorkerKey key) {
+    ImmutableMap<String, Integer> config = key.isProxied() ? multiplexConfig : this.config;
     Integer max = config.get(key.getMnemonic());
     if (max == null) {
       max = config.get("");
@@ -105,6 +147,10 @@ final class WorkerPool {
       Throwables.propagateIfPossible(t, IOException.class, InterruptedException.class);
       throw new RuntimeException("unexpected", t);
     }
+    if (memoryLimitMb > 0) {
+      knownWorkers.add(result);
+      idleWorkers.remove(result);
+    }
 
     if (highPriorityWorkerMnemonics.contains(key.getMnemonic())) {
       highPriorityWorkersInUse.incrementAndGet();
@@ -124,13 +170,21 @@ final class WorkerPool {
     if (highPriorityWorkerMnemonics.contains(key.getMnemonic())) {
       decrementHighPriorityWorkerCount();
     }
+    if (memoryLimitMb > 0) {
+      idleWorkers.add(obj);
+    }
     getPool(key).returnObject(key, obj);
+    if (memoryLimitMb > 0) {
+      evictWorkersOverMemoryLimit();
+    }
   }
 
   public void invalidateObject(WorkerKey key, Worker obj) throws IOException, InterruptedException {
     if (highPriorityWorkerMnemonics.contains(key.getMnemonic())) {
       decrementHighPriorityWorkerCount();
     }
+    knownWorkers.remove(obj);
+    idleWorkers.remove(obj);
     try {
       getPool(key).invalidateObject(key, obj);
     } catch (Throwable t) {
@@ -139,6 +193,82 @@ final class WorkerPool {
     }
   }
 
+  /**
+   * Samples the resident memory of all worker processes and, if they use more than the memory
+   * limit in total, evicts the largest idle workers until they don't. Reports the memory that the
+   * remaining idle workers hold to the resource manager.
+   */
+  private synchronized void evictWorkersOverMemoryLimit() {
+    knownWorkers.removeIf(Worker::isDestroyed);
+    idleWorkers.removeIf(Worker::isDestroyed);
+
+    // The proxies of a multiplexed worker share one process, so count each process once.
+    Set<Long> sampledProcesses = new HashSet<>();
+    Map<Worker, Long> idleRssKb = new HashMap<>();
+    long totalRssKb = 0;
+    for (Worker worker : knownWorkers) {
+      long pid = worker.getProcessId();
+      if (pid < 0 || !sampledProcesses.add(pid)) {
+        continue;
+      }
+      long rssKb = WorkerProcessRss.getRssKb(pid);
+      if (rssKb < 0) {
+        continue;
+      }
+      totalRssKb += rssKb;
+      // Evicting a single proxy doesn't free any memory, so only unshared processes are evicted.
+      if (!worker.getWorkerKey().isProxied() && idleWorkers.contains(worker)) {
+        idleRssKb.put(worker, rssKb);
+      }
+    }
+
+    List<Worker> toEvict = selectWorkersToEvict(idleRssKb, totalRssKb, memoryLimitMb * 1024L);
+    if (!toEvict.isEmpty()) {
+      for (Worker worker : toEvict) {
+        worker.markForEviction();
+        idleRssKb.remove(worker);
+      }
+      for (SimpleWorkerPool pool : pools.values()) {
+        try {
+          pool.evict();
+        } catch (Exception e) {
+          // Workers that could not be evicted now fail validation when they're borrowed next.
+        }
+      }
+    }
+
+    if (resourceManager != null) {
+      long idleTotalKb = 0;
+      for (long rssKb : idleRssKb.values()) {
+        idleTotalKb += rssKb;
+      }
+      resourceManager.setReservedRam(idleTotalKb / 1024.0);
+    }
+  }
+
+  /**
+   * Returns the idle workers to evict, largest first, so that the total resident memory of all
+   * workers drops to at most {@code limitKb}, or all idle workers if that isn't enough.
+   */
+  @VisibleForTesting
+  static <T> ImmutableList<T> selectWorkersToEvict(
+      Map<T, Long> idleRssKb, long totalRssKb, long limitKb) {
+    if (totalRssKb <= limitKb) {
+      return ImmutableList.of();
+    }
+    List<Map.Entry<T, Long>> candidates = new ArrayList<>(idleRssKb.entrySet());
+    candidates.sort(Map.Entry.<T, Long>comparingByValue().reversed());
+    ImmutableList.Builder<T> toEvict = ImmutableList.builder();
+    for (Map.Entry<T, Long> candidate : candidates) {
+      if (totalRssKb <= limitKb) {
+        break;
+      }
+      toEvict.add(candidate.getKey());
+      totalRssKb -= candidate.getValue();
+    }
+    return toEvict.build();
+  }
+
   // Decrements the high-priority workers counts and pings waiting threads if appropriate.
   private void decrementHighPriorityWorkerCount() {
     if (highPriorityWorkersInUse.decrementAndGet() <= 1) {
@@ -166,5 +296,8 @@ final class WorkerPool {
     for (SimpleWorkerPool pool : pools.values()) {
       pool.close();
     }
+    if (memoryLimitMb > 0 && resourceManager != null) {
+      resourceManager.setReservedRam(0);
+    }
   }
 }
@@ -0,0 +1,55 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+
+/** Reads the resident set size of worker processes from /proc/[pid]/status on Linux. */
+final class WorkerProcessRss {
+  private static final String RSS_KEYWORD = "VmRSS:";
+
+  private WorkerProcessRss() {}
+
+  /**
+   * Returns the resident set size of the process with id {@code pid} in KB, or -1 if it can't be
+   * determined, e.g. because the process is gone or there is no /proc file system.
+   */
+  static long getRssKb(long pid) {
+    if (pid < 0) {
+      return -1;
+    }
+    return getRssKb(new File("/proc/" + pid + "/status"));
+  }
+
+  @VisibleForTesting
+  static long getRssKb(File statusFile) {
+    try {
+      for (String line : Files.readLines(statusFile, US_ASCII)) {
+        if (line.startsWith(RSS_KEYWORD)) {
+          return Long.parseLong(
+              CharMatcher.inRange('0', '9').retainFrom(line.substring(RSS_KEYWORD.length())));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // Fall through.
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * A {@link Worker} that sends its requests to the {@link WorkerMultiplexer} of its key instead of
+ * a process of its own. The worker pool then limits the number of concurrent requests of the key,
+ * while all of them are handled by a single process.
+ */
+final class WorkerProxy extends Worker {
+  private final Path workDir;
+  private final WorkerMultiplexer multiplexer;
+  private final WorkerMultiplexerManager multiplexerManager;
+  private boolean released;
+  private int requestId;
+
+  WorkerProxy(
+      WorkerKey workerKey,
+      int workerId,
+      Path workDir,
+      WorkerMultiplexer multiplexer,
+      WorkerMultiplexerManager multiplexerManager) {
+    super(workerKey, workerId, workDir, multiplexer.getLogFile());
+    this.workDir = workDir;
+    this.multiplexer = multiplexer;
+    this.multiplexerManager = multiplexerManager;
+  }
+
+  @Override
+  void createProcess() throws IOException {
+    multiplexer.createProcessIfNeeded(workDir);
+  }
+
+  @Override
+  void destroy() throws IOException {
+    super.destroy();
+    synchronized (this) {
+      // This is called by both the pool and the shutdown hook.
+      if (released) {
+        return;
+      }
+      released = true;
+    }
+    multiplexerManager.release(multiplexer);
+  }
+
+  @Override
+  boolean isAlive() {
+    return multiplexer.isProcessAlive();
+  }
+
+  @Override
+  long getProcessId() {
+    return multiplexer.getProcessId();
+  }
+
+  @Override
+  public void prepareExecution(
+      SandboxInputs inputFiles, SandboxOutputs outputs, Set<PathFragment> workerFiles)
+      throws IOException {
+    // The shared process may have died while working on another proxy's request.
+    createProcess();
+  }
+
+  @Override
+  void putRequest(WorkRequest request) throws IOException {
+    requestId = multiplexer.putRequest(request);
+  }
+
+  @Override
+  WorkResponse getResponse() throws IOException, InterruptedException {
+    return multiplexer.getResponse(requestId);
+  }
+
+  @Override
+  String getRecordingStreamMessage() {
+    return multiplexer.getUnparseableOutput();
+  }
+}
@@ -30,6 +30,7 @@ import com.google.devtools.build.lib.actions.MetadataProvider;
 import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.ResourceManager.ResourceHandle;
 import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnMetrics;
 import com.google.devtools.build.lib.actions.SpawnResult;
 import com.google.devtools.build.lib.actions.Spawns;
 import com.google.devtools.build.lib.actions.UserExecException;
@@ -77,6 +78,7 @@ final class WorkerSpawnRunner implements SpawnRunner {
   private final Path execRoot;
   private final WorkerPool workers;
   private final Multimap<String, String> extraFlags;
+  private final boolean multiplex;
   private final EventHandler reporter;
   private final SpawnRunner fallbackRunner;
   private final LocalEnvProvider localEnvProvider;
@@ -89,6 +91,7 @@ final class WorkerSpawnRunner implements SpawnRunner {
       Path execRoot,
       WorkerPool workers,
       Multimap<String, String> extraFlags,
+      boolean multiplex,
       EventHandler reporter,
       SpawnRunner fallbackRunner,
       LocalEnvProvider localEnvProvider,
@@ -99,6 +102,7 @@ final class WorkerSpawnRunner implements SpawnRunner {
     this.execRoot = execRoot;
     this.workers = Preconditions.checkNotNull(workers);
     this.extraFlags = extraFlags;
+    this.multiplex = multiplex;
     this.reporter = reporter;
     this.fallbackRunner = fallbackRunner;
     this.localEnvProvider = localEnvProvider;
@@ -182,12 +186,16 @@ final class WorkerSpawnRunner implements SpawnRunner {
             spawn.getMnemonic(),
             workerFilesCombinedHash,
             workerFiles,
-            context.speculating());
+            context.speculating(),
+            multiplex && !context.speculating() && Spawns.supportsMultiplexWorkers(spawn));
 
     WorkRequest workRequest = createWorkRequest(spawn, context, flagFiles, inputFileCache);
 
+    SpawnMetrics.Builder spawnMetrics =
+        new SpawnMetrics.Builder().setInputFiles(inputFiles.getFiles().size());
     long startTime = System.currentTimeMillis();
-    WorkResponse response = execInWorker(spawn, key, workRequest, context, inputFiles, outputs);
+    WorkResponse response =
+        execInWorker(spawn, key, workRequest, context, inputFiles, outputs, spawnMetrics);
     Duration wallTime = Duration.ofMillis(System.currentTimeMillis() - startTime);
 
     FileOutErr outErr = context.getFileOutErr();
@@ -199,6 +207,7 @@ final class WorkerSpawnRunner implements SpawnRunner {
         .setExitCode(exitCode)
         .setStatus(exitCode == 0 ? SpawnResult.Status.SUCCESS : SpawnResult.Status.NON_ZERO_EXIT)
         .setWallTime(wallTime)
+        .setSpawnMetrics(spawnMetrics.setTotalTime(wallTime).build())
         .build();
   }
 
@@ -300,7 +309,8 @@ final class WorkerSpawnRunner implements SpawnRunner {
       WorkRequest request,
       SpawnExecutionContext context,
       SandboxInputs inputFiles,
-      SandboxOutputs outputs)
+      SandboxOutputs outputs,
+      SpawnMetrics.Builder spawnMetrics)
       throws InterruptedException, ExecException {
     Worker worker = null;
     WorkResponse response;
@@ -332,6 +342,7 @@ final class WorkerSpawnRunner implements SpawnRunner {
       try (ResourceHandle handle =
           resourceManager.acquireResources(owner, spawn.getLocalResources())) {
         context.report(ProgressStatus.EXECUTING, getName());
+        long setupStartTime = System.currentTimeMillis();
         try {
           worker.prepareExecution(inputFiles, outputs, key.getWorkerFilesWithHashes().keySet());
         } catch (IOException e) {
@@ -343,10 +354,11 @@ final class WorkerSpawnRunner implements SpawnRunner {
                   .build()
                   .toString());
         }
+        long executionStartTime = System.currentTimeMillis();
+        spawnMetrics.setSetupTime(Duration.ofMillis(executionStartTime - setupStartTime));
 
         try {
-          request.writeDelimitedTo(worker.getOutputStream());
-          worker.getOutputStream().flush();
+          worker.putRequest(request);
         } catch (IOException e) {
           throw new UserExecException(
               ErrorMessage.builder()
@@ -359,17 +371,14 @@ final class WorkerSpawnRunner implements SpawnRunner {
                   .toString());
         }
 
-        RecordingInputStream recordingStream = new RecordingInputStream(worker.getInputStream());
-        recordingStream.startRecording(4096);
         try {
           // response can be null when the worker has already closed stdout at this point and thus
           // the InputStream is at EOF.
-          response = WorkResponse.parseDelimitedFrom(recordingStream);
+          response = worker.getResponse();
         } catch (IOException e) {
           // If protobuf couldn't parse the response, try to print whatever the failing worker wrote
           // to stdout - it's probably a stack trace or some kind of error message that will help
           // the user figure out why the compiler is failing.
-          recordingStream.readRemaining();
           throw new UserExecException(
               ErrorMessage.builder()
                   .message(
@@ -377,11 +386,13 @@ final class WorkerSpawnRunner implements SpawnRunner {
                           + "Did you try to print something to stdout? Workers aren't allowed to "
                           + "do this, as it breaks the protocol between Bazel and the worker "
                           + "process.")
-                  .logText(recordingStream.getRecordedDataAsString())
+                  .logText(worker.getRecordingStreamMessage())
                   .exception(e)
                   .build()
                   .toString());
         }
+        spawnMetrics.setExecutionWallTime(
+            Duration.ofMillis(System.currentTimeMillis() - executionStartTime));
       }
 
       context.lockOutputFiles();
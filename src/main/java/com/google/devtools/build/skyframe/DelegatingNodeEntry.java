@@ -109,6 +109,11 @@ public abstract class DelegatingNodeEntry implements NodeEntry {
     return getDelegate().getAllDirectDepsForIncompleteNode();
   }
 
+  @Override
+  public ImmutableSet<SkyKey> getLastBuildDirectDeps() throws InterruptedException {
+    return getDelegate().getLastBuildDirectDeps();
+  }
+
   @Override
   public ImmutableSet<SkyKey> getAllRemainingDirtyDirectDeps() throws InterruptedException {
     return getDelegate().getAllRemainingDirtyDirectDeps();
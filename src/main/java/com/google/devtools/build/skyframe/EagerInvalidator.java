@@ -13,10 +13,14 @@
 // limitations under the License.
 package com.google.devtools.build.skyframe;
 
+import com.google.devtools.build.lib.concurrent.NamedForkJoinPool;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.skyframe.InvalidatingNodeVisitor.DeletingNodeVisitor;
 import com.google.devtools.build.skyframe.InvalidatingNodeVisitor.DirtyingNodeVisitor;
 import com.google.devtools.build.skyframe.InvalidatingNodeVisitor.InvalidationState;
 import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
 import javax.annotation.Nullable;
 
 /**
@@ -25,6 +29,7 @@ import javax.annotation.Nullable;
  * <p>This is intended only for use in alternative {@code MemoizingEvaluator} implementations.
  */
 public final class EagerInvalidator {
+  private static final Logger logger = Logger.getLogger(EagerInvalidator.class.getName());
 
   private EagerInvalidator() {}
 
@@ -74,13 +79,14 @@ public final class EagerInvalidator {
   }
 
   @Nullable
-  private static DirtyingNodeVisitor createInvalidatingVisitorIfNeeded(
+  static DirtyingNodeVisitor createInvalidatingVisitorIfNeeded(
       QueryableGraph graph,
       Iterable<SkyKey> diff,
       DirtyTrackingProgressReceiver progressReceiver,
       InvalidationState state,
       ForkJoinPool forkJoinPool,
-      boolean supportInterruptions) {
+      boolean supportInterruptions,
+      int batchSize) {
     state.update(diff);
     return state.isEmpty()
         ? null
@@ -89,8 +95,10 @@ public final class EagerInvalidator {
             progressReceiver,
             state,
             forkJoinPool,
-            supportInterruptions);
+            supportInterruptions,
+            batchSize);
   }
+
   /** Invalidates given values and their upward transitive closure in the graph if necessary. */
   public static void invalidate(
       QueryableGraph graph,
@@ -101,7 +109,7 @@ public final class EagerInvalidator {
     DirtyingNodeVisitor visitor =
         createInvalidatingVisitorIfNeeded(graph, diff, progressReceiver, state);
     if (visitor != null) {
-      visitor.run();
+      runAndLogRate(visitor);
     }
   }
 
@@ -119,9 +127,54 @@ public final class EagerInvalidator {
       throws InterruptedException {
     DirtyingNodeVisitor visitor =
         createInvalidatingVisitorIfNeeded(
-            graph, diff, progressReceiver, state, forkJoinPool, supportInterruptions);
+            graph, diff, progressReceiver, state, forkJoinPool, supportInterruptions, 1);
     if (visitor != null) {
       visitor.run();
     }
   }
+
+  /**
+   * Invalidates given values and their upward transitive closure in the graph if necessary,
+   * dirtying the reverse deps of each node in batches of up to {@code batchSize} nodes on a
+   * work-stealing pool with one thread per core.
+   */
+  public static void invalidate(
+      QueryableGraph graph,
+      Iterable<SkyKey> diff,
+      DirtyTrackingProgressReceiver progressReceiver,
+      InvalidationState state,
+      int batchSize)
+      throws InterruptedException {
+    state.update(diff);
+    if (state.isEmpty()) {
+      return;
+    }
+    runAndLogRate(
+        new DirtyingNodeVisitor(
+            graph,
+            progressReceiver,
+            state,
+            NamedForkJoinPool.newNamedPool(
+                "skyframe-invalidator", InvalidatingNodeVisitor.DEFAULT_THREAD_COUNT),
+            /*supportInterruptions=*/ true,
+            batchSize));
+  }
+
+  private static void runAndLogRate(DirtyingNodeVisitor visitor) throws InterruptedException {
+    long profileStartTime = Profiler.nanoTimeMaybe();
+    long startTime = System.nanoTime();
+    try {
+      visitor.run();
+    } finally {
+      long elapsedNanos = Math.max(1, System.nanoTime() - startTime);
+      long numDirtied = visitor.getNumDirtied();
+      String rate =
+          String.format(
+              "Dirtied %d nodes in %d ms (%d nodes/s)",
+              numDirtied, elapsedNanos / 1_000_000, numDirtied * 1_000_000_000L / elapsedNanos);
+      // Shows up as a span in the JSON profile, with the rate as its name.
+      Profiler.instance().logSimpleTask(profileStartTime, ProfilerTask.INFO, rate);
+      logger.fine(rate);
+    }
+  }
 }
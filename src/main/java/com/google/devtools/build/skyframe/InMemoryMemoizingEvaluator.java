@@ -18,6 +18,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -31,7 +32,10 @@ import com.google.devtools.build.skyframe.InvalidatingNodeVisitor.DirtyingInvali
 import com.google.devtools.build.skyframe.InvalidatingNodeVisitor.InvalidationState;
 import com.google.devtools.build.skyframe.QueryableGraph.Reason;
 import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
@@ -72,11 +76,16 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
   // Values that the caller explicitly specified are assumed to be changed -- they will be
   // re-evaluated even if none of their children are changed.
   private final InvalidationState invalidatorState = new DirtyingInvalidationState();
+  private int invalidationBatchSize = 1;
 
   private final EmittedEventState emittedEventState;
 
   private final AtomicBoolean evaluating = new AtomicBoolean(false);
 
+  // Roots requested by evaluations since the last call to getAndClearRequestedRoots, or null if
+  // they are not tracked.
+  @Nullable private Set<SkyKey> requestedRoots = null;
+
   public InMemoryMemoizingEvaluator(
       Map<SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer) {
     this(skyFunctions, differencer, null);
@@ -149,6 +158,76 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
         }));
   }
 
+  @Override
+  public void setInvalidationBatchSize(int batchSize) {
+    Preconditions.checkArgument(batchSize > 0, batchSize);
+    invalidationBatchSize = batchSize;
+  }
+
+  @Override
+  public void trackRequestedRoots(boolean track) {
+    if (!track) {
+      requestedRoots = null;
+    } else if (requestedRoots == null) {
+      requestedRoots = new HashSet<>();
+    }
+  }
+
+  @Override
+  public ImmutableSet<SkyKey> getAndClearRequestedRoots() {
+    if (requestedRoots == null) {
+      return ImmutableSet.of();
+    }
+    ImmutableSet<SkyKey> result = ImmutableSet.copyOf(requestedRoots);
+    requestedRoots.clear();
+    return result;
+  }
+
+  @Override
+  public int deleteUnreachable(Iterable<SkyKey> roots, Predicate<SkyKey> deletePredicate) {
+    if (!keepEdges) {
+      // Without edges there is no way to tell which values are reachable.
+      return 0;
+    }
+    Set<SkyKey> reachable = new HashSet<>();
+    // Maintain a stack explicitly instead of recursion to avoid stack overflows on extreme graphs
+    // (with long dependency chains).
+    Deque<SkyKey> toVisit = new ArrayDeque<>();
+    Iterables.addAll(toVisit, roots);
+    try {
+      while (!toVisit.isEmpty()) {
+        SkyKey key = toVisit.pop();
+        if (!reachable.add(key)) {
+          continue;
+        }
+        NodeEntry entry = graph.get(null, Reason.OTHER, key);
+        if (entry == null) {
+          continue;
+        }
+        if (entry.isDone()) {
+          Iterables.addAll(toVisit, entry.getDirectDeps());
+        } else if (entry.isDirty()) {
+          // A dirty entry checks the deps of its last build first when it is re-evaluated, and
+          // usually needs most of them again.
+          toVisit.addAll(entry.getLastBuildDirectDeps());
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new IllegalStateException("InMemoryGraph does not throw", e);
+    }
+    int marked = 0;
+    for (Map.Entry<SkyKey, ? extends NodeEntry> entry : graph.getAllValues().entrySet()) {
+      SkyKey key = entry.getKey();
+      if (entry.getValue().isDone()
+          && !reachable.contains(key)
+          && deletePredicate.apply(key)
+          && valuesToDelete.add(key)) {
+        marked++;
+      }
+    }
+    return marked;
+  }
+
   @Override
   public <T extends SkyValue> EvaluationResult<T> evaluate(
       Iterable<? extends SkyKey> roots, Version version, EvaluationContext evaluationContext)
@@ -160,6 +239,9 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
         "InMemoryGraph supports only monotonically increasing Integer versions: %s %s",
         lastGraphVersion, version);
     setAndCheckEvaluateState(true, roots);
+    if (requestedRoots != null) {
+      Iterables.addAll(requestedRoots, roots);
+    }
     try {
       // Mark for removal any inflight nodes from the previous evaluation.
       valuesToDelete.addAll(progressReceiver.getAndClearInflightKeys());
@@ -200,7 +282,7 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
                         () ->
                             AbstractQueueVisitor.createExecutorService(
                                 evaluationContext.getParallelism(), "skyframe-evaluator")),
-                new SimpleCycleDetector(),
+                new ParallelCycleDetector(),
                 EvaluationVersionBehavior.GRAPH_VERSION);
         result = evaluator.eval(roots);
       }
@@ -279,7 +361,12 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
     // Instead, just start afresh with a new LinkedHashSet.
     valuesToDelete = new LinkedHashSet<>();
 
-    EagerInvalidator.invalidate(graph, valuesToDirty, progressReceiver, invalidatorState);
+    if (invalidationBatchSize > 1) {
+      EagerInvalidator.invalidate(
+          graph, valuesToDirty, progressReceiver, invalidatorState, invalidationBatchSize);
+    } else {
+      EagerInvalidator.invalidate(graph, valuesToDirty, progressReceiver, invalidatorState);
+    }
     // Ditto.
     valuesToDirty = new LinkedHashSet<>();
   }
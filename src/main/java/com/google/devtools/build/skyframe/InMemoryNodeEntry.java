@@ -596,6 +596,15 @@ public class InMemoryNodeEntry implements NodeEntry {
     }
   }
 
+  @Override
+  public synchronized ImmutableSet<SkyKey> getLastBuildDirectDeps() throws InterruptedException {
+    Preconditions.checkState(isDirty(), this);
+    GroupedList<SkyKey> lastBuildDirectDeps = dirtyBuildingState.getLastBuildDirectDeps();
+    return lastBuildDirectDeps == null
+        ? ImmutableSet.of()
+        : ImmutableSet.copyOf(lastBuildDirectDeps.getAllElementsAsIterable());
+  }
+
   @Override
   public synchronized ImmutableSet<SkyKey> getAllRemainingDirtyDirectDeps()
       throws InterruptedException {
@@ -19,6 +19,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
 import com.google.devtools.build.lib.concurrent.ErrorClassifier;
@@ -31,12 +32,14 @@ import com.google.devtools.build.skyframe.ThinNodeEntry.DirtyType;
 import com.google.devtools.build.skyframe.ThinNodeEntry.MarkedDirtyResult;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import javax.annotation.Nullable;
 
 /**
@@ -63,7 +66,7 @@ public abstract class InvalidatingNodeVisitor<GraphT extends QueryableGraph> {
   // Default thread count is equal to the number of cores to exploit
   // that level of hardware parallelism, since invalidation should be CPU-bound.
   // We may consider increasing this in the future.
-  private static final int DEFAULT_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+  static final int DEFAULT_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
   private static final int EXPECTED_PENDING_SET_SIZE = DEFAULT_THREAD_COUNT * 8;
   private static final int EXPECTED_VISITED_SET_SIZE = 1024;
 
@@ -346,6 +349,8 @@ public abstract class InvalidatingNodeVisitor<GraphT extends QueryableGraph> {
             new ConcurrentHashMap<SkyKey, Boolean>(
                 EXPECTED_VISITED_SET_SIZE, .75f, DEFAULT_THREAD_COUNT));
     private final boolean supportInterruptions;
+    private final int batchSize;
+    private final LongAdder numDirtied = new LongAdder();
 
     protected DirtyingNodeVisitor(
         QueryableGraph graph,
@@ -353,6 +358,7 @@ public abstract class InvalidatingNodeVisitor<GraphT extends QueryableGraph> {
         InvalidationState state) {
       super(graph, progressReceiver, state);
       this.supportInterruptions = true;
+      this.batchSize = 1;
     }
 
     /**
@@ -365,8 +371,26 @@ public abstract class InvalidatingNodeVisitor<GraphT extends QueryableGraph> {
         InvalidationState state,
         ForkJoinPool forkJoinPool,
         boolean supportInterruptions) {
+      this(graph, progressReceiver, state, forkJoinPool, supportInterruptions, /*batchSize=*/ 1);
+    }
+
+    /**
+     * Dirties the nodes enqueued together, i.e. the reverse deps of a single node, in tasks of up
+     * to {@code batchSize} nodes each, rather than in one task per node. Large fan-ins then cost a
+     * handful of tasks instead of one per reverse dep, and the {@link ForkJoinPool} lets idle
+     * workers steal the remaining batches.
+     */
+    protected DirtyingNodeVisitor(
+        QueryableGraph graph,
+        DirtyTrackingProgressReceiver progressReceiver,
+        InvalidationState state,
+        ForkJoinPool forkJoinPool,
+        boolean supportInterruptions,
+        int batchSize) {
       super(graph, progressReceiver, state, forkJoinPool);
+      Preconditions.checkArgument(batchSize > 0, batchSize);
       this.supportInterruptions = supportInterruptions;
+      this.batchSize = batchSize;
     }
 
     @Override
@@ -374,6 +398,11 @@ public abstract class InvalidatingNodeVisitor<GraphT extends QueryableGraph> {
       return supportInterruptions;
     }
 
+    /** Returns the number of nodes this visitor has marked dirty or changed so far. */
+    long getNumDirtied() {
+      return numDirtied.sum();
+    }
+
     @Override
     void visit(Iterable<SkyKey> keys, InvalidationType invalidationType) {
       Preconditions.checkState(invalidationType != InvalidationType.DELETED, keys);
@@ -445,63 +474,89 @@ public abstract class InvalidatingNodeVisitor<GraphT extends QueryableGraph> {
                 "key(s) %s not in the graph, but enqueued for dirtying by %s",
                 Iterables.limit(missingKeys, 10), enqueueingKeyForExistenceCheck));
       }
+      if (batchSize > 1) {
+        for (final List<SkyKey> batch : Lists.partition(keysToGet, batchSize)) {
+          executor.execute(
+              new Runnable() {
+                @Override
+                public void run() {
+                  for (SkyKey key : batch) {
+                    if (Thread.currentThread().isInterrupted()) {
+                      // The remaining keys of the batch are still pending, so that they are
+                      // visited again after the interruption.
+                      return;
+                    }
+                    dirty(key, entries.get(key), invalidationType);
+                  }
+                }
+              });
+        }
+        return;
+      }
       for (final SkyKey key : keysToGet) {
         executor.execute(
             new Runnable() {
               @Override
               public void run() {
-                ThinNodeEntry entry = entries.get(key);
+                dirty(key, entries.get(key), invalidationType);
+              }
+            });
+      }
+    }
 
-                if (entry == null) {
-                  if (supportInterruptions) {
-                    pendingVisitations.remove(Pair.of(key, invalidationType));
-                  }
-                  return;
-                }
+    /**
+     * Marks a single node dirty or changed and enqueues its reverse deps for dirtying. Runs on an
+     * invalidator thread.
+     */
+    private void dirty(
+        SkyKey key, @Nullable ThinNodeEntry entry, InvalidationType invalidationType) {
+      boolean isChanged = (invalidationType == InvalidationType.CHANGED);
+      if (entry == null) {
+        if (supportInterruptions) {
+          pendingVisitations.remove(Pair.of(key, invalidationType));
+        }
+        return;
+      }
 
-                if (entry.isChanged() || (!isChanged && entry.isDirty())) {
-                  // If this node is already marked changed, or we are only marking this node
-                  // dirty, and it already is, move along.
-                  if (supportInterruptions) {
-                    pendingVisitations.remove(Pair.of(key, invalidationType));
-                  }
-                  return;
-                }
+      if (entry.isChanged() || (!isChanged && entry.isDirty())) {
+        // If this node is already marked changed, or we are only marking this node
+        // dirty, and it already is, move along.
+        if (supportInterruptions) {
+          pendingVisitations.remove(Pair.of(key, invalidationType));
+        }
+        return;
+      }
 
-                // It is not safe to interrupt the logic from this point until the end of the
-                // method.
-                // Any exception thrown should be unrecoverable.
-                // This entry remains in the graph in this dirty state until it is re-evaluated.
-                MarkedDirtyResult markedDirtyResult;
-                try {
-                  markedDirtyResult =
-                      entry.markDirty(isChanged ? DirtyType.CHANGE : DirtyType.DIRTY);
-                } catch (InterruptedException e) {
-                  Thread.currentThread().interrupt();
-                  // This can only happen if the main thread has been interrupted, and so the
-                  // AbstractQueueVisitor is shutting down. We haven't yet removed the pending
-                  // visitation, so we can resume next time.
-                  return;
-                }
-                if (markedDirtyResult == null) {
-                  // Another thread has already dirtied this node. Don't do anything in this thread.
-                  if (supportInterruptions) {
-                    pendingVisitations.remove(Pair.of(key, invalidationType));
-                  }
-                  return;
-                }
-                // Propagate dirtiness upwards and mark this node dirty/changed. Reverse deps should
-                // only be marked dirty (because only a dependency of theirs has changed).
-                visit(markedDirtyResult.getReverseDepsUnsafe(), InvalidationType.DIRTIED, key);
+      // It is not safe to interrupt the logic from this point until the end of the
+      // method.
+      // Any exception thrown should be unrecoverable.
+      // This entry remains in the graph in this dirty state until it is re-evaluated.
+      MarkedDirtyResult markedDirtyResult;
+      try {
+        markedDirtyResult = entry.markDirty(isChanged ? DirtyType.CHANGE : DirtyType.DIRTY);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        // This can only happen if the main thread has been interrupted, and so the
+        // AbstractQueueVisitor is shutting down. We haven't yet removed the pending
+        // visitation, so we can resume next time.
+        return;
+      }
+      if (markedDirtyResult == null) {
+        // Another thread has already dirtied this node. Don't do anything in this thread.
+        if (supportInterruptions) {
+          pendingVisitations.remove(Pair.of(key, invalidationType));
+        }
+        return;
+      }
+      // Propagate dirtiness upwards and mark this node dirty/changed. Reverse deps should
+      // only be marked dirty (because only a dependency of theirs has changed).
+      visit(markedDirtyResult.getReverseDepsUnsafe(), InvalidationType.DIRTIED, key);
 
-                progressReceiver.invalidated(
-                    key, EvaluationProgressReceiver.InvalidationState.DIRTY);
-                // Remove the node from the set as the last operation.
-                if (supportInterruptions) {
-                  pendingVisitations.remove(Pair.of(key, invalidationType));
-                }
-              }
-            });
+      progressReceiver.invalidated(key, EvaluationProgressReceiver.InvalidationState.DIRTY);
+      numDirtied.increment();
+      // Remove the node from the set as the last operation.
+      if (supportInterruptions) {
+        pendingVisitations.remove(Pair.of(key, invalidationType));
       }
     }
   }
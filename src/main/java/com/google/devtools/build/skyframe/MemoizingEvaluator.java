@@ -16,6 +16,7 @@ package com.google.devtools.build.skyframe;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadHostile;
 import com.google.devtools.build.lib.events.ExtendedEventHandler;
@@ -77,6 +78,40 @@ public interface MemoizingEvaluator {
    */
   void deleteDirty(long versionAgeLimit);
 
+  /**
+   * Sets how many nodes each invalidation task dirties. With the default of 1, every invalidated
+   * node gets its own task. Larger values dirty the reverse deps of a node in batches of up to
+   * {@code batchSize} nodes on a work-stealing pool, which is cheaper for graphs with large
+   * fan-ins. Takes effect at the next {@link #evaluate} call.
+   */
+  void setInvalidationBatchSize(int batchSize);
+
+  /**
+   * Starts or stops collecting the roots requested by {@link #evaluate} calls, for use by callers
+   * of {@link #getAndClearRequestedRoots}. Tracking is disabled by default; disabling it forgets
+   * all previously collected roots.
+   */
+  void trackRequestedRoots(boolean track);
+
+  /**
+   * Returns the roots requested by {@link #evaluate} calls since tracking was enabled or since the
+   * last call to this method, and forgets them.
+   */
+  ImmutableSet<SkyKey> getAndClearRequestedRoots();
+
+  /**
+   * Marks done values matching the given predicate for deletion if they are not in the transitive
+   * closure of any of the given roots.
+   *
+   * <p>As with {@link #delete}, the values (and all values that transitively depend on them) are
+   * removed after the next completed {@link #evaluate} call, and are recomputed if they are
+   * requested again later. Since every value depending on an unreachable value is unreachable
+   * itself, no value needed by the given roots is deleted by this call.
+   *
+   * @return the number of values marked for deletion
+   */
+  int deleteUnreachable(Iterable<SkyKey> roots, Predicate<SkyKey> pred);
+
   /**
    * Returns the values in the graph.
    *
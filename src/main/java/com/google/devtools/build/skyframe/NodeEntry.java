@@ -374,6 +374,15 @@ public interface NodeEntry extends ThinNodeEntry {
    */
   ImmutableSet<SkyKey> getAllRemainingDirtyDirectDeps() throws InterruptedException;
 
+  /**
+   * If an entry {@link #isDirty}, returns all direct deps that it had the last time it was built,
+   * which it will check when it is evaluated next. Unlike {@link #getAllRemainingDirtyDirectDeps},
+   * may be called before the entry started evaluation, and includes the deps already checked.
+   *
+   * <p>This method does not mutate the entry.
+   */
+  ImmutableSet<SkyKey> getLastBuildDirectDeps() throws InterruptedException;
+
   /**
    * Whether this entry stores fingerprints of its dep groups, which enables it to change-prune
    * (avoid re-evaluating) if the values in a dep group haven't changed. This is normally handled by
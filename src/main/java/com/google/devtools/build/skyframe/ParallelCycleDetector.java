@@ -0,0 +1,264 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
+import com.google.devtools.build.lib.concurrent.ErrorClassifier;
+import com.google.devtools.build.lib.concurrent.QuiescingExecutor;
+import com.google.devtools.build.lib.profiler.AutoProfiler;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.SilentCloseable;
+import com.google.devtools.build.lib.util.Pair;
+import com.google.devtools.build.skyframe.QueryableGraph.Reason;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Logger;
+
+/**
+ * Cycle detector that explores the incomplete part of the graph below the unfinished roots in
+ * parallel, and finds its strongly connected components, before handing a root from which a cycle
+ * is reachable to a {@link SimpleCycleDetector}.
+ *
+ * <p>Without keep_going, roots that cannot reach a cycle were only left unfinished because
+ * evaluation was aborted, so they are skipped without walking their (potentially large) incomplete
+ * subgraph sequentially. The roots are explored one at a time, in order, and the search stops at
+ * the first one that reaches a cycle, as the sequential search does. The error itself is still
+ * built by the sequential depth-first search, since the reported cycle depends on the order in
+ * which it enters each strongly connected component.
+ *
+ * <p>With keep_going, every unfinished root reaches a cycle, so there is nothing to skip and the
+ * roots are handed to the sequential search directly.
+ */
+public class ParallelCycleDetector implements CycleDetector {
+  private static final Logger logger = Logger.getLogger(ParallelCycleDetector.class.getName());
+
+  private final int parallelism;
+  private final CycleDetector delegate;
+
+  public ParallelCycleDetector() {
+    this(Runtime.getRuntime().availableProcessors(), new SimpleCycleDetector());
+  }
+
+  @VisibleForTesting
+  ParallelCycleDetector(int parallelism, CycleDetector delegate) {
+    Preconditions.checkArgument(parallelism > 0, parallelism);
+    this.parallelism = parallelism;
+    this.delegate = Preconditions.checkNotNull(delegate);
+  }
+
+  @Override
+  public void checkForCycles(
+      Iterable<SkyKey> badRoots,
+      EvaluationResult.Builder<?> result,
+      ParallelEvaluatorContext evaluatorContext)
+      throws InterruptedException {
+    if (evaluatorContext.keepGoing()) {
+      delegate.checkForCycles(badRoots, result, evaluatorContext);
+      return;
+    }
+    SkyKey rootReachingCycle = null;
+    try (SilentCloseable c = Profiler.instance().profile("Finding Skyframe cycles");
+        AutoProfiler p = AutoProfiler.logged("Finding Skyframe cycles", logger, 10)) {
+      ExecutorService executorService =
+          AbstractQueueVisitor.createExecutorService(parallelism, "skyframe-cycle-detector");
+      try {
+        // The nodes explored so far. None of them reaches a cycle, else the search would have
+        // stopped.
+        Set<SkyKey> visited = ConcurrentHashMap.newKeySet();
+        for (SkyKey root : badRoots) {
+          if (visited.contains(root)) {
+            continue;
+          }
+          Map<SkyKey, List<SkyKey>> incompleteGraph =
+              exploreIncompleteGraph(root, visited, executorService, evaluatorContext);
+          if (findKeysReachingCycles(incompleteGraph).contains(root)) {
+            rootReachingCycle = root;
+            break;
+          }
+        }
+      } finally {
+        executorService.shutdownNow();
+      }
+    }
+    if (rootReachingCycle != null) {
+      delegate.checkForCycles(ImmutableList.of(rootReachingCycle), result, evaluatorContext);
+    }
+  }
+
+  /**
+   * Returns the direct deps of every node that is reachable from {@code root} through nodes that
+   * are not done and not in {@code visited}, restricted to the deps that are not done either. Adds
+   * those nodes to {@code visited}.
+   */
+  private static Map<SkyKey, List<SkyKey>> exploreIncompleteGraph(
+      SkyKey root,
+      Set<SkyKey> visited,
+      ExecutorService executorService,
+      ParallelEvaluatorContext evaluatorContext)
+      throws InterruptedException {
+    Map<SkyKey, List<SkyKey>> incompleteGraph = new ConcurrentHashMap<>();
+    QuiescingExecutor executor =
+        new AbstractQueueVisitor(
+            executorService,
+            /*shutdownOnCompletion=*/ false,
+            /*failFastOnException=*/ true,
+            ErrorClassifier.DEFAULT) {};
+    visited.add(root);
+    executor.execute(() -> visit(root, incompleteGraph, visited, executor, evaluatorContext));
+    executor.awaitQuiescence(/*interruptWorkers=*/ true);
+    return incompleteGraph;
+  }
+
+  private static void visit(
+      SkyKey key,
+      Map<SkyKey, List<SkyKey>> incompleteGraph,
+      Set<SkyKey> visited,
+      QuiescingExecutor executor,
+      ParallelEvaluatorContext evaluatorContext) {
+    List<SkyKey> incompleteChildren = new ArrayList<>();
+    try {
+      NodeEntry entry = evaluatorContext.getGraph().get(null, Reason.CYCLE_CHECKING, key);
+      if (entry == null || entry.isDone()) {
+        return;
+      }
+      Iterable<SkyKey> children = entry.getTemporaryDirectDeps().getAllElementsAsIterable();
+      if (Iterables.isEmpty(children)) {
+        incompleteGraph.put(key, ImmutableList.of());
+        return;
+      }
+      // Missing children are left to the sequential cycle detector, which reports them as graph
+      // inconsistencies.
+      for (Map.Entry<SkyKey, ? extends NodeEntry> child :
+          evaluatorContext
+              .getGraph()
+              .getBatch(key, Reason.CYCLE_CHECKING, children)
+              .entrySet()) {
+        if (!child.getValue().isDone()) {
+          incompleteChildren.add(child.getKey());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    incompleteGraph.put(key, incompleteChildren);
+    for (SkyKey child : incompleteChildren) {
+      if (visited.add(child)) {
+        executor.execute(() -> visit(child, incompleteGraph, visited, executor, evaluatorContext));
+      }
+    }
+  }
+
+  /**
+   * Returns the nodes of {@code graph} from which a cycle is reachable, given the direct deps of
+   * each node. Deps that are not nodes of {@code graph} are ignored.
+   *
+   * <p>This is an iterative version of Tarjan's strongly connected components algorithm. Components
+   * are completed in reverse topological order, so when a component is completed, it is already
+   * known whether any of the components it depends on reaches a cycle.
+   */
+  @VisibleForTesting
+  static <T> Set<T> findKeysReachingCycles(Map<T, ? extends Collection<T>> graph) {
+    // Index and low link of each visited node, as in Tarjan's algorithm.
+    Map<T, int[]> indexAndLowLink = new HashMap<>();
+    Set<T> onStack = new HashSet<>();
+    Deque<T> componentStack = new ArrayDeque<>();
+    Set<T> reachesCycle = new HashSet<>();
+    // Maintain a stack explicitly instead of recursion to avoid stack overflows on extreme graphs
+    // (with long dependency chains).
+    Deque<Pair<T, Iterator<T>>> visitStack = new ArrayDeque<>();
+    int nextIndex = 0;
+    for (T start : graph.keySet()) {
+      if (indexAndLowLink.containsKey(start)) {
+        continue;
+      }
+      indexAndLowLink.put(start, new int[] {nextIndex, nextIndex});
+      nextIndex++;
+      componentStack.push(start);
+      onStack.add(start);
+      visitStack.push(Pair.of(start, graph.get(start).iterator()));
+      while (!visitStack.isEmpty()) {
+        T node = visitStack.peek().first;
+        Iterator<T> children = visitStack.peek().second;
+        int[] nodeIndexAndLowLink = indexAndLowLink.get(node);
+        if (children.hasNext()) {
+          T child = children.next();
+          if (!graph.containsKey(child)) {
+            continue;
+          }
+          int[] childIndexAndLowLink = indexAndLowLink.get(child);
+          if (childIndexAndLowLink == null) {
+            indexAndLowLink.put(child, new int[] {nextIndex, nextIndex});
+            nextIndex++;
+            componentStack.push(child);
+            onStack.add(child);
+            visitStack.push(Pair.of(child, graph.get(child).iterator()));
+          } else if (onStack.contains(child)) {
+            nodeIndexAndLowLink[1] = Math.min(nodeIndexAndLowLink[1], childIndexAndLowLink[0]);
+          }
+          continue;
+        }
+        visitStack.pop();
+        if (!visitStack.isEmpty()) {
+          int[] parentIndexAndLowLink = indexAndLowLink.get(visitStack.peek().first);
+          parentIndexAndLowLink[1] = Math.min(parentIndexAndLowLink[1], nodeIndexAndLowLink[1]);
+        }
+        if (nodeIndexAndLowLink[1] != nodeIndexAndLowLink[0]) {
+          continue;
+        }
+        // The node is the root of a strongly connected component, whose members are on top of it
+        // on the component stack.
+        List<T> component = new ArrayList<>();
+        T member;
+        do {
+          member = componentStack.pop();
+          onStack.remove(member);
+          component.add(member);
+        } while (!member.equals(node));
+        if (component.size() > 1
+            || graph.get(node).contains(node)
+            || dependsOnKeyReachingCycle(component, graph, reachesCycle)) {
+          reachesCycle.addAll(component);
+        }
+      }
+    }
+    return reachesCycle;
+  }
+
+  private static <T> boolean dependsOnKeyReachingCycle(
+      List<T> component, Map<T, ? extends Collection<T>> graph, Set<T> reachesCycle) {
+    for (T member : component) {
+      for (T child : graph.get(member)) {
+        if (reachesCycle.contains(child)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
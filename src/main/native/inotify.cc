@@ -0,0 +1,116 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+#include <errno.h>
+#include <jni.h>
+#include <sys/inotify.h>
+#include <unistd.h>
+#include <string>
+#include <vector>
+
+#include "src/main/native/unix_jni.h"
+
+namespace {
+
+// Events that may change the result of a stat() or readdir() of a path in a
+// watched directory, or that invalidate the watch itself.
+const uint32_t kWatchMask = IN_ATTRIB | IN_CLOSE_WRITE | IN_CREATE |
+                            IN_DELETE | IN_DELETE_SELF | IN_MODIFY |
+                            IN_MOVE_SELF | IN_MOVED_FROM | IN_MOVED_TO |
+                            IN_DONT_FOLLOW | IN_EXCL_UNLINK | IN_ONLYDIR;
+
+// Upper bound on the number of bytes of events drained by a single call to
+// readEvents, so that a process that keeps writing to the watched tree cannot
+// keep us reading forever. Reaching it is reported like an overflow of the
+// kernel queue, since the events left in the queue are not part of the diff.
+const size_t kMaxEventBytes = 64 << 20;
+
+}  // namespace
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_google_devtools_build_lib_skyframe_LinuxInotifyDiffAwareness_createInotify(
+    JNIEnv *env, jclass clazz) {
+  int fd = inotify_init1(IN_NONBLOCK | IN_CLOEXEC);
+  if (fd == -1) {
+    PostException(env, errno, "inotify_init1 (" + ErrorMessage(errno) + ")");
+  }
+  return fd;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_google_devtools_build_lib_skyframe_LinuxInotifyDiffAwareness_addWatch(
+    JNIEnv *env, jclass clazz, jint fd, jbyteArray path) {
+  // The path is passed as raw bytes, so that it does not go through a
+  // different encoding than the one of the java.nio.file.Path it comes from.
+  jsize length = env->GetArrayLength(path);
+  std::string path_str(length, '\0');
+  env->GetByteArrayRegion(path, 0, length,
+                          reinterpret_cast<jbyte *>(&path_str[0]));
+  int wd = inotify_add_watch(fd, path_str.c_str(), kWatchMask);
+  if (wd == -1) {
+    if (errno == ENOSPC) {
+      PostException(env, errno,
+                    path_str +
+                        " (reached the limit on the number of inotify watches;"
+                        " consider raising fs.inotify.max_user_watches)");
+    } else {
+      PostFileException(env, errno, path_str.c_str());
+    }
+  }
+  return wd;
+}
+
+extern "C" JNIEXPORT jbyteArray JNICALL
+Java_com_google_devtools_build_lib_skyframe_LinuxInotifyDiffAwareness_readEvents(
+    JNIEnv *env, jclass clazz, jint fd) {
+  std::vector<char> events;
+  char buf[64 * 1024]
+      __attribute__((aligned(__alignof__(struct inotify_event))));
+  while (true) {
+    if (events.size() >= kMaxEventBytes) {
+      struct inotify_event overflow = {};
+      overflow.wd = -1;
+      overflow.mask = IN_Q_OVERFLOW;
+      const char *p = reinterpret_cast<const char *>(&overflow);
+      events.insert(events.end(), p, p + sizeof(overflow));
+      break;
+    }
+    ssize_t n = read(fd, buf, sizeof(buf));
+    if (n == -1) {
+      if (errno == EINTR) {
+        continue;
+      }
+      if (errno == EAGAIN) {
+        break;
+      }
+      PostException(env, errno, "read (" + ErrorMessage(errno) + ")");
+      return nullptr;
+    }
+    events.insert(events.end(), buf, buf + n);
+  }
+  jbyteArray result = env->NewByteArray(events.size());
+  if (result != nullptr && !events.empty()) {
+    env->SetByteArrayRegion(result, 0, events.size(),
+                            reinterpret_cast<const jbyte *>(events.data()));
+  }
+  return result;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_skyframe_LinuxInotifyDiffAwareness_closeInotify(
+    JNIEnv *env, jclass clazz, jint fd) {
+  if (::close(fd) == -1) {
+    PostException(env, errno, "close (" + ErrorMessage(errno) + ")");
+  }
+}
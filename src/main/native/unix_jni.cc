@@ -20,6 +20,10 @@
 #include <fcntl.h>
 #include <jni.h>
 #include <limits.h>
+#include <poll.h>
+#include <pthread.h>
+#include <signal.h>
+#include <spawn.h>
 #include <stdlib.h>
 #include <string.h>
 #include <sys/resource.h>
@@ -27,12 +31,17 @@
 #include <sys/syscall.h>
 #include <sys/time.h>
 #include <sys/types.h>
+#include <sys/wait.h>
 #include <unistd.h>
 #include <utime.h>
 
 #include <string>
 #include <vector>
 
+#if defined(__APPLE__)
+#include <crt_externs.h>
+#endif
+
 #include "src/main/cpp/util/md5.h"
 #include "src/main/cpp/util/port.h"
 #include "src/main/native/latin1_jni_path.h"
@@ -396,6 +405,112 @@ Java_com_google_devtools_build_lib_unix_NativePosixFiles_errnoLstat(JNIEnv *env,
   return ::StatCommon(env, path, portable_lstat, false);
 }
 
+namespace {
+
+// Minimum number of paths stat()ed by each thread of a batch stat, so that
+// small batches don't pay for creating threads.
+const size_t kMinPathsPerStatThread = 64;
+
+// A slice of a batch stat, stat()ed by a single thread.
+struct StatSlice {
+  const std::vector<std::string> *paths;
+  std::vector<portable_stat_struct> *statbufs;
+  std::vector<int> *errnos;
+  size_t begin;
+  size_t end;
+  bool follow_symlinks;
+};
+
+void *StatSliceRun(void *arg) {
+  StatSlice *slice = static_cast<StatSlice *>(arg);
+  for (size_t i = slice->begin; i < slice->end; i++) {
+    const char *path = (*slice->paths)[i].c_str();
+    portable_stat_struct *statbuf = &(*slice->statbufs)[i];
+    int r;
+    while ((r = slice->follow_symlinks ? portable_stat(path, statbuf)
+                                       : portable_lstat(path, statbuf)) == -1 &&
+           errno == EINTR) {
+    }
+    (*slice->errnos)[i] = r == -1 ? errno : 0;
+  }
+  return NULL;
+}
+
+}  // namespace
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.NativePosixFiles
+ * Method:    errnoStatBatch
+ * Signature: ([Ljava/lang/String;ZI)[Lcom/google/devtools/build/lib/unix/ErrnoFileStatus;
+ */
+extern "C" JNIEXPORT jobjectArray JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixFiles_errnoStatBatch(
+    JNIEnv *env, jclass clazz, jobjectArray paths, jboolean follow_symlinks,
+    jint num_threads) {
+  jclass errno_file_status_class =
+      env->FindClass("com/google/devtools/build/lib/unix/ErrnoFileStatus");
+  CHECK(errno_file_status_class != NULL);
+  size_t length = env->GetArrayLength(paths);
+  std::vector<std::string> path_strings(length);
+  for (size_t i = 0; i < length; i++) {
+    jstring path = static_cast<jstring>(env->GetObjectArrayElement(paths, i));
+    const char *path_chars = GetStringLatin1Chars(env, path);
+    path_strings[i] = path_chars;
+    ::ReleaseStringLatin1Chars(path_chars);
+    env->DeleteLocalRef(path);
+  }
+
+  // The stat()s don't touch the JVM, so they are spread over threads without
+  // attaching them; the results are converted to Java objects afterwards.
+  std::vector<portable_stat_struct> statbufs(length);
+  std::vector<int> errnos(length);
+  size_t slices = (length + kMinPathsPerStatThread - 1) / kMinPathsPerStatThread;
+  if (slices > static_cast<size_t>(num_threads)) {
+    slices = num_threads;
+  }
+  if (slices < 1) {
+    slices = 1;
+  }
+  std::vector<StatSlice> stat_slices(slices);
+  std::vector<pthread_t> threads(slices);
+  std::vector<bool> started(slices, false);
+  for (size_t t = 0; t < slices; t++) {
+    stat_slices[t] = {&path_strings, &statbufs, &errnos, length * t / slices,
+                      length * (t + 1) / slices, follow_symlinks == JNI_TRUE};
+    // The first slice is run by the calling thread, as is any slice for which
+    // no thread could be created.
+    if (t > 0) {
+      started[t] = pthread_create(&threads[t], NULL, StatSliceRun,
+                                  &stat_slices[t]) == 0;
+    }
+  }
+  for (size_t t = 0; t < slices; t++) {
+    if (!started[t]) {
+      StatSliceRun(&stat_slices[t]);
+    }
+  }
+  for (size_t t = 0; t < slices; t++) {
+    if (started[t]) {
+      pthread_join(threads[t], NULL);
+    }
+  }
+
+  jobjectArray result =
+      env->NewObjectArray(length, errno_file_status_class, NULL);
+  if (result == NULL) {
+    return NULL;
+  }
+  for (size_t i = 0; i < length; i++) {
+    jobject status = NewErrnoFileStatus(env, errnos[i], statbufs[i]);
+    if (status == NULL) {
+      return NULL;
+    }
+    env->SetObjectArrayElement(result, i, status);
+    env->DeleteLocalRef(status);
+  }
+  return result;
+}
+
 /*
  * Class:     com.google.devtools.build.lib.unix.NativePosixFiles
  * Method:    utime
@@ -684,6 +799,191 @@ Java_com_google_devtools_build_lib_unix_NativePosixFiles_readdir(JNIEnv *env,
   return NewDirents(env, names_obj, types_obj);
 }
 
+static jobject NewDirentsWithStats(JNIEnv *env,
+                                   jobjectArray names,
+                                   jbyteArray types,
+                                   jobjectArray stats) {
+  static jclass dirents_class = NULL;
+  if (dirents_class == NULL) {  // note: harmless race condition
+    jclass local = env->FindClass("com/google/devtools/build/lib/unix/NativePosixFiles$Dirents");
+    CHECK(local != NULL);
+    dirents_class = static_cast<jclass>(env->NewGlobalRef(local));
+  }
+
+  static jmethodID ctor = NULL;
+  if (ctor == NULL) {  // note: harmless race condition
+    ctor = env->GetMethodID(
+        dirents_class, "<init>",
+        "([Ljava/lang/String;[B[Lcom/google/devtools/build/lib/unix/ErrnoFileStatus;)V");
+    CHECK(ctor != NULL);
+  }
+
+  return env->NewObject(dirents_class, ctor, names, types, stats);
+}
+
+// Stats the entry "name" of the directory open as dirfd, which is at
+// dir_path. Returns 0 on success and -1 with errno set otherwise.
+static int StatDirent(int dirfd, const char *dir_path, char *name,
+                      portable_stat_struct *statbuf, bool follow_symlinks) {
+  int r;
+  while ((r = portable_fstatat(dirfd, name, statbuf,
+                               follow_symlinks ? 0 : AT_SYMLINK_NOFOLLOW)) ==
+             -1 &&
+         errno == EINTR) {
+  }
+  if (r == -1 && errno == ENOSYS) {
+    // Not every platform has fstatat(2) with all of its flags.
+    std::string path = std::string(dir_path) + "/" + name;
+    while ((r = follow_symlinks ? portable_stat(path.c_str(), statbuf)
+                                : portable_lstat(path.c_str(), statbuf)) ==
+               -1 &&
+           errno == EINTR) {
+    }
+  }
+  return r;
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.NativePosixFiles
+ * Method:    readdirWithStats
+ * Signature: (Ljava/lang/String;Z)Lcom/google/devtools/build/lib/unix/NativePosixFiles$Dirents;
+ * Throws:    java.io.IOException
+ */
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixFiles_readdirWithStats(
+    JNIEnv *env, jclass clazz, jstring path, jboolean follow_symlinks) {
+  const char *path_chars = GetStringLatin1Chars(env, path);
+  DIR *dirh;
+  while ((dirh = ::opendir(path_chars)) == NULL && errno == EINTR) { }
+  if (dirh == NULL) {
+    ::PostFileException(env, errno, path_chars);
+    ReleaseStringLatin1Chars(path_chars);
+    return NULL;
+  }
+  int fd = dirfd(dirh);
+
+  std::vector<std::string> entries;
+  std::vector<jbyte> types;
+  std::vector<portable_stat_struct> statbufs;
+  std::vector<int> errnos;
+  std::vector<bool> symlinks;
+  for (;;) {
+    errno = 0;
+    struct dirent *entry = ::readdir(dirh);
+    if (entry == NULL) {
+      if (errno == 0) break;  // EOF
+      if (errno == EINTR) continue;  // interrupted by a signal
+      if (errno == EIO) continue;  // glibc returns this on transient errors
+      ::PostFileException(env, errno, path_chars);
+      ::closedir(dirh);
+      ReleaseStringLatin1Chars(path_chars);
+      return NULL;
+    }
+    // Omit . and .. from results.
+    if (entry->d_name[0] == '.') {
+      if (entry->d_name[1] == '\0') continue;
+      if (entry->d_name[1] == '.' && entry->d_name[2] == '\0') continue;
+    }
+
+    // The type never follows symlinks. If readdir() doesn't know it, it is
+    // taken from an lstat(). Only symlinks are stat()ed otherwise; the types
+    // of all other entries are all callers need.
+    portable_stat_struct statbuf = {};
+    int stat_errno = 0;
+    bool have_stat = false;
+    char type;
+    switch (entry->d_type) {
+      case DT_REG:
+        type = 'f';
+        break;
+      case DT_DIR:
+        type = 'd';
+        break;
+      case DT_LNK:
+        type = 's';
+        break;
+      case DT_UNKNOWN:
+        if (StatDirent(fd, path_chars, entry->d_name, &statbuf, false) == -1) {
+          type = '?';
+        } else if (S_ISREG(statbuf.st_mode)) {
+          type = 'f';
+        } else if (S_ISDIR(statbuf.st_mode)) {
+          type = 'd';
+        } else if (S_ISLNK(statbuf.st_mode)) {
+          type = 's';
+          // The lstat() is also the stat of the symlink if it isn't followed.
+          have_stat = !follow_symlinks;
+        } else {
+          type = '?';
+        }
+        break;
+      default:
+        type = '?';
+        break;
+    }
+    bool is_symlink = type == 's';
+    if (is_symlink && !have_stat &&
+        StatDirent(fd, path_chars, entry->d_name, &statbuf,
+                   follow_symlinks == JNI_TRUE) == -1) {
+      stat_errno = errno;
+    }
+
+    entries.push_back(entry->d_name);
+    types.push_back(type);
+    statbufs.push_back(statbuf);
+    errnos.push_back(stat_errno);
+    symlinks.push_back(is_symlink);
+  }
+
+  if (::closedir(dirh) < 0 && errno != EINTR) {
+    ::PostFileException(env, errno, path_chars);
+    ReleaseStringLatin1Chars(path_chars);
+    return NULL;
+  }
+  ReleaseStringLatin1Chars(path_chars);
+
+  size_t len = entries.size();
+  jclass jlStringClass = env->GetObjectClass(path);
+  jobjectArray names_obj = env->NewObjectArray(len, jlStringClass, NULL);
+  if (names_obj == NULL && env->ExceptionOccurred()) {
+    return NULL;  // async exception!
+  }
+  jclass errno_file_status_class =
+      env->FindClass("com/google/devtools/build/lib/unix/ErrnoFileStatus");
+  CHECK(errno_file_status_class != NULL);
+  jobjectArray stats_obj =
+      env->NewObjectArray(len, errno_file_status_class, NULL);
+  if (stats_obj == NULL && env->ExceptionOccurred()) {
+    return NULL;  // async exception!
+  }
+
+  for (size_t ii = 0; ii < len; ++ii) {
+    jstring s = NewStringLatin1(env, entries[ii].c_str());
+    if (s == NULL && env->ExceptionOccurred()) {
+      return NULL;  // async exception!
+    }
+    env->SetObjectArrayElement(names_obj, ii, s);
+    env->DeleteLocalRef(s);
+    if (!symlinks[ii]) {
+      continue;  // Leave the stat null.
+    }
+    jobject status = NewErrnoFileStatus(env, errnos[ii], statbufs[ii]);
+    if (status == NULL) {
+      return NULL;
+    }
+    env->SetObjectArrayElement(stats_obj, ii, status);
+    env->DeleteLocalRef(status);
+  }
+
+  jbyteArray types_obj = env->NewByteArray(len);
+  CHECK(types_obj);
+  if (len > 0) {
+    env->SetByteArrayRegion(types_obj, 0, len, &types[0]);
+  }
+
+  return NewDirentsWithStats(env, names_obj, types_obj, stats_obj);
+}
+
 /*
  * Class:     com.google.devtools.build.lib.unix.NativePosixFiles
  * Method:    rename
@@ -710,6 +1010,76 @@ Java_com_google_devtools_build_lib_unix_NativePosixFiles_rename(JNIEnv *env,
   ReleaseStringLatin1Chars(newpath_chars);
 }
 
+namespace {
+
+// Copies the rest of the file open as in_fd to out_fd through a buffer.
+// Returns 0 on success and -1 with errno set otherwise.
+int CopyFileContentsWithReadWrite(int in_fd, int out_fd) {
+  char buf[64 * 1024];
+  for (;;) {
+    ssize_t n = read(in_fd, buf, sizeof buf);
+    if (n == 0) {
+      return 0;
+    } else if (n == -1) {
+      if (errno == EINTR) {
+        continue;
+      }
+      return -1;
+    }
+    for (ssize_t written = 0; written < n;) {
+      ssize_t w = write(out_fd, buf + written, n - written);
+      if (w == -1) {
+        if (errno == EINTR) {
+          continue;
+        }
+        return -1;
+      }
+      written += w;
+    }
+  }
+}
+
+}  // namespace
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.NativePosixFiles
+ * Method:    copyFileContents
+ * Signature: (Ljava/lang/String;Ljava/lang/String;)V
+ * Throws:    java.io.IOException
+ */
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixFiles_copyFileContents(
+    JNIEnv *env, jclass clazz, jstring from, jstring to) {
+  const char *from_chars = GetStringLatin1Chars(env, from);
+  const char *to_chars = GetStringLatin1Chars(env, to);
+  int in_fd = open(from_chars, O_RDONLY | O_CLOEXEC);
+  if (in_fd == -1) {
+    ::PostFileException(env, errno, from_chars);
+  } else {
+    // The same mode as java.io.FileOutputStream, so that copies don't depend on
+    // whether they are made natively.
+    int out_fd = open(to_chars, O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0666);
+    if (out_fd == -1) {
+      ::PostFileException(env, errno, to_chars);
+    } else {
+      int r = portable_copy_file_contents(in_fd, out_fd);
+      if (r == -1 && errno == ENOSYS) {
+        r = CopyFileContentsWithReadWrite(in_fd, out_fd);
+      }
+      if (r == -1) {
+        std::string filename(std::string(from_chars) + " -> " + to_chars);
+        ::PostFileException(env, errno, filename.c_str());
+      }
+      if (close(out_fd) == -1 && r != -1) {
+        ::PostFileException(env, errno, to_chars);
+      }
+    }
+    close(in_fd);
+  }
+  ReleaseStringLatin1Chars(from_chars);
+  ReleaseStringLatin1Chars(to_chars);
+}
+
 /*
  * Class:     com.google.devtools.build.lib.unix.NativePosixFiles
  * Method:    remove
@@ -1076,6 +1446,38 @@ Java_com_google_devtools_build_lib_unix_NativePosixFiles_write(
   free(buf);
 }
 
+extern "C" JNIEXPORT jint JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixFiles_read(
+    JNIEnv *env, jclass clazz, jint fd, jbyteArray data, jint off, jint len) {
+  int data_len = env->GetArrayLength(data);
+  if (off < 0 || len < 0 || off > data_len || data_len - off < len) {
+    jclass oob = env->FindClass("java/lang/IndexOutOfBoundsException");
+    if (oob != nullptr) {
+      env->ThrowNew(oob, nullptr);
+    }
+    return -1;
+  }
+  if (len == 0) {
+    return 0;
+  }
+  jbyte buf[8192];
+  if (len > static_cast<jint>(sizeof buf)) {
+    len = sizeof buf;
+  }
+  ssize_t res;
+  while ((res = read(fd, buf, len)) == -1 && errno == EINTR) {
+  }
+  if (res == -1) {
+    ::PostException(env, errno, "reading file failed");
+    return -1;
+  }
+  if (res == 0) {
+    return -1;  // EOF
+  }
+  env->SetByteArrayRegion(data, off, res, buf);
+  return res;
+}
+
 // Computes MD5 digest of "file", writes result in "result", which
 // must be of length Md5Digest::kDigestLength.  Returns zero on success, or
 // -1 (and sets errno) otherwise.
@@ -1141,3 +1543,306 @@ Java_com_google_devtools_build_lib_unix_NativePosixSystem_sysctlbynameGetLong(
   ReleaseStringLatin1Chars(name_chars);
   return (jlong)r;
 }
+
+#if defined(__APPLE__)
+// Shared libraries can't refer to environ directly on macOS.
+#define environ (*_NSGetEnviron())
+#else
+extern char **environ;
+#endif
+
+// Converts a Java string array to Latin1 strings. Returns false iff an
+// exception was thrown.
+static bool GetStringArrayLatin1Chars(JNIEnv *env, jobjectArray array,
+                                      std::vector<std::string> *result) {
+  jsize length = env->GetArrayLength(array);
+  for (jsize i = 0; i < length; ++i) {
+    jstring element = static_cast<jstring>(env->GetObjectArrayElement(array, i));
+    if (element == nullptr) {
+      jclass npe = env->FindClass("java/lang/NullPointerException");
+      if (npe != nullptr) {
+        env->ThrowNew(npe, nullptr);
+      }
+      return false;
+    }
+    const char *chars = GetStringLatin1Chars(env, element);
+    if (chars == nullptr) {
+      return false;
+    }
+    result->push_back(chars);
+    ReleaseStringLatin1Chars(chars);
+    env->DeleteLocalRef(element);
+  }
+  return true;
+}
+
+// Returns the nul-terminated array of pointers to "strings" that execve(2)
+// expects. Valid as long as "strings" isn't modified.
+static std::vector<char *> ToCharPointers(std::vector<std::string> *strings) {
+  std::vector<char *> result;
+  for (std::string &s : *strings) {
+    result.push_back(&s[0]);
+  }
+  result.push_back(nullptr);
+  return result;
+}
+
+static void ClosePipe(int pipe_fds[2]) {
+  for (int i = 0; i < 2; ++i) {
+    if (pipe_fds[i] != -1) {
+      close(pipe_fds[i]);
+      pipe_fds[i] = -1;
+    }
+  }
+}
+
+// Creates a pipe whose ends are closed on exec, so that no child but the one
+// it was created for inherits them. Returns 0 on success and an error number
+// otherwise.
+static int CloexecPipe(int pipe_fds[2]) {
+#if defined(__linux__) || defined(__FreeBSD__)
+  if (pipe2(pipe_fds, O_CLOEXEC) == -1) {
+    return errno;
+  }
+#else
+  if (pipe(pipe_fds) == -1) {
+    return errno;
+  }
+  if (fcntl(pipe_fds[0], F_SETFD, FD_CLOEXEC) == -1 ||
+      fcntl(pipe_fds[1], F_SETFD, FD_CLOEXEC) == -1) {
+    int err = errno;
+    ClosePipe(pipe_fds);
+    return err;
+  }
+#endif
+  return 0;
+}
+
+// Sets up the file descriptor "target_fd" of the child: it becomes the write
+// end of "pipe_fds" if "file" is null, or "file" opened for appending
+// otherwise. Returns 0 on success and an error number otherwise.
+static int AddOutputAction(posix_spawn_file_actions_t *actions, int target_fd,
+                           const char *file, int pipe_fds[2]) {
+  if (file == nullptr) {
+    int err = CloexecPipe(pipe_fds);
+    if (err != 0) {
+      return err;
+    }
+    return posix_spawn_file_actions_adddup2(actions, pipe_fds[1], target_fd);
+  }
+  return posix_spawn_file_actions_addopen(
+      actions, target_fd, file, O_WRONLY | O_CREAT | O_APPEND, 0666);
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixProcesses_isSpawnSupported(
+    JNIEnv *env, jclass clazz) {
+  posix_spawn_file_actions_t actions;
+  posix_spawnattr_t attr;
+  if (posix_spawn_file_actions_init(&actions) != 0) {
+    return false;
+  }
+  if (posix_spawnattr_init(&attr) != 0) {
+    posix_spawn_file_actions_destroy(&actions);
+    return false;
+  }
+  bool supported = portable_prepare_spawn(&actions, &attr, "/") == 0;
+  posix_spawnattr_destroy(&attr);
+  posix_spawn_file_actions_destroy(&actions);
+  return supported;
+}
+
+extern "C" JNIEXPORT jintArray JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixProcesses_spawn(
+    JNIEnv *env, jclass clazz, jobjectArray argv, jobjectArray envp,
+    jstring working_directory, jstring stdout_file, jstring stderr_file,
+    jboolean redirect_error_stream) {
+  std::vector<std::string> argv_strings;
+  std::vector<std::string> envp_strings;
+  if (!GetStringArrayLatin1Chars(env, argv, &argv_strings) ||
+      (envp != nullptr &&
+       !GetStringArrayLatin1Chars(env, envp, &envp_strings))) {
+    return nullptr;
+  }
+  if (argv_strings.empty()) {
+    ::PostException(env, EINVAL, "empty argv");
+    return nullptr;
+  }
+  std::vector<char *> argv_chars = ToCharPointers(&argv_strings);
+  std::vector<char *> envp_chars = ToCharPointers(&envp_strings);
+
+  const char *dir_chars = GetStringLatin1Chars(env, working_directory);
+  const char *stdout_chars =
+      stdout_file == nullptr ? nullptr : GetStringLatin1Chars(env, stdout_file);
+  const char *stderr_chars =
+      stderr_file == nullptr ? nullptr : GetStringLatin1Chars(env, stderr_file);
+
+  int stdin_pipe[2] = {-1, -1};
+  int stdout_pipe[2] = {-1, -1};
+  int stderr_pipe[2] = {-1, -1};
+  posix_spawn_file_actions_t actions;
+  posix_spawnattr_t attr;
+  posix_spawn_file_actions_init(&actions);
+  posix_spawnattr_init(&attr);
+
+  // The JVM blocks and handles signals the child must not inherit.
+  sigset_t no_signals;
+  sigset_t all_signals;
+  sigemptyset(&no_signals);
+  sigfillset(&all_signals);
+  sigdelset(&all_signals, SIGKILL);
+  sigdelset(&all_signals, SIGSTOP);
+  posix_spawnattr_setsigmask(&attr, &no_signals);
+  posix_spawnattr_setsigdefault(&attr, &all_signals);
+  posix_spawnattr_setflags(&attr, POSIX_SPAWN_SETSIGMASK | POSIX_SPAWN_SETSIGDEF);
+
+  // The file actions run in order, so the output files are opened relative to
+  // our working directory, like java.lang.ProcessBuilder does.
+  int err = CloexecPipe(stdin_pipe);
+  if (err == 0) {
+    err = posix_spawn_file_actions_adddup2(&actions, stdin_pipe[0],
+                                           STDIN_FILENO);
+  }
+  if (err == 0) {
+    err = AddOutputAction(&actions, STDOUT_FILENO, stdout_chars, stdout_pipe);
+  }
+  if (err == 0) {
+    err = redirect_error_stream
+              ? posix_spawn_file_actions_adddup2(&actions, STDOUT_FILENO,
+                                                 STDERR_FILENO)
+              : AddOutputAction(&actions, STDERR_FILENO, stderr_chars,
+                                stderr_pipe);
+  }
+  if (err == 0 && portable_prepare_spawn(&actions, &attr, dir_chars) == -1) {
+    err = errno;
+  }
+
+  pid_t pid = -1;
+  if (err == 0) {
+    // posix_spawnp(3) searches the PATH of this process, like
+    // java.lang.ProcessBuilder does, not the one in "envp".
+    err = posix_spawnp(&pid, argv_chars[0], &actions, &attr, argv_chars.data(),
+                       envp == nullptr ? environ : envp_chars.data());
+  }
+  posix_spawnattr_destroy(&attr);
+  posix_spawn_file_actions_destroy(&actions);
+
+  jintArray result = nullptr;
+  if (err == 0) {
+    // Only the child uses these ends.
+    close(stdin_pipe[0]);
+    if (stdout_pipe[1] != -1) {
+      close(stdout_pipe[1]);
+    }
+    if (stderr_pipe[1] != -1) {
+      close(stderr_pipe[1]);
+    }
+    jint fds[4] = {pid, stdin_pipe[1], stdout_pipe[0], stderr_pipe[0]};
+    result = env->NewIntArray(4);
+    if (result != nullptr) {
+      env->SetIntArrayRegion(result, 0, 4, fds);
+    }
+  } else {
+    ClosePipe(stdin_pipe);
+    ClosePipe(stdout_pipe);
+    ClosePipe(stderr_pipe);
+    ::PostException(env, err,
+                    std::string("Cannot run program \"") + argv_chars[0] +
+                        "\" (in directory \"" + dir_chars +
+                        "\"): " + ErrorMessage(err));
+  }
+  ReleaseStringLatin1Chars(dir_chars);
+  if (stdout_chars != nullptr) {
+    ReleaseStringLatin1Chars(stdout_chars);
+  }
+  if (stderr_chars != nullptr) {
+    ReleaseStringLatin1Chars(stderr_chars);
+  }
+  return result;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixProcesses_waitForExit(
+    JNIEnv *env, jclass clazz, jint pid) {
+  // WNOWAIT leaves the process a zombie, so that its pid can't be reused
+  // before the caller reaps it.
+  siginfo_t info;
+  while (waitid(P_PID, pid, &info, WEXITED | WNOWAIT) == -1) {
+    if (errno != EINTR) {
+      ::PostException(env, errno, "waitid");
+      return;
+    }
+  }
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixProcesses_reap(
+    JNIEnv *env, jclass clazz, jint pid) {
+  int status;
+  while (waitpid(pid, &status, 0) == -1) {
+    if (errno != EINTR) {
+      ::PostException(env, errno, "waitpid");
+      return -1;
+    }
+  }
+  // The same encoding as java.lang.Process#exitValue.
+  if (WIFSIGNALED(status)) {
+    return 128 + WTERMSIG(status);
+  }
+  return WEXITSTATUS(status);
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixProcesses_terminate(
+    JNIEnv *env, jclass clazz, jint pid) {
+  if (kill(pid, SIGTERM) == -1 && errno != ESRCH) {
+    ::PostException(env, errno, "kill");
+  }
+}
+
+extern "C" JNIEXPORT jintArray JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixProcesses_pipe(
+    JNIEnv *env, jclass clazz) {
+  int pipe_fds[2];
+  int err = CloexecPipe(pipe_fds);
+  if (err != 0) {
+    ::PostException(env, err, "pipe");
+    return nullptr;
+  }
+  jintArray result = env->NewIntArray(2);
+  if (result == nullptr) {
+    ClosePipe(pipe_fds);
+    return nullptr;
+  }
+  env->SetIntArrayRegion(result, 0, 2, pipe_fds);
+  return result;
+}
+
+extern "C" JNIEXPORT jintArray JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixProcesses_poll(
+    JNIEnv *env, jclass clazz, jintArray fds, jint timeout_millis) {
+  jsize count = env->GetArrayLength(fds);
+  std::vector<jint> fd_values(count);
+  env->GetIntArrayRegion(fds, 0, count, fd_values.data());
+  std::vector<struct pollfd> poll_fds(count);
+  for (jsize i = 0; i < count; ++i) {
+    poll_fds[i].fd = fd_values[i];
+    poll_fds[i].events = POLLIN;
+    poll_fds[i].revents = 0;
+  }
+  while (poll(poll_fds.data(), count, timeout_millis) == -1) {
+    if (errno != EINTR) {
+      ::PostException(env, errno, "poll");
+      return nullptr;
+    }
+  }
+  jintArray result = env->NewIntArray(count);
+  if (result == nullptr) {
+    return nullptr;
+  }
+  for (jsize i = 0; i < count; ++i) {
+    fd_values[i] = poll_fds[i].revents;
+  }
+  env->SetIntArrayRegion(result, 0, count, fd_values.data());
+  return result;
+}
@@ -18,6 +18,7 @@
 #define BAZEL_SRC_MAIN_NATIVE_UNIX_JNI_H__
 
 #include <jni.h>
+#include <spawn.h>
 #include <sys/stat.h>
 
 #include <string>
@@ -98,4 +99,18 @@ ssize_t portable_lgetxattr(const char *path, const char *name, void *value,
 // Run sysctlbyname(3), only available on darwin
 int portable_sysctlbyname(const char *name_chars, long *mibp, size_t *sizep);
 
+// Copies the contents of the file open as in_fd to the empty file open as
+// out_fd, both at offset 0, without moving the data through user space, e.g.
+// with copy-on-write clones or in-kernel copies. Returns 0 on success and -1
+// with errno set otherwise. If neither the platform nor the files support such
+// copies, errno is ENOSYS and nothing was copied.
+int portable_copy_file_contents(int in_fd, int out_fd);
+
+// Makes a child started by posix_spawn(3) with "actions" and "attr" change
+// into "dir" and close all file descriptors but the ones "actions" sets up.
+// Returns 0 on success and -1 with errno set otherwise. If the platform's
+// posix_spawn(3) can't do either, errno is ENOSYS.
+int portable_prepare_spawn(posix_spawn_file_actions_t *actions,
+                           posix_spawnattr_t *attr, const char *dir);
+
 #endif  // BAZEL_SRC_MAIN_NATIVE_UNIX_JNI_H__
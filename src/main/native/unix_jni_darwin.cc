@@ -17,6 +17,7 @@
 #include <assert.h>
 #include <errno.h>
 #include <fcntl.h>
+#include <spawn.h>
 #include <stdlib.h>
 #include <string.h>
 #include <sys/stat.h>
@@ -120,3 +121,34 @@ ssize_t portable_lgetxattr(const char *path, const char *name, void *value,
 int portable_sysctlbyname(const char *name_chars, long *mibp, size_t *sizep) {
   return sysctlbyname(name_chars, mibp, sizep, NULL, 0);
 }
+
+int portable_copy_file_contents(int in_fd, int out_fd) {
+  errno = ENOSYS;
+  return -1;
+}
+
+int portable_prepare_spawn(posix_spawn_file_actions_t *actions,
+                           posix_spawnattr_t *attr, const char *dir) {
+  int err;
+  if (__builtin_available(macOS 10.15, *)) {
+    err = posix_spawn_file_actions_addchdir_np(actions, dir);
+  } else {
+    // Without it, the child can't start in another directory than ours.
+    errno = ENOSYS;
+    return -1;
+  }
+  if (err == 0) {
+    // Unlike on Linux, this is a flag of the spawn attributes: all file
+    // descriptors not set up by the file actions are closed.
+    short flags;
+    err = posix_spawnattr_getflags(attr, &flags);
+    if (err == 0) {
+      err = posix_spawnattr_setflags(attr, flags | POSIX_SPAWN_CLOEXEC_DEFAULT);
+    }
+  }
+  if (err != 0) {
+    errno = err;
+    return -1;
+  }
+  return 0;
+}
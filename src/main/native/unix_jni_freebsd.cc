@@ -89,3 +89,14 @@ ssize_t portable_lgetxattr(const char *path, const char *name, void *value,
 int portable_sysctlbyname(const char *name_chars, long *mibp, size_t *sizep) {
   return sysctlbyname(name_chars, mibp, sizep, NULL, 0);
 }
+
+int portable_copy_file_contents(int in_fd, int out_fd) {
+  errno = ENOSYS;
+  return -1;
+}
+
+int portable_prepare_spawn(posix_spawn_file_actions_t *actions,
+                           posix_spawnattr_t *attr, const char *dir) {
+  errno = ENOSYS;
+  return -1;
+}
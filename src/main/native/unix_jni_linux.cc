@@ -14,11 +14,18 @@
 
 #include "src/main/native/unix_jni.h"
 
+#include <dlfcn.h>
 #include <errno.h>
+#include <linux/fs.h>
+#include <spawn.h>
 #include <stdlib.h>
 #include <string.h>
+#include <sys/ioctl.h>
+#include <sys/sendfile.h>
 #include <sys/stat.h>
+#include <sys/syscall.h>
 #include <sys/xattr.h>
+#include <unistd.h>
 
 #include <string>
 
@@ -91,3 +98,112 @@ int portable_sysctlbyname(const char *name_chars, long *mibp, size_t *sizep) {
   errno = ENOSYS;
   return -1;
 }
+
+namespace {
+
+// The maximum number of bytes copied by each copy_file_range(2) or sendfile(2)
+// call.
+const size_t kCopyChunkSize = 1 << 30;
+
+// Returns whether copy_file_range(2) or sendfile(2) failed because the kernel
+// or the files don't support it, rather than because of an I/O error.
+bool IsUnsupportedCopy(int error_number) {
+  return error_number == ENOSYS || error_number == EXDEV ||
+         error_number == EINVAL || error_number == EOPNOTSUPP;
+}
+
+}  // namespace
+
+int portable_copy_file_contents(int in_fd, int out_fd) {
+  struct stat64 statbuf;
+  if (fstat64(in_fd, &statbuf) == -1) {
+    return -1;
+  }
+  // Files in pseudo file systems like /proc have a size of 0 but contents
+  // nonetheless, which only read(2) reliably returns.
+  if (!S_ISREG(statbuf.st_mode) || statbuf.st_size == 0) {
+    errno = ENOSYS;
+    return -1;
+  }
+
+#ifdef FICLONE
+  // On copy-on-write file systems (btrfs, xfs) the copy shares the extents of
+  // the source. Any failure means that cloning isn't supported for these files.
+  if (ioctl(out_fd, FICLONE, in_fd) == 0) {
+    return 0;
+  }
+#endif
+
+  bool copied = false;
+#ifdef __NR_copy_file_range
+  // Called through syscall(2) as older C libraries don't wrap it.
+  for (;;) {
+    ssize_t n = syscall(__NR_copy_file_range, in_fd, NULL, out_fd, NULL,
+                        kCopyChunkSize, 0);
+    if (n > 0) {
+      copied = true;
+    } else if (n == 0) {
+      if (copied) {
+        return 0;
+      }
+      // Some kernels silently copy nothing between different file systems.
+      break;
+    } else if (errno != EINTR) {
+      if (copied || !IsUnsupportedCopy(errno)) {
+        return -1;
+      }
+      break;
+    }
+  }
+#endif
+
+  for (;;) {
+    ssize_t n = sendfile(out_fd, in_fd, NULL, kCopyChunkSize);
+    if (n > 0) {
+      copied = true;
+    } else if (n == 0) {
+      if (copied) {
+        return 0;
+      }
+      break;
+    } else if (errno != EINTR) {
+      if (copied || !IsUnsupportedCopy(errno)) {
+        return -1;
+      }
+      break;
+    }
+  }
+
+  errno = ENOSYS;
+  return -1;
+}
+
+// The non-portable file actions that portable_prepare_spawn() needs. They
+// are looked up when the library is loaded rather than linked, since the C
+// library at run time may be older than the one at build time:
+// posix_spawn_file_actions_addchdir_np() is in glibc 2.29 and musl 1.1.24,
+// posix_spawn_file_actions_addclosefrom_np() only in glibc 2.34.
+typedef int (*AddChdirFn)(posix_spawn_file_actions_t *, const char *);
+typedef int (*AddClosefromFn)(posix_spawn_file_actions_t *, int);
+
+static const AddChdirFn kAddChdir = reinterpret_cast<AddChdirFn>(
+    dlsym(RTLD_DEFAULT, "posix_spawn_file_actions_addchdir_np"));
+static const AddClosefromFn kAddClosefrom = reinterpret_cast<AddClosefromFn>(
+    dlsym(RTLD_DEFAULT, "posix_spawn_file_actions_addclosefrom_np"));
+
+int portable_prepare_spawn(posix_spawn_file_actions_t *actions,
+                           posix_spawnattr_t *attr, const char *dir) {
+  if (kAddChdir == NULL || kAddClosefrom == NULL) {
+    errno = ENOSYS;
+    return -1;
+  }
+  int err = kAddChdir(actions, dir);
+  if (err == 0) {
+    err = kAddClosefrom(actions, STDERR_FILENO + 1);
+  }
+  if (err != 0) {
+    errno = err;
+    return -1;
+  }
+  return 0;
+}
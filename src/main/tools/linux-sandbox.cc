@@ -35,6 +35,8 @@
  *  - The hostname and domainname will be set to "sandbox".
  *  - The process runs in its own PID namespace, so other processes on the
  *    system are invisible.
+ *  - If option -C is passed, the process and all of its children run in the
+ *    given cgroup.
  */
 
 #include "src/main/tools/linux-sandbox.h"
@@ -223,6 +225,12 @@ int main(int argc, char *argv[]) {
 
   CloseFds();
 
+  // Join the cgroup before cloning, so that linux-sandbox-pid1 and everything
+  // it starts inherit it.
+  if (!opt.cgroup_path.empty() && !JoinCgroup(opt.cgroup_path)) {
+    PRINT_DEBUG("could not join cgroup %s", opt.cgroup_path.c_str());
+  }
+
   if (opt.timeout_secs > 0) {
     InstallSignalHandler(SIGALRM, OnTimeout);
     SetTimeout(opt.timeout_secs);
@@ -29,6 +29,7 @@
 #include <unistd.h>
 
 #include <memory>
+#include <string>
 
 #include "src/main/protobuf/execution_statistics.pb.h"
 #include "src/main/tools/logging.h"
@@ -264,3 +265,18 @@ void WriteStatsToFile(struct rusage *rusage, const std::string &stats_path) {
 
   close(fd_out);
 }
+
+bool JoinCgroup(const std::string &cgroup_path) {
+  std::string procs_path = cgroup_path + "/cgroup.procs";
+  int fd = open(procs_path.c_str(), O_WRONLY | O_CLOEXEC);
+  if (fd < 0) {
+    return false;
+  }
+  std::string pid = std::to_string(getpid());
+  ssize_t written;
+  do {
+    written = write(fd, pid.c_str(), pid.size());
+  } while (written < 0 && errno == EINTR);
+  close(fd);
+  return written == static_cast<ssize_t>(pid.size());
+}
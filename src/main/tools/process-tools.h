@@ -65,4 +65,10 @@ int WaitChildWithRusage(pid_t pid, struct rusage *rusage);
 // Write execution statistics to a file.
 void WriteStatsToFile(struct rusage *rusage, const std::string &stats_path);
 
+// Move this process into the cgroup v2 directory "cgroup_path", so that all
+// processes it starts afterwards are accounted for and limited in that cgroup.
+// Returns false and leaves the process where it is if that fails, e.g. because
+// the cgroup doesn't exist.
+bool JoinCgroup(const std::string &cgroup_path);
+
 #endif  // PROCESS_TOOLS_H__
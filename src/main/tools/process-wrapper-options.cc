@@ -46,6 +46,8 @@ static void Usage(char *program_name, const char *fmt, ...) {
       "  -o/--stdout <file>  redirect stdout to a file\n"
       "  -e/--stderr <file>  redirect stderr to a file\n"
       "  -s/--stats <file>  if set, write stats in protobuf format to a file\n"
+      "  -c/--cgroup <dir>  if set, run the command in this cgroup v2 "
+      "directory\n"
       "  -d/--debug  if set, debug info will be printed\n"
       "  --  command to run inside sandbox, followed by arguments\n");
   exit(EXIT_FAILURE);
@@ -60,13 +62,14 @@ static void ParseCommandLine(const std::vector<char *> &args) {
       {"stdout", required_argument, 0, 'o'},
       {"stderr", required_argument, 0, 'e'},
       {"stats", required_argument, 0, 's'},
+      {"cgroup", required_argument, 0, 'c'},
       {"debug", no_argument, 0, 'd'},
       {0, 0, 0, 0}};
   extern char *optarg;
   extern int optind, optopt;
   int c;
 
-  while ((c = getopt_long(args.size(), args.data(), "+:t:k:o:e:s:d",
+  while ((c = getopt_long(args.size(), args.data(), "+:t:k:o:e:s:c:d",
                           long_options, nullptr)) != -1) {
     switch (c) {
       case 't':
@@ -103,6 +106,13 @@ static void ParseCommandLine(const std::vector<char *> &args) {
                 "Cannot write stats (-s) to more than one destination.");
         }
         break;
+      case 'c':
+        if (opt.cgroup_path.empty()) {
+          opt.cgroup_path.assign(optarg);
+        } else {
+          Usage(args.front(), "Cannot run in more than one cgroup (-c).");
+        }
+        break;
       case 'd':
         opt.debug = true;
         break;
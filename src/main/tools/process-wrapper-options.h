@@ -32,6 +32,8 @@ struct Options {
   bool debug;
   // Where to write stats, in protobuf format (-s)
   std::string stats_path;
+  // The cgroup v2 directory to run the command in (-c)
+  std::string cgroup_path;
   // Command to run (--)
   std::vector<char *> args;
 };
@@ -49,6 +49,12 @@ int main(int argc, char *argv[]) {
   SwitchToEuid();
   SwitchToEgid();
 
+  // The cgroup is only there to limit and account for resources, so run the
+  // command without it rather than not at all if it is gone.
+  if (!opt.cgroup_path.empty()) {
+    JoinCgroup(opt.cgroup_path);
+  }
+
   Redirect(opt.stdout_path, STDOUT_FILENO);
   Redirect(opt.stderr_path, STDERR_FILENO);
 
@@ -120,6 +120,34 @@ public class ArtifactTest {
     assertThat(Artifact.EXEC_PATH_COMPARATOR.compare(bArtifact, aArtifact)).isEqualTo(1);
   }
 
+  @Test
+  public void testCompactExecPaths() {
+    PathFragment aPath = PathFragment.create("src/a");
+    PathFragment bPath = PathFragment.create("src/b");
+    Artifact aArtifact = ActionsTestUtil.createArtifactWithRootRelativePath(rootDir, aPath);
+    Artifact.setCompactExecPaths(true);
+    Artifact compactAArtifact;
+    Artifact compactBArtifact;
+    try {
+      compactAArtifact = ActionsTestUtil.createArtifactWithRootRelativePath(rootDir, aPath);
+      compactBArtifact = ActionsTestUtil.createArtifactWithRootRelativePath(rootDir, bPath);
+    } finally {
+      Artifact.setCompactExecPaths(false);
+    }
+
+    assertThat(compactAArtifact.getExecPath()).isEqualTo(aArtifact.getExecPath());
+    assertThat(compactAArtifact.getRootRelativePath()).isEqualTo(aPath);
+    assertThat(compactAArtifact).isEqualTo(aArtifact);
+    assertThat(aArtifact).isEqualTo(compactAArtifact);
+    assertThat(compactAArtifact.hashCode()).isEqualTo(aArtifact.hashCode());
+    assertThat(compactAArtifact).isNotEqualTo(compactBArtifact);
+    assertThat(Artifact.EXEC_PATH_COMPARATOR.compare(compactAArtifact, compactBArtifact))
+        .isLessThan(0);
+    assertThat(Artifact.EXEC_PATH_COMPARATOR.compare(compactBArtifact, aArtifact))
+        .isGreaterThan(0);
+    assertThat(Artifact.EXEC_PATH_COMPARATOR.compare(compactAArtifact, aArtifact)).isEqualTo(0);
+  }
+
   @Test
   public void testGetFilename() throws Exception {
     ArtifactRoot root = ArtifactRoot.asSourceRoot(Root.fromPath(scratch.dir("/foo")));
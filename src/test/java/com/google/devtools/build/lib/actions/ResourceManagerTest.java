@@ -23,10 +23,12 @@ import com.google.devtools.build.lib.actions.ResourceManager.ResourceHandle;
 import com.google.devtools.build.lib.analysis.platform.PlatformInfo;
 import com.google.devtools.build.lib.testutil.TestThread;
 import com.google.devtools.build.lib.testutil.TestUtils;
+import java.time.Duration;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -56,6 +58,12 @@ public class ResourceManagerTest {
     rm.resetResourceUsage();
   }
 
+  @After
+  public final void resetResourceUsageHistory() {
+    // The resource manager is shared by all tests.
+    rm.setResourceUsageHistory(null);
+  }
+
   private ResourceHandle acquire(double ram, double cpu, int tests)
       throws InterruptedException {
     return rm.acquireResources(resourceOwner, ResourceSet.create(ram, cpu, tests));
@@ -167,6 +175,33 @@ public class ResourceManagerTest {
     thread1.joinAndAssertState(10000);
   }
 
+  @Test
+  public void testThatReservedRamIsNotAvailable() throws Exception {
+    assertThat(rm.inUse()).isFalse();
+
+    // Given RAM is partially acquired and partially held by idle workers:
+    acquire(300, 0, 0);
+    rm.setReservedRam(400);
+
+    // When a request for RAM is made that would only fit without the reserved RAM,
+    // Then the request fails:
+    TestThread thread1 = new TestThread(() -> assertThat(acquireNonblocking(400, 0, 0)).isNull());
+    thread1.start();
+    thread1.joinAndAssertState(10000);
+
+    // When the reserved RAM shrinks,
+    // Then the request succeeds:
+    rm.setReservedRam(100);
+    TestThread thread2 =
+        new TestThread(
+            () -> {
+              assertThat(acquireNonblocking(400, 0, 0)).isNotNull();
+              release(400, 0, 0);
+            });
+    thread2.start();
+    thread2.joinAndAssertState(10000);
+  }
+
   @Test
   public void testThatTestsCannotBeOverallocated() throws Exception {
     assertThat(rm.inUse()).isFalse();
@@ -388,6 +423,33 @@ public class ResourceManagerTest {
     assertThat(rm.inUse()).isFalse();
   }
 
+  @Test
+  public void testUsesMeasuredEstimates() throws Exception {
+    ResourceUsageHistory history = new ResourceUsageHistory();
+    history.record(
+        "CppLink",
+        null,
+        new SpawnResult.Builder()
+            .setStatus(SpawnResult.Status.SUCCESS)
+            .setRunnerName("local")
+            .setWallTime(Duration.ofSeconds(1))
+            .setUserTime(Duration.ofMillis(500))
+            .setSystemTime(Duration.ZERO)
+            .setMaximumResidentSetSizeKb(600 * 1024)
+            .build());
+    rm.setResourceUsageHistory(history);
+
+    // Given an action that used 600 MB before is admitted with its static estimate of 100 MB,
+    // Then it holds the 600 MB that it is expected to use:
+    ResourceHandle handle =
+        rm.acquireResources(new MnemonicOwnerStub("CppLink"), ResourceSet.create(100, 1, 0));
+    assertThat(rm.isAvailable(500, 0, 0)).isFalse();
+    assertThat(rm.isAvailable(400, 0, 0)).isTrue();
+
+    handle.close();
+    assertThat(rm.inUse()).isFalse();
+  }
+
   private static class ResourceOwnerStub implements ActionExecutionMetadata {
 
     @Override
@@ -514,4 +576,22 @@ public class ResourceManagerTest {
       throw new IllegalStateException();
     }
   }
+
+  private static class MnemonicOwnerStub extends ResourceOwnerStub {
+    private final String mnemonic;
+
+    MnemonicOwnerStub(String mnemonic) {
+      this.mnemonic = mnemonic;
+    }
+
+    @Override
+    public ActionOwner getOwner() {
+      return null;
+    }
+
+    @Override
+    public String getMnemonic() {
+      return mnemonic;
+    }
+  }
 }
@@ -0,0 +1,197 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ResourceUsageHistory}. */
+@RunWith(JUnit4.class)
+public final class ResourceUsageHistoryTest {
+
+  private static final Label FOO = Label.parseAbsoluteUnchecked("//a:foo");
+  private static final Label BAR = Label.parseAbsoluteUnchecked("//a:bar");
+  private static final ResourceSet STATIC_ESTIMATE = ResourceSet.create(250, 1, 0);
+
+  private ResourceUsageHistory history;
+
+  @Before
+  public void setUp() {
+    history = new ResourceUsageHistory();
+  }
+
+  private static SpawnResult measuredSpawn(long wallMillis, long cpuMillis, long memoryMb) {
+    return new SpawnResult.Builder()
+        .setStatus(SpawnResult.Status.SUCCESS)
+        .setRunnerName("local")
+        .setWallTime(Duration.ofMillis(wallMillis))
+        .setUserTime(Duration.ofMillis(cpuMillis))
+        .setSystemTime(Duration.ZERO)
+        .setMaximumResidentSetSizeKb(memoryMb * 1024)
+        .build();
+  }
+
+  @Test
+  public void keepsStaticEstimateWithoutMeasurements() {
+    history.record(
+        "CppCompile",
+        FOO,
+        new SpawnResult.Builder()
+            .setStatus(SpawnResult.Status.SUCCESS)
+            .setRunnerName("remote")
+            .setWallTime(Duration.ofSeconds(1))
+            .build());
+    assertThat(history.size()).isEqualTo(0);
+    assertThat(history.estimate("CppCompile", FOO, STATIC_ESTIMATE)).isSameInstanceAs(STATIC_ESTIMATE);
+  }
+
+  @Test
+  public void ignoresCacheHits() {
+    history.record(
+        "CppCompile",
+        FOO,
+        new SpawnResult.Builder()
+            .setStatus(SpawnResult.Status.SUCCESS)
+            .setRunnerName("disk cache hit")
+            .setCacheHit(true)
+            .setWallTime(Duration.ofSeconds(1))
+            .setMaximumResidentSetSizeKb(1024)
+            .build());
+    assertThat(history.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void prefersTargetOverMnemonic() {
+    history.record("CppCompile", FOO, measuredSpawn(1000, 2000, 800));
+    history.record("CppCompile", null, measuredSpawn(1000, 500, 100));
+
+    ResourceSet target = history.estimate("CppCompile", FOO, STATIC_ESTIMATE);
+    assertThat(target.getMemoryMb()).isEqualTo(800.0);
+    assertThat(target.getCpuUsage()).isEqualTo(2.0);
+
+    // BAR never ran, so it gets the moving average of all CppCompile measurements.
+    ResourceSet mnemonic = history.estimate("CppCompile", BAR, STATIC_ESTIMATE);
+    assertThat(mnemonic.getMemoryMb()).isWithin(0.001).of(800 * 0.7 + 100 * 0.3);
+    assertThat(mnemonic.getCpuUsage()).isWithin(0.001).of(2 * 0.7 + 0.5 * 0.3);
+
+    assertThat(history.estimate("CppLink", FOO, STATIC_ESTIMATE)).isSameInstanceAs(STATIC_ESTIMATE);
+  }
+
+  @Test
+  public void neverEstimatesBelowLatestMeasurement() {
+    history.record("Javac", FOO, measuredSpawn(1000, 1000, 100));
+    history.record("Javac", FOO, measuredSpawn(1000, 3000, 500));
+
+    ResourceSet estimate = history.estimate("Javac", FOO, STATIC_ESTIMATE);
+    assertThat(estimate.getMemoryMb()).isEqualTo(500.0);
+    assertThat(estimate.getCpuUsage()).isEqualTo(3.0);
+  }
+
+  @Test
+  public void prefersCgroupMemoryPeak() {
+    history.record(
+        "CppLink",
+        FOO,
+        new SpawnResult.Builder()
+            .setStatus(SpawnResult.Status.SUCCESS)
+            .setRunnerName("linux-sandbox")
+            .setWallTime(Duration.ofSeconds(1))
+            .setMaximumResidentSetSizeKb(300 * 1024)
+            .setCgroupMemoryPeakKb(700 * 1024)
+            .build());
+
+    assertThat(history.estimate("CppLink", FOO, STATIC_ESTIMATE).getMemoryMb()).isEqualTo(700.0);
+  }
+
+  @Test
+  public void keepsLowerBoundAndTestCount() {
+    history.record("TestRunner", FOO, measuredSpawn(1000, 0, 0));
+
+    ResourceSet estimate = history.estimate("TestRunner", FOO, ResourceSet.create(20, 1, 1));
+    assertThat(estimate.getMemoryMb()).isEqualTo(1.0);
+    assertThat(estimate.getCpuUsage()).isEqualTo(0.1);
+    assertThat(estimate.getLocalTestCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void keepsEstimatesWithoutMemoryAndCpu() {
+    history.record("Symlink", FOO, measuredSpawn(1000, 1000, 100));
+    assertThat(history.estimate("Symlink", FOO, ResourceSet.ZERO)).isSameInstanceAs(ResourceSet.ZERO);
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    Path path = new InMemoryFileSystem().getPath("/output_base/local_resource_usage");
+    path.getParentDirectory().createDirectoryAndParents();
+    assertThat(ResourceUsageHistory.readFrom(path).size()).isEqualTo(0);
+
+    history.record("CppCompile", FOO, measuredSpawn(1000, 2000, 800));
+    history.record("CppCompile", null, measuredSpawn(1000, 500, 100));
+    history.writeTo(path);
+
+    ResourceUsageHistory read = ResourceUsageHistory.readFrom(path);
+    assertThat(read.size()).isEqualTo(2);
+    assertSameEstimate(read, history, FOO);
+    assertSameEstimate(read, history, BAR);
+    assertThat(path.getParentDirectory().getChild("local_resource_usage.tmp").exists()).isFalse();
+  }
+
+  @Test
+  public void dropsMeasurementsNotUpdatedForManyBuilds() throws Exception {
+    Path path = new InMemoryFileSystem().getPath("/local_resource_usage");
+    history.record("CppCompile", FOO, measuredSpawn(1000, 1000, 100));
+    history.writeTo(path);
+
+    for (int i = 0; i < ResourceUsageHistory.MAX_BUILDS_UNSEEN; i++) {
+      history.record("CppCompile", BAR, measuredSpawn(1000, 1000, 100));
+      history.writeTo(path);
+    }
+    // Builds that measured nothing don't count.
+    history.writeTo(path);
+    assertThat(ResourceUsageHistory.readFrom(path).size()).isEqualTo(3);
+
+    history.record("CppCompile", BAR, measuredSpawn(1000, 1000, 100));
+    history.writeTo(path);
+    assertThat(ResourceUsageHistory.readFrom(path).size()).isEqualTo(2);
+    assertThat(history.size()).isEqualTo(2);
+  }
+
+  private static void assertSameEstimate(
+      ResourceUsageHistory actual, ResourceUsageHistory expected, Label label) {
+    ResourceSet actualEstimate = actual.estimate("CppCompile", label, STATIC_ESTIMATE);
+    ResourceSet expectedEstimate = expected.estimate("CppCompile", label, STATIC_ESTIMATE);
+    assertThat(actualEstimate.getMemoryMb()).isEqualTo(expectedEstimate.getMemoryMb());
+    assertThat(actualEstimate.getCpuUsage()).isEqualTo(expectedEstimate.getCpuUsage());
+  }
+
+  @Test
+  public void skipsLinesItDoesNotUnderstand() throws Exception {
+    Path path = new InMemoryFileSystem().getPath("/local_resource_usage");
+    FileSystemUtils.writeIsoLatin1(
+        path, "CppCompile\t100.0\t100.0\t1.0\t1.0", "garbage", "Javac\tx\t1\t1\t1");
+
+    ResourceUsageHistory read = ResourceUsageHistory.readFrom(path);
+    assertThat(read.size()).isEqualTo(1);
+    assertThat(read.estimate("CppCompile", FOO, STATIC_ESTIMATE).getMemoryMb()).isEqualTo(100.0);
+  }
+}
@@ -42,6 +42,7 @@ import org.junit.runners.JUnit4;
  */
 @RunWith(JUnit4.class)
 public class SymlinkForestTest {
+  private ManualClock clock;
   private FileSystem fileSystem;
 
   private Path topDir;
@@ -54,7 +55,7 @@ public class SymlinkForestTest {
 
   @Before
   public final void initializeFileSystem() throws Exception {
-    ManualClock clock = new ManualClock();
+    clock = new ManualClock();
     fileSystem = new InMemoryFileSystem(clock);
     linkRoot = fileSystem.getPath("/linkRoot");
     linkRoot.createDirectoryAndParents();
@@ -180,7 +181,7 @@ public class SymlinkForestTest {
   }
 
   @Test
-  public void testPlantLinkForestWithMultiplePackagePath() throws IOException {
+  public void testPlantLinkForestWithMultiplePackagePath() throws Exception {
     Root rootA = Root.fromPath(fileSystem.getPath("/A"));
     Root rootB = Root.fromPath(fileSystem.getPath("/B"));
 
@@ -383,4 +384,70 @@ public class SymlinkForestTest {
     new SymlinkForest(packageRootMap, linkRoot, TestConstants.PRODUCT_NAME).plantSymlinkForest();
     assertThat(linkRoot.getRelative(LabelConstants.EXTERNAL_PATH_PREFIX).exists()).isFalse();
   }
+
+  @Test
+  public void testPlantSymlinkForestKeepsUpToDateLinks() throws Exception {
+    Root outputBase = Root.fromPath(fileSystem.getPath("/ob"));
+    Root mainRepo = Root.fromPath(fileSystem.getPath("/my_repo"));
+    Path linkRoot = outputBase.getRelative("execroot/ws_name");
+    linkRoot.createDirectoryAndParents();
+
+    ImmutableMap<PackageIdentifier, Root> packageRootMap =
+        ImmutableMap.<PackageIdentifier, Root>builder()
+            .put(createMainPkg(mainRepo, "dir1/pkg"), mainRepo)
+            .put(createMainPkg(mainRepo, "dir2"), mainRepo)
+            .put(createExternalPkg(outputBase, "X", "dir_x/pkg"), outputBase)
+            .build();
+
+    new SymlinkForest(packageRootMap, linkRoot, TestConstants.PRODUCT_NAME).plantSymlinkForest();
+    long dir1Time = linkRoot.getChild("dir1").getLastModifiedTime(Symlinks.NOFOLLOW);
+    long externalTime =
+        linkRoot.getRelative("external/X").getLastModifiedTime(Symlinks.NOFOLLOW);
+    clock.advanceMillis(1000);
+    new SymlinkForest(packageRootMap, linkRoot, TestConstants.PRODUCT_NAME).plantSymlinkForest();
+
+    assertLinksTo(linkRoot, mainRepo, "dir1");
+    assertLinksTo(linkRoot, mainRepo, "dir2");
+    assertLinksTo(linkRoot, outputBase, LabelConstants.EXTERNAL_PATH_PREFIX + "/X");
+    assertThat(linkRoot.getChild("dir1").getLastModifiedTime(Symlinks.NOFOLLOW))
+        .isEqualTo(dir1Time);
+    assertThat(linkRoot.getRelative("external/X").getLastModifiedTime(Symlinks.NOFOLLOW))
+        .isEqualTo(externalTime);
+  }
+
+  @Test
+  public void testPlantSymlinkForestReplacesStaleEntries() throws Exception {
+    Root outputBase = Root.fromPath(fileSystem.getPath("/ob"));
+    Root mainRepo = Root.fromPath(fileSystem.getPath("/my_repo"));
+    Root otherRepo = Root.fromPath(fileSystem.getPath("/other_repo"));
+    Path linkRoot = outputBase.getRelative("execroot/ws_name");
+    linkRoot.createDirectoryAndParents();
+
+    ImmutableMap<PackageIdentifier, Root> packageRootMap =
+        ImmutableMap.<PackageIdentifier, Root>builder()
+            .put(createMainPkg(mainRepo, "dir1/pkg"), mainRepo)
+            .put(createMainPkg(mainRepo, "dir2"), mainRepo)
+            .put(createExternalPkg(outputBase, "X", "dir_x/pkg"), outputBase)
+            .build();
+
+    // A link to the wrong target, a directory in place of a link, a stale link and directory, a
+    // stale external repository, and an output directory that must be kept.
+    linkRoot.getChild("dir1").createSymbolicLink(otherRepo.getRelative("dir1"));
+    linkRoot.getRelative("dir2/stale").createDirectoryAndParents();
+    linkRoot.getChild("old_link").createSymbolicLink(mainRepo.getRelative("old_link"));
+    linkRoot.getRelative("old_dir/sub").createDirectoryAndParents();
+    linkRoot.getRelative("external/Y").createDirectoryAndParents();
+    Path outputDir = linkRoot.getChild(TestConstants.PRODUCT_NAME + "-out");
+    outputDir.createDirectoryAndParents();
+
+    new SymlinkForest(packageRootMap, linkRoot, TestConstants.PRODUCT_NAME).plantSymlinkForest();
+
+    assertLinksTo(linkRoot, mainRepo, "dir1");
+    assertLinksTo(linkRoot, mainRepo, "dir2");
+    assertLinksTo(linkRoot, outputBase, LabelConstants.EXTERNAL_PATH_PREFIX + "/X");
+    assertThat(linkRoot.getChild("old_link").exists(Symlinks.NOFOLLOW)).isFalse();
+    assertThat(linkRoot.getChild("old_dir").exists(Symlinks.NOFOLLOW)).isFalse();
+    assertThat(linkRoot.getRelative("external/Y").exists(Symlinks.NOFOLLOW)).isFalse();
+    assertThat(outputDir.isDirectory(Symlinks.NOFOLLOW)).isTrue();
+  }
 }
@@ -15,13 +15,19 @@
 package com.google.devtools.build.lib.exec;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.shell.Command;
+import com.google.devtools.build.lib.testutil.ManualClock;
 import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -29,7 +35,8 @@ import org.junit.runners.JUnit4;
 /** Unit tests for {@link SymlinkTreeHelper}. */
 @RunWith(JUnit4.class)
 public final class SymlinkTreeHelperTest {
-  private final FileSystem fs = new InMemoryFileSystem();
+  private final ManualClock clock = new ManualClock();
+  private final FileSystem fs = new InMemoryFileSystem(clock);
 
   @Test
   public void checkCreatedSpawn() {
@@ -48,4 +55,92 @@ public final class SymlinkTreeHelperTest {
     assertThat(commandLine[1]).isEqualTo("input_manifest");
     assertThat(commandLine[2]).isEqualTo("output/MANIFEST");
   }
+
+  @Test
+  public void createSymlinksDirectly() throws Exception {
+    Path inputManifest = fs.getPath("/out/foo.runfiles_manifest");
+    Path runfiles = fs.getPath("/out/foo.runfiles");
+    inputManifest.getParentDirectory().createDirectoryAndParents();
+    FileSystemUtils.writeIsoLatin1(
+        inputManifest,
+        "ws/pkg/a /src/pkg/a",
+        "ws/pkg/sub/b /src/pkg/sub/b",
+        "ws/pkg/__init__.py ",
+        "other/c /src/other/c");
+
+    new SymlinkTreeHelper(inputManifest, runfiles, false).createSymlinksDirectly();
+
+    assertThat(runfiles.getRelative("ws/pkg/a").readSymbolicLink())
+        .isEqualTo(PathFragment.create("/src/pkg/a"));
+    assertThat(runfiles.getRelative("ws/pkg/sub/b").readSymbolicLink())
+        .isEqualTo(PathFragment.create("/src/pkg/sub/b"));
+    assertThat(runfiles.getRelative("other/c").readSymbolicLink())
+        .isEqualTo(PathFragment.create("/src/other/c"));
+    Path emptyFile = runfiles.getRelative("ws/pkg/__init__.py");
+    assertThat(emptyFile.isFile(Symlinks.NOFOLLOW)).isTrue();
+    assertThat(emptyFile.getFileSize()).isEqualTo(0);
+    assertThat(FileSystemUtils.readContent(runfiles.getChild("MANIFEST")))
+        .isEqualTo(FileSystemUtils.readContent(inputManifest));
+  }
+
+  @Test
+  public void createSymlinksDirectlyOnlyUpdatesChangedEntries() throws Exception {
+    Path inputManifest = fs.getPath("/out/foo.runfiles_manifest");
+    Path runfiles = fs.getPath("/out/foo.runfiles");
+    inputManifest.getParentDirectory().createDirectoryAndParents();
+    FileSystemUtils.writeIsoLatin1(
+        inputManifest,
+        "ws/kept /src/kept",
+        "ws/changed /src/old",
+        "ws/removed /src/removed",
+        "ws/becomes_dir /src/becomes_dir",
+        "ws/dir/becomes_file /src/dir/becomes_file");
+    SymlinkTreeHelper helper = new SymlinkTreeHelper(inputManifest, runfiles, false);
+    helper.createSymlinksDirectly();
+    long keptTime = runfiles.getRelative("ws/kept").getLastModifiedTime(Symlinks.NOFOLLOW);
+    // Stray entries are removed, too.
+    FileSystemUtils.createEmptyFile(runfiles.getRelative("ws/stray"));
+
+    clock.advanceMillis(1000);
+    FileSystemUtils.writeIsoLatin1(
+        inputManifest,
+        "ws/kept /src/kept",
+        "ws/changed /src/new",
+        "ws/becomes_dir/child /src/becomes_dir/child",
+        "ws/dir /src/dir",
+        "ws/added /src/added");
+    helper.createSymlinksDirectly();
+
+    assertThat(runfiles.getRelative("ws/kept").getLastModifiedTime(Symlinks.NOFOLLOW))
+        .isEqualTo(keptTime);
+    assertThat(runfiles.getRelative("ws/changed").readSymbolicLink())
+        .isEqualTo(PathFragment.create("/src/new"));
+    assertThat(runfiles.getRelative("ws/becomes_dir/child").readSymbolicLink())
+        .isEqualTo(PathFragment.create("/src/becomes_dir/child"));
+    assertThat(runfiles.getRelative("ws/dir").readSymbolicLink())
+        .isEqualTo(PathFragment.create("/src/dir"));
+    assertThat(runfiles.getRelative("ws/added").readSymbolicLink())
+        .isEqualTo(PathFragment.create("/src/added"));
+    assertThat(runfiles.getRelative("ws/removed").exists(Symlinks.NOFOLLOW)).isFalse();
+    assertThat(runfiles.getRelative("ws/stray").exists(Symlinks.NOFOLLOW)).isFalse();
+    assertThat(runfiles.getDirectoryEntries())
+        .containsExactly(runfiles.getChild("ws"), runfiles.getChild("MANIFEST"));
+    assertThat(FileSystemUtils.readContent(runfiles.getChild("MANIFEST")))
+        .isEqualTo(FileSystemUtils.readContent(inputManifest));
+  }
+
+  @Test
+  public void createSymlinksDirectlyRejectsMalformedManifest() throws Exception {
+    Path inputManifest = fs.getPath("/out/foo.runfiles_manifest");
+    Path runfiles = fs.getPath("/out/foo.runfiles");
+    inputManifest.getParentDirectory().createDirectoryAndParents();
+    SymlinkTreeHelper helper = new SymlinkTreeHelper(inputManifest, runfiles, false);
+
+    FileSystemUtils.writeIsoLatin1(inputManifest, "ws/no_target");
+    assertThrows(IOException.class, helper::createSymlinksDirectly);
+    FileSystemUtils.writeIsoLatin1(inputManifest, "ws/relative_target src/a");
+    assertThrows(IOException.class, helper::createSymlinksDirectly);
+    FileSystemUtils.writeIsoLatin1(inputManifest, "ws/a /src/a", "ws/a/b /src/a/b");
+    assertThrows(IOException.class, helper::createSymlinksDirectly);
+  }
 }
@@ -333,6 +333,7 @@ public class LocalSpawnRunnerTest {
     SubprocessBuilder.setDefaultSubprocessFactory(factory);
 
     LocalExecutionOptions options = Options.getDefaults(LocalExecutionOptions.class);
+    options.collectLocalExecutionStatistics = false;
     options.localSigkillGraceSeconds = 456;
     LocalSpawnRunner runner =
         new TestedLocalSpawnRunner(
@@ -490,6 +491,7 @@ public class LocalSpawnRunnerTest {
     SubprocessBuilder.setDefaultSubprocessFactory(factory);
 
     LocalExecutionOptions options = Options.getDefaults(LocalExecutionOptions.class);
+    options.collectLocalExecutionStatistics = false;
     LocalSpawnRunner runner =
         new TestedLocalSpawnRunner(
             fs.getPath("/execroot"),
@@ -834,6 +836,7 @@ public class LocalSpawnRunnerTest {
     SubprocessBuilder.setDefaultSubprocessFactory(factory);
 
     LocalExecutionOptions options = Options.getDefaults(LocalExecutionOptions.class);
+    options.collectLocalExecutionStatistics = false;
     options.localSigkillGraceSeconds = 654;
     LocalSpawnRunner runner =
         new TestedLocalSpawnRunner(
@@ -1007,6 +1010,9 @@ public class LocalSpawnRunnerTest {
     assertThat(spawnResult.getNumBlockOutputOperations().get()).isAtLeast(0L);
     assertThat(spawnResult.getNumBlockInputOperations().get()).isAtLeast(0L);
     assertThat(spawnResult.getNumInvoluntaryContextSwitches().get()).isAtLeast(0L);
+    assertThat(spawnResult.getNumVoluntaryContextSwitches().get()).isAtLeast(0L);
+    // Every process needs some memory.
+    assertThat(spawnResult.getMaximumResidentSetSizeKb().get()).isGreaterThan(0L);
   }
 
   @Test
@@ -1067,6 +1073,8 @@ public class LocalSpawnRunnerTest {
     assertThat(spawnResult.getNumBlockOutputOperations()).isEmpty();
     assertThat(spawnResult.getNumBlockInputOperations()).isEmpty();
     assertThat(spawnResult.getNumInvoluntaryContextSwitches()).isEmpty();
+    assertThat(spawnResult.getNumVoluntaryContextSwitches()).isEmpty();
+    assertThat(spawnResult.getMaximumResidentSetSizeKb()).isEmpty();
   }
 
   // Check that relative paths in the Spawn are absolutized relative to the execroot passed to the
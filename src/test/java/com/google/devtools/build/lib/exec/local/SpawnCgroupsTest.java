@@ -0,0 +1,182 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec.local;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.SpawnResult;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SpawnCgroups}. */
+@RunWith(JUnit4.class)
+public final class SpawnCgroupsTest {
+
+  private static final int PID = 4242;
+
+  private Path procSelfCgroup;
+  private Path mountPoint;
+  private Path serverCgroup;
+
+  @Before
+  public void setUp() throws IOException {
+    InMemoryFileSystem fileSystem = new InMemoryFileSystem();
+    procSelfCgroup = fileSystem.getPath("/proc/self/cgroup");
+    procSelfCgroup.getParentDirectory().createDirectoryAndParents();
+    mountPoint = fileSystem.getPath("/sys/fs/cgroup");
+    serverCgroup = mountPoint.getRelative("user.slice/bazel.scope");
+    serverCgroup.createDirectoryAndParents();
+    FileSystemUtils.writeContent(procSelfCgroup, UTF_8, "0::/user.slice/bazel.scope\n");
+    FileSystemUtils.writeContent(
+        serverCgroup.getChild("cgroup.controllers"), UTF_8, "cpuset cpu io memory pids\n");
+    FileSystemUtils.writeContent(serverCgroup.getChild("cgroup.subtree_control"), UTF_8, "");
+    FileSystemUtils.writeContent(serverCgroup.getChild("cgroup.procs"), UTF_8, PID + "\n");
+  }
+
+  private SpawnCgroups create() throws IOException {
+    return SpawnCgroups.create(procSelfCgroup, mountPoint, PID);
+  }
+
+  @Test
+  public void failsWithoutCgroupV2() throws Exception {
+    FileSystemUtils.writeContent(
+        procSelfCgroup, UTF_8, "12:pids:/user.slice\n1:name=systemd:/user.slice\n");
+    IOException e = assertThrows(IOException.class, this::create);
+    assertThat(e).hasMessageThat().contains("not in a cgroup v2 hierarchy");
+
+    FileSystemUtils.writeContent(procSelfCgroup, UTF_8, "0::/elsewhere.scope\n");
+    e = assertThrows(IOException.class, this::create);
+    assertThat(e).hasMessageThat().contains("not mounted");
+  }
+
+  @Test
+  public void failsWithoutControllers() throws Exception {
+    FileSystemUtils.writeContent(serverCgroup.getChild("cgroup.controllers"), UTF_8, "io pids\n");
+    IOException e = assertThrows(IOException.class, this::create);
+    assertThat(e).hasMessageThat().contains("neither the memory nor the cpu controller");
+  }
+
+  @Test
+  public void failsWithoutDelegation() throws Exception {
+    serverCgroup.getChild("cgroup.subtree_control").setWritable(false);
+    IOException e = assertThrows(IOException.class, this::create);
+    assertThat(e).hasMessageThat().contains("is not delegated");
+  }
+
+  @Test
+  public void enablesControllersAndRemovesStaleCgroups() throws Exception {
+    serverCgroup.getChild("spawn-17").createDirectory();
+
+    create();
+
+    assertThat(FileSystemUtils.readContent(serverCgroup.getChild("cgroup.subtree_control"), UTF_8))
+        .isEqualTo("+memory +cpu");
+    assertThat(serverCgroup.getChild("spawn-17").exists()).isFalse();
+  }
+
+  @Test
+  public void createsCgroupWithCpuWeightAndMemoryLimit() throws Exception {
+    SpawnCgroups cgroups = create();
+
+    SpawnCgroups.Cgroup cgroup = cgroups.createCgroup(ResourceSet.create(100, 2, 0), 1.5);
+
+    assertThat(cgroup.getPath()).isEqualTo(serverCgroup.getChild("spawn-1"));
+    assertThat(FileSystemUtils.readContent(cgroup.getPath().getChild("cpu.weight"), UTF_8))
+        .isEqualTo("200");
+    assertThat(FileSystemUtils.readContent(cgroup.getPath().getChild("memory.max"), UTF_8))
+        .isEqualTo(Long.toString(150L * 1024 * 1024));
+    assertThat(cgroups.createCgroup(ResourceSet.create(100, 2, 0), 1.5).getPath())
+        .isEqualTo(serverCgroup.getChild("spawn-2"));
+  }
+
+  @Test
+  public void createsCgroupWithoutMemoryLimit() throws Exception {
+    SpawnCgroups.Cgroup cgroup = create().createCgroup(ResourceSet.create(100, 0.5, 0), 0);
+
+    assertThat(FileSystemUtils.readContent(cgroup.getPath().getChild("cpu.weight"), UTF_8))
+        .isEqualTo("50");
+    assertThat(cgroup.getPath().getChild("memory.max").exists()).isFalse();
+    assertThat(cgroup.getOomKillMessage()).isNull();
+  }
+
+  @Test
+  public void cpuWeightIsInValidRange() {
+    assertThat(SpawnCgroups.getCpuWeight(0.001)).isEqualTo(1);
+    assertThat(SpawnCgroups.getCpuWeight(1)).isEqualTo(100);
+    assertThat(SpawnCgroups.getCpuWeight(1000)).isEqualTo(10000);
+  }
+
+  @Test
+  public void overridesResourceUsage() throws Exception {
+    SpawnCgroups.Cgroup cgroup = create().createCgroup(ResourceSet.create(100, 1, 0), 0);
+    FileSystemUtils.writeContent(
+        cgroup.getPath().getChild("cpu.stat"),
+        UTF_8,
+        "usage_usec 3500000\nuser_usec 2500000\nsystem_usec 1000000\nnr_periods 0\n");
+    FileSystemUtils.writeContent(cgroup.getPath().getChild("memory.peak"), UTF_8, "209715200\n");
+    SpawnResult.Builder builder =
+        new SpawnResult.Builder()
+            .setStatus(SpawnResult.Status.SUCCESS)
+            .setRunnerName("local")
+            .setUserTime(Duration.ofSeconds(1))
+            .setSystemTime(Duration.ofSeconds(1))
+            .setMaximumResidentSetSizeKb(1024);
+
+    cgroup.setResourceUsage(builder);
+
+    SpawnResult result = builder.build();
+    assertThat(result.getUserTime()).isEqualTo(Optional.of(Duration.ofMillis(2500)));
+    assertThat(result.getSystemTime()).isEqualTo(Optional.of(Duration.ofSeconds(1)));
+    assertThat(result.getMaximumResidentSetSizeKb()).isEqualTo(Optional.of(1024L));
+    assertThat(result.getCgroupMemoryPeakKb()).isEqualTo(Optional.of(200L * 1024));
+  }
+
+  @Test
+  public void keepsResourceUsageIfSpawnDidNotRunInCgroup() throws Exception {
+    SpawnCgroups.Cgroup cgroup = create().createCgroup(ResourceSet.create(100, 1, 0), 0);
+    FileSystemUtils.writeContent(
+        cgroup.getPath().getChild("cpu.stat"), UTF_8, "usage_usec 0\nuser_usec 0\nsystem_usec 0\n");
+    SpawnResult.Builder builder =
+        new SpawnResult.Builder()
+            .setStatus(SpawnResult.Status.SUCCESS)
+            .setRunnerName("local")
+            .setUserTime(Duration.ofSeconds(1));
+
+    cgroup.setResourceUsage(builder);
+
+    assertThat(builder.build().getUserTime()).isEqualTo(Optional.of(Duration.ofSeconds(1)));
+  }
+
+  @Test
+  public void reportsOomKills() throws Exception {
+    SpawnCgroups.Cgroup cgroup = create().createCgroup(ResourceSet.create(100, 1, 0), 2);
+    Path events = cgroup.getPath().getChild("memory.events");
+    FileSystemUtils.writeContent(events, UTF_8, "low 0\nhigh 0\nmax 0\noom 0\noom_kill 0\n");
+    assertThat(cgroup.getOomKillMessage()).isNull();
+
+    FileSystemUtils.writeContent(events, UTF_8, "low 0\nhigh 0\nmax 12\noom 1\noom_kill 1\n");
+    assertThat(cgroup.getOomKillMessage()).contains("memory limit of 200 MB");
+  }
+}
@@ -0,0 +1,189 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.inmemoryoutputs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link InMemoryOutputFileSystem} and the output service that creates it. */
+@RunWith(JUnit4.class)
+public class InMemoryOutputFileSystemTest {
+  private final FileSystem delegate = new InMemoryFileSystem();
+  private InMemoryOutputStore store;
+  private FileSystem actionFs;
+
+  @Before
+  public final void createFileSystem() throws Exception {
+    delegate.getPath("/execroot/out").createDirectoryAndParents();
+    store = new InMemoryOutputStore(delegate, /*capacity=*/ 1024);
+    actionFs =
+        new InMemoryOutputFileSystem(
+            delegate,
+            store,
+            ImmutableSet.of(
+                PathFragment.create("/execroot/out/small"),
+                PathFragment.create("/execroot/out/large")),
+            /*maxFileSize=*/ 8);
+  }
+
+  @Test
+  public void testSmallOutputIsKeptInMemory() throws Exception {
+    Path small = actionFs.getPath("/execroot/out/small");
+    FileSystemUtils.writeContent(small, "small".getBytes(UTF_8));
+
+    assertThat(delegate.getPath("/execroot/out/small").exists()).isFalse();
+    assertThat(store.get(small.asFragment())).isNotNull();
+    assertThat(FileSystemUtils.readContent(small, UTF_8)).isEqualTo("small");
+    assertThat(small.isFile()).isTrue();
+    assertThat(small.isDirectory()).isFalse();
+    assertThat(small.isSymbolicLink()).isFalse();
+    assertThat(small.getFileSize()).isEqualTo(5);
+    assertThat(small.getDigest())
+        .isEqualTo(
+            delegate.getDigestFunction().getHashFunction().hashString("small", UTF_8).asBytes());
+  }
+
+  @Test
+  public void testLargeOutputIsWrittenToOutputTree() throws Exception {
+    Path large = actionFs.getPath("/execroot/out/large");
+    FileSystemUtils.writeContent(large, "larger than eight bytes".getBytes(UTF_8));
+
+    assertThat(store.get(large.asFragment())).isNull();
+    assertThat(FileSystemUtils.readContent(delegate.getPath("/execroot/out/large"), UTF_8))
+        .isEqualTo("larger than eight bytes");
+  }
+
+  @Test
+  public void testOtherOutputIsWrittenToOutputTree() throws Exception {
+    Path other = actionFs.getPath("/execroot/out/other");
+    FileSystemUtils.writeContent(other, "other".getBytes(UTF_8));
+
+    assertThat(store.get(other.asFragment())).isNull();
+    assertThat(delegate.getPath("/execroot/out/other").exists()).isTrue();
+  }
+
+  @Test
+  public void testRewriteReplacesStaleOutputOnDisk() throws Exception {
+    FileSystemUtils.writeContent(delegate.getPath("/execroot/out/small"), "stale".getBytes(UTF_8));
+
+    FileSystemUtils.writeContent(actionFs.getPath("/execroot/out/small"), "new".getBytes(UTF_8));
+
+    assertThat(delegate.getPath("/execroot/out/small").exists()).isFalse();
+    assertThat(FileSystemUtils.readContent(actionFs.getPath("/execroot/out/small"), UTF_8))
+        .isEqualTo("new");
+  }
+
+  @Test
+  public void testPermissionsOfOutputInMemory() throws Exception {
+    Path small = actionFs.getPath("/execroot/out/small");
+    FileSystemUtils.writeContent(small, "small".getBytes(UTF_8));
+
+    small.setExecutable(true);
+    small.setWritable(false);
+
+    assertThat(small.isExecutable()).isTrue();
+    assertThat(small.isWritable()).isFalse();
+    assertThat(small.isReadable()).isTrue();
+
+    store.spill(small.asFragment());
+
+    assertThat(delegate.getPath("/execroot/out/small").isExecutable()).isTrue();
+    assertThat(delegate.getPath("/execroot/out/small").isWritable()).isFalse();
+  }
+
+  @Test
+  public void testDeleteAndRenameOutputInMemory() throws Exception {
+    Path small = actionFs.getPath("/execroot/out/small");
+    FileSystemUtils.writeContent(small, "small".getBytes(UTF_8));
+
+    Path renamed = actionFs.getPath("/execroot/out/renamed");
+    small.renameTo(renamed);
+
+    assertThat(small.exists()).isFalse();
+    assertThat(FileSystemUtils.readContent(renamed, UTF_8)).isEqualTo("small");
+    assertThat(renamed.delete()).isTrue();
+    assertThat(renamed.exists()).isFalse();
+    assertThat(store.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testSymlinkToOutputInMemorySpillsIt() throws Exception {
+    Path small = actionFs.getPath("/execroot/out/small");
+    FileSystemUtils.writeContent(small, "small".getBytes(UTF_8));
+
+    actionFs.getPath("/execroot/out/link").createSymbolicLink(PathFragment.create("small"));
+
+    assertThat(store.get(small.asFragment())).isNull();
+    assertThat(FileSystemUtils.readContent(delegate.getPath("/execroot/out/link"), UTF_8))
+        .isEqualTo("small");
+  }
+
+  @Test
+  public void testBatchStatterSeesOutputsInMemory() throws Exception {
+    FileSystemUtils.writeContent(actionFs.getPath("/execroot/out/small"), "small".getBytes(UTF_8));
+    FileSystemUtils.writeContent(delegate.getPath("/execroot/out/disk"), "disk".getBytes(UTF_8));
+    InMemoryOutputService outputService =
+        new InMemoryOutputService(store, ImmutableList.of("FileWrite"), /*maxFileSize=*/ 8);
+    outputService.setExecRoot(delegate.getPath("/execroot"));
+
+    List<FileStatusWithDigest> stats =
+        outputService
+            .getBatchStatter()
+            .batchStat(
+                /*includeDigest=*/ true,
+                /*includeLinks=*/ true,
+                ImmutableList.of(
+                    PathFragment.create("out/small"),
+                    PathFragment.create("out/disk"),
+                    PathFragment.create("out/missing")));
+
+    assertThat(stats.get(0).getSize()).isEqualTo(5);
+    assertThat(stats.get(0).getDigest()).isNotNull();
+    assertThat(stats.get(1).getSize()).isEqualTo(4);
+    assertThat(stats.get(2)).isNull();
+  }
+
+  @Test
+  public void testPrefetcherSpillsInputs() throws Exception {
+    FileSystemUtils.writeContent(actionFs.getPath("/execroot/out/small"), "small".getBytes(UTF_8));
+
+    new InMemoryOutputsPrefetcher(store, delegate.getPath("/execroot"))
+        .prefetchFiles(
+            ImmutableList.of(
+                ActionInputHelper.fromPath("out/small"), ActionInputHelper.fromPath("out/disk")),
+            /*metadataProvider=*/ null);
+
+    assertThat(store.size()).isEqualTo(0);
+    FileStatus stat = delegate.getPath("/execroot/out/small").stat(Symlinks.NOFOLLOW);
+    assertThat(stat.isFile()).isTrue();
+    assertThat(stat.getSize()).isEqualTo(5);
+  }
+}
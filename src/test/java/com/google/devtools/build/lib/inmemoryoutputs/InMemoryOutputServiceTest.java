@@ -0,0 +1,81 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.inmemoryoutputs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.vfs.BatchStat;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link InMemoryOutputService}. */
+@RunWith(JUnit4.class)
+public class InMemoryOutputServiceTest {
+  private final FileSystem fs = new InMemoryFileSystem();
+
+  @Test
+  public void testSpillsTopLevelOutputsKeptByEarlierBuilds() throws Exception {
+    Path execRoot = fs.getPath("/execroot");
+    execRoot.getRelative("out").createDirectoryAndParents();
+    InMemoryOutputStore store = new InMemoryOutputStore(fs, /*capacity=*/ 100);
+    store.put(PathFragment.create("/execroot/out/top"), "top".getBytes(UTF_8), 0644);
+    store.put(PathFragment.create("/execroot/out/dep"), "dep".getBytes(UTF_8), 0644);
+    InMemoryOutputService service =
+        new InMemoryOutputService(store, ImmutableList.of("FileWrite"), /*maxFileSize=*/ 100);
+    service.setExecRoot(execRoot);
+    service.setTopLevelOutputs(
+        ImmutableSet.of(PathFragment.create("out/top"), PathFragment.create("out/missing")));
+
+    service.spillTopLevelOutputs();
+
+    assertThat(FileSystemUtils.readContent(execRoot.getRelative("out/top"), UTF_8))
+        .isEqualTo("top");
+    assertThat(store.get(PathFragment.create("/execroot/out/top"))).isNull();
+    assertThat(execRoot.getRelative("out/dep").exists()).isFalse();
+    assertThat(store.get(PathFragment.create("/execroot/out/dep"))).isNotNull();
+    assertThat(execRoot.getRelative("out/missing").exists()).isFalse();
+  }
+
+  @Test
+  public void testBatchStatReportsTheDigestOfSpilledOutputs() throws Exception {
+    Path execRoot = fs.getPath("/execroot");
+    execRoot.getRelative("out").createDirectoryAndParents();
+    InMemoryOutputStore store = new InMemoryOutputStore(fs, /*capacity=*/ 100);
+    store.put(PathFragment.create("/execroot/out/a"), "a".getBytes(UTF_8), 0644);
+    InMemoryOutputService service =
+        new InMemoryOutputService(store, ImmutableList.of("FileWrite"), /*maxFileSize=*/ 100);
+    service.setExecRoot(execRoot);
+    BatchStat batchStatter = service.getBatchStatter();
+    ImmutableList<PathFragment> paths = ImmutableList.of(PathFragment.create("out/a"));
+    FileStatusWithDigest inMemory =
+        batchStatter.batchStat(/*includeDigest=*/ true, /*includeLinks=*/ true, paths).get(0);
+
+    store.spill(PathFragment.create("/execroot/out/a"));
+
+    FileStatusWithDigest spilled =
+        batchStatter.batchStat(/*includeDigest=*/ true, /*includeLinks=*/ true, paths).get(0);
+    assertThat(spilled).isNotSameInstanceAs(inMemory);
+    assertThat(spilled.getDigest()).isEqualTo(inMemory.getDigest());
+  }
+}
@@ -0,0 +1,206 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.inmemoryoutputs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigestAdapter;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link InMemoryOutputStore}. */
+@RunWith(JUnit4.class)
+public class InMemoryOutputStoreTest {
+  private final FileSystem fs = new InMemoryFileSystem();
+  private InMemoryOutputStore store;
+
+  @Before
+  public final void createStore() {
+    store = new InMemoryOutputStore(fs, /*capacity=*/ 10);
+  }
+
+  @Test
+  public void testPutAndGet() throws Exception {
+    store.put(PathFragment.create("/out/a"), "abc".getBytes(UTF_8), 0644);
+
+    InMemoryOutputStore.Entry entry = store.get(PathFragment.create("/out/a"));
+    assertThat(entry.getContents()).isEqualTo("abc".getBytes(UTF_8));
+    assertThat(entry.getSize()).isEqualTo(3);
+    assertThat(entry.isFile()).isTrue();
+    assertThat(entry.getDigest())
+        .isEqualTo(
+            fs.getDigestFunction().getHashFunction().hashBytes("abc".getBytes(UTF_8)).asBytes());
+    assertThat(store.getTotalSize()).isEqualTo(3);
+    assertThat(fs.getPath("/out/a").exists()).isFalse();
+  }
+
+  @Test
+  public void testPutReplacesFile() throws Exception {
+    store.put(PathFragment.create("/out/a"), "abc".getBytes(UTF_8), 0644);
+    store.put(PathFragment.create("/out/a"), "de".getBytes(UTF_8), 0644);
+
+    assertThat(store.get(PathFragment.create("/out/a")).getContents())
+        .isEqualTo("de".getBytes(UTF_8));
+    assertThat(store.size()).isEqualTo(1);
+    assertThat(store.getTotalSize()).isEqualTo(2);
+  }
+
+  @Test
+  public void testSpillWritesFileToOutputTree() throws Exception {
+    store.put(PathFragment.create("/out/dir/a"), "abc".getBytes(UTF_8), 0755);
+
+    assertThat(store.spill(PathFragment.create("/out/dir/a"))).isTrue();
+
+    Path a = fs.getPath("/out/dir/a");
+    assertThat(FileSystemUtils.readContent(a, UTF_8)).isEqualTo("abc");
+    assertThat(a.isExecutable()).isTrue();
+    assertThat(store.get(PathFragment.create("/out/dir/a"))).isNull();
+    assertThat(store.getTotalSize()).isEqualTo(0);
+    assertThat(store.spill(PathFragment.create("/out/dir/a"))).isFalse();
+  }
+
+  @Test
+  public void testSpilledFileKeepsItsDigest() throws Exception {
+    store.put(PathFragment.create("/out/a"), "abc".getBytes(UTF_8), 0644);
+    InMemoryOutputStore.Entry entry = store.get(PathFragment.create("/out/a"));
+
+    store.spill(PathFragment.create("/out/a"));
+
+    Path a = fs.getPath("/out/a");
+    assertThat(a.getLastModifiedTime()).isEqualTo(entry.getLastModifiedTime());
+    FileStatusWithDigest stat =
+        store.withSpilledDigest(
+            a.asFragment(), FileStatusWithDigestAdapter.adapt(a.stat(Symlinks.NOFOLLOW)));
+    assertThat(stat.getDigest()).isEqualTo(entry.getDigest());
+    assertThat(stat.getSize()).isEqualTo(3);
+
+    FileSystemUtils.writeContent(a, "abd".getBytes(UTF_8));
+
+    assertThat(
+            store
+                .withSpilledDigest(
+                    a.asFragment(), FileStatusWithDigestAdapter.adapt(a.stat(Symlinks.NOFOLLOW)))
+                .getDigest())
+        .isNull();
+  }
+
+  @Test
+  public void testFilesAreReadableWhileOneIsSpilled() throws Exception {
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch finishWriting = new CountDownLatch(1);
+    FileSystem blockingFs =
+        new InMemoryFileSystem() {
+          @Override
+          protected OutputStream getOutputStream(Path path, boolean append) throws IOException {
+            writing.countDown();
+            Uninterruptibles.awaitUninterruptibly(finishWriting);
+            return super.getOutputStream(path, append);
+          }
+        };
+    store = new InMemoryOutputStore(blockingFs, /*capacity=*/ 10);
+    store.put(PathFragment.create("/out/a"), "a".getBytes(UTF_8), 0644);
+    store.put(PathFragment.create("/out/b"), "b".getBytes(UTF_8), 0644);
+    Thread spiller =
+        new Thread(
+            () -> {
+              try {
+                store.spill(PathFragment.create("/out/a"));
+              } catch (IOException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    spiller.start();
+    writing.await();
+
+    assertThat(store.get(PathFragment.create("/out/a"))).isNotNull();
+    assertThat(store.get(PathFragment.create("/out/b"))).isNotNull();
+
+    finishWriting.countDown();
+    spiller.join();
+    assertThat(store.get(PathFragment.create("/out/a"))).isNull();
+    assertThat(FileSystemUtils.readContent(blockingFs.getPath("/out/a"), UTF_8)).isEqualTo("a");
+  }
+
+  @Test
+  public void testSpillsLeastRecentlyUsedFilesOverCapacity() throws Exception {
+    store.put(PathFragment.create("/out/a"), "aaaa".getBytes(UTF_8), 0644);
+    store.put(PathFragment.create("/out/b"), "bbbb".getBytes(UTF_8), 0644);
+    store.get(PathFragment.create("/out/a"));
+
+    store.put(PathFragment.create("/out/c"), "cccc".getBytes(UTF_8), 0644);
+
+    assertThat(store.get(PathFragment.create("/out/a"))).isNotNull();
+    assertThat(store.get(PathFragment.create("/out/b"))).isNull();
+    assertThat(store.get(PathFragment.create("/out/c"))).isNotNull();
+    assertThat(FileSystemUtils.readContent(fs.getPath("/out/b"), UTF_8)).isEqualTo("bbbb");
+    assertThat(store.getTotalSize()).isEqualTo(8);
+  }
+
+  @Test
+  public void testSetCapacitySpillsFiles() throws Exception {
+    store.put(PathFragment.create("/out/a"), "aaaa".getBytes(UTF_8), 0644);
+    store.put(PathFragment.create("/out/b"), "bbbb".getBytes(UTF_8), 0644);
+
+    store.setCapacity(4);
+
+    assertThat(store.get(PathFragment.create("/out/a"))).isNull();
+    assertThat(store.get(PathFragment.create("/out/b"))).isNotNull();
+    assertThat(fs.getPath("/out/a").exists()).isTrue();
+  }
+
+  @Test
+  public void testRemoveTreeAndClearDontWriteFiles() throws Exception {
+    store.put(PathFragment.create("/out/dir/a"), "a".getBytes(UTF_8), 0644);
+    store.put(PathFragment.create("/out/dir/b"), "b".getBytes(UTF_8), 0644);
+    store.put(PathFragment.create("/out/other"), "c".getBytes(UTF_8), 0644);
+
+    store.removeTree(PathFragment.create("/out/dir"));
+
+    assertThat(store.size()).isEqualTo(1);
+    assertThat(store.getTotalSize()).isEqualTo(1);
+
+    store.clear();
+
+    assertThat(store.size()).isEqualTo(0);
+    assertThat(fs.getPath("/out").exists()).isFalse();
+  }
+
+  @Test
+  public void testRename() throws Exception {
+    store.put(PathFragment.create("/out/a"), "a".getBytes(UTF_8), 0644);
+
+    assertThat(store.rename(PathFragment.create("/out/a"), PathFragment.create("/out/b")))
+        .isTrue();
+
+    assertThat(store.get(PathFragment.create("/out/a"))).isNull();
+    assertThat(store.get(PathFragment.create("/out/b")).getContents())
+        .isEqualTo("a".getBytes(UTF_8));
+    assertThat(store.rename(PathFragment.create("/out/a"), PathFragment.create("/out/c")))
+        .isFalse();
+  }
+}
@@ -63,6 +63,7 @@ public final class ProcessWrapperUtilTest {
     Path stdoutPath = testFS.getPath("/stdout.txt");
     Path stderrPath = testFS.getPath("/stderr.txt");
     Path statisticsPath = testFS.getPath("/stats.out");
+    Path cgroupPath = testFS.getPath("/sys/fs/cgroup/bazel/spawn-1");
 
     ImmutableList<String> expectedCommandLine =
         ImmutableList.<String>builder()
@@ -72,6 +73,7 @@ public final class ProcessWrapperUtilTest {
             .add("--stdout=" + stdoutPath)
             .add("--stderr=" + stderrPath)
             .add("--stats=" + statisticsPath)
+            .add("--cgroup=" + cgroupPath)
             .addAll(commandArguments)
             .build();
 
@@ -82,6 +84,7 @@ public final class ProcessWrapperUtilTest {
             .setStdoutPath(stdoutPath)
             .setStderrPath(stderrPath)
             .setStatisticsPath(statisticsPath)
+            .setCgroupPath(cgroupPath)
             .build();
 
     assertThat(commandLine).containsExactlyElementsIn(expectedCommandLine).inOrder();
@@ -0,0 +1,106 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.ActionResult;
+import com.google.devtools.build.lib.actions.SpawnResult;
+import java.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Testing SpawnResourceUsageStats */
+@RunWith(JUnit4.class)
+public final class SpawnResourceUsageStatsTest {
+
+  SpawnResourceUsageStats stats;
+
+  @Before
+  public void setUp() {
+    stats = new SpawnResourceUsageStats();
+  }
+
+  private static SpawnResult measuredSpawn(
+      long wallMillis, long userMillis, long systemMillis, long memoryKb) {
+    return new SpawnResult.Builder()
+        .setStatus(SpawnResult.Status.SUCCESS)
+        .setRunnerName("local")
+        .setWallTime(Duration.ofMillis(wallMillis))
+        .setUserTime(Duration.ofMillis(userMillis))
+        .setSystemTime(Duration.ofMillis(systemMillis))
+        .setMaximumResidentSetSizeKb(memoryKb)
+        .setNumBlockInputOperations(1)
+        .setNumBlockOutputOperations(2)
+        .setNumVoluntaryContextSwitches(3)
+        .setNumInvoluntaryContextSwitches(4)
+        .build();
+  }
+
+  @Test
+  public void emptySet() {
+    assertThat(stats.getSummary()).isEmpty();
+  }
+
+  @Test
+  public void ignoresSpawnsWithoutMeasurement() {
+    stats.countActionResult(
+        "Genrule",
+        ActionResult.create(
+            ImmutableList.of(
+                new SpawnResult.Builder()
+                    .setStatus(SpawnResult.Status.SUCCESS)
+                    .setRunnerName("remote")
+                    .setWallTime(Duration.ofSeconds(1))
+                    .build())));
+    assertThat(stats.getSummary()).isEmpty();
+  }
+
+  @Test
+  public void one() {
+    stats.countActionResult(
+        "CppCompile",
+        ActionResult.create(ImmutableList.of(measuredSpawn(2000, 1500, 500, 200 * 1024))));
+    assertThat(stats.getSummary())
+        .containsExactly(
+            "CppCompile: 1 process, peak memory 200 MB (mean 200 MB), user 1.50s, system 0.50s "
+                + "(1.00 cores), block I/O 1 in / 2 out, context switches 3 voluntary / 4 "
+                + "involuntary");
+  }
+
+  @Test
+  public void aggregatesPerMnemonic() {
+    stats.countActionResult(
+        "CppCompile",
+        ActionResult.create(
+            ImmutableList.of(
+                measuredSpawn(1000, 500, 0, 100 * 1024), measuredSpawn(1000, 500, 0, 300 * 1024))));
+    stats.countActionResult(
+        "CppLink", ActionResult.create(ImmutableList.of(measuredSpawn(4000, 3000, 1000, 1024))));
+    stats.countActionResult(
+        "CppCompile", ActionResult.create(ImmutableList.of(measuredSpawn(2000, 1000, 0, 50 * 1024))));
+    assertThat(stats.getSummary())
+        .containsExactly(
+            "CppLink: 1 process, peak memory 1 MB (mean 1 MB), user 3.00s, system 1.00s "
+                + "(1.00 cores), block I/O 1 in / 2 out, context switches 3 voluntary / 4 "
+                + "involuntary",
+            "CppCompile: 3 processes, peak memory 300 MB (mean 150 MB), user 2.00s, system 0.00s "
+                + "(0.50 cores), block I/O 3 in / 6 out, context switches 9 voluntary / 12 "
+                + "involuntary")
+        .inOrder();
+  }
+}
@@ -0,0 +1,148 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link AsynchronousTreeDeleter}. */
+@RunWith(JUnit4.class)
+public class AsynchronousTreeDeleterTest {
+  private final FileSystem fileSystem = new InMemoryFileSystem();
+  private Path base;
+  private AsynchronousTreeDeleter treeDeleter;
+
+  @Before
+  public final void setUp() throws Exception {
+    base = fileSystem.getPath("/base");
+    base.createDirectoryAndParents();
+    treeDeleter = new AsynchronousTreeDeleter();
+  }
+
+  @After
+  public final void shutDown() {
+    treeDeleter.shutdown();
+  }
+
+  /** Creates a tree that is deeper and wider than the part of it that is deleted in parallel. */
+  private static void createTree(Path root) throws IOException {
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        Path dir = root.getRelative("d" + i + "/d" + j + "/deeper/deepest");
+        dir.createDirectoryAndParents();
+        FileSystemUtils.createEmptyFile(dir.getChild("file"));
+        FileSystemUtils.createEmptyFile(dir.getParentDirectory().getChild("file"));
+      }
+      FileSystemUtils.createEmptyFile(root.getRelative("d" + i + "/file"));
+      root.getRelative("d" + i + "/link").createSymbolicLink(PathFragment.create("/base"));
+    }
+    root.getRelative("d0").setWritable(false);
+  }
+
+  private void awaitDeletions() throws InterruptedException {
+    for (int i = 0; i < 1000 && treeDeleter.getBacklog() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(treeDeleter.getBacklog()).isEqualTo(0);
+  }
+
+  @Test
+  public void testDeleteTreeInParallel() throws Exception {
+    treeDeleter.setThreads(4);
+    Path root = base.getChild("root");
+    createTree(root);
+
+    treeDeleter.deleteTree(root);
+    awaitDeletions();
+
+    assertThat(root.exists()).isFalse();
+    assertThat(base.exists()).isTrue();
+  }
+
+  @Test
+  public void testDeleteTreesBelowKeepsDirectory() throws Exception {
+    Path root = base.getChild("root");
+    createTree(root);
+
+    treeDeleter.deleteTreesBelow(root);
+    awaitDeletions();
+
+    assertThat(root.isDirectory()).isTrue();
+    assertThat(root.getDirectoryEntries()).isEmpty();
+  }
+
+  @Test
+  public void testDeleteTreeMovesTreeToTrash() throws Exception {
+    Path trash = fileSystem.getPath("/trash");
+    treeDeleter.setTrashBase(trash);
+    Path root = base.getChild("root");
+    createTree(root);
+
+    assertThat(treeDeleter.tryDeleteTreeInTrash(root)).isTrue();
+
+    // The path can be reused right away.
+    assertThat(root.exists()).isFalse();
+    root.createDirectory();
+    awaitDeletions();
+    assertThat(root.isDirectory()).isTrue();
+    assertThat(trash.getDirectoryEntries()).isEmpty();
+  }
+
+  @Test
+  public void testTryDeleteTreeInTrashWithoutTrash() throws Exception {
+    Path root = base.getChild("root");
+    createTree(root);
+
+    assertThat(treeDeleter.tryDeleteTreeInTrash(root)).isFalse();
+
+    awaitDeletions();
+    assertThat(root.exists()).isTrue();
+  }
+
+  @Test
+  public void testSetTrashBaseDeletesLeftovers() throws Exception {
+    Path trash = fileSystem.getPath("/trash");
+    createTree(trash.getChild("leftover"));
+
+    treeDeleter.setTrashBase(trash);
+    awaitDeletions();
+
+    assertThat(trash.getDirectoryEntries()).isEmpty();
+  }
+
+  @Test
+  public void testThreadsCanGrowAndShrink() throws Exception {
+    treeDeleter.setThreads(8);
+    treeDeleter.setThreads(1);
+    Path root = base.getChild("root");
+    createTree(root);
+
+    treeDeleter.deleteTree(root);
+    awaitDeletions();
+
+    assertThat(root.exists()).isFalse();
+  }
+}
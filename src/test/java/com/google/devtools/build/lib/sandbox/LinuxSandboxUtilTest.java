@@ -18,13 +18,20 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
 import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
 import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -84,6 +91,7 @@ public final class LinuxSandboxUtilTest {
     Duration timeout = Duration.ofSeconds(10);
     Duration killDelay = Duration.ofSeconds(2);
     Path statisticsPath = testFS.getPath("/stats.out");
+    Path cgroupPath = testFS.getPath("/sys/fs/cgroup/bazel/spawn-1");
 
     Path workingDirectory = testFS.getPath("/all-work-and-no-play");
     Path stdoutPath = testFS.getPath("/stdout.txt");
@@ -144,6 +152,7 @@ public final class LinuxSandboxUtilTest {
             .add("-M", bindMountSource2.getPathString())
             .add("-m", bindMountTarget2.getPathString())
             .add("-S", statisticsPath.getPathString())
+            .add("-C", cgroupPath.getPathString())
             .add("-H")
             .add("-N")
             .add("-U")
@@ -166,10 +175,95 @@ public final class LinuxSandboxUtilTest {
             .setCreateNetworkNamespace(createNetworkNamespace)
             .setUseFakeRoot(useFakeRoot)
             .setStatisticsPath(statisticsPath)
+            .setCgroupPath(cgroupPath)
             .setUseFakeUsername(useFakeUsername)
             .setUseDebugMode(useDebugMode)
             .build();
 
     assertThat(commandLine).containsExactlyElementsIn(expectedCommandLine).inOrder();
   }
+
+  /** Creates {@code count} files in {@code dir} below {@code execRoot} and maps them as inputs. */
+  private static void addInputs(
+      Path execRoot, String dir, int count, ImmutableMap.Builder<PathFragment, Path> inputs)
+      throws IOException {
+    Path directory = execRoot.getRelative(dir);
+    directory.createDirectoryAndParents();
+    for (int i = 0; i < count; i++) {
+      Path file = directory.getChild("file" + i + ".h");
+      FileSystemUtils.createEmptyFile(file);
+      inputs.put(file.relativeTo(execRoot), file);
+    }
+  }
+
+  @Test
+  public void testFindMountableInputDirectories() throws Exception {
+    Path execRoot = testFS.getPath("/execroot");
+    int n = LinuxSandboxUtil.MIN_INPUTS_PER_MOUNTED_DIRECTORY;
+    ImmutableMap.Builder<PathFragment, Path> inputs = ImmutableMap.builder();
+    // All files are inputs.
+    addInputs(execRoot, "external/lib/include", n, inputs);
+    // Too few files to be worth a mount.
+    addInputs(execRoot, "small", n - 1, inputs);
+    // An undeclared file would become visible.
+    addInputs(execRoot, "undeclared", n, inputs);
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("undeclared/BUILD"));
+    // So would the contents of a subdirectory.
+    addInputs(execRoot, "nested", n, inputs);
+    execRoot.getRelative("nested/sub").createDirectory();
+    // An output goes there.
+    addInputs(execRoot, "out", n, inputs);
+    // Other actions may write undeclared files there while the spawn runs.
+    addInputs(execRoot, "bazel-out/k8-fastbuild/bin/gen", n, inputs);
+
+    ImmutableSet<PathFragment> mountable =
+        LinuxSandboxUtil.findMountableInputDirectories(
+            execRoot,
+            PathFragment.create("bazel-out"),
+            new SandboxInputs(inputs.build(), ImmutableMap.of()),
+            SandboxOutputs.create(
+                ImmutableSet.of(PathFragment.create("out/generated.h")), ImmutableSet.of()),
+            ImmutableSet.of());
+
+    assertThat(mountable).containsExactly(PathFragment.create("external/lib/include"));
+  }
+
+  @Test
+  public void testFindMountableInputDirectories_inputsMappedElsewhereAreNotMounted()
+      throws Exception {
+    Path execRoot = testFS.getPath("/execroot");
+    ImmutableMap.Builder<PathFragment, Path> inputs = ImmutableMap.builder();
+    addInputs(execRoot, "lib", LinuxSandboxUtil.MIN_INPUTS_PER_MOUNTED_DIRECTORY, inputs);
+    ImmutableMap.Builder<PathFragment, Path> runfiles = ImmutableMap.builder();
+    for (Map.Entry<PathFragment, Path> input : inputs.build().entrySet()) {
+      runfiles.put(
+          PathFragment.create("tool.runfiles/ws").getRelative(input.getKey()), input.getValue());
+    }
+
+    assertThat(
+            LinuxSandboxUtil.findMountableInputDirectories(
+                execRoot,
+                PathFragment.create("bazel-out"),
+                new SandboxInputs(runfiles.build(), ImmutableMap.of()),
+                SandboxOutputs.create(ImmutableSet.of(), ImmutableSet.of()),
+                ImmutableSet.of()))
+        .isEmpty();
+  }
+
+  @Test
+  public void testWithoutInputsIn() {
+    Path execRoot = testFS.getPath("/execroot");
+    SandboxInputs inputs =
+        new SandboxInputs(
+            ImmutableMap.of(
+                PathFragment.create("a/x.h"), execRoot.getRelative("a/x.h"),
+                PathFragment.create("a/b/y.h"), execRoot.getRelative("a/b/y.h")),
+            ImmutableMap.of());
+
+    assertThat(
+            LinuxSandboxUtil.withoutInputsIn(inputs, ImmutableSet.of(PathFragment.create("a")))
+                .getFiles()
+                .keySet())
+        .containsExactly(PathFragment.create("a/b/y.h"));
+  }
 }
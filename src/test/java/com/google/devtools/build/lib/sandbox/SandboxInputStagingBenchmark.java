@@ -0,0 +1,120 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the time it takes to stage the inputs of a header-heavy spawn as a symlink forest with
+ * the time it takes when fully declared input directories are bind-mounted by the linux-sandbox
+ * instead (see {@link LinuxSandboxUtil#findMountableInputDirectories}).
+ *
+ * <p>Only the work done in Bazel is measured: creating and deleting the sandbox tree, plus finding
+ * the mountable directories. The mounts themselves happen in the linux-sandbox process and cost
+ * two system calls per directory there.
+ */
+public class SandboxInputStagingBenchmark {
+  private static final int FILES_PER_DIRECTORY = 50;
+
+  @Param({"1000", "10000"})
+  private int numInputs;
+
+  private Path execRoot;
+  private Path sandboxBase;
+  private SandboxInputs inputs;
+  private final SandboxOutputs outputs =
+      SandboxOutputs.create(ImmutableSet.of(PathFragment.create("out/a.o")), ImmutableSet.of());
+  private int sandboxCounter;
+
+  @BeforeExperiment
+  void createInputs() throws Exception {
+    JavaIoFileSystem fs = new JavaIoFileSystem(DigestHashFunction.SHA256);
+    Path root =
+        fs.getPath(Files.createTempDirectory("SandboxInputStagingBenchmark").toString());
+    execRoot = root.getRelative("execroot");
+    sandboxBase = root.getRelative("sandbox");
+    sandboxBase.createDirectoryAndParents();
+    Map<PathFragment, Path> files = new TreeMap<>();
+    for (int i = 0; i < numInputs; i++) {
+      Path file = execRoot.getRelative("include/d" + (i / FILES_PER_DIRECTORY) + "/h" + i + ".h");
+      if (i % FILES_PER_DIRECTORY == 0) {
+        file.getParentDirectory().createDirectoryAndParents();
+      }
+      FileSystemUtils.createEmptyFile(file);
+      files.put(file.relativeTo(execRoot), file);
+    }
+    inputs = new SandboxInputs(files, ImmutableMap.of());
+  }
+
+  @AfterExperiment
+  void deleteInputs() throws Exception {
+    execRoot.getParentDirectory().deleteTree();
+  }
+
+  private void stage(SandboxInputs inputs, ImmutableSet<PathFragment> mountPoints)
+      throws Exception {
+    Path sandboxPath = sandboxBase.getChild(Integer.toString(sandboxCounter++));
+    Path sandboxExecRoot = sandboxPath.getRelative("execroot/ws");
+    sandboxExecRoot.createDirectoryAndParents();
+    SymlinkedSandboxedSpawn spawn =
+        new SymlinkedSandboxedSpawn(
+            sandboxPath,
+            sandboxExecRoot,
+            ImmutableList.of(),
+            ImmutableMap.of(),
+            inputs,
+            outputs,
+            ImmutableSet.of(),
+            new SynchronousTreeDeleter(),
+            /* statisticsPath= */ null);
+    spawn.createFileSystem();
+    for (PathFragment dir : mountPoints) {
+      sandboxExecRoot.getRelative(dir).createDirectoryAndParents();
+    }
+    spawn.delete();
+  }
+
+  @Benchmark
+  void symlinkForest(int reps) throws Exception {
+    for (int i = 0; i < reps; i++) {
+      stage(inputs, ImmutableSet.of());
+    }
+  }
+
+  @Benchmark
+  void mountedDirectories(int reps) throws Exception {
+    for (int i = 0; i < reps; i++) {
+      ImmutableSet<PathFragment> mountPoints =
+          LinuxSandboxUtil.findMountableInputDirectories(
+              execRoot, PathFragment.create("bazel-out"), inputs, outputs, ImmutableSet.of());
+      stage(LinuxSandboxUtil.withoutInputsIn(inputs, mountPoints), mountPoints);
+    }
+  }
+}
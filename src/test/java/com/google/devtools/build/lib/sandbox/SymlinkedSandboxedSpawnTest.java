@@ -112,4 +112,73 @@ public class SymlinkedSandboxedSpawnTest {
 
     assertThat(outputsDir.getRelative("very/output.txt").isFile(Symlinks.NOFOLLOW)).isTrue();
   }
+
+  private SymlinkedSandboxedSpawn createStashingSpawn(
+      Path sandboxPath, Path sandboxExecRoot, SandboxStash stash, Path... inputs) {
+    ImmutableMap.Builder<PathFragment, Path> inputFiles = ImmutableMap.builder();
+    for (Path input : inputs) {
+      inputFiles.put(input.relativeTo(workspaceDir), input);
+    }
+    return new SymlinkedSandboxedSpawn(
+        sandboxPath,
+        sandboxExecRoot,
+        ImmutableList.of("/bin/true"),
+        ImmutableMap.of(),
+        new SandboxInputs(inputFiles.build(), ImmutableMap.of()),
+        SandboxOutputs.create(
+            ImmutableSet.of(PathFragment.create("very/output.txt")), ImmutableSet.of()),
+        ImmutableSet.of(),
+        new SynchronousTreeDeleter(),
+        /* statisticsPath= */ null,
+        stash,
+        "Mnemonic");
+  }
+
+  @Test
+  public void reusesStashedExecRoot() throws Exception {
+    Path shared = workspaceDir.getRelative("shared.h");
+    Path onlyFirst = workspaceDir.getRelative("first.cc");
+    Path onlySecond = workspaceDir.getRelative("second.cc");
+    for (Path p : ImmutableList.of(shared, onlyFirst, onlySecond)) {
+      FileSystemUtils.createEmptyFile(p);
+    }
+    SandboxStash stash = new SandboxStash(sandboxDir.getRelative("base"));
+
+    Path firstSandbox = sandboxDir.getRelative("base/runner/1");
+    Path firstExecRoot = firstSandbox.getRelative("execroot/workspace");
+    firstExecRoot.createDirectoryAndParents();
+    SymlinkedSandboxedSpawn first =
+        createStashingSpawn(firstSandbox, firstExecRoot, stash, shared, onlyFirst);
+    first.createFileSystem();
+    long sharedNodeId = firstExecRoot.getRelative("shared.h").stat(Symlinks.NOFOLLOW).getNodeId();
+    // An output that is not moved out, e.g. because the spawn failed.
+    FileSystemUtils.createEmptyFile(firstExecRoot.getRelative("very/output.txt"));
+    // A directory the spawn made read-only.
+    firstExecRoot.getRelative("readonly").createDirectory();
+    FileSystemUtils.createEmptyFile(firstExecRoot.getRelative("readonly/file"));
+    firstExecRoot.getRelative("readonly").setWritable(false);
+    first.delete();
+    assertThat(firstSandbox.exists()).isFalse();
+
+    Path secondSandbox = sandboxDir.getRelative("base/runner/2");
+    Path secondExecRoot = secondSandbox.getRelative("execroot/workspace");
+    secondExecRoot.getParentDirectory().createDirectoryAndParents();
+    assertThat(stash.takeStashedExecRoot("Mnemonic", secondExecRoot)).isTrue();
+    createStashingSpawn(secondSandbox, secondExecRoot, stash, shared, onlySecond)
+        .createFileSystem();
+
+    assertThat(secondExecRoot.getRelative("shared.h").stat(Symlinks.NOFOLLOW).getNodeId())
+        .isEqualTo(sharedNodeId);
+    assertThat(secondExecRoot.getRelative("second.cc").resolveSymbolicLinks())
+        .isEqualTo(onlySecond);
+    assertThat(secondExecRoot.getRelative("first.cc").exists()).isFalse();
+    assertThat(secondExecRoot.getRelative("very/output.txt").exists()).isFalse();
+    assertThat(secondExecRoot.getRelative("very").isDirectory()).isTrue();
+    assertThat(secondExecRoot.getRelative("readonly").exists()).isFalse();
+    assertThat(stash.getAndResetStatistics())
+        .isEqualTo("Sandbox stash: 3 input symlinks created, 1 reused");
+
+    // Nothing is left for other mnemonics.
+    assertThat(stash.takeStashedExecRoot("Other", sandboxDir.getRelative("other"))).isFalse();
+  }
 }
@@ -18,6 +18,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth8.assertThat;
 
 import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.Path;
@@ -64,6 +65,13 @@ public final class ExecutionStatisticsTest {
     assertThat(resourceUsage).isEmpty();
   }
 
+  @Test
+  public void testNoResourceUsage_whenNoProtoFile() throws Exception {
+    Optional<ExecutionStatistics.ResourceUsage> resourceUsage =
+        ExecutionStatistics.getResourceUsage(workingDir.getRelative("missing"));
+    assertThat(resourceUsage).isEmpty();
+  }
+
   @Test
   public void testStatiticsProvided_fromProtoFilename() throws Exception {
     Duration riggedUserExecutionTime = Duration.ofSeconds(42).plusNanos(19790000);
@@ -119,6 +127,13 @@ public final class ExecutionStatisticsTest {
     assertThat(resourceUsage.getUserExecutionTime()).isEqualTo(riggedUserExecutionTime);
     assertThat(resourceUsage.getSystemExecutionTime()).isEqualTo(riggedSystemExecutionTime);
     assertThat(resourceUsage.getMaximumResidentSetSize()).isEqualTo(riggedMaximumResidentSetSize);
+    if (OS.getCurrent() == OS.DARWIN) {
+      assertThat(resourceUsage.getMaximumResidentSetSizeKb())
+          .isEqualTo(riggedMaximumResidentSetSize / 1024);
+    } else {
+      assertThat(resourceUsage.getMaximumResidentSetSizeKb())
+          .isEqualTo(riggedMaximumResidentSetSize);
+    }
     assertThat(resourceUsage.getIntegralSharedMemorySize())
         .isEqualTo(riggedIntegralSharedMemorySize);
     assertThat(resourceUsage.getIntegralUnsharedDataSize())
@@ -87,6 +87,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 import org.junit.Before;
@@ -210,6 +211,30 @@ public class FilesystemValueCheckerTest {
     assertEmptyDiff(getDirtyFilesystemKeys(evaluator, checker));
   }
 
+  @Test
+  public void testFileSystemBatchStat() throws Exception {
+    FilesystemValueChecker checker = new FilesystemValueChecker(null, null);
+    fs.providesBatchStatter = true;
+
+    Path file = fs.getPath("/foo");
+    FileSystemUtils.createEmptyFile(file);
+    Path missing = fs.getPath("/bar");
+    SkyKey fileKey =
+        FileStateValue.key(RootedPath.toRootedPath(Root.absoluteRoot(fs), file.asFragment()));
+    SkyKey missingKey =
+        FileStateValue.key(RootedPath.toRootedPath(Root.absoluteRoot(fs), missing.asFragment()));
+    EvaluationResult<SkyValue> result =
+        driver.evaluate(ImmutableList.of(fileKey, missingKey), EVALUATION_OPTIONS);
+    assertThat(result.hasError()).isFalse();
+
+    assertEmptyDiff(getDirtyFilesystemKeys(evaluator, checker));
+    assertThat(fs.batchStatCalls.get()).isGreaterThan(0);
+
+    FileSystemUtils.writeContentAsLatin1(file, "hello");
+    FileSystemUtils.createEmptyFile(missing);
+    assertDiffWithNewValues(getDirtyFilesystemKeys(evaluator, checker), fileKey, missingKey);
+  }
+
   /**
    * Tests that an already-invalidated value can still be marked changed: symlink points at sym1.
    * Invalidate symlink by changing sym1 from pointing at path to point to sym2. This only dirties
@@ -1022,11 +1047,31 @@ public class FilesystemValueCheckerTest {
 
     boolean statThrowsRuntimeException;
     boolean readlinkThrowsIoException;
+    boolean providesBatchStatter;
+    final AtomicInteger batchStatCalls = new AtomicInteger(0);
 
     MockFileSystem() {
       super();
     }
 
+    @Override
+    public BatchStat getBatchStatter(Path root) {
+      if (!providesBatchStatter) {
+        return null;
+      }
+      return (includeDigest, includeLinks, paths) -> {
+        batchStatCalls.incrementAndGet();
+        List<FileStatusWithDigest> stats = new ArrayList<>();
+        for (PathFragment path : paths) {
+          stats.add(
+              FileStatusWithDigestAdapter.adapt(
+                  root.getRelative(path)
+                      .statIfFound(includeLinks ? Symlinks.NOFOLLOW : Symlinks.FOLLOW)));
+        }
+        return stats;
+      };
+    }
+
     @Override
     public FileStatus statIfFound(Path path, boolean followSymlinks) throws IOException {
       if (statThrowsRuntimeException) {
@@ -0,0 +1,128 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.devtools.build.lib.skyframe.DiffAwareness.View;
+import com.google.devtools.common.options.OptionsBase;
+import com.google.devtools.common.options.OptionsProvider;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Benchmarks the time from the creation of a {@link LocalDiffAwareness} to the diff of the first
+ * incremental build, on a synthetic source tree of the requested size.
+ */
+public class LocalDiffAwarenessBenchmark {
+  private static final int FILES_PER_DIRECTORY = 50;
+  private static final int DIRECTORIES_PER_DIRECTORY = 20;
+
+  /** The {@link LocalDiffAwareness} implementations to compare. */
+  enum Implementation {
+    INOTIFY {
+      @Override
+      LocalDiffAwareness create(Path watchRoot) {
+        Preconditions.checkState(LinuxInotifyDiffAwareness.JNI_AVAILABLE);
+        return new LinuxInotifyDiffAwareness(watchRoot.toString());
+      }
+    },
+    WATCH_SERVICE {
+      @Override
+      LocalDiffAwareness create(Path watchRoot) {
+        return new WatchServiceDiffAwareness(watchRoot.toString());
+      }
+    };
+
+    abstract LocalDiffAwareness create(Path watchRoot);
+  }
+
+  @Param({"INOTIFY", "WATCH_SERVICE"})
+  private Implementation implementation;
+
+  @Param({"10000", "500000"})
+  private int numFiles;
+
+  private Path watchRoot;
+  private Path changedFile;
+  private final OptionsProvider watchFsEnabled = new WatchFsEnabledOptionsProvider();
+
+  @BeforeExperiment
+  void createSourceTree() throws Exception {
+    watchRoot = Files.createTempDirectory("LocalDiffAwarenessBenchmark");
+    int numDirectories = (numFiles + FILES_PER_DIRECTORY - 1) / FILES_PER_DIRECTORY;
+    Path[] directories = new Path[numDirectories];
+    directories[0] = watchRoot;
+    for (int i = 1; i < numDirectories; i++) {
+      // Directory i is a child of directory (i - 1) / DIRECTORIES_PER_DIRECTORY.
+      directories[i] =
+          Files.createDirectory(directories[(i - 1) / DIRECTORIES_PER_DIRECTORY].resolve("d" + i));
+    }
+    for (int i = 0; i < numFiles; i++) {
+      changedFile =
+          Files.createFile(directories[i / FILES_PER_DIRECTORY].resolve("f" + i + ".java"));
+    }
+  }
+
+  @AfterExperiment
+  void deleteSourceTree() throws Exception {
+    MoreFiles.deleteRecursively(watchRoot, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  /**
+   * Creates a diff awareness, takes the view of the first build, changes a single file and takes
+   * the view of the next build.
+   */
+  @Benchmark
+  void firstIncrementalDiff(int reps) throws Exception {
+    for (int i = 0; i < reps; i++) {
+      LocalDiffAwareness diffAwareness = implementation.create(watchRoot);
+      try {
+        View first = diffAwareness.getCurrentView(watchFsEnabled);
+        Files.write(changedFile, new byte[] {(byte) i});
+        View second = diffAwareness.getCurrentView(watchFsEnabled);
+        diffAwareness.getDiff(first, second);
+      } finally {
+        diffAwareness.close();
+      }
+    }
+  }
+
+  private static final class WatchFsEnabledOptionsProvider implements OptionsProvider {
+    private final LocalDiffAwareness.Options options = new LocalDiffAwareness.Options();
+
+    private WatchFsEnabledOptionsProvider() {
+      options.watchFS = true;
+    }
+
+    @Override
+    public <O extends OptionsBase> O getOptions(Class<O> optionsClass) {
+      return optionsClass.equals(LocalDiffAwareness.Options.class)
+          ? optionsClass.cast(options)
+          : null;
+    }
+
+    @Override
+    public Map<String, Object> getStarlarkOptions() {
+      return ImmutableMap.of();
+    }
+  }
+}
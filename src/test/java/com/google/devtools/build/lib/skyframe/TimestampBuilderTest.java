@@ -296,6 +296,36 @@ public class TimestampBuilderTest extends TimestampBuilderTestCase {
     assertThat(anotherButton.pressed).isFalse();
   }
 
+  @Test
+  public void testCreatesOutputDirectoriesBelowOnesCreatedEarlier() throws Exception {
+    // [action1] -> pkg/a/hello
+    // pkg/a/hello -> [action2] -> pkg/a/b/goodbye
+    // pkg/a/hello -> [action3] -> pkg/c/d/goodbye
+    Artifact hello = createDerivedArtifact("pkg/a/hello");
+    Artifact goodbye1 = createDerivedArtifact("pkg/a/b/goodbye");
+    Artifact goodbye2 = createDerivedArtifact("pkg/c/d/goodbye");
+    Button button1 = createActionButton(emptySet, Sets.newHashSet(hello));
+    Button button2 = createActionButton(Sets.newHashSet(hello), Sets.newHashSet(goodbye1));
+    Button button3 = createActionButton(Sets.newHashSet(hello), Sets.newHashSet(goodbye2));
+
+    buildArtifacts(amnesiacBuilder(), goodbye1, goodbye2);
+    assertThat(button1.pressed).isTrue();
+    assertThat(button2.pressed).isTrue();
+    assertThat(button3.pressed).isTrue();
+    assertThat(goodbye1.getPath().getParentDirectory().isDirectory()).isTrue();
+    assertThat(goodbye2.getPath().getParentDirectory().isDirectory()).isTrue();
+
+    // The directories known to exist are forgotten between builds.
+    hello.getPath().getParentDirectory().getParentDirectory().deleteTree();
+    button1.pressed = false;
+    button2.pressed = false;
+    button3.pressed = false;
+    buildArtifacts(amnesiacBuilder(), goodbye1, goodbye2);
+    assertThat(button1.pressed).isTrue();
+    assertThat(button2.pressed).isTrue();
+    assertThat(button3.pressed).isTrue();
+  }
+
   @Test
   public void testMissingSourceFileIsAnError() throws Exception {
     // A missing input to an action must be treated as an error because there's
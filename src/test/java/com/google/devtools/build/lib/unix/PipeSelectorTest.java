@@ -0,0 +1,82 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.unix;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PipeSelector}. */
+@RunWith(JUnit4.class)
+public class PipeSelectorTest {
+  private final PipeSelector selector = new PipeSelector(2);
+
+  private static void write(int fd, String data) throws Exception {
+    byte[] bytes = data.getBytes(UTF_8);
+    NativePosixFiles.write(fd, bytes, 0, bytes.length);
+  }
+
+  @Test
+  public void testDrainsManyPipesOnFewThreads() throws Exception {
+    List<int[]> pipes = new ArrayList<>();
+    List<ByteArrayOutputStream> outs = new ArrayList<>();
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      int[] pipe = NativePosixProcesses.pipe();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      pipes.add(pipe);
+      outs.add(out);
+      futures.add(selector.drain(pipe[0], out, /* closeOut= */ false));
+    }
+    for (int i = 0; i < 50; i++) {
+      write(pipes.get(i)[1], "first " + i + ",");
+    }
+    for (int i = 0; i < 50; i++) {
+      write(pipes.get(i)[1], "second " + i);
+      NativePosixFiles.close(pipes.get(i)[1], null);
+    }
+
+    for (int i = 0; i < 50; i++) {
+      futures.get(i).get(10, TimeUnit.SECONDS);
+      assertThat(outs.get(i).toString("UTF-8")).isEqualTo("first " + i + ",second " + i);
+    }
+    assertThat(selector.getAndResetStatistics())
+        .isEqualTo(
+            "Pipe selector: 50 subprocess output streams drained by 2 threads, at most 50 at once "
+                + "(48 threads saved)");
+  }
+
+  @Test
+  public void testCancellingStopsDraining() throws Exception {
+    int[] pipe = NativePosixProcesses.pipe();
+    Future<?> future = selector.drain(pipe[0], null, /* closeOut= */ false);
+    future.cancel(true);
+
+    // The selector thread finishes the drain once it notices.
+    long deadline = System.currentTimeMillis() + 10000;
+    while (selector.getAndResetStatistics().startsWith("Pipe selector: 0 ")) {
+      assertThat(System.currentTimeMillis()).isLessThan(deadline);
+      Thread.sleep(10);
+    }
+    NativePosixFiles.close(pipe[1], null);
+  }
+}
@@ -0,0 +1,193 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.unix;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.shell.Command;
+import com.google.devtools.build.lib.shell.CommandResult;
+import com.google.devtools.build.lib.shell.FutureCommandResult;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import com.google.devtools.build.lib.shell.SubprocessFactory;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PosixSpawnSubprocessFactory}. */
+@RunWith(JUnit4.class)
+public class PosixSpawnSubprocessFactoryTest {
+  private File workingDir;
+
+  @Before
+  public final void checkAvailability() throws Exception {
+    assumeTrue(PosixSpawnSubprocessFactory.isAvailable());
+    workingDir = new File(TestUtils.tmpDir()).getCanonicalFile();
+  }
+
+  private static SubprocessBuilder builder(String... argv) {
+    return new SubprocessBuilder(PosixSpawnSubprocessFactory.INSTANCE).setArgv(argv);
+  }
+
+  private static String readFully(InputStream in) throws IOException {
+    return new String(ByteStreams.toByteArray(in), UTF_8);
+  }
+
+  @Test
+  public void testStreamsAndExitCode() throws Exception {
+    Subprocess process =
+        builder("/bin/sh", "-c", "echo out; echo err >&2; exit 3")
+            .setWorkingDirectory(workingDir)
+            .start();
+    process.getOutputStream().close();
+    assertThat(readFully(process.getInputStream())).isEqualTo("out\n");
+    assertThat(readFully(process.getErrorStream())).isEqualTo("err\n");
+    process.waitFor();
+    process.close();
+
+    assertThat(process.finished()).isTrue();
+    assertThat(process.timedout()).isFalse();
+    assertThat(process.exitValue()).isEqualTo(3);
+    assertThat(process.getProcessId()).isGreaterThan(0L);
+  }
+
+  @Test
+  public void testStdin() throws Exception {
+    Subprocess process = builder("/bin/cat").setWorkingDirectory(workingDir).start();
+    try (OutputStream stdin = process.getOutputStream()) {
+      stdin.write("to stdin".getBytes(UTF_8));
+    }
+    assertThat(readFully(process.getInputStream())).isEqualTo("to stdin");
+    process.waitFor();
+    process.close();
+
+    assertThat(process.exitValue()).isEqualTo(0);
+  }
+
+  @Test
+  public void testEnvironmentAndWorkingDirectory() throws Exception {
+    Subprocess process =
+        builder("/bin/sh", "-c", "echo $FOO; pwd")
+            .setEnv(ImmutableMap.of("FOO", "bar"))
+            .setWorkingDirectory(workingDir)
+            .start();
+    process.getOutputStream().close();
+
+    assertThat(readFully(process.getInputStream())).isEqualTo("bar\n" + workingDir + "\n");
+    process.waitFor();
+    process.close();
+  }
+
+  @Test
+  public void testRedirectsReplaceExistingFiles() throws Exception {
+    File stdout = new File(workingDir, "stdout");
+    Files.write(stdout.toPath(), "stale".getBytes(UTF_8));
+    Subprocess process =
+        builder("/bin/sh", "-c", "echo out; echo err >&2")
+            .setStdout(stdout)
+            .redirectErrorStream(true)
+            .setWorkingDirectory(workingDir)
+            .start();
+    process.getOutputStream().close();
+    process.waitFor();
+    process.close();
+
+    assertThat(readFully(process.getInputStream())).isEmpty();
+    assertThat(new String(Files.readAllBytes(stdout.toPath()), UTF_8)).isEqualTo("out\nerr\n");
+  }
+
+  @Test
+  public void testMissingProgram() {
+    IOException e =
+        assertThrows(
+            IOException.class,
+            () -> builder("/does/not/exist").setWorkingDirectory(workingDir).start());
+    assertThat(e).hasMessageThat().contains("/does/not/exist");
+  }
+
+  @Test
+  public void testDestroy() throws Exception {
+    Subprocess process = builder("/bin/sleep", "60").setWorkingDirectory(workingDir).start();
+    assertThat(process.finished()).isFalse();
+    process.destroyAndWait();
+    process.close();
+
+    // 128 + SIGTERM, like java.lang.Process.
+    assertThat(process.exitValue()).isEqualTo(143);
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    Subprocess process =
+        builder("/bin/sleep", "60")
+            .setTimeoutMillis(100)
+            .setWorkingDirectory(workingDir)
+            .start();
+    process.waitFor();
+    process.close();
+
+    assertThat(process.timedout()).isTrue();
+    assertThat(process.finished()).isTrue();
+  }
+
+  @Test
+  public void testCommandOutputIsDrainedBySelector() throws Exception {
+    SubprocessFactory previousFactory = SubprocessBuilder.getDefaultSubprocessFactory();
+    SubprocessBuilder.setDefaultSubprocessFactory(PosixSpawnSubprocessFactory.INSTANCE);
+    try {
+      List<FutureCommandResult> results = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        String script = "echo out " + i + "; echo err " + i + " >&2";
+        results.add(new Command(new String[] {"/bin/sh", "-c", script}).executeAsync());
+      }
+      for (int i = 0; i < 20; i++) {
+        CommandResult result = results.get(i).get();
+        assertThat(new String(result.getStdout(), UTF_8)).isEqualTo("out " + i + "\n");
+        assertThat(new String(result.getStderr(), UTF_8)).isEqualTo("err " + i + "\n");
+      }
+    } finally {
+      SubprocessBuilder.setDefaultSubprocessFactory(previousFactory);
+    }
+  }
+
+  @Test
+  public void testFileDescriptorsAreNotInherited() throws Exception {
+    assumeTrue(new File("/proc/self/fd").isDirectory());
+    File file = new File(workingDir, "open");
+    try (OutputStream unused = new FileOutputStream(file)) {
+      Subprocess process =
+          builder("/bin/sh", "-c", "ls -l /proc/$$/fd").setWorkingDirectory(workingDir).start();
+      process.getOutputStream().close();
+
+      assertThat(readFully(process.getInputStream())).doesNotContain(file.getPath());
+      process.waitFor();
+      process.close();
+    }
+  }
+}
@@ -0,0 +1,109 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.unix;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.devtools.build.lib.shell.JavaSubprocessFactory;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import com.google.devtools.build.lib.shell.SubprocessFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures how many short-lived processes {@link JavaSubprocessFactory} and {@link
+ * PosixSpawnSubprocessFactory} start per second when as many threads start them in parallel as
+ * there are local --jobs.
+ */
+public class SubprocessFactoryBenchmark {
+  /** The subprocess factories to compare. */
+  public enum Factory {
+    JAVA(JavaSubprocessFactory.INSTANCE),
+    POSIX_SPAWN(PosixSpawnSubprocessFactory.INSTANCE);
+
+    private final SubprocessFactory factory;
+
+    Factory(SubprocessFactory factory) {
+      this.factory = factory;
+    }
+  }
+
+  @Param({"JAVA", "POSIX_SPAWN"})
+  private Factory factory;
+
+  @Param({"1", "16", "64"})
+  private int jobs;
+
+  /** The size of the live heap in MB; forking gets slower the more memory the server maps. */
+  @Param({"0", "1024"})
+  private int heapMb;
+
+  private ExecutorService executor;
+  private byte[][] heap;
+
+  @BeforeExperiment
+  void setUp() {
+    if (factory == Factory.POSIX_SPAWN && !PosixSpawnSubprocessFactory.isAvailable()) {
+      throw new IllegalStateException("posix_spawn(3) is not supported on this platform");
+    }
+    executor = Executors.newFixedThreadPool(jobs);
+    heap = new byte[heapMb][];
+    for (int i = 0; i < heapMb; i++) {
+      heap[i] = new byte[1 << 20];
+      // Touch every page, so that it is mapped.
+      for (int j = 0; j < heap[i].length; j += 4096) {
+        heap[i][j] = 1;
+      }
+    }
+  }
+
+  @AfterExperiment
+  void tearDown() {
+    executor.shutdownNow();
+    heap = null;
+  }
+
+  private Void runTrue() throws Exception {
+    Subprocess process =
+        new SubprocessBuilder(factory.factory)
+            .setArgv("/bin/true")
+            .setWorkingDirectory(new File("/"))
+            .start();
+    process.getOutputStream().close();
+    process.waitFor();
+    process.close();
+    if (process.exitValue() != 0) {
+      throw new IllegalStateException("/bin/true failed");
+    }
+    return null;
+  }
+
+  @Benchmark
+  void spawn(int reps) throws Exception {
+    List<Future<Void>> futures = new ArrayList<>(reps);
+    for (int i = 0; i < reps; i++) {
+      futures.add(executor.submit(this::runTrue));
+    }
+    for (Future<Void> future : futures) {
+      future.get();
+    }
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.unix;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link UnixBatchStat}. */
+@RunWith(JUnit4.class)
+public class UnixBatchStatTest {
+  private FileSystem testFS;
+  private Path workingDir;
+
+  @Before
+  public final void createFileSystem() throws Exception {
+    testFS = new UnixFileSystem(DigestHashFunction.getDefaultUnchecked());
+    workingDir = testFS.getPath(new File(TestUtils.tmpDir()).getCanonicalPath());
+    workingDir = workingDir.getRelative("batch_stat");
+    workingDir.deleteTree();
+    workingDir.createDirectoryAndParents();
+  }
+
+  @Test
+  public void testStatsMatchIndividualStats() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(workingDir.getRelative("file"), "contents");
+    workingDir.getRelative("dir").createDirectory();
+    workingDir.getRelative("link").createSymbolicLink(PathFragment.create("file"));
+
+    List<FileStatusWithDigest> stats =
+        new UnixBatchStat(workingDir)
+            .batchStat(
+                /*includeDigest=*/ false,
+                /*includeLinks=*/ true,
+                ImmutableList.of(
+                    PathFragment.create("file"),
+                    PathFragment.create("dir"),
+                    PathFragment.create("link"),
+                    PathFragment.create("missing"),
+                    PathFragment.create("file/child")));
+
+    assertThat(stats).hasSize(5);
+    assertSameStat(stats.get(0), workingDir.getRelative("file").stat(Symlinks.NOFOLLOW));
+    assertThat(stats.get(0).getSize()).isEqualTo(8);
+    assertThat(stats.get(0).getDigest()).isNull();
+    assertSameStat(stats.get(1), workingDir.getRelative("dir").stat(Symlinks.NOFOLLOW));
+    assertSameStat(stats.get(2), workingDir.getRelative("link").stat(Symlinks.NOFOLLOW));
+    assertThat(stats.get(2).isSymbolicLink()).isTrue();
+    assertThat(stats.get(3)).isNull();
+    assertThat(stats.get(4)).isNull();
+  }
+
+  @Test
+  public void testFollowsSymlinksUnlessLinksAreIncluded() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(workingDir.getRelative("file"), "contents");
+    workingDir.getRelative("link").createSymbolicLink(PathFragment.create("file"));
+
+    List<FileStatusWithDigest> stats =
+        new UnixBatchStat(workingDir)
+            .batchStat(
+                /*includeDigest=*/ false,
+                /*includeLinks=*/ false,
+                ImmutableList.of(PathFragment.create("link")));
+
+    assertThat(stats.get(0).isFile()).isTrue();
+    assertThat(stats.get(0).getSize()).isEqualTo(8);
+  }
+
+  @Test
+  public void testAbsolutePathsIgnoreTheRoot() throws Exception {
+    Path file = workingDir.getRelative("file");
+    FileSystemUtils.writeContentAsLatin1(file, "contents");
+
+    List<FileStatusWithDigest> stats =
+        new UnixBatchStat(workingDir.getRelative("elsewhere"))
+            .batchStat(
+                /*includeDigest=*/ false,
+                /*includeLinks=*/ true,
+                ImmutableList.of(file.asFragment()));
+
+    assertSameStat(stats.get(0), file.stat(Symlinks.NOFOLLOW));
+  }
+
+  @Test
+  public void testManyPathsOverSeveralCallsAndThreads() throws Exception {
+    List<PathFragment> paths = new ArrayList<>();
+    int numPaths = UnixBatchStat.PATHS_PER_NATIVE_CALL * 2 + 17;
+    for (int i = 0; i < numPaths; i++) {
+      // Every third path doesn't exist.
+      if (i % 3 != 0) {
+        FileSystemUtils.writeContentAsLatin1(workingDir.getRelative("f" + i), "x" + i);
+      }
+      paths.add(PathFragment.create("f" + i));
+    }
+
+    List<FileStatusWithDigest> stats =
+        new UnixBatchStat(workingDir, /*numThreads=*/ 7)
+            .batchStat(/*includeDigest=*/ false, /*includeLinks=*/ true, paths);
+
+    assertThat(stats).hasSize(numPaths);
+    for (int i = 0; i < numPaths; i++) {
+      if (i % 3 == 0) {
+        assertThat(stats.get(i)).isNull();
+      } else {
+        assertThat(stats.get(i).getSize()).isEqualTo(("x" + i).length());
+      }
+    }
+  }
+
+  @Test
+  public void testFileSystemProvidesBatchStatter() throws Exception {
+    assertThat(testFS.getBatchStatter(workingDir)).isInstanceOf(UnixBatchStat.class);
+  }
+
+  private static void assertSameStat(FileStatus actual, FileStatus expected) throws Exception {
+    assertThat(actual.isFile()).isEqualTo(expected.isFile());
+    assertThat(actual.isDirectory()).isEqualTo(expected.isDirectory());
+    assertThat(actual.isSymbolicLink()).isEqualTo(expected.isSymbolicLink());
+    assertThat(actual.getSize()).isEqualTo(expected.getSize());
+    assertThat(actual.getLastModifiedTime()).isEqualTo(expected.getLastModifiedTime());
+    assertThat(actual.getLastChangeTime()).isEqualTo(expected.getLastChangeTime());
+    assertThat(actual.getNodeId()).isEqualTo(expected.getNodeId());
+  }
+}
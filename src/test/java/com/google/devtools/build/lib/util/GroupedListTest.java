@@ -241,6 +241,37 @@ public class GroupedListTest {
         .isEqualTo(groupedList.compress());
   }
 
+  @Test
+  public void compressedGroupsArePacked() {
+    GroupedList<String> groupedList = new GroupedList<>();
+    groupedList.appendGroup(ImmutableList.of("a"));
+    groupedList.appendGroup(ImmutableList.of("b", "c"));
+    groupedList.appendGroup(ImmutableList.of("d"));
+    Object compressed = groupedList.compress();
+    assertThat(compressed).isEqualTo(new Object[] {"a", "b", "c", "d", new byte[] {1, 2, 1}});
+    assertThat(GroupedList.numElements(compressed)).isEqualTo(4);
+    assertThat(GroupedList.numGroups(compressed)).isEqualTo(3);
+    assertThat(GroupedList.<String>compressedToIterable(compressed))
+        .containsExactly("a", "b", "c", "d")
+        .inOrder();
+    assertThat(GroupedList.<String>create(compressed)).isEqualTo(groupedList);
+    assertElementsEqualInGroups(
+        GroupedList.<String>create(compressed),
+        ImmutableList.of(
+            ImmutableList.of("a"), ImmutableList.of("b", "c"), ImmutableList.of("d")));
+  }
+
+  @Test
+  public void compressedSingletonGroupsAreNotPacked() {
+    GroupedList<String> groupedList = new GroupedList<>();
+    groupedList.appendGroup(ImmutableList.of("a"));
+    groupedList.appendGroup(ImmutableList.of("b"));
+    Object compressed = groupedList.compress();
+    assertThat((Object[]) compressed).asList().containsExactly("a", "b").inOrder();
+    assertThat(GroupedList.numGroups(compressed)).isEqualTo(2);
+    assertThat(GroupedList.<String>create(compressed)).isEqualTo(groupedList);
+  }
+
   @Test
   public void removeMakesEmpty() {
     GroupedList<String> groupedList = new GroupedList<>();
@@ -0,0 +1,115 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+
+/**
+ * Microbenchmarks comparing the common operations of {@link PathFragment} and {@link
+ * CompactPathFragment}, on paths shaped like the exec paths of generated files.
+ */
+public class CompactPathFragmentBenchmark {
+  private static final String PARENT = "bazel-out/k8-fastbuild/bin/src/main/java/com/example";
+
+  @Param({"4", "16"})
+  int depth;
+
+  private PathFragment relative;
+  private PathFragment parent;
+  private PathFragment path;
+  private PathFragment sibling;
+  private CompactPathFragment compactParent;
+  private CompactPathFragment compactPath;
+  private CompactPathFragment compactSibling;
+
+  @BeforeExperiment
+  void setUp() {
+    StringBuilder relativeString = new StringBuilder("pkg");
+    for (int i = 1; i < depth; i++) {
+      relativeString.append("/dir").append(i);
+    }
+    relative = PathFragment.create(relativeString.append("/File.java").toString());
+    parent = PathFragment.create(PARENT);
+    path = parent.getRelative(relative);
+    sibling = path.replaceName("File.class");
+    compactParent = CompactPathFragment.create(parent);
+    compactPath = CompactPathFragment.create(path);
+    compactSibling = CompactPathFragment.create(sibling);
+  }
+
+  @Benchmark
+  int getRelative(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += parent.getRelative(relative).hashCode();
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  int getRelativeCompact(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += compactParent.getRelative(relative).hashCode();
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  int startsWith(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += path.startsWith(parent) ? 1 : 0;
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  int startsWithCompact(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += compactPath.startsWith(compactParent) ? 1 : 0;
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  int compareTo(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += path.compareTo(sibling);
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  int compareToCompact(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += compactPath.compareTo(compactSibling);
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  int getPathStringCompact(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += compactPath.getPathString().length();
+    }
+    return dummy;
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompactPathFragment}. */
+@RunWith(JUnit4.class)
+public class CompactPathFragmentTest {
+  private static final ImmutableList<String> PATHS =
+      ImmutableList.of(
+          "",
+          "a",
+          "a/b",
+          "a/b/c",
+          "a-b",
+          "a-b/c",
+          "a.b",
+          "ab",
+          "b",
+          "..",
+          "../a",
+          "../../a",
+          "/",
+          "/a",
+          "/a/b",
+          "/a-b",
+          "/a/b/c",
+          "/b");
+
+  private static CompactPathFragment create(String path) {
+    return CompactPathFragment.create(path);
+  }
+
+  @Test
+  public void testRoundTrip() {
+    for (String path : PATHS) {
+      PathFragment fragment = PathFragment.create(path);
+      CompactPathFragment compact = CompactPathFragment.create(fragment);
+      assertThat(compact.getPathString()).isEqualTo(fragment.getPathString());
+      assertThat(compact.toString()).isEqualTo(fragment.toString());
+      assertThat(compact.toPathFragment()).isEqualTo(fragment);
+      assertThat(compact.isAbsolute()).isEqualTo(fragment.isAbsolute());
+      assertThat(compact.segmentCount()).isEqualTo(fragment.segmentCount());
+      assertThat(compact.getBaseName()).isEqualTo(fragment.getBaseName());
+    }
+  }
+
+  @Test
+  public void testCreateNormalizes() {
+    assertThat(create("a/./b/../c//d/").getPathString()).isEqualTo("a/c/d");
+    assertThat(create("/a/../..").getPathString()).isEqualTo("/");
+  }
+
+  @Test
+  public void testInstancesAreInterned() {
+    assertThat(create("a/b/c")).isSameInstanceAs(create("a/b/c"));
+    assertThat(create("/a/b")).isSameInstanceAs(create("/a").getChild("b"));
+    assertThat(create("a/b").getParentDirectory()).isSameInstanceAs(create("a"));
+    assertThat(create("")).isSameInstanceAs(CompactPathFragment.EMPTY_FRAGMENT);
+    assertThat(create("a")).isNotSameInstanceAs(create("/a"));
+  }
+
+  @Test
+  public void testPathStringIsCached() {
+    CompactPathFragment path = create("a/b/c/d");
+    assertThat(path.getPathString()).isSameInstanceAs(path.getPathString());
+  }
+
+  @Test
+  public void testGetParentDirectory() {
+    assertThat(create("a/b").getParentDirectory()).isSameInstanceAs(create("a"));
+    assertThat(create("a").getParentDirectory()).isSameInstanceAs(create(""));
+    assertThat(create("/a").getParentDirectory()).isSameInstanceAs(create("/"));
+    assertThat(create("/").getParentDirectory()).isNull();
+    assertThat(create("").getParentDirectory()).isNull();
+  }
+
+  @Test
+  public void testGetChild() {
+    assertThat(create("a").getChild("b").getPathString()).isEqualTo("a/b");
+    assertThat(create("").getChild("b").getPathString()).isEqualTo("b");
+    assertThat(create("/").getChild("b").getPathString()).isEqualTo("/b");
+    assertThrows(IllegalArgumentException.class, () -> create("a").getChild(""));
+    assertThrows(IllegalArgumentException.class, () -> create("a").getChild("."));
+    assertThrows(IllegalArgumentException.class, () -> create("a").getChild(".."));
+    assertThrows(IllegalArgumentException.class, () -> create("a").getChild("b/c"));
+  }
+
+  @Test
+  public void testGetRelativeMatchesPathFragment() {
+    ImmutableList<String> others =
+        ImmutableList.of("", "c", "c/d", "..", "../c", "../..", "../../..", "../../c", "/x/y");
+    for (String path : PATHS) {
+      for (String other : others) {
+        assertThat(create(path).getRelative(other).getPathString())
+            .isEqualTo(PathFragment.create(path).getRelative(other).getPathString());
+      }
+    }
+  }
+
+  @Test
+  public void testStartsWithMatchesPathFragment() {
+    for (String path : PATHS) {
+      for (String other : PATHS) {
+        assertThat(create(path).startsWith(create(other)))
+            .isEqualTo(PathFragment.create(path).startsWith(PathFragment.create(other)));
+      }
+    }
+  }
+
+  @Test
+  public void testCompareToMatchesPathFragment() {
+    for (String path : PATHS) {
+      for (String other : PATHS) {
+        assertThat(Integer.signum(create(path).compareTo(create(other))))
+            .isEqualTo(
+                Integer.signum(PathFragment.create(path).compareTo(PathFragment.create(other))));
+      }
+    }
+  }
+
+  @Test
+  public void testSortOrderMatchesPathFragment() {
+    List<CompactPathFragment> compactPaths = new ArrayList<>();
+    List<PathFragment> paths = new ArrayList<>();
+    for (String path : PATHS) {
+      compactPaths.add(create(path));
+      paths.add(PathFragment.create(path));
+    }
+    Collections.sort(compactPaths);
+    Collections.sort(paths);
+    List<PathFragment> sortedCompactPaths = new ArrayList<>();
+    for (CompactPathFragment path : compactPaths) {
+      sortedCompactPaths.add(path.toPathFragment());
+    }
+    assertThat(sortedCompactPaths).containsExactlyElementsIn(paths).inOrder();
+  }
+}
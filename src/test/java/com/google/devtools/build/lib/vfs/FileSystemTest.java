@@ -32,6 +32,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.FileAlreadyExistsException;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.junit.After;
@@ -666,6 +668,33 @@ public abstract class FileSystemTest {
     assertThat(x).hasMessageThat().isEqualTo(somePath + " (No such file or directory)");
   }
 
+  @Test
+  public void testReaddirWithStats() throws Exception {
+    Path theDirectory = absolutize("foo");
+    theDirectory.createDirectory();
+    FileSystemUtils.writeContentAsLatin1(theDirectory.getChild("file"), "contents");
+    theDirectory.getChild("dir").createDirectory();
+
+    Map<String, DirentWithStat> dirents = new HashMap<>();
+    for (DirentWithStat dirent : theDirectory.readdirWithStats(Symlinks.NOFOLLOW)) {
+      dirents.put(dirent.getName(), dirent);
+    }
+
+    assertThat(dirents.keySet()).containsExactly("file", "dir");
+    assertThat(dirents.get("file").getDirent().getType()).isEqualTo(Dirent.Type.FILE);
+    assertThat(dirents.get("dir").getDirent().getType()).isEqualTo(Dirent.Type.DIRECTORY);
+    // Only symlinks are stat()ed.
+    assertThat(dirents.get("file").getStat()).isNull();
+    assertThat(dirents.get("dir").getStat()).isNull();
+  }
+
+  @Test
+  public void testReaddirWithStatsThrowsExceptionWhenRunOnFile() throws Exception {
+    IOException ex =
+        assertThrows(IOException.class, () -> xFile.readdirWithStats(Symlinks.FOLLOW));
+    assertThat(ex).hasMessageThat().isEqualTo(xFile + " (Not a directory)");
+  }
+
   // Test the removal of items
   @Test
   public void testDeleteDirectory() throws Exception {
@@ -1149,6 +1178,44 @@ public abstract class FileSystemTest {
     assertThat(e).hasMessageThat().endsWith(" (No such file or directory)");
   }
 
+  @Test
+  public void testCopyFileContents() throws Exception {
+    // Larger than any buffer, so that the copy takes several chunks when not done by the kernel.
+    byte[] contents = new byte[1024 * 1024 + 17];
+    for (int i = 0; i < contents.length; i++) {
+      contents[i] = (byte) (i * 31);
+    }
+    FileSystemUtils.writeContent(xFile, contents);
+    Path copy = absolutize("copy");
+    testFS.copyFileContents(xFile, copy);
+    assertThat(FileSystemUtils.readContent(copy)).isEqualTo(contents);
+  }
+
+  @Test
+  public void testCopyFileContentsOfEmptyFile() throws Exception {
+    Path copy = absolutize("copy");
+    testFS.copyFileContents(xFile, copy);
+    assertThat(copy.isFile()).isTrue();
+    assertThat(copy.getFileSize()).isEqualTo(0);
+  }
+
+  @Test
+  public void testCopyFileContentsTruncatesTarget() throws Exception {
+    FileSystemUtils.writeContent(xFile, UTF_8, "short");
+    FileSystemUtils.writeContent(xNothing, UTF_8, "much longer contents");
+    testFS.copyFileContents(xFile, xNothing);
+    assertThat(new String(FileSystemUtils.readContent(xNothing), UTF_8)).isEqualTo("short");
+  }
+
+  @Test
+  public void testCopyFileContentsOfNonExistingFileThrowsException() throws Exception {
+    Path nonExistingPath = absolutize("non-existing");
+    Path targetPath = absolutize("does-not-matter");
+    assertThrows(
+        FileNotFoundException.class, () -> testFS.copyFileContents(nonExistingPath, targetPath));
+    assertThat(targetPath.exists()).isFalse();
+  }
+
   // Test the Paths
   @Test
   public void testGetPathOnlyAcceptsAbsolutePath() {
@@ -53,6 +53,8 @@ public class GlobTest {
   private FileSystem fs;
   private Path throwOnReaddir = null;
   private Path throwOnStat = null;
+  private boolean readdirWithStatsNatively = false;
+  private final List<Path> readdirsWithStats = Collections.synchronizedList(new ArrayList<>());
 
   @Before
   public final void initializeFileSystem() throws Exception  {
@@ -72,6 +74,18 @@ public class GlobTest {
         }
         return super.statIfFound(path, followSymlinks);
       }
+
+      @Override
+      public boolean supportsReaddirWithStatsNatively(Path path) {
+        return readdirWithStatsNatively;
+      }
+
+      @Override
+      protected Collection<DirentWithStat> readdirWithStats(Path path, boolean followSymlinks)
+          throws IOException {
+        readdirsWithStats.add(path);
+        return super.readdirWithStats(path, followSymlinks);
+      }
     };
     tmpPath = fs.getPath("/globtmp");
     for (String dir : ImmutableList.of("foo/bar/wiz",
@@ -169,6 +183,39 @@ public class GlobTest {
     assertGlobMatches("foo/bar/wiz/file/*" /* => nothing */);
   }
 
+  @Test
+  public void testSymlinks() throws Exception {
+    createSymlinksToEveryKindOfFile();
+    assertGlobMatches("foo/*", "foo/bar", "foo/barnacle", "foo/to-dir", "foo/to-file");
+    assertGlobMatches("foo/*/wiz", "foo/bar/wiz", "foo/barnacle/wiz", "foo/to-dir/wiz");
+  }
+
+  @Test
+  public void testSymlinksWithReaddirWithStats() throws Exception {
+    readdirWithStatsNatively = true;
+    createSymlinksToEveryKindOfFile();
+    assertGlobMatches("foo/*", "foo/bar", "foo/barnacle", "foo/to-dir", "foo/to-file");
+    assertGlobMatches("foo/*/wiz", "foo/bar/wiz", "foo/barnacle/wiz", "foo/to-dir/wiz");
+    assertGlobMatches("foo/**/file", "foo/bar/wiz/file", "foo/to-dir/wiz/file");
+  }
+
+  @Test
+  public void testReaddirWithStatsOnlyIfEverySymlinkMatches() throws Exception {
+    readdirWithStatsNatively = true;
+    createSymlinksToEveryKindOfFile();
+    // "dangling" doesn't match, so the symlinks that do are stat()ed one by one.
+    assertGlobMatches("foo/to-*", "foo/to-dir", "foo/to-file");
+    assertThat(readdirsWithStats).isEmpty();
+    assertGlobMatches("foo/*", "foo/bar", "foo/barnacle", "foo/to-dir", "foo/to-file");
+    assertThat(readdirsWithStats).containsExactly(tmpPath.getRelative("foo"));
+  }
+
+  private void createSymlinksToEveryKindOfFile() throws Exception {
+    tmpPath.getRelative("foo/to-dir").createSymbolicLink(PathFragment.create("bar"));
+    tmpPath.getRelative("foo/to-file").createSymbolicLink(PathFragment.create("bar/wiz/file"));
+    tmpPath.getRelative("foo/dangling").createSymbolicLink(PathFragment.create("nothing"));
+  }
+
   private void assertGlobMatches(String pattern, String... expecteds)
       throws Exception {
     assertGlobMatches(Collections.singleton(pattern), expecteds);
@@ -21,6 +21,8 @@ import com.google.devtools.build.lib.vfs.FileSystem.NotASymlinkException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -105,6 +107,19 @@ public abstract class SymlinkAwareFileSystemTest extends FileSystemTest {
       getDirectoryEntries()).containsExactly(newPath, linkPath);
   }
 
+  @Test
+  public void testCopyFileContentsFollowsSymlinks() throws IOException {
+    FileSystemUtils.writeContentAsLatin1(xFile, "contents");
+    Path linkPath = xEmptyDirectory.getChild("some-link");
+    createSymbolicLink(linkPath, xFile);
+
+    Path copy = xEmptyDirectory.getChild("copy");
+    testFS.copyFileContents(linkPath, copy);
+
+    assertThat(copy.isSymbolicLink()).isFalse();
+    assertThat(FileSystemUtils.readContentAsLatin1(copy)).isEqualTo("contents".toCharArray());
+  }
+
   @Test
   public void testFileCanonicalPath() throws IOException {
     Path newPath = absolutize("new-file");
@@ -562,6 +577,30 @@ public abstract class SymlinkAwareFileSystemTest extends FileSystemTest {
     assertThat(dirents).containsExactly(fooAlias);
   }
 
+  @Test
+  public void testReaddirWithStatsOfSymlinks() throws Exception {
+    createSymbolicLink(xEmptyDirectory.getChild("to-file"), xFile);
+    createSymbolicLink(xEmptyDirectory.getChild("dangling"), xNothing);
+
+    Map<String, DirentWithStat> noFollow = new HashMap<>();
+    for (DirentWithStat dirent : xEmptyDirectory.readdirWithStats(Symlinks.NOFOLLOW)) {
+      noFollow.put(dirent.getName(), dirent);
+    }
+    Map<String, DirentWithStat> follow = new HashMap<>();
+    for (DirentWithStat dirent : xEmptyDirectory.readdirWithStats(Symlinks.FOLLOW)) {
+      follow.put(dirent.getName(), dirent);
+    }
+
+    assertThat(noFollow.get("to-file").getDirent().getType()).isEqualTo(Dirent.Type.SYMLINK);
+    assertThat(noFollow.get("to-file").getStat().isSymbolicLink()).isTrue();
+    assertThat(noFollow.get("dangling").getStat().isSymbolicLink()).isTrue();
+    // The types never follow symlinks, the stats do if asked to.
+    assertThat(follow.get("to-file").getDirent().getType()).isEqualTo(Dirent.Type.SYMLINK);
+    assertThat(follow.get("to-file").getStat().isFile()).isTrue();
+    assertThat(follow.get("dangling").getDirent().getType()).isEqualTo(Dirent.Type.SYMLINK);
+    assertThat(follow.get("dangling").getStat()).isNull();
+  }
+
   @Test
   public void testFilesOfLinkedDirectories() throws Exception {
     Path child = xEmptyDirectory.getChild("child");
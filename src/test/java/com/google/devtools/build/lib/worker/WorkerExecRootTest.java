@@ -24,6 +24,7 @@ import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
 import java.io.IOException;
 import java.nio.charset.Charset;
@@ -89,4 +90,47 @@ public class WorkerExecRootTest {
     assertThat(execRoot.getRelative("very/output.txt").exists()).isFalse();
     assertThat(execRoot.getRelative("temp.txt").exists()).isFalse();
   }
+
+  @Test
+  public void reusesUnchangedInputs() throws Exception {
+    Path unchanged = workspaceDir.getRelative("unchanged.java");
+    Path changed = workspaceDir.getRelative("changed.java");
+    Path changedNew = workspaceDir.getRelative("changed_new.java");
+    Path dropped = workspaceDir.getRelative("dropped.java");
+    for (Path p : ImmutableSet.of(unchanged, changed, changedNew, dropped)) {
+      FileSystemUtils.createEmptyFile(p);
+    }
+
+    new WorkerExecRoot(
+            execRoot,
+            new SandboxInputs(
+                ImmutableMap.of(
+                    PathFragment.create("src/unchanged.java"), unchanged,
+                    PathFragment.create("src/changed.java"), changed,
+                    PathFragment.create("old/dropped.java"), dropped),
+                ImmutableMap.of()),
+            SandboxOutputs.create(ImmutableSet.of(), ImmutableSet.of()),
+            ImmutableSet.of())
+        .createFileSystem();
+    long unchangedNodeId =
+        execRoot.getRelative("src/unchanged.java").stat(Symlinks.NOFOLLOW).getNodeId();
+
+    new WorkerExecRoot(
+            execRoot,
+            new SandboxInputs(
+                ImmutableMap.of(
+                    PathFragment.create("src/unchanged.java"), unchanged,
+                    PathFragment.create("src/changed.java"), changedNew),
+                ImmutableMap.of()),
+            SandboxOutputs.create(ImmutableSet.of(), ImmutableSet.of()),
+            ImmutableSet.of())
+        .createFileSystem();
+
+    // The unchanged input was left alone instead of being deleted and created again.
+    assertThat(execRoot.getRelative("src/unchanged.java").stat(Symlinks.NOFOLLOW).getNodeId())
+        .isEqualTo(unchangedNodeId);
+    assertThat(execRoot.getRelative("src/changed.java").readSymbolicLink())
+        .isEqualTo(changedNew.asFragment());
+    assertThat(execRoot.getRelative("old").exists()).isFalse();
+  }
 }
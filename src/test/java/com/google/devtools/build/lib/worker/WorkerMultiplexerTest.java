@@ -0,0 +1,216 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link WorkerMultiplexer}. */
+@RunWith(JUnit4.class)
+public class WorkerMultiplexerTest {
+  private final FileSystem fs = new InMemoryFileSystem();
+
+  private WorkerMultiplexer multiplexer;
+  private FakeSubprocess process;
+  private PipedOutputStream workerStdout;
+
+  /** A worker process whose stdin and stdout are controlled by the test. */
+  private static final class FakeSubprocess implements Subprocess {
+    private final ByteArrayOutputStream stdin = new ByteArrayOutputStream();
+    private final InputStream stdout;
+    private boolean destroyed;
+
+    FakeSubprocess(InputStream stdout) {
+      this.stdout = stdout;
+    }
+
+    @Override
+    public synchronized boolean destroy() {
+      destroyed = true;
+      return true;
+    }
+
+    @Override
+    public int exitValue() {
+      return 0;
+    }
+
+    @Override
+    public synchronized boolean finished() {
+      return destroyed;
+    }
+
+    @Override
+    public boolean timedout() {
+      return false;
+    }
+
+    @Override
+    public void waitFor() {}
+
+    @Override
+    public OutputStream getOutputStream() {
+      return stdin;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return stdout;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public void close() {}
+
+    /** Returns the requests written to the process so far. */
+    ImmutableList<WorkRequest> getRequests() throws IOException {
+      ImmutableList.Builder<WorkRequest> requests = ImmutableList.builder();
+      InputStream in;
+      synchronized (stdin) {
+        in = new ByteArrayInputStream(stdin.toByteArray());
+      }
+      for (WorkRequest request = WorkRequest.parseDelimitedFrom(in);
+          request != null;
+          request = WorkRequest.parseDelimitedFrom(in)) {
+        requests.add(request);
+      }
+      return requests.build();
+    }
+  }
+
+  @Before
+  public final void startMultiplexer() throws IOException {
+    WorkerKey key =
+        new WorkerKey(
+            ImmutableList.of("worker"),
+            ImmutableMap.of(),
+            fs.getPath("/execroot/workspace"),
+            "Mnemonic",
+            HashCode.fromInt(0),
+            ImmutableSortedMap.of(),
+            /* mustBeSandboxed= */ false,
+            /* proxied= */ true);
+    multiplexer = new WorkerMultiplexer(key, fs.getPath("/workers/multiplex-worker-0.log"));
+    workerStdout = new PipedOutputStream();
+    process = new FakeSubprocess(new PipedInputStream(workerStdout));
+    multiplexer.startReading(process);
+  }
+
+  @After
+  public final void closeStdout() throws IOException {
+    // Stops the reader thread.
+    workerStdout.close();
+  }
+
+  private static WorkRequest request(String argument) {
+    return WorkRequest.newBuilder().addArguments(argument).build();
+  }
+
+  private void respond(WorkRequest request) throws IOException {
+    WorkResponse.newBuilder()
+        .setOutput("output of " + request.getArguments(0))
+        .setRequestId(request.getRequestId())
+        .build()
+        .writeDelimitedTo(workerStdout);
+    workerStdout.flush();
+  }
+
+  @Test
+  public void testResponsesAreRoutedByRequestId() throws Exception {
+    int firstId = multiplexer.putRequest(request("first"));
+    int secondId = multiplexer.putRequest(request("second"));
+    assertThat(firstId).isNotEqualTo(secondId);
+
+    ImmutableList<WorkRequest> requests = process.getRequests();
+    assertThat(requests).hasSize(2);
+    assertThat(requests.get(0).getRequestId()).isEqualTo(firstId);
+    assertThat(requests.get(1).getRequestId()).isEqualTo(secondId);
+
+    // The worker responds out of order.
+    respond(requests.get(1));
+    respond(requests.get(0));
+
+    assertThat(multiplexer.getResponse(firstId).getOutput()).isEqualTo("output of first");
+    assertThat(multiplexer.getResponse(secondId).getOutput()).isEqualTo("output of second");
+  }
+
+  @Test
+  public void testResponsesToAbandonedRequestsAreIgnored() throws Exception {
+    multiplexer.putRequest(request("abandoned"));
+    int id = multiplexer.putRequest(request("awaited"));
+    ImmutableList<WorkRequest> requests = process.getRequests();
+
+    // A response to a request id that nobody waits for.
+    respond(requests.get(0).toBuilder().setRequestId(id + 1).build());
+    respond(requests.get(1));
+
+    assertThat(multiplexer.getResponse(id).getOutput()).isEqualTo("output of awaited");
+  }
+
+  @Test
+  public void testPendingRequestsGetNoResponseWhenStdoutIsClosed() throws Exception {
+    int id = multiplexer.putRequest(request("unanswered"));
+    workerStdout.close();
+
+    assertThat(multiplexer.getResponse(id)).isNull();
+  }
+
+  @Test
+  public void testUnparseableOutputFailsPendingRequests() throws Exception {
+    int id = multiplexer.putRequest(request("unanswered"));
+    workerStdout.write("Exception in thread main".getBytes(UTF_8));
+    workerStdout.close();
+
+    assertThrows(IOException.class, () -> multiplexer.getResponse(id));
+    assertThat(multiplexer.getUnparseableOutput()).contains("Exception in thread main");
+    assertThat(multiplexer.isProcessAlive()).isFalse();
+    assertThrows(IOException.class, () -> multiplexer.putRequest(request("too late")));
+  }
+
+  @Test
+  public void testDestroyingTheProcessFailsPendingRequests() throws Exception {
+    int id = multiplexer.putRequest(request("unanswered"));
+    multiplexer.destroyProcess();
+
+    assertThat(process.finished()).isTrue();
+    assertThat(multiplexer.getResponse(id)).isNull();
+  }
+}
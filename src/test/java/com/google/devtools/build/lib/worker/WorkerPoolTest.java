@@ -0,0 +1,76 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.vfs.util.FsApparatus;
+import java.io.File;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the memory limit of {@link WorkerPool}. */
+@RunWith(JUnit4.class)
+public class WorkerPoolTest {
+  private final FsApparatus scratch = FsApparatus.newNative();
+
+  @Test
+  public void testNothingIsEvictedWithinTheLimit() {
+    assertThat(
+            WorkerPool.selectWorkersToEvict(
+                ImmutableMap.of("a", 300L, "b", 200L), /* totalRssKb= */ 1000, /* limitKb= */ 1000))
+        .isEmpty();
+  }
+
+  @Test
+  public void testLargestIdleWorkersAreEvictedFirst() {
+    assertThat(
+            WorkerPool.selectWorkersToEvict(
+                ImmutableMap.of("small", 100L, "large", 400L, "medium", 200L),
+                /* totalRssKb= */ 1500,
+                /* limitKb= */ 1000))
+        .containsExactly("large", "medium")
+        .inOrder();
+  }
+
+  @Test
+  public void testAllIdleWorkersAreEvictedIfThatIsNotEnough() {
+    assertThat(
+            WorkerPool.selectWorkersToEvict(
+                ImmutableMap.of("a", 100L, "b", 200L), /* totalRssKb= */ 5000, /* limitKb= */ 1000))
+        .containsExactly("b", "a")
+        .inOrder();
+  }
+
+  @Test
+  public void testRssIsReadFromProcStatus() throws Exception {
+    File status =
+        scratch
+            .file(
+                "status",
+                "Name:\tjava",
+                "VmPeak:\t 3091732 kB",
+                "VmRSS:\t  509940 kB",
+                "Threads:\t42")
+            .getPathFile();
+    assertThat(WorkerProcessRss.getRssKb(status)).isEqualTo(509940);
+
+    File noRss = scratch.file("kthread_status", "Name:\tkthreadd", "Threads:\t1").getPathFile();
+    assertThat(WorkerProcessRss.getRssKb(noRss)).isEqualTo(-1);
+    assertThat(WorkerProcessRss.getRssKb(new File(noRss.getPath() + ".missing"))).isEqualTo(-1);
+    assertThat(WorkerProcessRss.getRssKb(-1)).isEqualTo(-1);
+  }
+}
@@ -25,6 +25,7 @@ import com.google.common.collect.Sets;
 import com.google.common.eventbus.EventBus;
 import com.google.common.testing.GcFinalization;
 import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
+import com.google.devtools.build.lib.concurrent.NamedForkJoinPool;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.testutil.TestUtils;
 import com.google.devtools.build.lib.util.Pair;
@@ -625,4 +626,49 @@ public class EagerInvalidatorTest {
       assertThat(receiver.getUnenqueuedDirtyKeys()).hasSize(2);
     }
   }
+
+  /** Test suite for the dirtying invalidator in batched mode. */
+  @RunWith(JUnit4.class)
+  public static class BatchedDirtyingInvalidatorTest extends DirtyingInvalidatorTest {
+    @Override
+    protected void invalidate(
+        InMemoryGraph graph, DirtyTrackingProgressReceiver progressReceiver, SkyKey... keys)
+        throws InterruptedException {
+      Iterable<SkyKey> diff = ImmutableList.copyOf(keys);
+      DirtyingNodeVisitor dirtyingNodeVisitor =
+          EagerInvalidator.createInvalidatingVisitorIfNeeded(
+              graph,
+              diff,
+              progressReceiver,
+              state,
+              NamedForkJoinPool.newNamedPool("test", 4),
+              /*supportInterruptions=*/ true,
+              /*batchSize=*/ 2);
+      if (dirtyingNodeVisitor != null) {
+        visitor.set(dirtyingNodeVisitor);
+        dirtyingNodeVisitor.run();
+      }
+    }
+
+    @Test
+    public void batchedVisitorCountsDirtiedNodes() throws Exception {
+      setupInvalidatableGraph();
+      DirtyTrackingProgressReceiver receiver =
+          new DirtyTrackingProgressReceiver(
+              new EvaluationProgressReceiver.NullEvaluationProgressReceiver());
+      DirtyingNodeVisitor dirtyingNodeVisitor =
+          Preconditions.checkNotNull(
+              EagerInvalidator.createInvalidatingVisitorIfNeeded(
+                  graph,
+                  ImmutableList.of(GraphTester.nonHermeticKey("a")),
+                  receiver,
+                  state,
+                  NamedForkJoinPool.newNamedPool("test", 4),
+                  /*supportInterruptions=*/ true,
+                  /*batchSize=*/ 2));
+      dirtyingNodeVisitor.run();
+      assertThat(dirtyingNodeVisitor.getNumDirtied()).isEqualTo(2);
+      assertThat(receiver.getUnenqueuedDirtyKeys()).hasSize(2);
+    }
+  }
 }
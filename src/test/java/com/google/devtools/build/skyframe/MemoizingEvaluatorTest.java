@@ -504,6 +504,64 @@ public class MemoizingEvaluatorTest {
         .containsExactly(skyKey("d1"), d2Key, ErrorTransienceValue.KEY);
   }
 
+  @Test
+  public void deleteUnreachable() throws Exception {
+    tester.getOrCreate("top1").setComputedValue(CONCATENATE).addDependency("d1");
+    tester.getOrCreate("top2").setComputedValue(CONCATENATE).addDependency("d2");
+    tester.set("d1", new StringValue("one"));
+    tester.set("d2", new StringValue("two"));
+    tester.evaluator.trackRequestedRoots(true);
+    tester.eval(true, "top1");
+    tester.eval(true, "top2");
+    ImmutableSet<SkyKey> roots = tester.evaluator.getAndClearRequestedRoots();
+    assertThat(roots).containsExactly(skyKey("top1"), skyKey("top2"));
+
+    // Both roots were requested, no matter in how many evaluations.
+    assertThat(
+            tester.evaluator.deleteUnreachable(
+                roots, SkyFunctionName.functionIs(GraphTester.NODE_TYPE)))
+        .isEqualTo(0);
+
+    tester.eval(true, "top1");
+    roots = tester.evaluator.getAndClearRequestedRoots();
+    assertThat(roots).containsExactly(skyKey("top1"));
+    assertThat(tester.evaluator.deleteUnreachable(roots, Predicates.equalTo(skyKey("d2"))))
+        .isEqualTo(1);
+    tester.eval(true, "top1");
+
+    // The unreachable value and its reverse deps were deleted.
+    assertThat(tester.getDeletedKeys()).containsExactly(skyKey("d2"), skyKey("top2"));
+    assertThat(tester.evaluator.getValues().keySet())
+        .containsExactly(skyKey("top1"), skyKey("d1"), ErrorTransienceValue.KEY);
+  }
+
+  @Test
+  public void deleteUnreachableKeepsDepsOfDirtyRoot() throws Exception {
+    SkyKey changedKey = GraphTester.nonHermeticKey("changed");
+    tester
+        .getOrCreate("top")
+        .setComputedValue(CONCATENATE)
+        .addDependency("mid")
+        .addDependency(changedKey);
+    tester.getOrCreate("mid").setComputedValue(COPY).addDependency("leaf");
+    tester.set("leaf", new StringValue("leaf"));
+    tester.set(changedKey, new StringValue("one"));
+    tester.evaluator.trackRequestedRoots(true);
+    tester.eval(true, "top");
+    ImmutableSet<SkyKey> roots = tester.evaluator.getAndClearRequestedRoots();
+
+    tester.set(changedKey, new StringValue("two"));
+    tester.invalidate();
+
+    // The root is dirty, but it needs the unchanged deps of its last build again.
+    assertThat(
+            tester.evaluator.deleteUnreachable(
+                roots, SkyFunctionName.functionIs(GraphTester.NODE_TYPE)))
+        .isEqualTo(0);
+    assertThat(tester.evalAndGet("top")).isEqualTo(new StringValue("leaftwo"));
+    assertThat(tester.getDeletedKeys()).isEmpty();
+  }
+
   @Test
   public void deleteDirtyCleanedValue() throws Exception {
     SkyKey leafKey = GraphTester.nonHermeticKey("leafKey");
@@ -0,0 +1,163 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
+import com.google.devtools.build.lib.events.StoredEventHandler;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ParallelCycleDetector}. */
+@RunWith(JUnit4.class)
+public class ParallelCycleDetectorTest {
+  private final GraphTester tester = new GraphTester();
+  private final List<List<SkyKey>> delegatedRoots = new ArrayList<>();
+
+  private EvaluationResult<StringValue> eval(boolean keepGoing, SkyKey... roots)
+      throws InterruptedException {
+    CycleDetector recordingDelegate =
+        (badRoots, result, evaluatorContext) -> {
+          delegatedRoots.add(ImmutableList.copyOf(badRoots));
+          new SimpleCycleDetector().checkForCycles(badRoots, result, evaluatorContext);
+        };
+    return new ParallelEvaluator(
+            new InMemoryGraphImpl(),
+            IntVersion.of(0),
+            tester.getSkyFunctionMap(),
+            new StoredEventHandler(),
+            new MemoizingEvaluator.EmittedEventState(),
+            InMemoryMemoizingEvaluator.DEFAULT_STORED_EVENT_FILTER,
+            ErrorInfoManager.UseChildErrorInfoIfNecessary.INSTANCE,
+            keepGoing,
+            new DirtyTrackingProgressReceiver(null),
+            GraphInconsistencyReceiver.THROWING,
+            () -> AbstractQueueVisitor.createExecutorService(10, "test-pool"),
+            new ParallelCycleDetector(/*parallelism=*/ 2, recordingDelegate),
+            EvaluationVersionBehavior.MAX_CHILD_VERSIONS)
+        .eval(ImmutableList.copyOf(roots));
+  }
+
+  /** Makes {@code top1} and {@code top2} depend on cycles of their own, and {@code ok} on none. */
+  private void createTwoCyclesAndAcyclicRoot() {
+    tester.getOrCreate("top1").addDependency("mid").addDependency("leaf");
+    tester.getOrCreate("mid").addDependency("a");
+    tester.getOrCreate("a").addDependency("b");
+    tester.getOrCreate("b").addDependency("a");
+    tester.getOrCreate("top2").addDependency("c");
+    tester.getOrCreate("c").addDependency("c");
+    tester.getOrCreate("ok").addDependency("leaf").setComputedValue(GraphTester.COPY);
+    tester.set("leaf", new StringValue("leaf"));
+  }
+
+  @Test
+  public void reportsEveryCycleWithKeepGoing() throws Exception {
+    createTwoCyclesAndAcyclicRoot();
+    SkyKey top1 = GraphTester.toSkyKey("top1");
+    SkyKey top2 = GraphTester.toSkyKey("top2");
+    SkyKey ok = GraphTester.toSkyKey("ok");
+
+    EvaluationResult<StringValue> result = eval(/*keepGoing=*/ true, top1, top2, ok);
+
+    assertThat(result.get(ok)).isEqualTo(new StringValue("leaf"));
+    CycleInfo cycle1 = Iterables.getOnlyElement(result.getError(top1).getCycleInfo());
+    assertThat(cycle1.getCycle())
+        .containsExactly(GraphTester.toSkyKey("a"), GraphTester.toSkyKey("b"))
+        .inOrder();
+    assertThat(cycle1.getPathToCycle())
+        .containsExactly(top1, GraphTester.toSkyKey("mid"))
+        .inOrder();
+    CycleInfo cycle2 = Iterables.getOnlyElement(result.getError(top2).getCycleInfo());
+    assertThat(cycle2.getCycle()).containsExactly(GraphTester.toSkyKey("c"));
+    assertThat(delegatedRoots).hasSize(1);
+    assertThat(delegatedRoots.get(0)).containsExactly(top1, top2);
+  }
+
+  @Test
+  public void stopsAtFirstCycleWithoutKeepGoing() throws Exception {
+    createTwoCyclesAndAcyclicRoot();
+    SkyKey top1 = GraphTester.toSkyKey("top1");
+    SkyKey top2 = GraphTester.toSkyKey("top2");
+
+    EvaluationResult<StringValue> result = eval(/*keepGoing=*/ false, top1, top2);
+
+    assertThat(result.hasError()).isTrue();
+    SkyKey errorKey = Iterables.getOnlyElement(result.errorMap().keySet());
+    assertThat(Iterables.getOnlyElement(result.getError(errorKey).getCycleInfo()).getCycle())
+        .isNotEmpty();
+    // Only the root the error is reported for is searched sequentially.
+    assertThat(delegatedRoots).containsExactly(ImmutableList.of(errorKey));
+  }
+
+  @Test
+  public void acyclic() {
+    assertThat(
+            ParallelCycleDetector.findKeysReachingCycles(
+                ImmutableMap.of(
+                    "a", ImmutableList.of("b", "c"),
+                    "b", ImmutableList.of("c"),
+                    "c", ImmutableList.<String>of())))
+        .isEmpty();
+  }
+
+  @Test
+  public void selfEdge() {
+    assertThat(
+            ParallelCycleDetector.findKeysReachingCycles(
+                ImmutableMap.of(
+                    "a", ImmutableList.of("b"),
+                    "b", ImmutableList.of("b"),
+                    "c", ImmutableList.of("a"),
+                    "d", ImmutableList.<String>of())))
+        .containsExactly("a", "b", "c");
+  }
+
+  @Test
+  public void cycleBelowDiamond() {
+    assertThat(
+            ParallelCycleDetector.findKeysReachingCycles(
+                ImmutableMap.<String, List<String>>builder()
+                    .put("top", ImmutableList.of("left", "right", "leaf"))
+                    .put("left", ImmutableList.of("cycle1"))
+                    .put("right", ImmutableList.of("cycle2", "leaf"))
+                    .put("cycle1", ImmutableList.of("cycle2"))
+                    .put("cycle2", ImmutableList.of("cycle3"))
+                    .put("cycle3", ImmutableList.of("cycle1"))
+                    .put("leaf", ImmutableList.of("missing"))
+                    .build()))
+        .containsExactly("top", "left", "right", "cycle1", "cycle2", "cycle3");
+  }
+
+  @Test
+  public void longChainIntoCycle() {
+    Map<Integer, List<Integer>> graph = new HashMap<>();
+    int length = 100000;
+    for (int i = 0; i < length; i++) {
+      graph.put(i, ImmutableList.of(i + 1));
+    }
+    graph.put(length, ImmutableList.of(length - 1));
+    graph.put(-1, ImmutableList.of());
+    assertThat(ParallelCycleDetector.findKeysReachingCycles(graph)).hasSize(length + 1);
+  }
+}
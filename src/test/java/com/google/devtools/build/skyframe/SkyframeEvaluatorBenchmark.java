@@ -0,0 +1,293 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.caliper.api.SkipThisScenarioException;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Microbenchmarks for the Skyframe evaluation engine: {@link InMemoryMemoizingEvaluator}, {@link
+ * ParallelEvaluator}, {@link EagerInvalidator} and {@link InMemoryGraphImpl}.
+ *
+ * <p>Each experiment runs over a synthetic graph of the requested {@link Shape} and size. Runtime
+ * and allocation are reported by the benchmark harness; the peak heap usage observed during the
+ * experiment is printed to stderr once the experiment is done.
+ */
+public class SkyframeEvaluatorBenchmark {
+  private static final SkyFunctionName NODE = SkyFunctionName.createHermetic("BENCHMARK_NODE");
+  // Leaves are invalidated directly through the differencer, so they must not be hermetic.
+  private static final SkyFunctionName LEAF = SkyFunctionName.createNonHermetic("BENCHMARK_LEAF");
+
+  /** Shapes of the synthetic graphs. Node 0 is always the single root of the graph. */
+  enum Shape {
+    /** A single chain of nodes, each depending on the next one. */
+    CHAIN {
+      @Override
+      int[][] generate(int size) {
+        int[][] deps = new int[size][];
+        for (int i = 0; i < size - 1; i++) {
+          deps[i] = new int[] {i + 1};
+        }
+        deps[size - 1] = NO_DEPS;
+        return deps;
+      }
+    },
+    /** A root depending directly on every other node of the graph. */
+    FAN_OUT {
+      @Override
+      int[][] generate(int size) {
+        int[][] deps = new int[size][];
+        deps[0] = new int[size - 1];
+        for (int i = 1; i < size; i++) {
+          deps[0][i - 1] = i;
+          deps[i] = NO_DEPS;
+        }
+        return deps;
+      }
+    },
+    /**
+     * Layers of {@link #DIAMOND_WIDTH} nodes, where each node depends on two adjacent nodes of the
+     * layer below, so that almost every node is reachable from the root through many paths.
+     */
+    DIAMOND {
+      @Override
+      int[][] generate(int size) {
+        int layers = Math.max(1, (size - 1) / DIAMOND_WIDTH);
+        int[][] deps = new int[1 + layers * DIAMOND_WIDTH][];
+        deps[0] = new int[DIAMOND_WIDTH];
+        for (int i = 0; i < DIAMOND_WIDTH; i++) {
+          deps[0][i] = 1 + i;
+        }
+        for (int layer = 0; layer < layers; layer++) {
+          int first = 1 + layer * DIAMOND_WIDTH;
+          for (int i = 0; i < DIAMOND_WIDTH; i++) {
+            if (layer == layers - 1) {
+              deps[first + i] = NO_DEPS;
+            } else {
+              int below = first + DIAMOND_WIDTH;
+              deps[first + i] =
+                  new int[] {below + i, below + (i + 1) % DIAMOND_WIDTH};
+            }
+          }
+        }
+        return deps;
+      }
+    };
+
+    private static final int[] NO_DEPS = new int[0];
+    private static final int DIAMOND_WIDTH = 1000;
+
+    /** Returns the direct deps of every node of a graph with (approximately) {@code size} nodes. */
+    abstract int[][] generate(int size);
+  }
+
+  @Param({"CHAIN", "FAN_OUT", "DIAMOND"})
+  private Shape shape;
+
+  @Param({"10000", "1000000"})
+  private int size;
+
+  private int[][] deps;
+  private NodeKey[] keys;
+  private long[] leafValues;
+  private int leaf;
+
+  private RecordingDifferencer differencer;
+  private InMemoryMemoizingEvaluator evaluator;
+  private SequentialBuildDriver driver;
+
+  @BeforeExperiment
+  void generateGraph() throws Exception {
+    deps = shape.generate(size);
+    keys = new NodeKey[deps.length];
+    for (int i = 0; i < deps.length; i++) {
+      keys[i] = new NodeKey(i, deps[i].length == 0 ? LEAF : NODE);
+    }
+    leafValues = new long[deps.length];
+    leaf = deps.length - 1;
+    Preconditions.checkState(deps[leaf].length == 0, "Last node must be a leaf: %s", shape);
+    resetPeakHeapUsage();
+    // The incremental benchmarks start from a fully evaluated graph.
+    createEvaluator();
+    evaluate(/*keepGoing=*/ false);
+  }
+
+  @AfterExperiment
+  void reportPeakHeapUsage() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    System.err.printf("%s/%d: peak heap %d MB%n", shape, deps.length, peak >> 20);
+  }
+
+  /** Evaluates the whole graph in a fresh evaluator. */
+  @Benchmark
+  void cleanEvaluation(int reps) throws InterruptedException {
+    for (int i = 0; i < reps; i++) {
+      createEvaluator();
+      evaluate(/*keepGoing=*/ false);
+    }
+  }
+
+  /** Changes the value of a single leaf and re-evaluates all of its transitive reverse deps. */
+  @Benchmark
+  void incrementalLeafChange(int reps) throws InterruptedException {
+    for (int i = 0; i < reps; i++) {
+      leafValues[leaf]++;
+      differencer.invalidate(ImmutableList.of(keys[leaf]));
+      evaluate(/*keepGoing=*/ false);
+    }
+  }
+
+  /**
+   * Invalidates a single leaf without changing its value, so that all of its transitive reverse
+   * deps are dirtied and then pruned without being recomputed.
+   */
+  @Benchmark
+  void changePruning(int reps) throws InterruptedException {
+    for (int i = 0; i < reps; i++) {
+      differencer.invalidate(ImmutableList.of(keys[leaf]));
+      evaluate(/*keepGoing=*/ false);
+    }
+  }
+
+  /**
+   * Evaluates the graph with a self-edge on the deepest leaf, so that the cycle detector has to
+   * walk every incomplete ancestor of the leaf.
+   */
+  @Benchmark
+  void cycleDetection(int reps) throws InterruptedException {
+    if (shape == Shape.CHAIN) {
+      // Each node of the chain gets its own path to the cycle, so the error infos alone are
+      // quadratic in the depth of the chain.
+      throw new SkipThisScenarioException();
+    }
+    deps[leaf] = new int[] {leaf};
+    try {
+      for (int i = 0; i < reps; i++) {
+        createEvaluator();
+        EvaluationResult<NodeValue> result = evaluate(/*keepGoing=*/ true);
+        Preconditions.checkState(result.hasError(), result);
+      }
+    } finally {
+      deps[leaf] = Shape.NO_DEPS;
+    }
+  }
+
+  private void createEvaluator() {
+    differencer = new SequencedRecordingDifferencer();
+    evaluator =
+        new InMemoryMemoizingEvaluator(
+            ImmutableMap.of(NODE, new NodeFunction(), LEAF, new NodeFunction()), differencer);
+    driver = new SequentialBuildDriver(evaluator);
+  }
+
+  private EvaluationResult<NodeValue> evaluate(boolean keepGoing) throws InterruptedException {
+    EvaluationContext evaluationContext =
+        EvaluationContext.newBuilder()
+            .setKeepGoing(keepGoing)
+            .setNumThreads(Runtime.getRuntime().availableProcessors())
+            .setEventHander(NullEventHandler.INSTANCE)
+            .build();
+    return driver.evaluate(ImmutableList.of(keys[0]), evaluationContext);
+  }
+
+  private static void resetPeakHeapUsage() {
+    System.gc();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      pool.resetPeakUsage();
+    }
+  }
+
+  /** Computes the sum of the values of its deps, or the current leaf value for leaves. */
+  private class NodeFunction implements SkyFunction {
+    @Nullable
+    @Override
+    public SkyValue compute(SkyKey skyKey, Environment env) throws InterruptedException {
+      int id = ((NodeKey) skyKey).argument();
+      int[] nodeDeps = deps[id];
+      if (nodeDeps.length == 0) {
+        return new NodeValue(leafValues[id]);
+      }
+      List<SkyKey> depKeys = new ArrayList<>(nodeDeps.length);
+      for (int dep : nodeDeps) {
+        depKeys.add(keys[dep]);
+      }
+      Map<SkyKey, SkyValue> depValues = env.getValues(depKeys);
+      if (env.valuesMissing()) {
+        return null;
+      }
+      long sum = 0;
+      for (SkyValue depValue : depValues.values()) {
+        sum += ((NodeValue) depValue).value;
+      }
+      return new NodeValue(sum);
+    }
+
+    @Nullable
+    @Override
+    public String extractTag(SkyKey skyKey) {
+      return null;
+    }
+  }
+
+  private static final class NodeKey extends AbstractSkyKey<Integer> {
+    private final SkyFunctionName functionName;
+
+    private NodeKey(int id, SkyFunctionName functionName) {
+      super(id);
+      this.functionName = functionName;
+    }
+
+    @Override
+    public SkyFunctionName functionName() {
+      return functionName;
+    }
+  }
+
+  private static final class NodeValue implements SkyValue {
+    private final long value;
+
+    private NodeValue(long value) {
+      this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof NodeValue && ((NodeValue) obj).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(value);
+    }
+  }
+}